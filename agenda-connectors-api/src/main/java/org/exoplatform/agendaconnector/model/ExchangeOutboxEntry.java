@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.model;
+
+import org.exoplatform.agenda.rest.model.EventEntity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ExchangeOutboxEntry {
+
+  private EventEntity event;
+
+  private String      timeZoneId;
+
+  private long        sequence;
+
+  private int         attempts;
+
+  private long        nextAttemptTime;
+
+  /**
+   * Whether the event has to be deleted from exchange agenda instead of
+   * being pushed
+   */
+  private boolean     deletion;
+
+  /**
+   * Identifier of the cluster node delivering the entry
+   */
+  private String      owner;
+
+  /**
+   * Time until which the owner node is expected to deliver the entry
+   */
+  private long        leaseTime;
+}
@@ -16,6 +16,8 @@
  */
 package org.exoplatform.agendaconnector.model;
 
+import java.io.Serializable;
+
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -23,7 +25,9 @@ import lombok.NoArgsConstructor;
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
-public class ExchangeUserSetting {
+public class ExchangeUserSetting implements Serializable {
+
+  private static final long serialVersionUID = -2385372637366466185L;
 
   private String username;
 
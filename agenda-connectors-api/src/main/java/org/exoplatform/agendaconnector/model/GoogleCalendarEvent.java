@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.model;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Google calendar event normalized for agenda: start and end are RFC-3339
+ * datetimes, or dates for all day events in which case the end date is the
+ * last day of the event.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class GoogleCalendarEvent implements Serializable {
+
+  private static final long serialVersionUID = -4183906232512640721L;
+
+  private String            id;
+
+  private String            recurringEventId;
+
+  private String            summary;
+
+  private String            start;
+
+  private String            end;
+
+  private boolean           allDay;
+}
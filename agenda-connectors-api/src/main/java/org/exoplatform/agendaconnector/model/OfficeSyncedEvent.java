@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.model;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Office 365 event synchronized on server side. Start and end are UTC
+ * RFC-3339 datetimes.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class OfficeSyncedEvent implements Serializable {
+
+  private static final long serialVersionUID = 6605281139861406423L;
+
+  private String            remoteId;
+
+  private String            seriesMasterId;
+
+  private String            summary;
+
+  private String            location;
+
+  private String            start;
+
+  private String            end;
+
+  private boolean           allDay;
+}
@@ -18,9 +18,11 @@ package org.exoplatform.agendaconnector.service;
 
 import org.exoplatform.agenda.model.Event;
 import org.exoplatform.agenda.rest.model.EventEntity;
+import org.exoplatform.agendaconnector.model.ExchangeEventPushResult;
 import org.exoplatform.agendaconnector.model.ExchangeUserSetting;
 
 import java.time.ZoneId;
+import java.time.ZonedDateTime;
 import java.util.List;
 
 public interface ExchangeConnectorService {
@@ -31,6 +33,8 @@ public interface ExchangeConnectorService {
    * @param exchangeUserSetting {@link ExchangeUserSetting} object to create
    * @param userIdentityId User identity creating the exchange user setting
    * @throws IllegalAccessException when the user is not authorized to create exchange setting
+   * @throws ExchangeUnavailableException when exchange server is saturated or
+   *           doesn't answer in time
    */
   void createExchangeSetting(ExchangeUserSetting exchangeUserSetting, long userIdentityId) throws IllegalAccessException;
 
@@ -58,12 +62,28 @@ public interface ExchangeConnectorService {
    * @param userTimeZone User time zone
    * @return {@link List} of {@link EventEntity}
    * @throws IllegalAccessException when the user is not authorized to get remote user exchange events
+   * @throws ExchangeUnavailableException when exchange server is saturated or
+   *           doesn't answer in time
    */
   List<EventEntity> getExchangeEvents(long userIdentityId,
                                       String start,
                                       String end,
                                       ZoneId userTimeZone) throws IllegalAccessException;
 
+  /**
+   * Retrieves in background the exchange events of a user for a period and
+   * keeps them in cache, so that the user windows included in this period are
+   * served without requesting exchange server.
+   *
+   * @param userIdentityId User identity identifier
+   * @param start Start of the period
+   * @param end End of the period
+   * @throws IllegalAccessException when the user is not authorized to get
+   *           exchange events
+   * @throws ExchangeUnavailableException when exchange server is saturated or
+   *           doesn't answer in time
+   */
+  void refreshExchangeEvents(long userIdentityId, ZonedDateTime start, ZonedDateTime end) throws IllegalAccessException;
 
   /**
    * Pushes event in exchange agenda.
@@ -72,14 +92,61 @@ public interface ExchangeConnectorService {
    * @param event Event to be pushed to exchange agenda
    * @param userTimeZone User time zone
    * @throws IllegalAccessException when the user is not authorized to push event in exchange agenda
+   * @throws ExchangeUnavailableException when exchange server is saturated or
+   *           doesn't answer in time
    */
   void pushEventToExchange(long userIdentityId, EventEntity event, ZoneId userTimeZone) throws IllegalAccessException;
 
+  /**
+   * Pushes a list of events in exchange agenda. New events are created and
+   * already pushed ones are updated using one exchange request for each group.
+   *
+   * @param userIdentityId User identity pushing the events to exchange agenda
+   * @param events Events to be pushed to exchange agenda
+   * @param userTimeZone User time zone
+   * @return {@link List} of {@link ExchangeEventPushResult} in the same order
+   *         as the pushed events
+   * @throws IllegalAccessException when the user is not authorized to push
+   *           events in exchange agenda
+   * @throws ExchangeUnavailableException when exchange server is saturated or
+   *           doesn't answer in time
+   */
+  List<ExchangeEventPushResult> pushEventsToExchange(long userIdentityId,
+                                                     List<EventEntity> events,
+                                                     ZoneId userTimeZone) throws IllegalAccessException;
+
   /**
    * Deletes exchange event from exchange agenda.
    * @param userIdentityId User identity deleting the exchange event from exchange agenda
    * @param eventId agenda {@link Event} identifier
    * @throws IllegalAccessException when the user is not authorized to delete event from exchange agenda
+   * @throws ExchangeUnavailableException when exchange server is saturated or
+   *           doesn't answer in time
    */
   void deleteExchangeEvent(long userIdentityId, long eventId) throws IllegalAccessException;
+
+  /**
+   * Deletes a list of exchange events from exchange agenda using a single
+   * exchange request. Events which weren't pushed to exchange or which were
+   * already removed from exchange agenda are ignored.
+   *
+   * @param userIdentityId User identity deleting the exchange events from
+   *          exchange agenda
+   * @param eventIds agenda {@link Event} identifiers
+   * @return {@link List} of agenda {@link Event} identifiers which couldn't be
+   *         deleted from exchange agenda
+   * @throws IllegalAccessException when the user is not authorized to delete
+   *           events from exchange agenda
+   * @throws ExchangeUnavailableException when exchange server is saturated or
+   *           doesn't answer in time
+   */
+  List<Long> deleteExchangeEvents(long userIdentityId, List<Long> eventIds) throws IllegalAccessException;
+
+  /**
+   * Evicts all the cached exchange events of a user, typically when the user
+   * exchange calendar is modified on exchange side.
+   *
+   * @param userIdentityId User identity identifier
+   */
+  void clearExchangeEventsCache(long userIdentityId);
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.service;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Thrown when an exchange operation can't be executed because the exchange
+ * server is saturated or doesn't answer before the request deadline. Unlike
+ * {@link IllegalAccessException}, it doesn't mean that the user isn't allowed
+ * to access exchange agenda and the request can be retried later.
+ */
+public class ExchangeUnavailableException extends RuntimeException {
+
+  private static final long serialVersionUID = -2519409716683542466L;
+
+  public ExchangeUnavailableException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+  /**
+   * @return true when the operation timed out, false when it was rejected
+   *         right away
+   */
+  public boolean isTimeout() {
+    return getCause() instanceof TimeoutException;
+  }
+}
@@ -34,6 +34,18 @@ public interface GoogleConnectorService {
    */
   String getTokenResponse(String userName);
 
+  /**
+   * Get a valid google connector token response. The access token is returned
+   * from cache while it is valid and refreshed, once for all concurrent
+   * requests of the user, shortly before its expiry.
+   *
+   * @param userName current username
+   * @return token string with the remaining validity of the access token as
+   *         expires_in, null if the user has no stored token
+   * @throws IllegalAccessException when the access token can't be refreshed
+   */
+  String getValidTokenResponse(String userName) throws IllegalAccessException;
+
   /**
    * Remove stored google token response
    * @param userName current username
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.service;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import org.exoplatform.agendaconnector.model.OfficeSyncedEvent;
+
+public interface OfficeConnectorService {
+
+  /**
+   * Retrieves the office 365 events of a user overlapping a period. The
+   * calendar of the user is synchronized incrementally first, then the events
+   * are read from the synchronized copy. Until the copy is synchronized, the
+   * events are retrieved directly from Microsoft Graph.
+   *
+   * @param userIdentityId User identity identifier
+   * @param accessToken Microsoft Graph access token of the user
+   * @param start start of the period
+   * @param end end of the period
+   * @return {@link List} of {@link OfficeSyncedEvent} sorted by start date
+   * @throws IllegalAccessException when the access token is rejected
+   * @throws IOException when Microsoft Graph can't be reached
+   */
+  List<OfficeSyncedEvent> getOfficeEvents(long userIdentityId,
+                                          String accessToken,
+                                          ZonedDateTime start,
+                                          ZonedDateTime end) throws IllegalAccessException, IOException;
+
+  /**
+   * Removes the delta link and the synchronized office 365 events of a user
+   *
+   * @param userIdentityId User identity identifier
+   */
+  void deleteOfficeSyncData(long userIdentityId);
+}
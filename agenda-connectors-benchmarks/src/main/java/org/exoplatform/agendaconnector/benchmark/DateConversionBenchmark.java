@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2026 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.benchmark;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.exoplatform.agenda.util.AgendaDateUtils;
+import org.exoplatform.agendaconnector.utils.ExchangeEventMapper;
+
+/**
+ * Measures the RFC-3339 conversions done for each event start and end date,
+ * in time zones with and without daylight saving time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DateConversionBenchmark {
+
+  @Param({ "UTC", "Europe/Paris", "America/New_York", "Asia/Kolkata", "Australia/Sydney" })
+  private String              timeZone;
+
+  private ZoneId              userTimeZone;
+
+  private long                time;
+
+  private String              rfc3339Date;
+
+  private ExchangeEventMapper exchangeEventMapper;
+
+  private long                counter;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    userTimeZone = ZoneId.of(timeZone);
+    time = 1774774800000L;
+    rfc3339Date = AgendaDateUtils.toRFC3339Date(ZonedDateTime.ofInstant(Instant.ofEpochMilli(time), userTimeZone));
+    exchangeEventMapper = new ExchangeEventMapper(userTimeZone);
+  }
+
+  @Benchmark
+  public String toRFC3339Date() {
+    // A different date is used on each call so that the mapper doesn't reuse
+    // its last formatted date
+    return exchangeEventMapper.toRFC3339Date(time + (counter++ & 1023) * 60000L);
+  }
+
+  @Benchmark
+  public ZonedDateTime parseRFC3339Date() {
+    return AgendaDateUtils.parseRFC3339ToZonedDateTime(rfc3339Date, userTimeZone);
+  }
+}
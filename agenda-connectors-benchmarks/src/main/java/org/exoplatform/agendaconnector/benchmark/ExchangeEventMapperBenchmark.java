@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2026 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.benchmark;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.exoplatform.agenda.rest.model.EventEntity;
+import org.exoplatform.agendaconnector.utils.ExchangeEventMapper;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.enumeration.misc.ExchangeVersion;
+import microsoft.exchange.webservices.data.core.service.item.Appointment;
+import microsoft.exchange.webservices.data.core.service.schema.ItemSchema;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
+
+/**
+ * Measures the conversion of a page of exchange appointments, as retrieved by
+ * a calendar view, to {@link EventEntity}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExchangeEventMapperBenchmark {
+
+  private static final long HOUR = 3600000L;
+
+  @Param({ "100", "1000", "10000" })
+  private int               itemsCount;
+
+  private List<Appointment> appointments;
+
+  private ZoneId            userTimeZone;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    userTimeZone = ZoneId.of("Europe/Paris");
+    // Items are built locally, the service is never connected
+    ExchangeService exchangeService = new ExchangeService(ExchangeVersion.Exchange2010_SP2);
+    appointments = new ArrayList<>(itemsCount);
+    long startTime = 1767225600000L;
+    for (int i = 0; i < itemsCount; i++) {
+      Appointment appointment = new Appointment(exchangeService);
+      appointment.getPropertyBag().setObjectFromPropertyDefinition(ItemSchema.Id, new ItemId("AAMkAGI2TG93AAA=" + i));
+      appointment.setSubject("Meeting " + i);
+      // Consecutive items often share their dates, as in a real calendar view
+      long itemStartTime = startTime + (i / 4) * HOUR;
+      appointment.setStart(new Date(itemStartTime));
+      appointment.setEnd(new Date(itemStartTime + HOUR));
+      appointments.add(appointment);
+    }
+  }
+
+  @Benchmark
+  public List<EventEntity> toEventEntities() throws Exception {
+    return new ExchangeEventMapper(userTimeZone).toEventEntities(appointments);
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2026 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.exoplatform.agenda.rest.model.EventEntity;
+import org.exoplatform.agendaconnector.model.ExchangeOutboxEntry;
+import org.exoplatform.agendaconnector.model.ExchangeSyncedEvent;
+import org.exoplatform.agendaconnector.service.ExchangeSyncedCalendar;
+import org.exoplatform.agendaconnector.storage.ExchangeConnectorStorage;
+import org.exoplatform.commons.api.settings.SettingService;
+import org.exoplatform.commons.api.settings.SettingValue;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+
+/**
+ * Measures the decoding of the exchange settings stored per user: the
+ * synchronized calendar read before the first incremental synchronization and the
+ * push outbox entries read when draining the outbox. The settings are kept in
+ * memory so that only the decoding is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExchangeSettingsDecodeBenchmark {
+
+  private static final long        USER_IDENTITY_ID = 1;
+
+  @Param({ "100", "1000" })
+  private int                      settingsCount;
+
+  private ExchangeConnectorStorage exchangeConnectorStorage;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Map<String, Map<String, SettingValue>> settingsByScope = new HashMap<>();
+    exchangeConnectorStorage = new ExchangeConnectorStorage(newSettingService(settingsByScope), null, newCacheService());
+    long startTime = 1767225600000L;
+    HashMap<String, ExchangeSyncedEvent> syncedEvents = new HashMap<>();
+    for (int i = 0; i < settingsCount; i++) {
+      syncedEvents.put("AAMkAGI2TG93AAA=" + i,
+                       new ExchangeSyncedEvent("AAMkAGI2TG93AAA=" + i,
+                                               "Meeting; weekly " + i,
+                                               startTime + i * 3600000L,
+                                               startTime + (i + 1) * 3600000L));
+      EventEntity event = new EventEntity();
+      event.setId(i + 1L);
+      event.setSummary("Meeting & review " + i);
+      event.setStart("2026-01-01T10:00:00+01:00");
+      event.setEnd("2026-01-01T11:00:00+01:00");
+      event.setRemoteProviderId(1);
+      event.setRemoteProviderName("agenda.exchangeCalendar");
+      exchangeConnectorStorage.saveExchangeOutboxEntry(USER_IDENTITY_ID,
+                                                       new ExchangeOutboxEntry(event, "Europe/Paris", i, 0, 0, false, null, 0));
+    }
+    exchangeConnectorStorage.saveExchangeSyncedCalendar(USER_IDENTITY_ID, new ExchangeSyncedCalendar("syncState", syncedEvents));
+  }
+
+  @Benchmark
+  public ExchangeSyncedCalendar decodeSyncedCalendar() {
+    return exchangeConnectorStorage.getExchangeSyncedCalendar(USER_IDENTITY_ID);
+  }
+
+  @Benchmark
+  public List<ExchangeOutboxEntry> decodeOutboxEntries() {
+    return exchangeConnectorStorage.getExchangeOutboxEntries(USER_IDENTITY_ID);
+  }
+
+  /**
+   * @param settingsByScope settings values by scope identifier and key, for a
+   *          single user
+   * @return a {@link SettingService} storing settings in memory
+   */
+  private static SettingService newSettingService(Map<String, Map<String, SettingValue>> settingsByScope) {
+    return (SettingService) Proxy.newProxyInstance(SettingService.class.getClassLoader(),
+                                                   new Class<?>[] { SettingService.class },
+                                                   (proxy, method, args) -> {
+                                                     if ("set".equals(method.getName())) {
+                                                       String scopeId = ((org.exoplatform.commons.api.settings.data.Scope) args[1]).getId();
+                                                       settingsByScope.computeIfAbsent(scopeId, key -> new HashMap<>())
+                                                                      .put((String) args[2], (SettingValue) args[3]);
+                                                     } else if ("get".equals(method.getName())) {
+                                                       String scopeId = ((org.exoplatform.commons.api.settings.data.Scope) args[1]).getId();
+                                                       return settingsByScope.getOrDefault(scopeId, Collections.emptyMap())
+                                                                             .get((String) args[2]);
+                                                     } else if ("getSettingsByContextAndScope".equals(method.getName())) {
+                                                       return settingsByScope.get((String) args[3]);
+                                                     }
+                                                     return null;
+                                                   });
+  }
+
+  private static CacheService newCacheService() {
+    ExoCache<?, ?> cache = (ExoCache<?, ?>) Proxy.newProxyInstance(ExoCache.class.getClassLoader(),
+                                                                   new Class<?>[] { ExoCache.class },
+                                                                   (proxy, method, args) -> null);
+    return (CacheService) Proxy.newProxyInstance(CacheService.class.getClassLoader(),
+                                                 new Class<?>[] { CacheService.class },
+                                                 (proxy, method, args) -> "getCacheInstance".equals(method.getName()) ? cache
+                                                                                                                      : null);
+  }
+}
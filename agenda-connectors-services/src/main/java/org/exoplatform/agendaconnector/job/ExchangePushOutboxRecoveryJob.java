@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.job;
+
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+
+import org.exoplatform.agendaconnector.service.ExchangePushOutbox;
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.container.PortalContainer;
+import org.exoplatform.container.component.RequestLifeCycle;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Recovers the exchange pushes left pending by a stopped cluster node. The job
+ * is scheduled by the clustered JobSchedulerService, so that a single node
+ * delivers the recovered pushes.
+ */
+@DisallowConcurrentExecution
+public class ExchangePushOutboxRecoveryJob implements Job {
+
+  private static final Log LOG = ExoLogger.getLogger(ExchangePushOutboxRecoveryJob.class);
+
+  private ExoContainer     container;
+
+  public ExchangePushOutboxRecoveryJob() {
+    this.container = PortalContainer.getInstance();
+  }
+
+  @Override
+  public void execute(JobExecutionContext context) {
+    ExoContainer currentContainer = ExoContainerContext.getCurrentContainer();
+    ExoContainerContext.setCurrentContainer(container);
+    RequestLifeCycle.begin(container);
+    try {
+      container.getComponentInstanceOfType(ExchangePushOutbox.class).recoverPendingPushes();
+    } catch (Exception e) {
+      LOG.error("Error while recovering pending exchange pushes", e);
+    } finally {
+      RequestLifeCycle.end();
+      ExoContainerContext.setCurrentContainer(currentContainer);
+    }
+  }
+}
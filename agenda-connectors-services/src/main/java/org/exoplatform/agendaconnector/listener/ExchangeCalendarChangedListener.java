@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.listener;
+
+import org.exoplatform.agendaconnector.service.ExchangeConnectorService;
+import org.exoplatform.commons.utils.CommonsUtils;
+import org.exoplatform.services.listener.Event;
+import org.exoplatform.services.listener.Listener;
+
+/**
+ * Evicts the cached exchange events of a user when the user exchange calendar
+ * is modified on exchange side
+ */
+public class ExchangeCalendarChangedListener extends Listener<Long, Integer> {
+
+  private ExchangeConnectorService exchangeConnectorService;
+
+  @Override
+  public void onEvent(Event<Long, Integer> event) throws Exception {
+    getExchangeConnectorService().clearExchangeEventsCache(event.getSource());
+  }
+
+  // The service is retrieved lazily since it depends, through the
+  // subscription manager, on the ListenerService to which this listener is
+  // added
+  private ExchangeConnectorService getExchangeConnectorService() {
+    if (exchangeConnectorService == null) {
+      exchangeConnectorService = CommonsUtils.getService(ExchangeConnectorService.class);
+    }
+    return exchangeConnectorService;
+  }
+}
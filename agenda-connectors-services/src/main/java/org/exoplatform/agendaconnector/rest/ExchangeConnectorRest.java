@@ -35,10 +35,15 @@ import javax.ws.rs.core.Response;
 import org.apache.commons.lang3.StringUtils;
 
 import org.exoplatform.agenda.rest.model.EventEntity;
+import org.exoplatform.agendaconnector.model.ExchangeEventPushResult;
 import org.exoplatform.agendaconnector.model.ExchangeUserSetting;
 import org.exoplatform.agendaconnector.service.ExchangeConnectorService;
+import org.exoplatform.agendaconnector.service.ExchangePushOutbox;
+import org.exoplatform.agendaconnector.service.ExchangeUnavailableException;
 import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
+import org.exoplatform.agendaconnector.utils.ExchangeDeadline;
 import org.exoplatform.common.http.HTTPStatus;
+import org.exoplatform.container.xml.InitParams;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.exoplatform.services.rest.resource.ResourceContainer;
@@ -54,15 +59,30 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 @Path("/v1/exchange")
 public class ExchangeConnectorRest implements ResourceContainer {
 
-  private static final Log         LOG = ExoLogger.getLogger(ExchangeConnectorRest.class);
+  private static final Log         LOG                     = ExoLogger.getLogger(ExchangeConnectorRest.class);
+
+  public static final String       REQUEST_TIMEOUT_PARAM   = "requestTimeoutMillis";
+
+  private static final long        DEFAULT_REQUEST_TIMEOUT = 60000;
 
   private ExchangeConnectorService exchangeConnectorService;
 
+  private ExchangePushOutbox       exchangePushOutbox;
+
   private IdentityManager          identityManager;
 
-  public ExchangeConnectorRest(ExchangeConnectorService exchangeConnectorService, IdentityManager identityManager) {
+  private long                     requestTimeoutMillis;
+
+  public ExchangeConnectorRest(ExchangeConnectorService exchangeConnectorService,
+                               ExchangePushOutbox exchangePushOutbox,
+                               IdentityManager identityManager,
+                               InitParams initParams) {
     this.exchangeConnectorService = exchangeConnectorService;
+    this.exchangePushOutbox = exchangePushOutbox;
     this.identityManager = identityManager;
+    this.requestTimeoutMillis = ExchangeConnectorUtils.getLongParameter(initParams,
+                                                                        REQUEST_TIMEOUT_PARAM,
+                                                                        DEFAULT_REQUEST_TIMEOUT);
   }
 
   @POST
@@ -72,6 +92,8 @@ public class ExchangeConnectorRest implements ResourceContainer {
   @ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Request fulfilled"),
       @ApiResponse(responseCode = "400", description = "Invalid query input"),
       @ApiResponse(responseCode = "401", description = "Unauthorized operation"),
+      @ApiResponse(responseCode = "503", description = "Too many exchange requests in progress"),
+      @ApiResponse(responseCode = "504", description = "Exchange server didn't answer in time"),
       @ApiResponse(responseCode = "500", description = "Internal server error") })
   public Response createExchangeSetting(@Parameter(description = "Exchange user setting object to create", required = true) ExchangeUserSetting exchangeUserSetting) {
     if (exchangeUserSetting == null) {
@@ -79,14 +101,20 @@ public class ExchangeConnectorRest implements ResourceContainer {
     }
     long identityId = ExchangeConnectorUtils.getCurrentUserIdentityId(identityManager);
     try {
+      ExchangeDeadline.set(getRequestDeadline());
       exchangeConnectorService.createExchangeSetting(exchangeUserSetting, identityId);
       return Response.ok().build();
+    } catch (ExchangeUnavailableException e) {
+      LOG.warn("Exchange server unavailable when creating exchange setting of user '{}'", identityId);
+      return getUnavailableResponse(e);
     } catch (IllegalAccessException e) {
       LOG.warn("User '{}' is not autorized to connect to exchange server", identityId, e);
       return Response.status(Response.Status.UNAUTHORIZED).entity(e.getMessage()).build();
     } catch (Exception e) {
       LOG.error("Error when creating exchange user setting ", e);
       return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+    } finally {
+      ExchangeDeadline.clear();
     }
   }
 
@@ -130,6 +158,8 @@ public class ExchangeConnectorRest implements ResourceContainer {
   @ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Request fulfilled"),
       @ApiResponse(responseCode = "400", description = "Invalid query input"),
       @ApiResponse(responseCode = "401", description = "Unauthorized operation"),
+      @ApiResponse(responseCode = "503", description = "Too many exchange requests in progress"),
+      @ApiResponse(responseCode = "504", description = "Exchange server didn't answer in time"),
       @ApiResponse(responseCode = "500", description = "Internal server error") })
   public Response getExchangeEvents(
                             @Parameter(description = "Start datetime using RFC-3339 representation", required = true)
@@ -154,14 +184,20 @@ public class ExchangeConnectorRest implements ResourceContainer {
     }
     ZoneId userTimeZone = StringUtils.isBlank(timeZoneId) ? ZoneOffset.UTC : ZoneId.of(timeZoneId);
     try {
+      ExchangeDeadline.set(getRequestDeadline());
       List<EventEntity> events = exchangeConnectorService.getExchangeEvents(identityId, start, end, userTimeZone);
       return Response.ok(events).build();
+    } catch (ExchangeUnavailableException e) {
+      LOG.warn("Exchange server unavailable when retrieving exchange events of user '{}'", identityId);
+      return getUnavailableResponse(e);
     } catch (IllegalAccessException e) {
       LOG.warn("User '{}' is not autorized to connect to exchange server or get exchange event informations", identityId, e);
       return Response.status(Response.Status.UNAUTHORIZED).entity(e.getMessage()).build();
     } catch (Exception e) {
       LOG.error("Error when retrieving user exchange events ", e);
       return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+    } finally {
+      ExchangeDeadline.clear();
     }
   }
 
@@ -169,8 +205,8 @@ public class ExchangeConnectorRest implements ResourceContainer {
   @Path("/event/push")
   @Consumes(MediaType.APPLICATION_JSON)
   @RolesAllowed("users")
-  @Operation(summary = "Push event to exchange agenda", method = "POST")
-  @ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Request fulfilled"),
+  @Operation(summary = "Push event to exchange agenda", method = "POST", description = "The event is stored and delivered asynchronously to exchange agenda")
+  @ApiResponses(value = { @ApiResponse(responseCode = "202", description = "Request accepted"),
       @ApiResponse(responseCode = "400", description = "Invalid query input"),
       @ApiResponse(responseCode = "401", description = "Unauthorized operation"),
       @ApiResponse(responseCode = "500", description = "Internal server error") })
@@ -186,16 +222,103 @@ public class ExchangeConnectorRest implements ResourceContainer {
     if (StringUtils.isBlank(timeZoneId)) {
       return Response.status(Response.Status.BAD_REQUEST).entity("Time zone is mandatory").build();
     }
+    if (event.getId() <= 0 || StringUtils.isBlank(event.getStart()) || StringUtils.isBlank(event.getEnd())) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("Event identifier, start and end are mandatory").build();
+    }
     ZoneId userTimeZone = StringUtils.isBlank(timeZoneId) ? ZoneOffset.UTC : ZoneId.of(timeZoneId);
+    if (StringUtils.isBlank(exchangeConnectorService.getExchangeSetting(identityId).getUsername())) {
+      return Response.status(Response.Status.UNAUTHORIZED).entity("User is not connected to exchange agenda").build();
+    }
     try {
-      exchangeConnectorService.pushEventToExchange(identityId, event, userTimeZone);
-      return Response.ok().build();
+      exchangePushOutbox.enqueue(identityId, event, userTimeZone);
+      return Response.status(Response.Status.ACCEPTED).build();
+    } catch (Exception e) {
+      LOG.error("Error when pushing event in exchange agenda ", e);
+      return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+    }
+  }
+
+  @POST
+  @Path("/events/push")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(MediaType.APPLICATION_JSON)
+  @RolesAllowed("users")
+  @Operation(summary = "Push a list of events to exchange agenda", method = "POST")
+  @ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Request fulfilled"),
+      @ApiResponse(responseCode = "400", description = "Invalid query input"),
+      @ApiResponse(responseCode = "401", description = "Unauthorized operation"),
+      @ApiResponse(responseCode = "503", description = "Too many exchange requests in progress"),
+      @ApiResponse(responseCode = "504", description = "Exchange server didn't answer in time"),
+      @ApiResponse(responseCode = "500", description = "Internal server error") })
+  public Response pushEventsToExchange(@Parameter(description = "Event objects", required = true)
+                                         List<EventEntity> events,
+                                       @Parameter(description = "IANA Time zone identitifer")
+                                       @QueryParam("timeZoneId")
+                                       String timeZoneId) {
+    if (events == null || events.isEmpty()) {
+      return Response.status(Response.Status.BAD_REQUEST).build();
+    }
+    long identityId = ExchangeConnectorUtils.getCurrentUserIdentityId(identityManager);
+    if (StringUtils.isBlank(timeZoneId)) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("Time zone is mandatory").build();
+    }
+    ZoneId userTimeZone = ZoneId.of(timeZoneId);
+    try {
+      ExchangeDeadline.set(getRequestDeadline());
+      List<ExchangeEventPushResult> pushResults = exchangeConnectorService.pushEventsToExchange(identityId,
+                                                                                                events,
+                                                                                                userTimeZone);
+      return Response.ok(pushResults).build();
+    } catch (ExchangeUnavailableException e) {
+      LOG.warn("Exchange server unavailable when pushing exchange events of user '{}'", identityId);
+      return getUnavailableResponse(e);
     } catch (IllegalAccessException e) {
-      LOG.warn("User '{}' is not autorized to connect to exchange server or push exchange event informations", identityId, e);
+      LOG.warn("User '{}' is not autorized to connect to exchange server or push exchange events informations", identityId, e);
       return Response.status(Response.Status.UNAUTHORIZED).entity(e.getMessage()).build();
     } catch (Exception e) {
-      LOG.error("Error when pushing event in exchange agenda ", e);
+      LOG.error("Error when pushing events in exchange agenda ", e);
       return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+    } finally {
+      ExchangeDeadline.clear();
+    }
+  }
+
+  @POST
+  @Path("/events/delete")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(MediaType.APPLICATION_JSON)
+  @RolesAllowed("users")
+  @Operation(summary = "Delete a list of exchange events from exchange agenda", method = "POST", description = "Events having a pending push are deleted once it is delivered")
+  @ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Request fulfilled"),
+      @ApiResponse(responseCode = "400", description = "Invalid query input"),
+      @ApiResponse(responseCode = "401", description = "Unauthorized operation"),
+      @ApiResponse(responseCode = "503", description = "Too many exchange requests in progress"),
+      @ApiResponse(responseCode = "504", description = "Exchange server didn't answer in time"),
+      @ApiResponse(responseCode = "500", description = "Internal server error") })
+  public Response deleteExchangeEvents(@Parameter(description = "Event technical identifiers", required = true)
+                                         List<Long> eventIds) {
+    if (eventIds == null || eventIds.isEmpty()) {
+      return Response.status(Response.Status.BAD_REQUEST).build();
+    }
+    if (eventIds.stream().anyMatch(eventId -> eventId == null || eventId <= 0)) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("Event technical identifiers must be positive").build();
+    }
+    long identityId = ExchangeConnectorUtils.getCurrentUserIdentityId(identityManager);
+    try {
+      ExchangeDeadline.set(getRequestDeadline());
+      List<Long> notDeletedEventIds = exchangePushOutbox.deleteEvents(identityId, eventIds);
+      return Response.ok(notDeletedEventIds).build();
+    } catch (ExchangeUnavailableException e) {
+      LOG.warn("Exchange server unavailable when removing exchange events of user '{}'", identityId);
+      return getUnavailableResponse(e);
+    } catch (IllegalAccessException e) {
+      LOG.warn("User '{}' is not autorized to connect to exchange server or remove exchange events", identityId, e);
+      return Response.status(Response.Status.UNAUTHORIZED).entity(e.getMessage()).build();
+    } catch (Exception e) {
+      LOG.error("Error when removing exchange events from exchange agenda ", e);
+      return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+    } finally {
+      ExchangeDeadline.clear();
     }
   }
 
@@ -203,10 +326,12 @@ public class ExchangeConnectorRest implements ResourceContainer {
   @Path("{eventId}")
   @Produces(MediaType.APPLICATION_JSON)
   @RolesAllowed("users")
-  @Operation(summary = "Delete an exchange event from exchange agenda", method = "DELETE")
+  @Operation(summary = "Delete an exchange event from exchange agenda", method = "DELETE", description = "An event having a pending push is deleted once it is delivered")
   @ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Request fulfilled"),
           @ApiResponse(responseCode = "400", description = "Invalid query input"),
           @ApiResponse(responseCode = "401", description = "Unauthorized operation"),
+          @ApiResponse(responseCode = "503", description = "Too many exchange requests in progress"),
+          @ApiResponse(responseCode = "504", description = "Exchange server didn't answer in time"),
           @ApiResponse(responseCode = "500", description = "Internal server error") })
   public Response deleteExchangeEvent(
                                       @Parameter(description = "Event technical identifier", required = true)
@@ -217,14 +342,31 @@ public class ExchangeConnectorRest implements ResourceContainer {
     }
     long identityId = ExchangeConnectorUtils.getCurrentUserIdentityId(identityManager);
     try {
-      exchangeConnectorService.deleteExchangeEvent(identityId, eventId);
+      ExchangeDeadline.set(getRequestDeadline());
+      exchangePushOutbox.deleteEvent(identityId, eventId);
       return Response.ok().build();
+    } catch (ExchangeUnavailableException e) {
+      LOG.warn("Exchange server unavailable when removing exchange event of user '{}'", identityId);
+      return getUnavailableResponse(e);
     } catch (IllegalAccessException e) {
       LOG.warn("User '{}' is not autorized to connect to exchange server or remove exchange event", identityId, e);
       return Response.status(Response.Status.UNAUTHORIZED).entity(e.getMessage()).build();
     } catch (Exception e) {
       LOG.error("Error when removing exchange event from exchange agenda ", e);
       return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+    } finally {
+      ExchangeDeadline.clear();
+    }
+  }
+
+  private Response getUnavailableResponse(ExchangeUnavailableException e) {
+    if (e.isTimeout()) {
+      return Response.status(HTTPStatus.GATEWAY_TIMEOUT).build();
     }
+    return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+  }
+
+  private long getRequestDeadline() {
+    return requestTimeoutMillis > 0 ? System.currentTimeMillis() + requestTimeoutMillis : 0;
   }
 }
@@ -16,8 +16,9 @@
  */
 package org.exoplatform.agendaconnector.rest;
 
-import java.util.Collections;
-import java.util.Map;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
 import java.util.Optional;
 
 import javax.annotation.security.RolesAllowed;
@@ -25,10 +26,13 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
-import com.google.api.client.googleapis.auth.oauth2.GoogleRefreshTokenRequest;
 import org.apache.commons.lang3.StringUtils;
 import org.exoplatform.agenda.model.RemoteProvider;
-import org.exoplatform.agenda.service.AgendaRemoteEventService;
+import org.exoplatform.agenda.util.AgendaDateUtils;
+import org.exoplatform.agendaconnector.model.GoogleCalendarEvent;
+import org.exoplatform.agendaconnector.service.ConnectorMetrics;
+import org.exoplatform.agendaconnector.service.GoogleCalendarSyncService;
+import org.exoplatform.agendaconnector.service.GoogleClientProvider;
 import org.exoplatform.agendaconnector.service.GoogleConnectorService;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
@@ -36,8 +40,6 @@ import org.exoplatform.services.rest.resource.ResourceContainer;
 
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
 import com.google.api.client.googleapis.auth.oauth2.GoogleTokenResponse;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.api.client.json.gson.GsonFactory;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -54,13 +56,22 @@ public class GoogleConnectorRest implements ResourceContainer {
 
   private static final Log               LOG = ExoLogger.getLogger(GoogleConnectorRest.class);
 
-  private final AgendaRemoteEventService agendaRemoteEventService;
-
   private final GoogleConnectorService   googleConnectorService;
 
-  public GoogleConnectorRest(AgendaRemoteEventService agendaRemoteEventService, GoogleConnectorService googleConnectorService) {
-    this.agendaRemoteEventService = agendaRemoteEventService;
+  private final GoogleClientProvider     googleClientProvider;
+
+  private final GoogleCalendarSyncService googleCalendarSyncService;
+
+  private final ConnectorMetrics         connectorMetrics;
+
+  public GoogleConnectorRest(GoogleConnectorService googleConnectorService,
+                             GoogleClientProvider googleClientProvider,
+                             GoogleCalendarSyncService googleCalendarSyncService,
+                             ConnectorMetrics connectorMetrics) {
     this.googleConnectorService = googleConnectorService;
+    this.googleClientProvider = googleClientProvider;
+    this.googleCalendarSyncService = googleCalendarSyncService;
+    this.connectorMetrics = connectorMetrics;
   }
 
   @POST
@@ -84,23 +95,20 @@ public class GoogleConnectorRest implements ResourceContainer {
       return Response.status(Response.Status.BAD_REQUEST).entity("grantType is mandatory").build();
     }
     String userName = ConversationState.getCurrent().getIdentity().getUserId();
-    Optional<RemoteProvider> provider = getGoogleRemoteProvider();
+    Optional<RemoteProvider> provider = googleClientProvider.getGoogleRemoteProvider();
     if (provider.isEmpty()) {
       return Response.status(Response.Status.NOT_FOUND).build();
     }
     try {
       RemoteProvider googleRemoteProvider = provider.get();
-      GoogleAuthorizationCodeFlow.Builder flow = new GoogleAuthorizationCodeFlow.Builder(new NetHttpTransport(),
-                                                                                         new GsonFactory(),
-                                                                                         googleRemoteProvider.getApiKey(),
-                                                                                         googleRemoteProvider.getSecretKey(),
-                                                                                         Collections.singleton(scopes));
-      flow.setAccessType("offline");
-      GoogleAuthorizationCodeFlow authorizationCodeFlow = flow.build();
-      GoogleTokenResponse response = authorizationCodeFlow.newTokenRequest(code)
-                                                          .setGrantType(grantType)
-                                                          .setRedirectUri(redirectUri)
-                                                          .execute();
+      GoogleAuthorizationCodeFlow authorizationCodeFlow = googleClientProvider.getAuthorizationCodeFlow(googleRemoteProvider,
+                                                                                                        scopes);
+      GoogleTokenResponse response = connectorMetrics.time(ConnectorMetrics.GOOGLE_CONNECTOR,
+                                                           "tokenExchange",
+                                                           () -> authorizationCodeFlow.newTokenRequest(code)
+                                                                                      .setGrantType(grantType)
+                                                                                      .setRedirectUri(redirectUri)
+                                                                                      .execute());
       googleConnectorService.saveTokenResponse(userName, response.toString());
       return Response.ok(response).build();
     } catch (Exception e) {
@@ -125,23 +133,16 @@ public class GoogleConnectorRest implements ResourceContainer {
       return Response.status(Response.Status.BAD_REQUEST).entity("grantType is mandatory").build();
     }
     String userName = ConversationState.getCurrent().getIdentity().getUserId();
-    Optional<RemoteProvider> provider = getGoogleRemoteProvider();
-    if (provider.isEmpty()) {
+    if (googleClientProvider.getGoogleRemoteProvider().isEmpty()) {
       return Response.status(Response.Status.NOT_FOUND).build();
     }
     try {
-      RemoteProvider googleRemoteProvider = provider.get();
-      String tokenResponse = googleConnectorService.getTokenResponse(userName);
+      String tokenResponse = googleConnectorService.getValidTokenResponse(userName);
+      if (tokenResponse == null) {
+        return Response.status(Response.Status.NOT_FOUND).build();
+      }
       JSONParser parser = new JSONParser();
-      Map<?, ?> responseMap = (Map<?, ?>) parser.parse(tokenResponse);
-      String refreshToken = (String) responseMap.get("refresh_token");
-      GoogleTokenResponse response = new GoogleRefreshTokenRequest(new NetHttpTransport(),
-                                                                   new GsonFactory(),
-                                                                   refreshToken,
-                                                                   googleRemoteProvider.getApiKey(),
-                                                                   googleRemoteProvider.getSecretKey()).execute();
-      response.set("refresh_token", refreshToken);
-      googleConnectorService.saveTokenResponse(userName, response.toString());
+      JSONObject response = (JSONObject) parser.parse(tokenResponse);
       return Response.ok(response).build();
     } catch (Exception e) {
       LOG.error("Error while refreshing the access tokens", e);
@@ -149,6 +150,47 @@ public class GoogleConnectorRest implements ResourceContainer {
     }
   }
 
+  @GET
+  @Path("/events")
+  @Produces(MediaType.APPLICATION_JSON)
+  @RolesAllowed("users")
+  @Operation(summary = "Retrieve the events of the user primary google calendar overlapping a period",
+             description = "Retrieve the events of the user primary google calendar overlapping a period", method = "GET")
+  @ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Request fulfilled"),
+      @ApiResponse(responseCode = "400", description = "Invalid query input"),
+      @ApiResponse(responseCode = "401", description = "Unauthorized operation"),
+      @ApiResponse(responseCode = "500", description = "Internal server error"), })
+  public Response getEvents(@Parameter(description = "Start datetime using RFC-3339 representation", required = true)
+                            @QueryParam("start") String start,
+                            @Parameter(description = "End datetime using RFC-3339 representation", required = true)
+                            @QueryParam("end") String end,
+                            @Parameter(description = "IANA Time zone identitifer", required = true)
+                            @QueryParam("timeZoneId") String timeZoneId) {
+    if (StringUtils.isBlank(start)) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("Start datetime is mandatory").build();
+    }
+    if (StringUtils.isBlank(end)) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("End datetime is mandatory").build();
+    }
+    if (StringUtils.isBlank(timeZoneId)) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("Time zone is mandatory").build();
+    }
+    String userName = ConversationState.getCurrent().getIdentity().getUserId();
+    try {
+      ZoneId userTimeZone = ZoneId.of(timeZoneId);
+      ZonedDateTime startDate = AgendaDateUtils.parseRFC3339ToZonedDateTime(start, userTimeZone);
+      ZonedDateTime endDate = AgendaDateUtils.parseRFC3339ToZonedDateTime(end, userTimeZone);
+      List<GoogleCalendarEvent> events = googleCalendarSyncService.getEvents(userName, startDate, endDate);
+      return Response.ok(events).build();
+    } catch (IllegalAccessException e) {
+      LOG.warn("User '{}' is not autorized to get google calendar events", userName, e);
+      return Response.status(Response.Status.UNAUTHORIZED).entity(e.getMessage()).build();
+    } catch (Exception e) {
+      LOG.error("Error while retrieving google calendar events", e);
+      return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+    }
+  }
+
   @GET
   @Produces(MediaType.APPLICATION_JSON)
   @RolesAllowed("users")
@@ -185,17 +227,11 @@ public class GoogleConnectorRest implements ResourceContainer {
     String userName = ConversationState.getCurrent().getIdentity().getUserId();
     try {
       googleConnectorService.removeTokenResponse(userName);
+      googleCalendarSyncService.resetSynchronization(userName);
       return Response.ok().build();
     } catch (Exception e) {
       LOG.error("Error while getting stored token", e);
       return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
     }
   }
-
-  private Optional<RemoteProvider> getGoogleRemoteProvider() {
-    return agendaRemoteEventService.getRemoteProviders()
-                                   .stream()
-                                   .filter(remoteProvider -> remoteProvider.getName().equals("agenda.googleCalendar"))
-                                   .findFirst();
-  }
 }
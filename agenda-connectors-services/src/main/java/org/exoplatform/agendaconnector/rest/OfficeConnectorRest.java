@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.rest;
+
+import java.time.ZoneId;
+import java.util.List;
+
+import javax.annotation.security.RolesAllowed;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.exoplatform.agenda.util.AgendaDateUtils;
+import org.exoplatform.agendaconnector.model.OfficeSyncedEvent;
+import org.exoplatform.agendaconnector.service.OfficeConnectorService;
+import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.exoplatform.services.rest.resource.ResourceContainer;
+import org.exoplatform.social.core.manager.IdentityManager;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+
+@Path("/v1/office")
+public class OfficeConnectorRest implements ResourceContainer {
+
+  private static final Log       LOG                 = ExoLogger.getLogger(OfficeConnectorRest.class);
+
+  /**
+   * Header holding the Microsoft Graph access token acquired by the office
+   * connector in the browser
+   */
+  public static final String     ACCESS_TOKEN_HEADER = "X-Office-Access-Token";
+
+  private OfficeConnectorService officeConnectorService;
+
+  private IdentityManager        identityManager;
+
+  public OfficeConnectorRest(OfficeConnectorService officeConnectorService, IdentityManager identityManager) {
+    this.officeConnectorService = officeConnectorService;
+    this.identityManager = identityManager;
+  }
+
+  @GET
+  @Path("/events")
+  @Produces(MediaType.APPLICATION_JSON)
+  @RolesAllowed("users")
+  @Operation(summary = "Retrieve the remote office 365 events from the synchronized office calendar", method = "GET")
+  @ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Request fulfilled"),
+      @ApiResponse(responseCode = "400", description = "Invalid query input"),
+      @ApiResponse(responseCode = "401", description = "Unauthorized operation"),
+      @ApiResponse(responseCode = "500", description = "Internal server error") })
+  public Response getOfficeEvents(
+                                  @Parameter(description = "Microsoft Graph access token of the user", required = true)
+                                  @HeaderParam(ACCESS_TOKEN_HEADER)
+                                  String accessToken,
+                                  @Parameter(description = "Start datetime using RFC-3339 representation", required = true)
+                                  @QueryParam("start")
+                                  String start,
+                                  @Parameter(description = "End datetime using RFC-3339 representation", required = true)
+                                  @QueryParam("end")
+                                  String end,
+                                  @Parameter(description = "IANA Time zone identitifer", required = true)
+                                  @QueryParam("timeZoneId")
+                                  String timeZoneId) {
+    if (StringUtils.isBlank(accessToken)) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("Access token is mandatory").build();
+    }
+    if (StringUtils.isBlank(start)) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("Start datetime is mandatory").build();
+    }
+    if (StringUtils.isBlank(end)) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("End datetime is mandatory").build();
+    }
+    if (StringUtils.isBlank(timeZoneId)) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("Time zone is mandatory").build();
+    }
+    long identityId = ExchangeConnectorUtils.getCurrentUserIdentityId(identityManager);
+    try {
+      ZoneId userTimeZone = ZoneId.of(timeZoneId);
+      List<OfficeSyncedEvent> events =
+                                     officeConnectorService.getOfficeEvents(identityId,
+                                                                            accessToken,
+                                                                            AgendaDateUtils.parseRFC3339ToZonedDateTime(start,
+                                                                                                                        userTimeZone),
+                                                                            AgendaDateUtils.parseRFC3339ToZonedDateTime(end,
+                                                                                                                        userTimeZone));
+      return Response.ok(events).build();
+    } catch (IllegalAccessException e) {
+      LOG.warn("User '{}' is not autorized to get office events", identityId, e);
+      return Response.status(Response.Status.UNAUTHORIZED).entity(e.getMessage()).build();
+    } catch (Exception e) {
+      LOG.error("Error when retrieving user office events ", e);
+      return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+    }
+  }
+
+  @DELETE
+  @Path("/sync")
+  @RolesAllowed("users")
+  @Operation(summary = "Delete the synchronized office calendar of the user", method = "DELETE")
+  @ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Request fulfilled"),
+      @ApiResponse(responseCode = "500", description = "Internal server error") })
+  public Response deleteOfficeSyncData() {
+    long identityId = ExchangeConnectorUtils.getCurrentUserIdentityId(identityManager);
+    try {
+      officeConnectorService.deleteOfficeSyncData(identityId);
+      return Response.ok().build();
+    } catch (Exception e) {
+      LOG.error("Error when deleting synchronized office calendar of user with id '{}'", identityId, e);
+      return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+    }
+  }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.exoplatform.agendaconnector.model.ConnectorOperationMetric;
+import org.exoplatform.management.annotations.Impact;
+import org.exoplatform.management.annotations.ImpactType;
+import org.exoplatform.management.annotations.Managed;
+import org.exoplatform.management.annotations.ManagedDescription;
+import org.exoplatform.management.jmx.annotations.NameTemplate;
+import org.exoplatform.management.jmx.annotations.Property;
+
+/**
+ * Records the count and the duration of the remote operations of the
+ * connectors, by connector, operation and outcome. Durations are kept in
+ * histograms with fixed buckets, so that recording is lock free and the
+ * percentiles can be estimated at any time. The metrics are exposed through
+ * JMX and the connectors metrics REST endpoint.
+ */
+@Managed
+@ManagedDescription("Agenda connectors remote operations metrics")
+@NameTemplate({ @Property(key = "service", value = "agendaconnector"), @Property(key = "view", value = "metrics") })
+public class ConnectorMetrics {
+
+  public static final String                 EXCHANGE_CONNECTOR = "exchange";
+
+  public static final String                 GOOGLE_CONNECTOR   = "google";
+
+  public static final String                 OFFICE_CONNECTOR   = "office";
+
+  public static final String                 SUCCESS_OUTCOME    = "success";
+
+  public static final String                 ERROR_OUTCOME      = "error";
+
+  public static final String                 TIMEOUT_OUTCOME    = "timeout";
+
+  /**
+   * Upper bounds in milliseconds of the histograms buckets, the last bucket
+   * has no upper bound
+   */
+  private static final long[]                BUCKET_BOUNDS      = { 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000,
+      10000, 30000, 60000, 120000 };
+
+  private final Map<String, OperationTimer>  timers             = new ConcurrentHashMap<>();
+
+  private final Map<String, CacheCounter>    cacheCounters      = new ConcurrentHashMap<>();
+
+  /**
+   * Executes a remote operation and records its duration and outcome
+   *
+   * @param connector connector name
+   * @param operation operation name
+   * @param task operation to execute
+   * @return the operation result
+   * @throws Exception thrown by the operation
+   */
+  public <T> T time(String connector, String operation, Callable<T> task) throws Exception {
+    long startTime = System.nanoTime();
+    String outcome = ERROR_OUTCOME;
+    try {
+      T result = task.call();
+      outcome = SUCCESS_OUTCOME;
+      return result;
+    } catch (TimeoutException e) {
+      outcome = TIMEOUT_OUTCOME;
+      throw e;
+    } finally {
+      record(connector, operation, outcome, (System.nanoTime() - startTime) / 1000000);
+    }
+  }
+
+  /**
+   * Records the duration of a remote operation
+   *
+   * @param connector connector name
+   * @param operation operation name
+   * @param outcome outcome of the operation
+   * @param durationMillis duration of the operation in milliseconds
+   */
+  public void record(String connector, String operation, String outcome, long durationMillis) {
+    timers.computeIfAbsent(connector + "|" + operation + "|" + outcome,
+                           key -> new OperationTimer(connector, operation, outcome))
+          .record(durationMillis);
+  }
+
+  /**
+   * Records a lookup of a connector cache
+   *
+   * @param connector connector name
+   * @param cache cache name
+   * @param hit whether the looked up value was found in the cache
+   */
+  public void recordCacheLookup(String connector, String cache, boolean hit) {
+    CacheCounter cacheCounter = cacheCounters.computeIfAbsent(connector + "|" + cache,
+                                                              key -> new CacheCounter(connector, cache));
+    if (hit) {
+      cacheCounter.hits.increment();
+    } else {
+      cacheCounter.misses.increment();
+    }
+  }
+
+  /**
+   * @param connector connector name
+   * @param cache cache name
+   * @return count of the lookups of the cache which found the value
+   */
+  public long getCacheHitsCount(String connector, String cache) {
+    CacheCounter cacheCounter = cacheCounters.get(connector + "|" + cache);
+    return cacheCounter == null ? 0 : cacheCounter.hits.sum();
+  }
+
+  /**
+   * @param connector connector name
+   * @param cache cache name
+   * @return count of the lookups of the cache which didn't find the value
+   */
+  public long getCacheMissesCount(String connector, String cache) {
+    CacheCounter cacheCounter = cacheCounters.get(connector + "|" + cache);
+    return cacheCounter == null ? 0 : cacheCounter.misses.sum();
+  }
+
+  /**
+   * @return the metrics of all the recorded operations, sorted by connector,
+   *         operation and outcome
+   */
+  public List<ConnectorOperationMetric> getMetrics() {
+    List<ConnectorOperationMetric> metrics = new ArrayList<>(timers.size());
+    for (OperationTimer timer : timers.values()) {
+      metrics.add(timer.toMetric());
+    }
+    metrics.sort(Comparator.comparing(ConnectorOperationMetric::getConnector)
+                           .thenComparing(ConnectorOperationMetric::getOperation)
+                           .thenComparing(ConnectorOperationMetric::getOutcome));
+    return metrics;
+  }
+
+  @Managed
+  @ManagedDescription("Count, total, maximum and percentiles durations in milliseconds of the connectors operations")
+  public String[] getOperationsMetrics() {
+    return getMetrics().stream()
+                       .map(metric -> String.format("%s %s %s: count=%d total=%d max=%d p50=%d p95=%d p99=%d",
+                                                    metric.getConnector(),
+                                                    metric.getOperation(),
+                                                    metric.getOutcome(),
+                                                    metric.getCount(),
+                                                    metric.getTotalTimeMillis(),
+                                                    metric.getMaxTimeMillis(),
+                                                    metric.getP50TimeMillis(),
+                                                    metric.getP95TimeMillis(),
+                                                    metric.getP99TimeMillis()))
+                       .toArray(String[]::new);
+  }
+
+  @Managed
+  @ManagedDescription("Count of hits and misses of the connectors caches lookups")
+  public String[] getCachesMetrics() {
+    return cacheCounters.values()
+                        .stream()
+                        .sorted(Comparator.comparing((CacheCounter cacheCounter) -> cacheCounter.connector)
+                                          .thenComparing(cacheCounter -> cacheCounter.cache))
+                        .map(cacheCounter -> String.format("%s %s: hits=%d misses=%d",
+                                                           cacheCounter.connector,
+                                                           cacheCounter.cache,
+                                                           cacheCounter.hits.sum(),
+                                                           cacheCounter.misses.sum()))
+                        .toArray(String[]::new);
+  }
+
+  @Managed
+  @ManagedDescription("Count of recorded connectors operations")
+  public long getOperationsCount() {
+    return timers.values().stream().mapToLong(timer -> timer.count.sum()).sum();
+  }
+
+  @Managed
+  @ManagedDescription("Count of failed connectors operations")
+  public long getFailedOperationsCount() {
+    return timers.values()
+                 .stream()
+                 .filter(timer -> !SUCCESS_OUTCOME.equals(timer.outcome))
+                 .mapToLong(timer -> timer.count.sum())
+                 .sum();
+  }
+
+  @Managed
+  @ManagedDescription("Removes all the recorded metrics")
+  @Impact(ImpactType.WRITE)
+  public void reset() {
+    timers.clear();
+    cacheCounters.clear();
+  }
+
+  private static final class CacheCounter {
+    private final String    connector;
+
+    private final String    cache;
+
+    private final LongAdder hits   = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private CacheCounter(String connector, String cache) {
+      this.connector = connector;
+      this.cache = cache;
+    }
+  }
+
+  private static final class OperationTimer {
+    private final String          connector;
+
+    private final String          operation;
+
+    private final String          outcome;
+
+    private final LongAdder       count     = new LongAdder();
+
+    private final LongAdder       totalTime = new LongAdder();
+
+    private final LongAccumulator maxTime   = new LongAccumulator(Math::max, 0);
+
+    private final AtomicLongArray buckets   = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+
+    private OperationTimer(String connector, String operation, String outcome) {
+      this.connector = connector;
+      this.operation = operation;
+      this.outcome = outcome;
+    }
+
+    private void record(long durationMillis) {
+      count.increment();
+      totalTime.add(durationMillis);
+      maxTime.accumulate(durationMillis);
+      int bucketIndex = 0;
+      while (bucketIndex < BUCKET_BOUNDS.length && durationMillis > BUCKET_BOUNDS[bucketIndex]) {
+        bucketIndex++;
+      }
+      buckets.incrementAndGet(bucketIndex);
+    }
+
+    private ConnectorOperationMetric toMetric() {
+      long[] bucketCounts = new long[buckets.length()];
+      long samplesCount = 0;
+      for (int i = 0; i < bucketCounts.length; i++) {
+        bucketCounts[i] = buckets.get(i);
+        samplesCount += bucketCounts[i];
+      }
+      long max = maxTime.get();
+      return new ConnectorOperationMetric(connector,
+                                          operation,
+                                          outcome,
+                                          samplesCount,
+                                          totalTime.sum(),
+                                          max,
+                                          getPercentile(bucketCounts, samplesCount, max, 0.5),
+                                          getPercentile(bucketCounts, samplesCount, max, 0.95),
+                                          getPercentile(bucketCounts, samplesCount, max, 0.99));
+    }
+
+    /**
+     * @return the upper bound of the bucket containing the percentile, bounded
+     *         by the maximum recorded duration
+     */
+    private static long getPercentile(long[] bucketCounts, long samplesCount, long max, double percentile) {
+      if (samplesCount == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(percentile * samplesCount);
+      long cumulatedCount = 0;
+      for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+        cumulatedCount += bucketCounts[i];
+        if (cumulatedCount >= rank) {
+          return Math.min(BUCKET_BOUNDS[i], max);
+        }
+      }
+      return max;
+    }
+  }
+}
@@ -17,35 +17,72 @@
 package org.exoplatform.agendaconnector.service;
 
 import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang3.StringUtils;
 
 import org.exoplatform.agenda.model.RemoteEvent;
 import org.exoplatform.agenda.rest.model.EventEntity;
 import org.exoplatform.agenda.service.AgendaRemoteEventService;
 import org.exoplatform.agenda.util.AgendaDateUtils;
+import org.exoplatform.agendaconnector.model.ExchangeEventPushResult;
+import org.exoplatform.agendaconnector.model.ExchangeSyncedEvent;
 import org.exoplatform.agendaconnector.model.ExchangeUserSetting;
+import org.exoplatform.agendaconnector.service.ExchangeSessionPool.OperationType;
 import org.exoplatform.agendaconnector.storage.ExchangeConnectorStorage;
 import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
+import org.exoplatform.agendaconnector.utils.ExchangeDeadline;
+import org.exoplatform.agendaconnector.utils.ExchangeEventMapper;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
 
 import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.PropertySet;
+import microsoft.exchange.webservices.data.core.enumeration.misc.error.ServiceError;
+import microsoft.exchange.webservices.data.core.enumeration.property.BasePropertySet;
 import microsoft.exchange.webservices.data.core.enumeration.property.WellKnownFolderName;
 import microsoft.exchange.webservices.data.core.enumeration.search.LogicalOperator;
+import microsoft.exchange.webservices.data.core.enumeration.search.SortDirection;
 import microsoft.exchange.webservices.data.core.enumeration.service.ConflictResolutionMode;
 import microsoft.exchange.webservices.data.core.enumeration.service.DeleteMode;
 import microsoft.exchange.webservices.data.core.enumeration.service.SendInvitationsMode;
 import microsoft.exchange.webservices.data.core.enumeration.service.SendInvitationsOrCancellationsMode;
+import microsoft.exchange.webservices.data.core.enumeration.service.ServiceResult;
 import microsoft.exchange.webservices.data.core.exception.service.local.ServiceLocalException;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceResponseException;
+import microsoft.exchange.webservices.data.core.response.GetItemResponse;
+import microsoft.exchange.webservices.data.core.response.ServiceResponse;
+import microsoft.exchange.webservices.data.core.response.ServiceResponseCollection;
+import microsoft.exchange.webservices.data.core.response.UpdateItemResponse;
 import microsoft.exchange.webservices.data.core.service.item.Appointment;
 import microsoft.exchange.webservices.data.core.service.item.Item;
 import microsoft.exchange.webservices.data.core.service.schema.AppointmentSchema;
+import microsoft.exchange.webservices.data.core.service.schema.ItemSchema;
 import microsoft.exchange.webservices.data.property.complex.FolderId;
 import microsoft.exchange.webservices.data.property.complex.ItemId;
-import microsoft.exchange.webservices.data.property.definition.PropertyDefinition;
+import microsoft.exchange.webservices.data.search.CalendarView;
 import microsoft.exchange.webservices.data.search.FindItemsResults;
 import microsoft.exchange.webservices.data.search.ItemView;
 import microsoft.exchange.webservices.data.search.filter.SearchFilter;
@@ -58,19 +95,111 @@ public class ExchangeConnectorServiceImpl implements ExchangeConnectorService {
 
   private AgendaRemoteEventService agendaRemoteEventService;
 
+  private ExchangeSessionPool      exchangeSessionPool;
+
+  private ExchangeSyncService      exchangeSyncService;
+
+  private ExchangeSubscriptionManager exchangeSubscriptionManager;
+
+  private ConnectorMetrics         connectorMetrics;
+
+  private ExoCache<Long, ExchangeUserEvents> exchangeEventsCache;
+
+  private ExoCache<Long, ExchangeEventsWindow> exchangeEventsWindowCache;
+
+  /**
+   * Generations of the users cached events, by stripes of users, incremented
+   * each time the cached events of a user are cleared
+   */
+  private final AtomicLongArray    exchangeEventsGenerations = new AtomicLongArray(EXCHANGE_EVENTS_GENERATION_STRIPES);
+
+  private ExecutorService          exchangeEventsPageExecutor;
+
+  private int                      exchangeEventsPageSize;
+
+  private String                   exchangeEventsRetrievalMode;
+
   private static final Log LOG = ExoLogger.getLogger(ExchangeConnectorServiceImpl.class);
 
+  public static final String EXCHANGE_EVENTS_CACHE_NAME = "agendaconnector.exchange.events";
+
+  public static final String EXCHANGE_EVENTS_WINDOW_CACHE_NAME = "agendaconnector.exchange.eventsWindow";
+
+  public static final String EXCHANGE_EVENTS_CACHE_METRIC = "eventsWindow";
+
+  public static final String EXCHANGE_EVENTS_WINDOW_CACHE_METRIC = "refreshedEventsWindow";
+
+  private static final int EXCHANGE_EVENTS_GENERATION_STRIPES = 1024;
+
+  public static final String EXCHANGE_EVENTS_PAGE_SIZE_PARAM = "exchangeEventsPageSize";
+
+  public static final String EXCHANGE_EVENTS_PAGE_THREADS_PARAM = "exchangeEventsPageThreads";
+
+  private static final int DEFAULT_EXCHANGE_EVENTS_PAGE_SIZE = 100;
+
+  private static final int DEFAULT_EXCHANGE_EVENTS_PAGE_THREADS = 20;
+
+  public static final String EXCHANGE_EVENTS_RETRIEVAL_MODE_PARAM = "exchangeEventsRetrievalMode";
+
+  public static final String FIND_ITEMS_RETRIEVAL_MODE = "findItems";
+
+  public static final String CALENDAR_VIEW_RETRIEVAL_MODE = "calendarView";
+
+  public static final String SYNC_RETRIEVAL_MODE = "sync";
+
+  /**
+   * Only the properties mapped to {@link EventEntity} are requested
+   */
+  private static final PropertySet EXCHANGE_EVENT_PROPERTY_SET = new PropertySet(BasePropertySet.IdOnly,
+                                                                                 ItemSchema.Subject,
+                                                                                 AppointmentSchema.Start,
+                                                                                 AppointmentSchema.End);
 
   public ExchangeConnectorServiceImpl(ExchangeConnectorStorage exchangeConnectorStorage,
-                                      AgendaRemoteEventService agendaRemoteEventService) {
+                                      AgendaRemoteEventService agendaRemoteEventService,
+                                      ExchangeSessionPool exchangeSessionPool,
+                                      ExchangeSyncService exchangeSyncService,
+                                      ExchangeSubscriptionManager exchangeSubscriptionManager,
+                                      ConnectorMetrics connectorMetrics,
+                                      CacheService cacheService,
+                                      InitParams initParams) {
     this.exchangeConnectorStorage = exchangeConnectorStorage;
     this.agendaRemoteEventService = agendaRemoteEventService;
+    this.exchangeSessionPool = exchangeSessionPool;
+    this.exchangeSyncService = exchangeSyncService;
+    this.exchangeSubscriptionManager = exchangeSubscriptionManager;
+    this.connectorMetrics = connectorMetrics;
+    this.exchangeEventsCache = cacheService.getCacheInstance(EXCHANGE_EVENTS_CACHE_NAME);
+    this.exchangeEventsWindowCache = cacheService.getCacheInstance(EXCHANGE_EVENTS_WINDOW_CACHE_NAME);
+    this.exchangeEventsPageSize = ExchangeConnectorUtils.getIntParameter(initParams,
+                                                                         EXCHANGE_EVENTS_PAGE_SIZE_PARAM,
+                                                                         DEFAULT_EXCHANGE_EVENTS_PAGE_SIZE);
+    String retrievalMode = ExchangeConnectorUtils.getParameter(initParams, EXCHANGE_EVENTS_RETRIEVAL_MODE_PARAM);
+    this.exchangeEventsRetrievalMode = StringUtils.isBlank(retrievalMode) ? FIND_ITEMS_RETRIEVAL_MODE : retrievalMode.trim();
+    int exchangeEventsPageThreads = ExchangeConnectorUtils.getIntParameter(initParams,
+                                                                           EXCHANGE_EVENTS_PAGE_THREADS_PARAM,
+                                                                           DEFAULT_EXCHANGE_EVENTS_PAGE_THREADS);
+    // When all threads are busy, the next page is retrieved by the calling
+    // thread, which falls back to sequential paging
+    this.exchangeEventsPageExecutor = new ThreadPoolExecutor(0,
+                                                             exchangeEventsPageThreads,
+                                                             60L,
+                                                             TimeUnit.SECONDS,
+                                                             new SynchronousQueue<>(),
+                                                             ExchangeConnectorUtils.newDaemonThreadFactory("ExchangeEventsPage"),
+                                                             new ThreadPoolExecutor.CallerRunsPolicy());
   }
 
   @Override
   public void createExchangeSetting(ExchangeUserSetting exchangeUserSetting, long userIdentityId) throws IllegalAccessException {
-    try (ExchangeService exchangeService = ExchangeConnectorUtils.connectExchangeServer(exchangeUserSetting)) {
+    exchangeSessionPool.invalidate(userIdentityId);
+    exchangeSubscriptionManager.unsubscribe(userIdentityId);
+    exchangeSyncService.resetSynchronization(userIdentityId);
+    clearExchangeEventsCache(userIdentityId);
+    try (ExchangeService exchangeService = exchangeSessionPool.connect(exchangeUserSetting)) {
       exchangeConnectorStorage.createExchangeSetting(exchangeUserSetting, userIdentityId);
+    } catch (TimeoutException | RejectedExecutionException e) {
+      throw newUnavailableException(userIdentityId, e);
     } catch (Exception e) {
       LOG.error("Error when user {} tries to connect to exchange server",userIdentityId,e);
       throw new IllegalAccessException("User " + userIdentityId + " is not allowed to connect to exchange server");
@@ -84,7 +213,15 @@ public class ExchangeConnectorServiceImpl implements ExchangeConnectorService {
 
   @Override
   public void deleteExchangeSetting(long userIdentityId) {
+    ExchangeUserSetting exchangeUserSetting = exchangeConnectorStorage.getExchangeSetting(userIdentityId);
+    if (exchangeUserSetting != null && StringUtils.isNotBlank(exchangeUserSetting.getUsername())) {
+      exchangeSessionPool.invalidateCredentialValidation(exchangeUserSetting);
+    }
     exchangeConnectorStorage.deleteExchangeSetting(userIdentityId);
+    exchangeSyncService.resetSynchronization(userIdentityId);
+    exchangeSessionPool.invalidate(userIdentityId);
+    exchangeSubscriptionManager.unsubscribe(userIdentityId);
+    clearExchangeEventsCache(userIdentityId);
   }
 
   @Override
@@ -92,72 +229,49 @@ public class ExchangeConnectorServiceImpl implements ExchangeConnectorService {
                                              String start,
                                              String end,
                                              ZoneId userTimeZone) throws IllegalAccessException {
+    // Cached windows of subscribed users are evicted as soon as their exchange
+    // calendar changes, the others expire
+    exchangeSubscriptionManager.subscribe(userIdentityId);
+    // Read before the cached events, so that a clear made meanwhile is detected
+    long generation = getExchangeEventsGeneration(userIdentityId);
+    ExchangeUserEvents cachedUserEvents = exchangeEventsCache.get(userIdentityId);
+    ArrayList<EventEntity> cachedExchangeEvents = cachedUserEvents == null ? null
+                                                                           : cachedUserEvents.getEvents(start,
+                                                                                                        end,
+                                                                                                        userTimeZone.getId());
+    connectorMetrics.recordCacheLookup(ConnectorMetrics.EXCHANGE_CONNECTOR,
+                                       EXCHANGE_EVENTS_CACHE_METRIC,
+                                       cachedExchangeEvents != null);
+    if (cachedExchangeEvents != null) {
+      return new ArrayList<>(cachedExchangeEvents);
+    }
+    ExchangeEventsWindow exchangeEventsWindow = exchangeEventsWindowCache.get(userIdentityId);
+    List<EventEntity> windowExchangeEvents = exchangeEventsWindow == null ? null
+                                                                          : getExchangeWindowEvents(exchangeEventsWindow,
+                                                                                                    start,
+                                                                                                    end,
+                                                                                                    userTimeZone);
+    connectorMetrics.recordCacheLookup(ConnectorMetrics.EXCHANGE_CONNECTOR,
+                                       EXCHANGE_EVENTS_WINDOW_CACHE_METRIC,
+                                       windowExchangeEvents != null);
+    if (windowExchangeEvents != null) {
+      cacheExchangeEvents(userIdentityId, generation, cachedUserEvents, start, end, userTimeZone, windowExchangeEvents);
+      return windowExchangeEvents;
+    }
     ExchangeUserSetting exchangeUserSetting = getExchangeSetting(userIdentityId);
-    try (ExchangeService exchangeService = ExchangeConnectorUtils.connectExchangeServer(exchangeUserSetting)) {
-      ItemView view = new ItemView(100);
-
-      ZonedDateTime startZonedDateTime = AgendaDateUtils.parseAllDayDateToZonedDateTime(start);
-      SearchFilter exchangeStartSearchFilter =
-                                             new SearchFilter.IsGreaterThanOrEqualTo(AppointmentSchema.Start,
-                                                                                     AgendaDateUtils.toDate(startZonedDateTime));
-      ZonedDateTime endZonedDatetime = AgendaDateUtils.parseAllDayDateToZonedDateTime(end).plusDays(1);// We
-                                                                                                       // have
-                                                                                                       // added
-                                                                                                       // on
-                                                                                                       // day
-                                                                                                       // in
-                                                                                                       // order
-                                                                                                       // to
-                                                                                                       // get
-                                                                                                       // events
-                                                                                                       // of
-                                                                                                       // the
-                                                                                                       // end
-                                                                                                       // date
-                                                                                                       // day
-      SearchFilter exchangeEndSearchFilter = new SearchFilter.IsLessThanOrEqualTo(AppointmentSchema.End,
-                                                                                  AgendaDateUtils.toDate(endZonedDatetime));
-
-      SearchFilter exchangeEventsSearchFilter = new SearchFilter.SearchFilterCollection(LogicalOperator.And,
-                                                                                        exchangeStartSearchFilter,
-                                                                                        exchangeEndSearchFilter);
-      FindItemsResults<Item> exchangeEventsItems = exchangeService.findItems(WellKnownFolderName.Calendar,
-                                                                             exchangeEventsSearchFilter,
-                                                                             view);
-      List<EventEntity> exchangeEvents = new ArrayList<>();
-      for (Item exchangeEventItem : exchangeEventsItems) {
-        EventEntity exchangeEvent = new EventEntity();
-        exchangeEvent.setRemoteId(String.valueOf(exchangeEventItem.getId()));
-        exchangeEvent.setSummary(exchangeEventItem.getSubject());
-        Map<PropertyDefinition, Object> exchangeEventItemProperties = exchangeEventItem.getPropertyBag().getProperties();
-
-        Date exchangeEventStartDate =
-                                    (Date) Objects.requireNonNull(exchangeEventItemProperties.entrySet()
-                                                                                             .stream()
-                                                                                             .filter(exchangeEventItemProperty -> exchangeEventItemProperty.getKey()
-                                                                                                                                                           .getUri()
-                                                                                                                                                           .equals(ExchangeConnectorUtils.EXCHANGE_APPOINTMENT_SCHEMA_START))
-                                                                                             .findFirst()
-                                                                                             .orElse(null))
-                                                  .getValue();
-        ZonedDateTime exchangeEventStartDateTime = AgendaDateUtils.fromDate(exchangeEventStartDate)
-                                                                  .withZoneSameInstant(userTimeZone);
-        exchangeEvent.setStart(AgendaDateUtils.toRFC3339Date(exchangeEventStartDateTime));
-
-        Date exchangeEventEndDate =
-                                  (Date) Objects.requireNonNull(exchangeEventItemProperties.entrySet()
-                                                                                           .stream()
-                                                                                           .filter(exchangeEventItemProperty -> exchangeEventItemProperty.getKey()
-                                                                                                                                                         .getUri()
-                                                                                                                                                         .equals(ExchangeConnectorUtils.EXCHANGE_APPOINTMENT_SCHEMA_END))
-                                                                                           .findFirst()
-                                                                                           .orElse(null))
-                                                .getValue();
-        ZonedDateTime exchangeEventEndDateTime = AgendaDateUtils.fromDate(exchangeEventEndDate).withZoneSameInstant(userTimeZone);
-        exchangeEvent.setEnd(AgendaDateUtils.toRFC3339Date(exchangeEventEndDateTime));
-        exchangeEvents.add(exchangeEvent);
-      }
+    try {
+      List<EventEntity> exchangeEvents =
+                                       exchangeSessionPool.executeRead(userIdentityId,
+                                                                       exchangeUserSetting,
+                                                                       exchangeService -> getExchangeEvents(exchangeService,
+                                                                                                            userIdentityId,
+                                                                                                            start,
+                                                                                                            end,
+                                                                                                            userTimeZone));
+      cacheExchangeEvents(userIdentityId, generation, cachedUserEvents, start, end, userTimeZone, exchangeEvents);
       return exchangeEvents;
+    } catch (TimeoutException | RejectedExecutionException | ExchangeUnavailableException e) {
+      throw newUnavailableException(userIdentityId, e);
     } catch (ServiceLocalException e) {
       LOG.error("User {} is not allowed to get exchange events informations",userIdentityId,e);
       throw new IllegalAccessException("User '" + userIdentityId + "' is not allowed to get exchange events informations");
@@ -168,53 +282,104 @@ public class ExchangeConnectorServiceImpl implements ExchangeConnectorService {
   }
 
   @Override
-  public void pushEventToExchange(long userIdentityId, EventEntity event, ZoneId userTimeZone) throws IllegalAccessException {
+  public void refreshExchangeEvents(long userIdentityId, ZonedDateTime start, ZonedDateTime end) throws IllegalAccessException {
     ExchangeUserSetting exchangeUserSetting = getExchangeSetting(userIdentityId);
-    try (ExchangeService exchangeService = ExchangeConnectorUtils.connectExchangeServer(exchangeUserSetting)) {
-      RemoteEvent remoteEvent = agendaRemoteEventService.findRemoteEvent(event.getId(), userIdentityId);
-      if (remoteEvent == null) {
-        Appointment appointment = new Appointment(exchangeService);
-        appointment.setSubject(event.getSummary());
-        ZonedDateTime startDate = AgendaDateUtils.parseRFC3339ToZonedDateTime(event.getStart(), userTimeZone);
-        ZonedDateTime endDate = AgendaDateUtils.parseRFC3339ToZonedDateTime(event.getEnd(), userTimeZone);
-        appointment.setStart(AgendaDateUtils.toDate(startDate));
-        appointment.setEnd(AgendaDateUtils.toDate(endDate));
-        appointment.save(new FolderId(WellKnownFolderName.Calendar), SendInvitationsMode.SendToAllAndSaveCopy);
-        remoteEvent = new RemoteEvent();
-        remoteEvent.setIdentityId(userIdentityId);
-        remoteEvent.setEventId(event.getId());
-        remoteEvent.setRemoteProviderId(event.getRemoteProviderId());
-        remoteEvent.setRemoteProviderName(event.getRemoteProviderName());
-        remoteEvent.setRemoteId(String.valueOf(appointment.getId()));
-        agendaRemoteEventService.saveRemoteEvent(remoteEvent);
-      } else {
-        ItemId itemId = new ItemId(remoteEvent.getRemoteId());
-        Appointment appointment = Appointment.bind(exchangeService, itemId);
-        appointment.setSubject(event.getSummary());
-        ZonedDateTime startDate = AgendaDateUtils.parseRFC3339ToZonedDateTime(event.getStart(), userTimeZone);
-        ZonedDateTime endDate = AgendaDateUtils.parseRFC3339ToZonedDateTime(event.getEnd(), userTimeZone);
-        appointment.setStart(AgendaDateUtils.toDate(startDate));
-        appointment.setEnd(AgendaDateUtils.toDate(endDate));
-        appointment.update(ConflictResolutionMode.AlwaysOverwrite, SendInvitationsOrCancellationsMode.SendToAllAndSaveCopy);
+    try {
+      List<EventEntity> exchangeEvents =
+                                       exchangeSessionPool.execute(userIdentityId,
+                                                                   exchangeUserSetting,
+                                                                   OperationType.REFRESH,
+                                                                   exchangeService -> getExchangeEvents(exchangeService,
+                                                                                                        userIdentityId,
+                                                                                                        start,
+                                                                                                        end,
+                                                                                                        ZoneOffset.UTC));
+      ArrayList<ExchangeSyncedEvent> windowEvents = new ArrayList<>(exchangeEvents.size());
+      for (EventEntity exchangeEvent : exchangeEvents) {
+        windowEvents.add(new ExchangeSyncedEvent(exchangeEvent.getRemoteId(),
+                                                 exchangeEvent.getSummary(),
+                                                 parseUTCDateTime(exchangeEvent.getStart()),
+                                                 parseUTCDateTime(exchangeEvent.getEnd())));
       }
+      exchangeEventsWindowCache.put(userIdentityId,
+                                    new ExchangeEventsWindow(start.toInstant().toEpochMilli(),
+                                                             end.toInstant().toEpochMilli(),
+                                                             windowEvents));
+    } catch (TimeoutException | RejectedExecutionException | ExchangeUnavailableException e) {
+      throw newUnavailableException(userIdentityId, e);
+    } catch (Exception e) {
+      LOG.warn("Error when refreshing exchange events of user {}", userIdentityId, e);
+      throw new IllegalAccessException("User '" + userIdentityId + "' is not allowed to get exchange events informations");
+    }
+  }
+
+  @Override
+  public void pushEventToExchange(long userIdentityId, EventEntity event, ZoneId userTimeZone) throws IllegalAccessException {
+    ExchangeUserSetting exchangeUserSetting = getExchangeSetting(userIdentityId);
+    try {
+      exchangeSessionPool.execute(userIdentityId, exchangeUserSetting, OperationType.PUSH, exchangeService -> {
+        pushEventToExchange(exchangeService, userIdentityId, event, userTimeZone);
+        return null;
+      });
+    } catch (TimeoutException | RejectedExecutionException | ExchangeUnavailableException e) {
+      throw newUnavailableException(userIdentityId, e);
     } catch (ServiceLocalException e) {
       LOG.error("User {} is not allowed to push exchange event informations",userIdentityId,e);
       throw new IllegalAccessException("User '" + userIdentityId + "' is not allowed to push exchange event informations");
     } catch (Exception e) {
       LOG.error("User {} is not allowed to connect to exchange server",userIdentityId,e);
       throw new IllegalAccessException("User '" + userIdentityId + "' is not allowed to connect to exchange server");
+    } finally {
+      clearExchangeEventsCache(userIdentityId);
+    }
+  }
+
+  @Override
+  public List<ExchangeEventPushResult> pushEventsToExchange(long userIdentityId,
+                                                            List<EventEntity> events,
+                                                            ZoneId userTimeZone) throws IllegalAccessException {
+    ExchangeUserSetting exchangeUserSetting = getExchangeSetting(userIdentityId);
+    try {
+      return exchangeSessionPool.execute(userIdentityId,
+                                         exchangeUserSetting,
+                                         OperationType.PUSH,
+                                         exchangeService -> pushEventsToExchange(exchangeService,
+                                                                                 userIdentityId,
+                                                                                 events,
+                                                                                 userTimeZone));
+    } catch (TimeoutException | RejectedExecutionException | ExchangeUnavailableException e) {
+      throw newUnavailableException(userIdentityId, e);
+    } catch (ServiceLocalException e) {
+      LOG.error("User {} is not allowed to push exchange events informations",userIdentityId,e);
+      throw new IllegalAccessException("User '" + userIdentityId + "' is not allowed to push exchange events informations");
+    } catch (Exception e) {
+      LOG.error("User {} is not allowed to connect to exchange server",userIdentityId,e);
+      throw new IllegalAccessException("User '" + userIdentityId + "' is not allowed to connect to exchange server");
+    } finally {
+      clearExchangeEventsCache(userIdentityId);
     }
   }
 
   @Override
   public void deleteExchangeEvent(long userIdentityId, long eventId) throws IllegalAccessException {
     RemoteEvent remoteEvent = agendaRemoteEventService.findRemoteEvent(eventId, userIdentityId);
+    if (remoteEvent == null) {
+      LOG.debug("Event {} of user {} isn't pushed to exchange, nothing to delete", eventId, userIdentityId);
+      return;
+    }
     ExchangeUserSetting exchangeUserSetting = getExchangeSetting(userIdentityId);
-    try (ExchangeService exchangeService = ExchangeConnectorUtils.connectExchangeServer(exchangeUserSetting)) {
-      ItemId itemId = new ItemId(remoteEvent.getRemoteId());
-      Appointment appointment = Appointment.bind(exchangeService, itemId);
-      appointment.delete(DeleteMode.MoveToDeletedItems);
+    try {
+      exchangeSessionPool.execute(userIdentityId, exchangeUserSetting, OperationType.DELETE, exchangeService -> {
+        ItemId itemId = new ItemId(remoteEvent.getRemoteId());
+        Appointment appointment = timeExchangeOperation(exchangeService, "bind", () -> Appointment.bind(exchangeService, itemId));
+        return timeExchangeOperation(exchangeService, "delete", () -> {
+          appointment.delete(DeleteMode.MoveToDeletedItems);
+          return null;
+        });
+      });
       exchangeConnectorStorage.deleteRemoteEvent(eventId, userIdentityId);
+    } catch (TimeoutException | RejectedExecutionException | ExchangeUnavailableException e) {
+      throw newUnavailableException(userIdentityId, e);
     } catch (ServiceLocalException e) {
       LOG.error("User {} is not allowed to remove remote exchange event informations",userIdentityId,e);
       throw new IllegalAccessException("User '" + userIdentityId
@@ -222,6 +387,627 @@ public class ExchangeConnectorServiceImpl implements ExchangeConnectorService {
     } catch (Exception e) {
       LOG.error("User {} is not allowed to connect to exchange server",userIdentityId,e);
       throw new IllegalAccessException("User '" + userIdentityId + "' is not allowed to connect to exchange server");
+    } finally {
+      clearExchangeEventsCache(userIdentityId);
+    }
+  }
+
+  @Override
+  public List<Long> deleteExchangeEvents(long userIdentityId, List<Long> eventIds) throws IllegalAccessException {
+    List<Long> remoteEventIds = new ArrayList<>();
+    List<String> remoteIds = new ArrayList<>();
+    // The agenda remote events API has no bulk lookup, the mappings are
+    // resolved one by one, once per distinct event
+    for (Long eventId : new LinkedHashSet<>(eventIds)) {
+      RemoteEvent remoteEvent = agendaRemoteEventService.findRemoteEvent(eventId, userIdentityId);
+      if (remoteEvent != null) {
+        remoteEventIds.add(eventId);
+        remoteIds.add(remoteEvent.getRemoteId());
+      }
+    }
+    if (remoteIds.isEmpty()) {
+      return Collections.emptyList();
+    }
+    ExchangeUserSetting exchangeUserSetting = getExchangeSetting(userIdentityId);
+    try {
+      List<ItemId> itemIds = new ArrayList<>(remoteIds.size());
+      for (String remoteId : remoteIds) {
+        itemIds.add(new ItemId(remoteId));
+      }
+      ServiceResponseCollection<ServiceResponse> deleteResponses =
+                                                                 exchangeSessionPool.execute(userIdentityId,
+                                                                                             exchangeUserSetting,
+                                                                                             OperationType.DELETE,
+                                                                                             exchangeService -> onResponses(exchangeService,
+                                                                                                                            timeExchangeOperation(exchangeService,
+                                                                                                                                                  "deleteItems",
+                                                                                                                                                  () -> exchangeService.deleteItems(itemIds,
+                                                                                                                                                                                    DeleteMode.MoveToDeletedItems,
+                                                                                                                                                                                    null,
+                                                                                                                                                                                    null))));
+      List<Long> deletedEventIds = new ArrayList<>();
+      List<Long> notDeletedEventIds = new ArrayList<>();
+      for (int i = 0; i < remoteEventIds.size(); i++) {
+        ServiceResponse deleteResponse = deleteResponses.getResponseAtIndex(i);
+        // An item which was already removed from exchange is considered as
+        // deleted
+        if (deleteResponse.getResult() == ServiceResult.Success
+            || deleteResponse.getErrorCode() == ServiceError.ErrorItemNotFound) {
+          deletedEventIds.add(remoteEventIds.get(i));
+        } else {
+          LOG.warn("Exchange item of event {} can't be removed by user {}: {}",
+                   remoteEventIds.get(i),
+                   userIdentityId,
+                   getErrorMessage(deleteResponse));
+          notDeletedEventIds.add(remoteEventIds.get(i));
+        }
+      }
+      exchangeConnectorStorage.deleteRemoteEvents(deletedEventIds, userIdentityId);
+      return notDeletedEventIds;
+    } catch (TimeoutException | RejectedExecutionException | ExchangeUnavailableException e) {
+      throw newUnavailableException(userIdentityId, e);
+    } catch (ServiceLocalException e) {
+      LOG.error("User {} is not allowed to remove remote exchange events informations",userIdentityId,e);
+      throw new IllegalAccessException("User '" + userIdentityId
+          + "' is not allowed to remove remote exchange events informations");
+    } catch (Exception e) {
+      LOG.error("User {} is not allowed to connect to exchange server",userIdentityId,e);
+      throw new IllegalAccessException("User '" + userIdentityId + "' is not allowed to connect to exchange server");
+    } finally {
+      clearExchangeEventsCache(userIdentityId);
+    }
+  }
+
+  @Override
+  public void clearExchangeEventsCache(long userIdentityId) {
+    exchangeEventsGenerations.incrementAndGet(getExchangeEventsGenerationStripe(userIdentityId));
+    exchangeEventsWindowCache.remove(userIdentityId);
+    // All the windows of the user are held by a single entry, so that its
+    // removal is propagated to the other cluster nodes
+    exchangeEventsCache.remove(userIdentityId);
+  }
+
+  /**
+   * Adds a window to the cached events of the user, unless they were cleared
+   * while the window events were retrieved, on this node or on another one
+   */
+  private void cacheExchangeEvents(long userIdentityId,
+                                   long generation,
+                                   ExchangeUserEvents cachedUserEvents,
+                                   String start,
+                                   String end,
+                                   ZoneId userTimeZone,
+                                   List<EventEntity> exchangeEvents) {
+    ExchangeUserEvents userEvents = exchangeEventsCache.get(userIdentityId);
+    if (getExchangeEventsGeneration(userIdentityId) != generation || (cachedUserEvents != null && userEvents == null)) {
+      LOG.debug("Exchange events of user {} were cleared while retrieved, don't cache them", userIdentityId);
+      return;
+    }
+    if (userEvents == null) {
+      userEvents = new ExchangeUserEvents();
+    }
+    exchangeEventsCache.put(userIdentityId,
+                            userEvents.withEvents(start, end, userTimeZone.getId(), new ArrayList<>(exchangeEvents)));
+  }
+
+  private long getExchangeEventsGeneration(long userIdentityId) {
+    return exchangeEventsGenerations.get(getExchangeEventsGenerationStripe(userIdentityId));
+  }
+
+  private int getExchangeEventsGenerationStripe(long userIdentityId) {
+    return (int) Math.floorMod(userIdentityId, (long) EXCHANGE_EVENTS_GENERATION_STRIPES);
+  }
+
+  private List<EventEntity> getExchangeEvents(ExchangeService exchangeService,
+                                              long userIdentityId,
+                                              String start,
+                                              String end,
+                                              ZoneId userTimeZone) throws Exception {
+    ZonedDateTime startZonedDateTime = AgendaDateUtils.parseAllDayDateToZonedDateTime(start);
+    // We have added one day in order to get events of the end date day
+    ZonedDateTime endZonedDatetime = AgendaDateUtils.parseAllDayDateToZonedDateTime(end).plusDays(1);
+    return getExchangeEvents(exchangeService, userIdentityId, startZonedDateTime, endZonedDatetime, userTimeZone);
+  }
+
+  private List<EventEntity> getExchangeEvents(ExchangeService exchangeService,
+                                              long userIdentityId,
+                                              ZonedDateTime startZonedDateTime,
+                                              ZonedDateTime endZonedDatetime,
+                                              ZoneId userTimeZone) throws Exception {
+    if (SYNC_RETRIEVAL_MODE.equals(exchangeEventsRetrievalMode)) {
+      return getExchangeSyncedEvents(exchangeService,
+                                     userIdentityId,
+                                     startZonedDateTime.toInstant().toEpochMilli(),
+                                     endZonedDatetime.toInstant().toEpochMilli(),
+                                     userTimeZone);
+    }
+    if (CALENDAR_VIEW_RETRIEVAL_MODE.equals(exchangeEventsRetrievalMode)) {
+      return getExchangeCalendarViewEvents(exchangeService,
+                                           AgendaDateUtils.toDate(startZonedDateTime),
+                                           AgendaDateUtils.toDate(endZonedDatetime),
+                                           userTimeZone);
+    }
+    SearchFilter exchangeStartSearchFilter =
+                                           new SearchFilter.IsGreaterThanOrEqualTo(AppointmentSchema.Start,
+                                                                                   AgendaDateUtils.toDate(startZonedDateTime));
+    SearchFilter exchangeEndSearchFilter = new SearchFilter.IsLessThanOrEqualTo(AppointmentSchema.End,
+                                                                                AgendaDateUtils.toDate(endZonedDatetime));
+
+    SearchFilter exchangeEventsSearchFilter = new SearchFilter.SearchFilterCollection(LogicalOperator.And,
+                                                                                      exchangeStartSearchFilter,
+                                                                                      exchangeEndSearchFilter);
+    ExchangeEventMapper exchangeEventMapper = new ExchangeEventMapper(userTimeZone);
+    List<EventEntity> exchangeEvents = new ArrayList<>();
+    // Next pages are retrieved by another thread, which is given the deadline
+    long deadline = ExchangeDeadline.get();
+    FindItemsResults<Item> exchangeEventsItems = findExchangeEventsPage(exchangeService,
+                                                                        deadline,
+                                                                        exchangeEventsSearchFilter,
+                                                                        0);
+    while (exchangeEventsItems != null) {
+      // Request the next page while the current one is being converted, the
+      // exchange session is only used by the page retrieval task meanwhile
+      Future<FindItemsResults<Item>> nextExchangeEventsPage = null;
+      Integer nextPageOffset = exchangeEventsItems.getNextPageOffset();
+      if (exchangeEventsItems.isMoreAvailable() && nextPageOffset != null) {
+        nextExchangeEventsPage = exchangeEventsPageExecutor.submit(() -> findExchangeEventsPage(exchangeService,
+                                                                                               deadline,
+                                                                                               exchangeEventsSearchFilter,
+                                                                                               nextPageOffset));
+      }
+      try {
+        exchangeEventMapper.addEventEntities(exchangeEventsItems, exchangeEvents);
+      } catch (Exception e) {
+        waitForPage(nextExchangeEventsPage);
+        throw e;
+      }
+      exchangeEventsItems = waitForPage(nextExchangeEventsPage);
+    }
+    return exchangeEvents;
+  }
+
+  /**
+   * Retrieves the events of a window from the events retrieved in background
+   * for the user, with the same selection as the configured retrieval mode.
+   *
+   * @return {@link List} of {@link EventEntity} or null when the window isn't
+   *         included in the period retrieved in background
+   */
+  private List<EventEntity> getExchangeWindowEvents(ExchangeEventsWindow exchangeEventsWindow,
+                                                    String start,
+                                                    String end,
+                                                    ZoneId userTimeZone) {
+    long startTime = AgendaDateUtils.parseAllDayDateToZonedDateTime(start).toInstant().toEpochMilli();
+    long endTime = AgendaDateUtils.parseAllDayDateToZonedDateTime(end).plusDays(1).toInstant().toEpochMilli();
+    if (!exchangeEventsWindow.covers(startTime, endTime)) {
+      return null;
+    }
+    boolean overlapping = CALENDAR_VIEW_RETRIEVAL_MODE.equals(exchangeEventsRetrievalMode);
+    ExchangeEventMapper exchangeEventMapper = new ExchangeEventMapper(userTimeZone);
+    List<EventEntity> exchangeEvents = new ArrayList<>();
+    for (ExchangeSyncedEvent windowEvent : exchangeEventsWindow.getEvents()) {
+      boolean inWindow = overlapping ? windowEvent.getStartTime() < endTime && windowEvent.getEndTime() > startTime
+                                     : windowEvent.getStartTime() >= startTime && windowEvent.getEndTime() <= endTime;
+      if (inWindow) {
+        exchangeEvents.add(exchangeEventMapper.toEventEntity(windowEvent));
+      }
+    }
+    return exchangeEvents;
+  }
+
+  private long parseUTCDateTime(String dateTime) {
+    return AgendaDateUtils.parseRFC3339ToZonedDateTime(dateTime, ZoneOffset.UTC).toInstant().toEpochMilli();
+  }
+
+  /**
+   * Retrieves events from the locally synchronized exchange calendar after
+   * applying the changes made on exchange since the last synchronization. As
+   * with FindItems, recurring series aren't expanded into occurrences.
+   */
+  private List<EventEntity> getExchangeSyncedEvents(ExchangeService exchangeService,
+                                                    long userIdentityId,
+                                                    long startTime,
+                                                    long endTime,
+                                                    ZoneId userTimeZone) throws Exception {
+    Map<String, ExchangeSyncedEvent> syncedEvents =
+                                                   timeExchangeOperation("syncFolderItems",
+                                                                         () -> exchangeSyncService.synchronize(userIdentityId,
+                                                                                                               exchangeService));
+    List<ExchangeSyncedEvent> windowSyncedEvents = new ArrayList<>();
+    for (ExchangeSyncedEvent syncedEvent : syncedEvents.values()) {
+      if (syncedEvent.getStartTime() >= startTime && syncedEvent.getEndTime() <= endTime) {
+        windowSyncedEvents.add(syncedEvent);
+      }
+    }
+    windowSyncedEvents.sort(Comparator.comparingLong(ExchangeSyncedEvent::getStartTime));
+    ExchangeEventMapper exchangeEventMapper = new ExchangeEventMapper(userTimeZone);
+    List<EventEntity> exchangeEvents = new ArrayList<>(windowSyncedEvents.size());
+    for (ExchangeSyncedEvent syncedEvent : windowSyncedEvents) {
+      exchangeEvents.add(exchangeEventMapper.toEventEntity(syncedEvent));
+    }
+    return exchangeEvents;
+  }
+
+  /**
+   * Retrieves events using an EWS CalendarView, which expands recurring series
+   * into occurrences on server side. A CalendarView can't be paged by offset,
+   * thus when more items are available, the next request starts from the last
+   * retrieved occurrence and the already retrieved ones are skipped.
+   */
+  private List<EventEntity> getExchangeCalendarViewEvents(ExchangeService exchangeService,
+                                                          Date startDate,
+                                                          Date endDate,
+                                                          ZoneId userTimeZone) throws Exception {
+    ExchangeEventMapper exchangeEventMapper = new ExchangeEventMapper(userTimeZone);
+    List<EventEntity> exchangeEvents = new ArrayList<>();
+    Set<String> retrievedExchangeEventIds = new HashSet<>();
+    // Next pages are retrieved by another thread, which is given the deadline
+    long deadline = ExchangeDeadline.get();
+    FindItemsResults<Appointment> appointments = findExchangeCalendarViewPage(exchangeService, deadline, startDate, endDate);
+    while (appointments != null) {
+      Future<FindItemsResults<Appointment>> nextAppointmentsPage = null;
+      List<Appointment> appointmentsPage = appointments.getItems();
+      if (appointments.isMoreAvailable() && !appointmentsPage.isEmpty()) {
+        Date nextStartDate = appointmentsPage.get(appointmentsPage.size() - 1).getStart();
+        nextAppointmentsPage = exchangeEventsPageExecutor.submit(() -> findExchangeCalendarViewPage(exchangeService,
+                                                                                                   deadline,
+                                                                                                   nextStartDate,
+                                                                                                   endDate));
+      }
+      int retrievedExchangeEventsCount = exchangeEvents.size();
+      try {
+        for (Appointment appointment : appointmentsPage) {
+          if (retrievedExchangeEventIds.add(appointment.getId().getUniqueId())) {
+            EventEntity exchangeEvent = exchangeEventMapper.toEventEntity(appointment);
+            if (exchangeEvent != null) {
+              exchangeEvents.add(exchangeEvent);
+            }
+          }
+        }
+      } catch (Exception e) {
+        waitForPage(nextAppointmentsPage);
+        throw e;
+      }
+      appointments = waitForPage(nextAppointmentsPage);
+      if (appointments != null && retrievedExchangeEventsCount == exchangeEvents.size()) {
+        LOG.warn("More than {} exchange events start at the same date between {} and {}, remaining events are ignored",
+                 exchangeEventsPageSize,
+                 startDate,
+                 endDate);
+        break;
+      }
+    }
+    return exchangeEvents;
+  }
+
+  private FindItemsResults<Appointment> findExchangeCalendarViewPage(ExchangeService exchangeService,
+                                                                     long deadline,
+                                                                     Date startDate,
+                                                                     Date endDate) throws Exception {
+    CalendarView view = new CalendarView(startDate, endDate, exchangeEventsPageSize);
+    view.setPropertySet(EXCHANGE_EVENT_PROPERTY_SET);
+    ExchangeDeadline.applyTimeout(exchangeService, deadline);
+    return timeExchangeOperation("findAppointments", () -> exchangeService.findAppointments(WellKnownFolderName.Calendar, view));
+  }
+
+  private FindItemsResults<Item> findExchangeEventsPage(ExchangeService exchangeService,
+                                                        long deadline,
+                                                        SearchFilter exchangeEventsSearchFilter,
+                                                        int offset) throws Exception {
+    ItemView view = new ItemView(exchangeEventsPageSize, offset);
+    view.getOrderBy().add(AppointmentSchema.Start, SortDirection.Ascending);
+    ExchangeDeadline.applyTimeout(exchangeService, deadline);
+    return timeExchangeOperation("findItems",
+                                 () -> exchangeService.findItems(WellKnownFolderName.Calendar, exchangeEventsSearchFilter, view));
+  }
+
+  private <T extends Item> FindItemsResults<T> waitForPage(Future<FindItemsResults<T>> exchangeEventsPage) throws Exception {
+    if (exchangeEventsPage == null) {
+      return null;
+    }
+    try {
+      return exchangeEventsPage.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof Exception ? (Exception) cause : e;
+    }
+  }
+
+  private void pushEventToExchange(ExchangeService exchangeService,
+                                   long userIdentityId,
+                                   EventEntity event,
+                                   ZoneId userTimeZone) throws Exception {
+    RemoteEvent remoteEvent = agendaRemoteEventService.findRemoteEvent(event.getId(), userIdentityId);
+    if (remoteEvent == null) {
+      Appointment appointment = new Appointment(exchangeService);
+      setAppointmentFields(appointment, event, userTimeZone);
+      timeExchangeOperation(exchangeService, "save", () -> {
+        appointment.save(new FolderId(WellKnownFolderName.Calendar), SendInvitationsMode.SendToAllAndSaveCopy);
+        return null;
+      });
+      agendaRemoteEventService.saveRemoteEvent(newRemoteEvent(userIdentityId, event, String.valueOf(appointment.getId())));
+      saveChangeKey(userIdentityId, event.getId(), appointment);
+    } else {
+      Appointment appointment = null;
+      String changeKey = exchangeConnectorStorage.getExchangeChangeKey(userIdentityId, event.getId());
+      if (changeKey != null) {
+        appointment = newAppointment(exchangeService, remoteEvent.getRemoteId(), changeKey);
+        setAppointmentFields(appointment, event, userTimeZone);
+        try {
+          updateAppointment(exchangeService, appointment, ConflictResolutionMode.AutoResolve);
+        } catch (ServiceResponseException e) {
+          if (!isStaleChangeKey(e.getErrorCode())) {
+            throw e;
+          }
+          LOG.debug("Change key of event {} is stale, retrieve exchange item before updating it", event.getId());
+          appointment = null;
+        }
+      }
+      if (appointment == null) {
+        ItemId itemId = new ItemId(remoteEvent.getRemoteId());
+        appointment = timeExchangeOperation(exchangeService, "bind", () -> Appointment.bind(exchangeService, itemId));
+        setAppointmentFields(appointment, event, userTimeZone);
+        updateAppointment(exchangeService, appointment, ConflictResolutionMode.AlwaysOverwrite);
+      }
+      saveChangeKey(userIdentityId, event.getId(), appointment);
+    }
+  }
+
+  private List<ExchangeEventPushResult> pushEventsToExchange(ExchangeService exchangeService,
+                                                             long userIdentityId,
+                                                             List<EventEntity> events,
+                                                             ZoneId userTimeZone) throws Exception {
+    List<ExchangeEventPushResult> pushResults = new ArrayList<>(events.size());
+    List<EventEntity> newEvents = new ArrayList<>();
+    List<Item> newAppointments = new ArrayList<>();
+    List<EventEntity> changeKeyEvents = new ArrayList<>();
+    List<Item> changeKeyAppointments = new ArrayList<>();
+    List<EventEntity> existingEvents = new ArrayList<>();
+    Map<EventEntity, ExchangeEventPushResult> pushResultsByEvent = new IdentityHashMap<>();
+    for (EventEntity event : events) {
+      ExchangeEventPushResult pushResult = new ExchangeEventPushResult(event == null ? 0 : event.getId(), null, false, null);
+      pushResults.add(pushResult);
+      if (event == null || StringUtils.isBlank(event.getStart()) || StringUtils.isBlank(event.getEnd())) {
+        pushResult.setError("Event start and end dates are mandatory");
+        continue;
+      }
+      pushResultsByEvent.put(event, pushResult);
+      RemoteEvent remoteEvent = agendaRemoteEventService.findRemoteEvent(event.getId(), userIdentityId);
+      if (remoteEvent == null) {
+        Appointment appointment = new Appointment(exchangeService);
+        try {
+          setAppointmentFields(appointment, event, userTimeZone);
+        } catch (RuntimeException e) {
+          LOG.debug("Invalid event {} pushed by user {}", event.getId(), userIdentityId, e);
+          pushResult.setError("Invalid event: " + e.getMessage());
+          continue;
+        }
+        newEvents.add(event);
+        newAppointments.add(appointment);
+      } else {
+        pushResult.setRemoteId(remoteEvent.getRemoteId());
+        String changeKey = exchangeConnectorStorage.getExchangeChangeKey(userIdentityId, event.getId());
+        if (changeKey == null) {
+          existingEvents.add(event);
+          continue;
+        }
+        Appointment appointment = newAppointment(exchangeService, remoteEvent.getRemoteId(), changeKey);
+        try {
+          setAppointmentFields(appointment, event, userTimeZone);
+        } catch (RuntimeException e) {
+          LOG.debug("Invalid event {} pushed by user {}", event.getId(), userIdentityId, e);
+          pushResult.setError("Invalid event: " + e.getMessage());
+          continue;
+        }
+        changeKeyEvents.add(event);
+        changeKeyAppointments.add(appointment);
+      }
+    }
+    if (!newAppointments.isEmpty()) {
+      ServiceResponseCollection<ServiceResponse> createResponses =
+                                                                 timeExchangeOperation(exchangeService,
+                                                                                       "createItems",
+                                                                                       () -> exchangeService.createItems(newAppointments,
+                                                                                                                         new FolderId(WellKnownFolderName.Calendar),
+                                                                                                                         null,
+                                                                                                                         SendInvitationsMode.SendToAllAndSaveCopy));
+      onResponses(exchangeService, createResponses);
+      for (int i = 0; i < newEvents.size(); i++) {
+        EventEntity event = newEvents.get(i);
+        ExchangeEventPushResult pushResult = pushResultsByEvent.get(event);
+        ServiceResponse createResponse = createResponses.getResponseAtIndex(i);
+        if (createResponse.getResult() == ServiceResult.Success) {
+          String remoteId = String.valueOf(newAppointments.get(i).getId());
+          pushResult.setRemoteId(remoteId);
+          pushResult.setPushed(true);
+          // The mapping is saved right away so that the item isn't created
+          // again if a following request fails
+          agendaRemoteEventService.saveRemoteEvent(newRemoteEvent(userIdentityId, event, remoteId));
+          saveChangeKey(userIdentityId, event.getId(), newAppointments.get(i));
+        } else {
+          pushResult.setError(getErrorMessage(createResponse));
+        }
+      }
+    }
+    if (!changeKeyAppointments.isEmpty()) {
+      // Events having a stale change key are updated after retrieving their
+      // exchange item
+      existingEvents.addAll(updateAppointments(exchangeService,
+                                               userIdentityId,
+                                               changeKeyEvents,
+                                               changeKeyAppointments,
+                                               ConflictResolutionMode.AutoResolve,
+                                               pushResultsByEvent));
+    }
+    if (!existingEvents.isEmpty()) {
+      List<ItemId> existingItemIds = new ArrayList<>(existingEvents.size());
+      for (EventEntity event : existingEvents) {
+        existingItemIds.add(new ItemId(pushResultsByEvent.get(event).getRemoteId()));
+      }
+      ServiceResponseCollection<GetItemResponse> bindResponses =
+                                                               timeExchangeOperation(exchangeService,
+                                                                                     "bindToItems",
+                                                                                     () -> exchangeService.bindToItems(existingItemIds,
+                                                                                                                       new PropertySet(BasePropertySet.IdOnly)));
+      onResponses(exchangeService, bindResponses);
+      List<EventEntity> updatedEvents = new ArrayList<>();
+      List<Item> updatedAppointments = new ArrayList<>();
+      for (int i = 0; i < existingEvents.size(); i++) {
+        EventEntity event = existingEvents.get(i);
+        GetItemResponse bindResponse = bindResponses.getResponseAtIndex(i);
+        ExchangeEventPushResult pushResult = pushResultsByEvent.get(event);
+        if (bindResponse.getResult() != ServiceResult.Success) {
+          pushResult.setError(getErrorMessage(bindResponse));
+        } else if (!(bindResponse.getItem() instanceof Appointment)) {
+          pushResult.setError("Exchange item " + pushResult.getRemoteId() + " isn't an appointment");
+        } else {
+          Appointment appointment = (Appointment) bindResponse.getItem();
+          try {
+            setAppointmentFields(appointment, event, userTimeZone);
+          } catch (RuntimeException e) {
+            LOG.debug("Invalid event {} pushed by user {}", event.getId(), userIdentityId, e);
+            pushResult.setError("Invalid event: " + e.getMessage());
+            continue;
+          }
+          updatedEvents.add(event);
+          updatedAppointments.add(appointment);
+        }
+      }
+      if (!updatedAppointments.isEmpty()) {
+        updateAppointments(exchangeService,
+                           userIdentityId,
+                           updatedEvents,
+                           updatedAppointments,
+                           ConflictResolutionMode.AlwaysOverwrite,
+                           pushResultsByEvent);
+      }
+    }
+    return pushResults;
+  }
+
+  /**
+   * Updates a list of appointments in a single request
+   *
+   * @return the events which weren't updated because of a stale change key
+   */
+  private List<EventEntity> updateAppointments(ExchangeService exchangeService,
+                                               long userIdentityId,
+                                               List<EventEntity> events,
+                                               List<Item> appointments,
+                                               ConflictResolutionMode conflictResolutionMode,
+                                               Map<EventEntity, ExchangeEventPushResult> pushResultsByEvent) throws Exception {
+    List<EventEntity> staleEvents = new ArrayList<>();
+    ServiceResponseCollection<UpdateItemResponse> updateResponses =
+                                                                  timeExchangeOperation(exchangeService,
+                                                                                        "updateItems",
+                                                                                        () -> exchangeService.updateItems(appointments,
+                                                                                                                          null,
+                                                                                                                          conflictResolutionMode,
+                                                                                                                          null,
+                                                                                                                          SendInvitationsOrCancellationsMode.SendToAllAndSaveCopy));
+    onResponses(exchangeService, updateResponses);
+    for (int i = 0; i < events.size(); i++) {
+      EventEntity event = events.get(i);
+      ExchangeEventPushResult pushResult = pushResultsByEvent.get(event);
+      UpdateItemResponse updateResponse = updateResponses.getResponseAtIndex(i);
+      if (updateResponse.getResult() == ServiceResult.Success) {
+        pushResult.setPushed(true);
+        saveChangeKey(userIdentityId, event.getId(), appointments.get(i));
+      } else if (conflictResolutionMode != ConflictResolutionMode.AlwaysOverwrite
+          && isStaleChangeKey(updateResponse.getErrorCode())) {
+        staleEvents.add(event);
+      } else {
+        pushResult.setError(getErrorMessage(updateResponse));
+      }
+    }
+    return staleEvents;
+  }
+
+  private void updateAppointment(ExchangeService exchangeService,
+                                 Appointment appointment,
+                                 ConflictResolutionMode conflictResolutionMode) throws Exception {
+    timeExchangeOperation(exchangeService, "update", () -> {
+      appointment.update(conflictResolutionMode, SendInvitationsOrCancellationsMode.SendToAllAndSaveCopy);
+      return null;
+    });
+  }
+
+  /**
+   * Items of a batch request refused because the exchange server is busy
+   * don't make the request fail, they are reported to the server bulkhead
+   */
+  private <T extends ServiceResponse> ServiceResponseCollection<T> onResponses(ExchangeService exchangeService,
+                                                                            ServiceResponseCollection<T> responses) {
+    exchangeSessionPool.onResponses(exchangeService, responses);
+    return responses;
+  }
+
+  /**
+   * Times an EWS request after setting its timeout to the delay remaining
+   * before the deadline of the operation
+   */
+  private <T> T timeExchangeOperation(ExchangeService exchangeService, String operation, Callable<T> task) throws Exception {
+    ExchangeDeadline.applyTimeout(exchangeService);
+    return timeExchangeOperation(operation, task);
+  }
+
+  private <T> T timeExchangeOperation(String operation, Callable<T> task) throws Exception {
+    return connectorMetrics.time(ConnectorMetrics.EXCHANGE_CONNECTOR, operation, task);
+  }
+
+  /**
+   * Builds an appointment referencing an existing exchange item, so that it
+   * can be updated without retrieving it first. Since the item identifier is
+   * read only, it's set directly in the appointment property bag.
+   */
+  private Appointment newAppointment(ExchangeService exchangeService, String remoteId, String changeKey) throws Exception {
+    Appointment appointment = new Appointment(exchangeService);
+    ItemId itemId = new ItemId(remoteId);
+    itemId.setChangeKey(changeKey);
+    appointment.getPropertyBag().getProperties().put(ItemSchema.Id, itemId);
+    return appointment;
+  }
+
+  private void saveChangeKey(long userIdentityId, long eventId, Item appointment) throws ServiceLocalException {
+    ItemId itemId = appointment.getId();
+    if (itemId != null && StringUtils.isNotBlank(itemId.getChangeKey())) {
+      exchangeConnectorStorage.saveExchangeChangeKey(userIdentityId, eventId, itemId.getChangeKey());
     }
   }
+
+  private boolean isStaleChangeKey(ServiceError errorCode) {
+    return errorCode == ServiceError.ErrorIrresolvableConflict || errorCode == ServiceError.ErrorStaleObject
+        || errorCode == ServiceError.ErrorInvalidChangeKey;
+  }
+
+  private void setAppointmentFields(Appointment appointment, EventEntity event, ZoneId userTimeZone) throws Exception {
+    appointment.setSubject(event.getSummary());
+    ZonedDateTime startDate = AgendaDateUtils.parseRFC3339ToZonedDateTime(event.getStart(), userTimeZone);
+    ZonedDateTime endDate = AgendaDateUtils.parseRFC3339ToZonedDateTime(event.getEnd(), userTimeZone);
+    appointment.setStart(AgendaDateUtils.toDate(startDate));
+    appointment.setEnd(AgendaDateUtils.toDate(endDate));
+  }
+
+  private RemoteEvent newRemoteEvent(long userIdentityId, EventEntity event, String remoteId) {
+    RemoteEvent remoteEvent = new RemoteEvent();
+    remoteEvent.setIdentityId(userIdentityId);
+    remoteEvent.setEventId(event.getId());
+    remoteEvent.setRemoteProviderId(event.getRemoteProviderId());
+    remoteEvent.setRemoteProviderName(event.getRemoteProviderName());
+    remoteEvent.setRemoteId(remoteId);
+    return remoteEvent;
+  }
+
+  private ExchangeUnavailableException newUnavailableException(long userIdentityId, Exception e) {
+    LOG.warn("Exchange server is unavailable for user {}: {}", userIdentityId, e.getMessage());
+    if (e instanceof ExchangeUnavailableException) {
+      // Deadline reached while the operation was executed
+      return (ExchangeUnavailableException) e;
+    }
+    return new ExchangeUnavailableException("Exchange server is unavailable for user '" + userIdentityId + "'", e);
+  }
+
+  private String getErrorMessage(ServiceResponse serviceResponse) {
+    return serviceResponse.getErrorCode() + ": " + serviceResponse.getErrorMessage();
+  }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.exoplatform.agendaconnector.model.ExchangeUserSetting;
+import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
+import org.exoplatform.container.xml.InitParams;
+
+/**
+ * Keeps the successful validations of exchange credentials, so that saving
+ * the same settings again or opening a new session doesn't probe exchange
+ * server during the configured delay. Validations are keyed by a SHA-256 hash
+ * of the server URL, username and password, so that passwords aren't kept in
+ * memory, and the least recently used ones are evicted once the maximum size
+ * is reached.
+ */
+public class ExchangeCredentialValidator {
+
+  public static final String      TTL_PARAM        = "ttlSeconds";
+
+  public static final String      MAX_SIZE_PARAM   = "maxSize";
+
+  private static final long       DEFAULT_TTL      = 3600;
+
+  private static final int        DEFAULT_MAX_SIZE = 10000;
+
+  private final long              ttlMillis;
+
+  /** Expiration time of successful validations by credentials hash */
+  private final Map<String, Long> validatedCredentials;
+
+  public ExchangeCredentialValidator(InitParams initParams) {
+    this.ttlMillis = TimeUnit.SECONDS.toMillis(ExchangeConnectorUtils.getLongParameter(initParams, TTL_PARAM, DEFAULT_TTL));
+    int maxSize = ExchangeConnectorUtils.getIntParameter(initParams, MAX_SIZE_PARAM, DEFAULT_MAX_SIZE);
+    this.validatedCredentials = new LinkedHashMap<>(16, 0.75f, true) {
+      private static final long serialVersionUID = 4907455427153393410L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * @param serverUrl exchange server URL
+   * @param exchangeUserSetting user exchange settings
+   * @return true if the credentials were successfully validated on the
+   *         exchange server less than the configured delay ago
+   */
+  public synchronized boolean isValidated(String serverUrl, ExchangeUserSetting exchangeUserSetting) {
+    String credentialHash = getCredentialHash(serverUrl, exchangeUserSetting);
+    Long expirationTime = validatedCredentials.get(credentialHash);
+    if (expirationTime == null) {
+      return false;
+    } else if (expirationTime < System.currentTimeMillis()) {
+      validatedCredentials.remove(credentialHash);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Remembers a successful validation of the credentials on an exchange server
+   *
+   * @param serverUrl exchange server URL
+   * @param exchangeUserSetting user exchange settings
+   */
+  public synchronized void markValidated(String serverUrl, ExchangeUserSetting exchangeUserSetting) {
+    if (ttlMillis <= 0) {
+      return;
+    }
+    validatedCredentials.put(getCredentialHash(serverUrl, exchangeUserSetting), System.currentTimeMillis() + ttlMillis);
+  }
+
+  /**
+   * Forgets the successful validation of the credentials on an exchange
+   * server, so that they are checked again at next connection
+   *
+   * @param serverUrl exchange server URL
+   * @param exchangeUserSetting user exchange settings
+   */
+  public synchronized void invalidate(String serverUrl, ExchangeUserSetting exchangeUserSetting) {
+    validatedCredentials.remove(getCredentialHash(serverUrl, exchangeUserSetting));
+  }
+
+  private static String getCredentialHash(String serverUrl, ExchangeUserSetting exchangeUserSetting) {
+    try {
+      MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+      messageDigest.update(String.valueOf(serverUrl).getBytes(StandardCharsets.UTF_8));
+      messageDigest.update((byte) 0);
+      messageDigest.update(String.valueOf(exchangeUserSetting.getUsername()).getBytes(StandardCharsets.UTF_8));
+      messageDigest.update((byte) 0);
+      messageDigest.update(String.valueOf(exchangeUserSetting.getPassword()).getBytes(StandardCharsets.UTF_8));
+      return HexFormat.of().formatHex(messageDigest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 algorithm isn't available", e);
+    }
+  }
+}
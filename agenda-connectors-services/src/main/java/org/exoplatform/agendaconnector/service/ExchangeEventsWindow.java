@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.service;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+import org.exoplatform.agendaconnector.model.ExchangeSyncedEvent;
+
+/**
+ * Exchange events of a user retrieved in background for a period, stored
+ * independently of any time zone so that any window of a user included in the
+ * period can be served from it.
+ */
+public class ExchangeEventsWindow implements Serializable {
+
+  private static final long                    serialVersionUID = 5902316154432784390L;
+
+  private final long                           startTime;
+
+  private final long                           endTime;
+
+  private final ArrayList<ExchangeSyncedEvent> events;
+
+  public ExchangeEventsWindow(long startTime, long endTime, ArrayList<ExchangeSyncedEvent> events) {
+    this.startTime = startTime;
+    this.endTime = endTime;
+    this.events = events;
+  }
+
+  public long getStartTime() {
+    return startTime;
+  }
+
+  public long getEndTime() {
+    return endTime;
+  }
+
+  public ArrayList<ExchangeSyncedEvent> getEvents() {
+    return events;
+  }
+
+  /**
+   * @param windowStartTime start of a window in epoch milliseconds
+   * @param windowEndTime end of a window in epoch milliseconds
+   * @return true if the window is included in the retrieved period
+   */
+  public boolean covers(long windowStartTime, long windowEndTime) {
+    return windowStartTime >= startTime && windowEndTime <= endTime;
+  }
+}
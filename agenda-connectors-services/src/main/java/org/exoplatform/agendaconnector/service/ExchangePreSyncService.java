@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.service;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.picocontainer.Startable;
+
+import org.exoplatform.agendaconnector.storage.ExchangeConnectorStorage;
+import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Periodically retrieves in background the exchange events of all the users
+ * having configured their exchange settings, for a period around the current
+ * day, so that their agenda views are served from cache instead of waiting for
+ * exchange server. Runs are triggered by
+ * {@link org.exoplatform.agendaconnector.job.ExchangePreSyncJob} on a single
+ * cluster node at a time. Users are refreshed with a bounded parallelism, the
+ * duration and the outcome of each run and of each user refresh are recorded in
+ * {@link ConnectorMetrics}, and the users whose refresh failed during the last
+ * run are kept with the failure cause.
+ */
+public class ExchangePreSyncService implements Startable {
+
+  private static final Log         LOG                   = ExoLogger.getLogger(ExchangePreSyncService.class);
+
+  public static final String       ENABLED_PARAM         = "enabled";
+
+  public static final String       THREADS_PARAM         = "threads";
+
+  public static final String       WINDOW_DAYS_PARAM     = "windowDays";
+
+  public static final String       PRE_SYNCHRONIZE_OP    = "preSynchronize";
+
+  public static final String       PRE_SYNCHRONIZE_USER_OP = "preSynchronizeUser";
+
+  private static final int         DEFAULT_THREADS       = 4;
+
+  private static final int         DEFAULT_WINDOW_DAYS   = 14;
+
+  private static final int         USERS_PAGE_SIZE       = 100;
+
+  private ExchangeConnectorService exchangeConnectorService;
+
+  private ExchangeConnectorStorage exchangeConnectorStorage;
+
+  private ConnectorMetrics         connectorMetrics;
+
+  private boolean                  enabled;
+
+  private int                      threads;
+
+  private int                      windowDays;
+
+  private ExecutorService          preSyncExecutor;
+
+  private Map<Long, String>        failedUsers           = Collections.emptyMap();
+
+  public ExchangePreSyncService(ExchangeConnectorService exchangeConnectorService,
+                                ExchangeConnectorStorage exchangeConnectorStorage,
+                                ConnectorMetrics connectorMetrics,
+                                InitParams initParams) {
+    this.exchangeConnectorService = exchangeConnectorService;
+    this.exchangeConnectorStorage = exchangeConnectorStorage;
+    this.connectorMetrics = connectorMetrics;
+    this.enabled = !"false".equalsIgnoreCase(ExchangeConnectorUtils.getParameter(initParams, ENABLED_PARAM));
+    this.threads = ExchangeConnectorUtils.getIntParameter(initParams, THREADS_PARAM, DEFAULT_THREADS);
+    this.windowDays = ExchangeConnectorUtils.getIntParameter(initParams, WINDOW_DAYS_PARAM, DEFAULT_WINDOW_DAYS);
+  }
+
+  @Override
+  public void start() {
+    if (!enabled) {
+      LOG.info("Exchange events pre-synchronization is disabled");
+      return;
+    }
+    preSyncExecutor = Executors.newFixedThreadPool(threads, ExchangeConnectorUtils.newDaemonThreadFactory("ExchangePreSync"));
+  }
+
+  @Override
+  public void stop() {
+    if (preSyncExecutor != null) {
+      preSyncExecutor.shutdownNow();
+    }
+  }
+
+  /**
+   * Refreshes the exchange events of all the connected users for the
+   * configured period around the current day
+   */
+  public void preSynchronize() {
+    if (preSyncExecutor == null) {
+      return;
+    }
+    long startTime = System.currentTimeMillis();
+    ZonedDateTime today = ZonedDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS);
+    ZonedDateTime start = today.minusDays(windowDays);
+    ZonedDateTime end = today.plusDays(windowDays + 1L);
+    int usersCount = 0;
+    Map<Long, String> runFailedUsers = new LinkedHashMap<>();
+    int offset = 0;
+    List<Long> userIdentityIds;
+    try {
+      do {
+        userIdentityIds = exchangeConnectorStorage.getExchangeConnectedUsers(offset, USERS_PAGE_SIZE);
+        Map<Long, Future<?>> refreshes = new LinkedHashMap<>();
+        for (Long userIdentityId : userIdentityIds) {
+          refreshes.put(userIdentityId, preSyncExecutor.submit(() -> {
+            refreshUser(userIdentityId, start, end);
+            return null;
+          }));
+        }
+        for (Map.Entry<Long, Future<?>> refresh : refreshes.entrySet()) {
+          try {
+            refresh.getValue().get();
+          } catch (ExecutionException e) {
+            runFailedUsers.put(refresh.getKey(), String.valueOf(e.getCause()));
+          }
+        }
+        usersCount += userIdentityIds.size();
+        offset += USERS_PAGE_SIZE;
+      } while (userIdentityIds.size() == USERS_PAGE_SIZE);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    } catch (Exception e) {
+      LOG.error("Error when pre-synchronizing exchange events", e);
+    }
+    failedUsers = Collections.unmodifiableMap(runFailedUsers);
+    long duration = System.currentTimeMillis() - startTime;
+    connectorMetrics.record(ConnectorMetrics.EXCHANGE_CONNECTOR,
+                            PRE_SYNCHRONIZE_OP,
+                            runFailedUsers.isEmpty() ? ConnectorMetrics.SUCCESS_OUTCOME : ConnectorMetrics.ERROR_OUTCOME,
+                            duration);
+    if (runFailedUsers.isEmpty()) {
+      LOG.info("Exchange events of {} users pre-synchronized in {} ms", usersCount, duration);
+    } else {
+      LOG.warn("Exchange events of {} users pre-synchronized in {} ms, failed for users {}",
+               usersCount,
+               duration,
+               runFailedUsers.keySet());
+    }
+  }
+
+  /**
+   * @return the failure causes by user identity identifier of the users whose
+   *         exchange events couldn't be refreshed during the last run
+   */
+  public Map<Long, String> getFailedUsers() {
+    return failedUsers;
+  }
+
+  private void refreshUser(long userIdentityId, ZonedDateTime start, ZonedDateTime end) throws IllegalAccessException {
+    long startTime = System.currentTimeMillis();
+    String outcome = ConnectorMetrics.ERROR_OUTCOME;
+    try {
+      exchangeConnectorService.refreshExchangeEvents(userIdentityId, start, end);
+      outcome = ConnectorMetrics.SUCCESS_OUTCOME;
+    } catch (ExchangeUnavailableException e) {
+      if (e.isTimeout()) {
+        outcome = ConnectorMetrics.TIMEOUT_OUTCOME;
+      }
+      LOG.warn("Exchange events of user {} can't be pre-synchronized: {}", userIdentityId, e.getMessage());
+      throw e;
+    } catch (IllegalAccessException | RuntimeException e) {
+      LOG.warn("Exchange events of user {} can't be pre-synchronized", userIdentityId, e);
+      throw e;
+    } finally {
+      connectorMetrics.record(ConnectorMetrics.EXCHANGE_CONNECTOR,
+                              PRE_SYNCHRONIZE_USER_OP,
+                              outcome,
+                              System.currentTimeMillis() - startTime);
+    }
+  }
+}
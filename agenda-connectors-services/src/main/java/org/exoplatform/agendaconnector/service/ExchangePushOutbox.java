@@ -0,0 +1,477 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.service;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.picocontainer.Startable;
+
+import org.exoplatform.agenda.rest.model.EventEntity;
+import org.exoplatform.agendaconnector.model.ExchangeOutboxEntry;
+import org.exoplatform.agendaconnector.storage.ExchangeConnectorStorage;
+import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Persistent outbox of the events pushed to and deleted from exchange agenda.
+ * A push is stored using {@link ExchangeConnectorStorage} before being
+ * acknowledged, then it is delivered asynchronously by a bounded pool of
+ * workers. A failed delivery is retried with an exponential backoff until the
+ * maximum count of attempts is reached, so that a transient exchange outage
+ * doesn't lose updates. Only the latest state of an event is kept in the
+ * outbox and a single delivery per event runs at a time, which preserves the
+ * order of the writes of the same event, deletions included. Each entry is
+ * leased by the cluster node delivering it: the other nodes store the new
+ * states of the event for that node, and the entries of a stopped node are
+ * recovered once their lease expired by
+ * {@link org.exoplatform.agendaconnector.job.ExchangePushOutboxRecoveryJob}
+ * which runs on a single cluster node at a time.
+ */
+public class ExchangePushOutbox implements Startable {
+
+  private static final Log         LOG                     = ExoLogger.getLogger(ExchangePushOutbox.class);
+
+  public static final String       WORKER_THREADS_PARAM    = "workerThreads";
+
+  public static final String       MAX_ATTEMPTS_PARAM      = "maxAttempts";
+
+  public static final String       INITIAL_BACKOFF_PARAM   = "initialBackoffSeconds";
+
+  public static final String       MAX_BACKOFF_PARAM       = "maxBackoffSeconds";
+
+  public static final String       RECOVERY_DELAY_PARAM    = "recoveryDelaySeconds";
+
+  private static final int         DEFAULT_WORKER_THREADS  = 5;
+
+  private static final int         DEFAULT_MAX_ATTEMPTS    = 10;
+
+  private static final long        DEFAULT_INITIAL_BACKOFF = 5;
+
+  private static final long        DEFAULT_MAX_BACKOFF     = 900;
+
+  private static final long        DEFAULT_RECOVERY_DELAY  = 300;
+
+  private static final int         RECOVERY_PAGE_SIZE      = 100;
+
+  /**
+   * Keys of the events having a delivery scheduled or in progress, or being
+   * deleted synchronously
+   */
+  private final Set<OutboxKey>     scheduledKeys           = ConcurrentHashMap.newKeySet();
+
+  private final AtomicLong         sequence                = new AtomicLong(System.currentTimeMillis());
+
+  /**
+   * Identifier of this node as owner of the entries it delivers
+   */
+  private final String             nodeId                  = UUID.randomUUID().toString();
+
+  private ExchangeConnectorService exchangeConnectorService;
+
+  private ExchangeConnectorStorage exchangeConnectorStorage;
+
+  private int                      workerThreads;
+
+  private int                      maxAttempts;
+
+  private long                     initialBackoffMillis;
+
+  private long                     maxBackoffMillis;
+
+  /**
+   * Duration of the lease of an entry by the node delivering it, renewed
+   * when the node schedules its next attempt
+   */
+  private long                     leaseMillis;
+
+  private ScheduledExecutorService workerExecutor;
+
+  public ExchangePushOutbox(ExchangeConnectorService exchangeConnectorService,
+                            ExchangeConnectorStorage exchangeConnectorStorage,
+                            InitParams initParams) {
+    this.exchangeConnectorService = exchangeConnectorService;
+    this.exchangeConnectorStorage = exchangeConnectorStorage;
+    this.workerThreads = ExchangeConnectorUtils.getIntParameter(initParams, WORKER_THREADS_PARAM, DEFAULT_WORKER_THREADS);
+    this.maxAttempts = ExchangeConnectorUtils.getIntParameter(initParams, MAX_ATTEMPTS_PARAM, DEFAULT_MAX_ATTEMPTS);
+    this.initialBackoffMillis = TimeUnit.SECONDS.toMillis(ExchangeConnectorUtils.getLongParameter(initParams,
+                                                                                                  INITIAL_BACKOFF_PARAM,
+                                                                                                  DEFAULT_INITIAL_BACKOFF));
+    this.maxBackoffMillis = TimeUnit.SECONDS.toMillis(ExchangeConnectorUtils.getLongParameter(initParams,
+                                                                                              MAX_BACKOFF_PARAM,
+                                                                                              DEFAULT_MAX_BACKOFF));
+    this.leaseMillis = TimeUnit.SECONDS.toMillis(ExchangeConnectorUtils.getLongParameter(initParams,
+                                                                                         RECOVERY_DELAY_PARAM,
+                                                                                         DEFAULT_RECOVERY_DELAY));
+  }
+
+  @Override
+  public void start() {
+    ScheduledThreadPoolExecutor executor =
+                                         new ScheduledThreadPoolExecutor(workerThreads,
+                                                                         ExchangeConnectorUtils.newDaemonThreadFactory("ExchangePushOutbox"));
+    executor.setRemoveOnCancelPolicy(true);
+    workerExecutor = executor;
+  }
+
+  @Override
+  public void stop() {
+    if (workerExecutor != null) {
+      // Pending pushes remain stored and are recovered by the recovery job
+      workerExecutor.shutdownNow();
+    }
+    scheduledKeys.clear();
+  }
+
+  /**
+   * Stores the event in the outbox of the user and schedules its delivery to
+   * exchange agenda. A pending push of the same event is replaced since only
+   * the latest state of the event has to be delivered.
+   *
+   * @param userIdentityId User identity pushing the event to exchange agenda
+   * @param event Event to be pushed to exchange agenda
+   * @param userTimeZone User time zone
+   */
+  public void enqueue(long userIdentityId, EventEntity event, ZoneId userTimeZone) {
+    store(userIdentityId, new ExchangeOutboxEntry(event,
+                                                  userTimeZone.getId(),
+                                                  sequence.incrementAndGet(),
+                                                  0,
+                                                  System.currentTimeMillis(),
+                                                  false,
+                                                  null,
+                                                  0));
+  }
+
+  /**
+   * Deletes an event from exchange agenda. When a push of the event is
+   * pending or being delivered, on this node or on another one, the deletion
+   * replaces the pending push and is delivered after the running one, else
+   * the event is deleted right away.
+   *
+   * @param userIdentityId User identity deleting the event from exchange agenda
+   * @param eventId Agenda event identifier
+   * @throws IllegalAccessException when the user is not authorized to delete
+   *           the event from exchange agenda
+   */
+  public void deleteEvent(long userIdentityId, long eventId) throws IllegalAccessException {
+    OutboxKey key = new OutboxKey(userIdentityId, eventId);
+    if (!claimForDeletion(key)) {
+      enqueueDeletion(userIdentityId, eventId);
+      return;
+    }
+    try {
+      exchangeConnectorService.deleteExchangeEvent(userIdentityId, eventId);
+    } finally {
+      release(key);
+    }
+  }
+
+  /**
+   * Deletes a list of events from exchange agenda, with a single exchange
+   * request for the events having no pending push. The deletion of the other
+   * events is delivered after their pending push, as with
+   * {@link #deleteEvent(long, long)}.
+   *
+   * @param userIdentityId User identity deleting the events from exchange
+   *          agenda
+   * @param eventIds Agenda event identifiers
+   * @return {@link List} of agenda event identifiers which couldn't be deleted
+   *         from exchange agenda
+   * @throws IllegalAccessException when the user is not authorized to delete
+   *           events from exchange agenda
+   */
+  public List<Long> deleteEvents(long userIdentityId, List<Long> eventIds) throws IllegalAccessException {
+    List<OutboxKey> claimedKeys = new ArrayList<>();
+    List<Long> claimedEventIds = new ArrayList<>();
+    for (Long eventId : new LinkedHashSet<>(eventIds)) {
+      OutboxKey key = new OutboxKey(userIdentityId, eventId);
+      if (claimForDeletion(key)) {
+        claimedKeys.add(key);
+        claimedEventIds.add(eventId);
+      } else {
+        enqueueDeletion(userIdentityId, eventId);
+      }
+    }
+    try {
+      return claimedEventIds.isEmpty() ? Collections.emptyList()
+                                       : exchangeConnectorService.deleteExchangeEvents(userIdentityId, claimedEventIds);
+    } finally {
+      claimedKeys.forEach(this::release);
+    }
+  }
+
+  /**
+   * @param userIdentityId User identity identifier
+   * @return count of pushes of the user not delivered yet
+   */
+  public int getPendingCount(long userIdentityId) {
+    return exchangeConnectorStorage.getExchangeOutboxEntries(userIdentityId).size();
+  }
+
+  /**
+   * Schedules the delivery of the entries which lease expired, meaning that
+   * the node delivering them stopped. A recovered entry is claimed by leasing
+   * it to this node, so that it isn't recovered again before the end of its
+   * delivery. The entries queued on a live node keep their lease renewed and
+   * aren't recovered.
+   */
+  public void recoverPendingPushes() {
+    int offset = 0;
+    List<Long> userIdentityIds;
+    do {
+      userIdentityIds = exchangeConnectorStorage.getUsersWithPendingExchangeOutbox(offset, RECOVERY_PAGE_SIZE);
+      for (Long userIdentityId : userIdentityIds) {
+        for (ExchangeOutboxEntry outboxEntry : exchangeConnectorStorage.getExchangeOutboxEntries(userIdentityId)) {
+          OutboxKey key = new OutboxKey(userIdentityId, outboxEntry.getEvent().getId());
+          long now = System.currentTimeMillis();
+          if (scheduledKeys.contains(key) || outboxEntry.getLeaseTime() > now) {
+            continue;
+          }
+          outboxEntry.setNextAttemptTime(now);
+          lease(outboxEntry, now);
+          exchangeConnectorStorage.saveExchangeOutboxEntry(userIdentityId, outboxEntry);
+          schedule(key, 0);
+        }
+      }
+      offset += RECOVERY_PAGE_SIZE;
+    } while (userIdentityIds.size() == RECOVERY_PAGE_SIZE);
+  }
+
+  protected void deliver(OutboxKey key) {
+    ExchangeOutboxEntry outboxEntry = exchangeConnectorStorage.getExchangeOutboxEntry(key.userIdentityId, key.eventId);
+    if (outboxEntry == null) {
+      release(key);
+      return;
+    }
+    if (isLeasedByOtherNode(outboxEntry)) {
+      // Recovered by another node while this one didn't renew its lease
+      scheduledKeys.remove(key);
+      return;
+    }
+    if (outboxEntry.getLeaseTime() - System.currentTimeMillis() < leaseMillis / 2) {
+      // The delivery waited in the workers queue, renew the lease before it
+      lease(outboxEntry, System.currentTimeMillis());
+      exchangeConnectorStorage.saveExchangeOutboxEntry(key.userIdentityId, outboxEntry);
+    }
+    try {
+      if (outboxEntry.isDeletion()) {
+        exchangeConnectorService.deleteExchangeEvent(key.userIdentityId, key.eventId);
+      } else {
+        exchangeConnectorService.pushEventToExchange(key.userIdentityId,
+                                                     outboxEntry.getEvent(),
+                                                     ZoneId.of(outboxEntry.getTimeZoneId()));
+      }
+    } catch (Exception e) {
+      retry(key, outboxEntry, e);
+      return;
+    }
+    ExchangeOutboxEntry currentEntry = exchangeConnectorStorage.getExchangeOutboxEntry(key.userIdentityId, key.eventId);
+    if (currentEntry != null && currentEntry.getSequence() == outboxEntry.getSequence()) {
+      exchangeConnectorStorage.deleteExchangeOutboxEntry(key.userIdentityId, key.eventId);
+      release(key);
+    } else if (currentEntry != null) {
+      // The event was pushed or deleted again during the delivery, deliver its
+      // new state
+      submit(key, 0);
+    } else {
+      release(key);
+    }
+  }
+
+  private void retry(OutboxKey key, ExchangeOutboxEntry outboxEntry, Exception error) {
+    int attempts = outboxEntry.getAttempts() + 1;
+    if (attempts >= maxAttempts) {
+      LOG.error("Error while {} event {} of user {} in exchange agenda, abandoned after {} attempts",
+                outboxEntry.isDeletion() ? "deleting" : "pushing",
+                key.eventId,
+                key.userIdentityId,
+                attempts,
+                error);
+      ExchangeOutboxEntry currentEntry = exchangeConnectorStorage.getExchangeOutboxEntry(key.userIdentityId, key.eventId);
+      if (currentEntry != null && currentEntry.getSequence() == outboxEntry.getSequence()) {
+        exchangeConnectorStorage.deleteExchangeOutboxEntry(key.userIdentityId, key.eventId);
+        release(key);
+      } else {
+        submit(key, 0);
+      }
+      return;
+    }
+    long delay = getBackoffDelay(attempts);
+    LOG.warn("Error while {} event {} of user {} in exchange agenda, retry in {} ms",
+             outboxEntry.isDeletion() ? "deleting" : "pushing",
+             key.eventId,
+             key.userIdentityId,
+             delay,
+             error);
+    long nextAttemptTime = System.currentTimeMillis() + delay;
+    ExchangeOutboxEntry currentEntry = exchangeConnectorStorage.getExchangeOutboxEntry(key.userIdentityId, key.eventId);
+    if (currentEntry != null && currentEntry.getSequence() != outboxEntry.getSequence()) {
+      // A newer state replaced the failed one, keep backing off the event
+      outboxEntry = currentEntry;
+    } else if (currentEntry == null) {
+      release(key);
+      return;
+    }
+    outboxEntry.setAttempts(attempts);
+    outboxEntry.setNextAttemptTime(nextAttemptTime);
+    // The lease covers the wait before the next attempt
+    lease(outboxEntry, nextAttemptTime);
+    exchangeConnectorStorage.saveExchangeOutboxEntry(key.userIdentityId, outboxEntry);
+    submit(key, delay);
+  }
+
+  private long getBackoffDelay(int attempts) {
+    long delay = initialBackoffMillis << Math.min(attempts - 1, 30);
+    if (delay < 0 || delay > maxBackoffMillis) {
+      delay = maxBackoffMillis;
+    }
+    // Random jitter avoids retrying all the pushes at once when exchange
+    // becomes available again
+    return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+  }
+
+  private void enqueueDeletion(long userIdentityId, long eventId) {
+    EventEntity event = new EventEntity();
+    event.setId(eventId);
+    store(userIdentityId, new ExchangeOutboxEntry(event,
+                                                  null,
+                                                  sequence.incrementAndGet(),
+                                                  0,
+                                                  System.currentTimeMillis(),
+                                                  true,
+                                                  null,
+                                                  0));
+  }
+
+  /**
+   * Stores the latest state of an event. When the event is leased by another
+   * node, that node delivers the new state after its running delivery, else
+   * this node leases the event and schedules its delivery.
+   */
+  private void store(long userIdentityId, ExchangeOutboxEntry outboxEntry) {
+    ExchangeOutboxEntry currentEntry = exchangeConnectorStorage.getExchangeOutboxEntry(userIdentityId,
+                                                                                       outboxEntry.getEvent().getId());
+    if (currentEntry != null && isLeasedByOtherNode(currentEntry)) {
+      outboxEntry.setOwner(currentEntry.getOwner());
+      outboxEntry.setLeaseTime(currentEntry.getLeaseTime());
+      exchangeConnectorStorage.saveExchangeOutboxEntry(userIdentityId, outboxEntry);
+      return;
+    }
+    lease(outboxEntry, System.currentTimeMillis());
+    exchangeConnectorStorage.saveExchangeOutboxEntry(userIdentityId, outboxEntry);
+    schedule(new OutboxKey(userIdentityId, outboxEntry.getEvent().getId()), 0);
+  }
+
+  /**
+   * Reserves an event for a synchronous deletion, only when no push of the
+   * event is pending, so that no delivery of the event starts meanwhile on
+   * this node.
+   */
+  private boolean claimForDeletion(OutboxKey key) {
+    if (!scheduledKeys.add(key)) {
+      return false;
+    }
+    if (exchangeConnectorStorage.getExchangeOutboxEntry(key.userIdentityId, key.eventId) != null) {
+      scheduledKeys.remove(key);
+      return false;
+    }
+    return true;
+  }
+
+  private void lease(ExchangeOutboxEntry outboxEntry, long fromTime) {
+    outboxEntry.setOwner(nodeId);
+    outboxEntry.setLeaseTime(fromTime + leaseMillis);
+  }
+
+  private boolean isLeasedByOtherNode(ExchangeOutboxEntry outboxEntry) {
+    return outboxEntry.getOwner() != null && !nodeId.equals(outboxEntry.getOwner())
+        && outboxEntry.getLeaseTime() > System.currentTimeMillis();
+  }
+
+  private void schedule(OutboxKey key, long delay) {
+    if (scheduledKeys.add(key)) {
+      submit(key, delay);
+    }
+  }
+
+  private void submit(OutboxKey key, long delay) {
+    if (workerExecutor == null || workerExecutor.isShutdown()) {
+      scheduledKeys.remove(key);
+      return;
+    }
+    try {
+      workerExecutor.schedule(() -> deliver(key), delay, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // The push remains stored and is recovered later
+      scheduledKeys.remove(key);
+    }
+  }
+
+  private void release(OutboxKey key) {
+    scheduledKeys.remove(key);
+    // Handles a push enqueued between the last storage read and the release
+    ExchangeOutboxEntry outboxEntry = exchangeConnectorStorage.getExchangeOutboxEntry(key.userIdentityId, key.eventId);
+    if (outboxEntry != null && !isLeasedByOtherNode(outboxEntry)) {
+      schedule(key, 0);
+    }
+  }
+
+  protected static class OutboxKey {
+
+    private final long userIdentityId;
+
+    private final long eventId;
+
+    protected OutboxKey(long userIdentityId, long eventId) {
+      this.userIdentityId = userIdentityId;
+      this.eventId = eventId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      OutboxKey outboxKey = (OutboxKey) o;
+      return userIdentityId == outboxKey.userIdentityId && eventId == outboxKey.eventId;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(userIdentityId, eventId);
+    }
+  }
+}
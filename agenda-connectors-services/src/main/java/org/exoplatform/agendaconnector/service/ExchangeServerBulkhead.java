@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.service;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.exoplatform.agendaconnector.service.ExchangeSessionPool.OperationType;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import microsoft.exchange.webservices.data.core.enumeration.misc.error.ServiceError;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceResponseException;
+import microsoft.exchange.webservices.data.core.response.ServiceResponse;
+import microsoft.exchange.webservices.data.core.response.ServiceResponseCollection;
+
+/**
+ * Limits the count of concurrent EWS operations sent to an exchange server.
+ * Operations exceeding the limit wait in a bounded queue for a bounded delay.
+ * The limit adapts to the server: it grows slowly while the observed latency
+ * stays close to the lowest observed one for the same type of operation, it
+ * decreases when the latency degrades and it is halved when the server answers
+ * ErrorServerBusy, to a whole request or to some items of a batch request, in
+ * which case no operation is started before the back-off delay requested by
+ * the server elapses.
+ */
+public class ExchangeServerBulkhead {
+
+  private static final Log    LOG                    = ExoLogger.getLogger(ExchangeServerBulkhead.class);
+
+  /**
+   * Error detail giving the delay requested by exchange before sending new
+   * requests
+   */
+  private static final String BACK_OFF_DETAIL        = "BackOffMilliseconds";
+
+  /**
+   * Ratio to the lowest observed latency beyond which the server is considered
+   * overloaded
+   */
+  private static final double LATENCY_TOLERANCE      = 2;
+
+  private static final double LATENCY_DECREASE_RATIO = 0.9;
+
+  private static final double BUSY_DECREASE_RATIO    = 0.5;
+
+  /**
+   * Weight of a new latency sample in the lowest observed latency of its
+   * operation type, which lets it follow a lasting change of the server
+   * performances
+   */
+  private static final double MIN_LATENCY_DRIFT      = 0.01;
+
+  private final ReentrantLock lock                   = new ReentrantLock();
+
+  private final Condition     permitReleased         = lock.newCondition();
+
+  private final String        serverUrl;
+
+  private final int           minPermits;
+
+  private final int           maxPermits;
+
+  private final int           maxQueueSize;
+
+  private final long          maxWaitMillis;
+
+  private final long          defaultBackOffMillis;
+
+  private double              permits;
+
+  private int                 inFlight;
+
+  private int                 waiting;
+
+  /**
+   * Lowest observed latency by operation type, since operations of distinct
+   * types don't have comparable latencies
+   */
+  private final Map<OperationType, Double> minLatencies = new EnumMap<>(OperationType.class);
+
+  private long                blockedUntil;
+
+  private long                throttledCount;
+
+  private long                rejectedCount;
+
+  public ExchangeServerBulkhead(String serverUrl,
+                                int minPermits,
+                                int maxPermits,
+                                int initialPermits,
+                                int maxQueueSize,
+                                long maxWaitMillis,
+                                long defaultBackOffMillis) {
+    this.serverUrl = serverUrl;
+    this.minPermits = Math.max(minPermits, 1);
+    this.maxPermits = Math.max(maxPermits, this.minPermits);
+    this.permits = Math.min(Math.max(initialPermits, this.minPermits), this.maxPermits);
+    this.maxQueueSize = maxQueueSize;
+    this.maxWaitMillis = maxWaitMillis;
+    this.defaultBackOffMillis = defaultBackOffMillis;
+  }
+
+  /**
+   * Waits for a permit to send an operation to the exchange server
+   *
+   * @throws TimeoutException when the queue is full or when no permit is
+   *           available within the maximum waiting delay
+   * @throws InterruptedException when the thread is interrupted while waiting
+   */
+  public void acquire() throws TimeoutException, InterruptedException {
+    acquire(maxWaitMillis);
+  }
+
+  /**
+   * Waits for a permit to send an operation to the exchange server
+   *
+   * @param maxWait maximum waiting delay in milliseconds, bounded by the
+   *          configured one
+   * @throws TimeoutException when the queue is full or when no permit is
+   *           available within the waiting delay
+   * @throws InterruptedException when the thread is interrupted while waiting
+   */
+  public void acquire(long maxWait) throws TimeoutException, InterruptedException {
+    long waitDelay = Math.min(maxWait, maxWaitMillis);
+    lock.lock();
+    try {
+      if (waiting >= maxQueueSize && !isPermitAvailable(System.currentTimeMillis())) {
+        rejectedCount++;
+        throw new TimeoutException("Too many operations waiting for exchange server " + serverUrl);
+      }
+      waiting++;
+      try {
+        long deadline = System.currentTimeMillis() + waitDelay;
+        long now;
+        while (!isPermitAvailable(now = System.currentTimeMillis())) {
+          long remainingMillis = deadline - now;
+          if (remainingMillis <= 0) {
+            rejectedCount++;
+            throw new TimeoutException("No permit available for exchange server " + serverUrl + " after " + waitDelay
+                + " ms");
+          }
+          // Wake up at the end of a back-off period even if no permit is
+          // released meanwhile
+          long waitMillis = blockedUntil > now ? Math.min(remainingMillis, blockedUntil - now) : remainingMillis;
+          permitReleased.await(waitMillis, TimeUnit.MILLISECONDS);
+        }
+      } finally {
+        waiting--;
+      }
+      inFlight++;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Gives back a permit and adapts the limit according to the operation
+   * outcome
+   *
+   * @param operationType {@link OperationType} of the operation, whose latency
+   *          is compared to the lowest one observed for the same type
+   * @param latencyMillis duration of the operation
+   * @param error error raised by the operation, null if it succeeded
+   */
+  public void release(OperationType operationType, long latencyMillis, Throwable error) {
+    ServiceResponseException serverBusyException = getServerBusyException(error);
+    lock.lock();
+    try {
+      inFlight--;
+      long now = System.currentTimeMillis();
+      if (serverBusyException != null) {
+        onThrottled(now, getBackOffMillis(serverBusyException.getResponse()));
+      } else if (error == null) {
+        onSuccess(operationType, latencyMillis);
+      }
+      permitReleased.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Gives back a permit without adapting the limit to the operation latency,
+   * for operations whose latency isn't comparable to the other ones. The limit
+   * is still reduced when the server answered ErrorServerBusy.
+   *
+   * @param error error raised by the operation, null if it succeeded
+   */
+  public void release(Throwable error) {
+    ServiceResponseException serverBusyException = getServerBusyException(error);
+    lock.lock();
+    try {
+      inFlight--;
+      if (serverBusyException != null) {
+        onThrottled(System.currentTimeMillis(), getBackOffMillis(serverBusyException.getResponse()));
+      }
+      permitReleased.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Inspects the responses of a batch request, which don't raise an error
+   * when only some items fail, and reduces the limit when the server answered
+   * ErrorServerBusy to one of them
+   *
+   * @param responses {@link ServiceResponseCollection} of a batch request
+   */
+  public void onResponses(ServiceResponseCollection<? extends ServiceResponse> responses) {
+    if (responses == null) {
+      return;
+    }
+    for (ServiceResponse response : responses) {
+      if (response != null && response.getErrorCode() == ServiceError.ErrorServerBusy) {
+        lock.lock();
+        try {
+          onThrottled(System.currentTimeMillis(), getBackOffMillis(response));
+          permitReleased.signalAll();
+        } finally {
+          lock.unlock();
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return the current count of permits
+   */
+  public int getPermits() {
+    lock.lock();
+    try {
+      return (int) permits;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the count of operations currently sent to the server
+   */
+  public int getInFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the count of operations waiting for a permit
+   */
+  public int getWaiting() {
+    lock.lock();
+    try {
+      return waiting;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the count of ErrorServerBusy responses received from the server
+   */
+  public long getThrottledCount() {
+    lock.lock();
+    try {
+      return throttledCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the count of operations rejected because no permit was available
+   */
+  public long getRejectedCount() {
+    lock.lock();
+    try {
+      return rejectedCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean isPermitAvailable(long now) {
+    return now >= blockedUntil && inFlight < (int) permits;
+  }
+
+  private void onSuccess(OperationType operationType, long latencyMillis) {
+    Double observedMinLatency = minLatencies.get(operationType);
+    double minLatency;
+    if (observedMinLatency == null || latencyMillis < observedMinLatency) {
+      minLatency = latencyMillis;
+    } else {
+      minLatency = observedMinLatency + (latencyMillis - observedMinLatency) * MIN_LATENCY_DRIFT;
+    }
+    minLatencies.put(operationType, minLatency);
+    if (latencyMillis > LATENCY_TOLERANCE * Math.max(minLatency, 1)) {
+      permits = Math.max(minPermits, permits * LATENCY_DECREASE_RATIO);
+    } else if (inFlight + 1 >= (int) permits) {
+      // The limit grows by about one permit each time all the permits are
+      // used, and only if they are actually needed
+      permits = Math.min(maxPermits, permits + 1 / permits);
+    }
+  }
+
+  private void onThrottled(long now, long backOffMillis) {
+    throttledCount++;
+    // Responses of operations sent before the back-off don't decrease the
+    // limit again
+    if (now >= blockedUntil) {
+      permits = Math.max(minPermits, permits * BUSY_DECREASE_RATIO);
+      LOG.warn("Exchange server {} is busy, wait {} ms and reduce concurrent operations to {}",
+               serverUrl,
+               backOffMillis,
+               (int) permits);
+    }
+    blockedUntil = Math.max(blockedUntil, now + backOffMillis);
+  }
+
+  private long getBackOffMillis(ServiceResponse response) {
+    Map<String, String> errorDetails = response == null ? null : response.getErrorDetails();
+    String backOff = errorDetails == null ? null : errorDetails.get(BACK_OFF_DETAIL);
+    if (StringUtils.isNumeric(backOff)) {
+      return Long.parseLong(backOff);
+    }
+    return defaultBackOffMillis;
+  }
+
+  private ServiceResponseException getServerBusyException(Throwable error) {
+    Throwable cause = error;
+    while (cause != null) {
+      if (cause instanceof ServiceResponseException
+          && ((ServiceResponseException) cause).getErrorCode() == ServiceError.ErrorServerBusy) {
+        return (ServiceResponseException) cause;
+      }
+      cause = cause.getCause() == cause ? null : cause.getCause();
+    }
+    return null;
+  }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import microsoft.exchange.webservices.data.core.exception.http.HttpErrorException;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceRequestException;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceResponseException;
+
+/**
+ * Resolves the EWS endpoint of a mailbox. Mailbox domains are mapped to
+ * endpoints using the configured routes, parent domains included, and the
+ * mailboxes matching no route use the endpoints of the
+ * {@link ExchangeConnectorUtils#EXCHANGE_SERVER_URL_PROPERTY} property. When a
+ * domain has several endpoints, each mailbox sticks to one of them, so that its
+ * pooled connections are reused, and moves to another one only when its
+ * endpoint becomes unhealthy. An endpoint is considered unhealthy during a
+ * configurable delay after consecutive connection failures.
+ */
+public class ExchangeServerRouter {
+
+  private static final Log                  LOG                       = ExoLogger.getLogger(ExchangeServerRouter.class);
+
+  public static final String                ROUTES_PARAM              = "routes";
+
+  public static final String                FAILURE_THRESHOLD_PARAM   = "failureThreshold";
+
+  public static final String                UNHEALTHY_DELAY_PARAM     = "unhealthyDelaySeconds";
+
+  public static final String                MAX_STICKY_MAILBOXES_PARAM = "maxStickyMailboxes";
+
+  private static final int                  DEFAULT_FAILURE_THRESHOLD = 3;
+
+  private static final long                 DEFAULT_UNHEALTHY_DELAY   = 30;
+
+  private static final int                  DEFAULT_MAX_STICKY_MAILBOXES = 100000;
+
+  private final Map<String, List<String>>   domainEndpoints;
+
+  /**
+   * Endpoints of the mailboxes routed to a domain having several endpoints,
+   * the least recently resolved mailboxes are evicted once the maximum size is
+   * reached
+   */
+  private final Map<String, String>         mailboxEndpoints;
+
+  private final Map<String, EndpointHealth> endpointsHealth           = new ConcurrentHashMap<>();
+
+  /**
+   * Endpoints parsed from the last read value of the
+   * {@link ExchangeConnectorUtils#EXCHANGE_SERVER_URL_PROPERTY} property
+   */
+  private volatile DefaultEndpoints         defaultEndpoints          = new DefaultEndpoints(null);
+
+  private final int                         failureThreshold;
+
+  private final long                        unhealthyDelayMillis;
+
+  public ExchangeServerRouter(InitParams initParams) {
+    this.domainEndpoints = parseRoutes(ExchangeConnectorUtils.getParameter(initParams, ROUTES_PARAM));
+    this.failureThreshold = ExchangeConnectorUtils.getIntParameter(initParams, FAILURE_THRESHOLD_PARAM, DEFAULT_FAILURE_THRESHOLD);
+    this.unhealthyDelayMillis = TimeUnit.SECONDS.toMillis(ExchangeConnectorUtils.getLongParameter(initParams,
+                                                                                                  UNHEALTHY_DELAY_PARAM,
+                                                                                                  DEFAULT_UNHEALTHY_DELAY));
+    int maxStickyMailboxes = ExchangeConnectorUtils.getIntParameter(initParams,
+                                                                    MAX_STICKY_MAILBOXES_PARAM,
+                                                                    DEFAULT_MAX_STICKY_MAILBOXES);
+    this.mailboxEndpoints = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+      private static final long serialVersionUID = -6325437004826394131L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+        return size() > maxStickyMailboxes;
+      }
+    });
+  }
+
+  /**
+   * @param mailbox exchange username of the user, as user@domain, as a domain
+   *          and a user separated by a backslash, or as a plain user
+   * @return the URL of the exchange server to use for the mailbox
+   */
+  public String resolve(String mailbox) {
+    List<String> endpoints = getEndpoints(getDomain(mailbox));
+    if (endpoints.size() == 1) {
+      return endpoints.get(0);
+    }
+    String mailboxKey = StringUtils.lowerCase(String.valueOf(mailbox));
+    String stickyEndpoint = mailboxEndpoints.get(mailboxKey);
+    if (stickyEndpoint != null && endpoints.contains(stickyEndpoint) && isHealthy(stickyEndpoint)) {
+      return stickyEndpoint;
+    }
+    int firstIndex = Math.floorMod(mailboxKey.hashCode(), endpoints.size());
+    String endpoint = endpoints.get(firstIndex);
+    for (int i = 0; i < endpoints.size(); i++) {
+      String candidate = endpoints.get((firstIndex + i) % endpoints.size());
+      if (isHealthy(candidate)) {
+        endpoint = candidate;
+        break;
+      }
+    }
+    if (!endpoint.equals(stickyEndpoint)) {
+      if (stickyEndpoint != null) {
+        LOG.info("Route mailbox {} from exchange server {} to {}", mailbox, stickyEndpoint, endpoint);
+      }
+      mailboxEndpoints.put(mailboxKey, endpoint);
+    }
+    return endpoint;
+  }
+
+  /**
+   * @param endpoint exchange server URL
+   * @return false when the last connections to the exchange server failed and
+   *         the unhealthy delay isn't elapsed yet
+   */
+  public boolean isHealthy(String endpoint) {
+    EndpointHealth endpointHealth = endpoint == null ? null : endpointsHealth.get(endpoint);
+    return endpointHealth == null || endpointHealth.unhealthyUntil <= System.currentTimeMillis();
+  }
+
+  public void reportSuccess(String endpoint) {
+    EndpointHealth endpointHealth = endpoint == null ? null : endpointsHealth.get(endpoint);
+    if (endpointHealth != null) {
+      if (endpointHealth.unhealthyUntil > 0) {
+        LOG.info("Exchange server {} is reachable again", endpoint);
+      }
+      endpointHealth.consecutiveFailures.set(0);
+      endpointHealth.unhealthyUntil = 0;
+    }
+  }
+
+  /**
+   * Records the failure of an operation sent to an exchange server. Only the
+   * errors showing that the server can't be reached are considered: the
+   * errors returned by the server for a given request, including
+   * authentication errors, don't affect its health.
+   *
+   * @param endpoint exchange server URL
+   * @param error error of the operation
+   */
+  public void reportFailure(String endpoint, Throwable error) {
+    if (endpoint == null || !isEndpointFailure(error)) {
+      return;
+    }
+    EndpointHealth endpointHealth = endpointsHealth.computeIfAbsent(endpoint, key -> new EndpointHealth());
+    if (endpointHealth.consecutiveFailures.incrementAndGet() >= failureThreshold) {
+      if (endpointHealth.unhealthyUntil <= System.currentTimeMillis()) {
+        LOG.warn("Exchange server {} failed {} times consecutively, avoid it during {} ms",
+                 endpoint,
+                 endpointHealth.consecutiveFailures.get(),
+                 unhealthyDelayMillis);
+      }
+      endpointHealth.unhealthyUntil = System.currentTimeMillis() + unhealthyDelayMillis;
+    }
+  }
+
+  /**
+   * @return the health of all known exchange servers by URL
+   */
+  public Map<String, Boolean> getEndpointsHealth() {
+    Map<String, Boolean> health = new HashMap<>();
+    domainEndpoints.values().forEach(endpoints -> endpoints.forEach(endpoint -> health.put(endpoint, isHealthy(endpoint))));
+    getDefaultEndpoints().stream()
+                         .filter(Objects::nonNull)
+                         .forEach(endpoint -> health.put(endpoint, isHealthy(endpoint)));
+    return health;
+  }
+
+  private List<String> getEndpoints(String domain) {
+    while (domain != null) {
+      List<String> endpoints = domainEndpoints.get(domain);
+      if (endpoints != null) {
+        return endpoints;
+      }
+      int dotIndex = domain.indexOf('.');
+      domain = dotIndex < 0 ? null : domain.substring(dotIndex + 1);
+    }
+    return getDefaultEndpoints();
+  }
+
+  private List<String> getDefaultEndpoints() {
+    // Read at each call since it can be set after the container startup, but
+    // parsed again only when it changed
+    String property = System.getProperty(ExchangeConnectorUtils.EXCHANGE_SERVER_URL_PROPERTY);
+    DefaultEndpoints currentDefaultEndpoints = defaultEndpoints;
+    if (!StringUtils.equals(currentDefaultEndpoints.property, property)) {
+      currentDefaultEndpoints = new DefaultEndpoints(property);
+      defaultEndpoints = currentDefaultEndpoints;
+    }
+    return currentDefaultEndpoints.endpoints;
+  }
+
+  private static String getDomain(String mailbox) {
+    if (StringUtils.isBlank(mailbox)) {
+      return null;
+    }
+    int atIndex = mailbox.lastIndexOf('@');
+    if (atIndex >= 0) {
+      return StringUtils.lowerCase(mailbox.substring(atIndex + 1).trim());
+    }
+    int backslashIndex = mailbox.indexOf('\\');
+    return backslashIndex > 0 ? StringUtils.lowerCase(mailbox.substring(0, backslashIndex).trim()) : null;
+  }
+
+  /**
+   * Parses routes defined as
+   * domain1=https://server1,https://server2;domain2=https://server3
+   */
+  private static Map<String, List<String>> parseRoutes(String routes) {
+    Map<String, List<String>> domainEndpoints = new HashMap<>();
+    if (StringUtils.isBlank(routes)) {
+      return domainEndpoints;
+    }
+    for (String route : routes.split(";")) {
+      int separatorIndex = route.indexOf('=');
+      if (separatorIndex <= 0) {
+        if (StringUtils.isNotBlank(route)) {
+          LOG.warn("Ignore invalid exchange server route '{}'", route);
+        }
+        continue;
+      }
+      String domain = StringUtils.lowerCase(route.substring(0, separatorIndex).trim());
+      List<String> endpoints = parseEndpoints(route.substring(separatorIndex + 1));
+      if (endpoints.isEmpty()) {
+        LOG.warn("Ignore exchange server route of domain '{}' without endpoint", domain);
+      } else {
+        domainEndpoints.put(domain, endpoints);
+      }
+    }
+    return domainEndpoints;
+  }
+
+  private static List<String> parseEndpoints(String endpoints) {
+    List<String> endpointsList = new ArrayList<>();
+    if (StringUtils.isNotBlank(endpoints)) {
+      for (String endpoint : endpoints.split(",")) {
+        if (StringUtils.isNotBlank(endpoint)) {
+          endpointsList.add(StringUtils.removeEnd(endpoint.trim(), "/"));
+        }
+      }
+    }
+    return endpointsList;
+  }
+
+  private static boolean isEndpointFailure(Throwable error) {
+    Throwable cause = error;
+    while (cause != null) {
+      if (cause instanceof HttpErrorException) {
+        return ((HttpErrorException) cause).getHttpErrorCode() >= 500;
+      } else if (cause instanceof ServiceResponseException) {
+        return false;
+      } else if (cause instanceof IOException) {
+        return true;
+      }
+      cause = cause.getCause() == cause ? null : cause.getCause();
+    }
+    return error instanceof ServiceRequestException;
+  }
+
+  private static final class EndpointHealth {
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private volatile long       unhealthyUntil;
+  }
+
+  private static final class DefaultEndpoints {
+    private final String       property;
+
+    private final List<String> endpoints;
+
+    private DefaultEndpoints(String property) {
+      List<String> parsedEndpoints = parseEndpoints(property);
+      this.property = property;
+      this.endpoints = parsedEndpoints.isEmpty() ? Collections.singletonList(null)
+                                                 : Collections.unmodifiableList(parsedEndpoints);
+    }
+  }
+}
@@ -0,0 +1,765 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.service;
+
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.picocontainer.Startable;
+
+import org.exoplatform.agendaconnector.model.ExchangeUserSetting;
+import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
+import org.exoplatform.agendaconnector.utils.ExchangeDeadline;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.response.ServiceResponse;
+import microsoft.exchange.webservices.data.core.response.ServiceResponseCollection;
+
+/**
+ * Keeps authenticated {@link ExchangeService} instances per user identity so
+ * that consecutive EWS calls of the same user reuse the same HTTP connection
+ * and NTLM/TLS context instead of establishing a new one for each call. A
+ * session is lent exclusively to one caller at a time, idle sessions are
+ * closed after a configurable delay and the total number of idle sessions is
+ * bounded. Operations are executed through an {@link ExchangeServerBulkhead}
+ * per exchange server, which bounds the count of concurrent operations sent to
+ * the server. The exchange server of each user is resolved by the
+ * {@link ExchangeServerRouter}, which is told about the connection failures.
+ * Sessions which must outlive an operation, such as the ones of pull
+ * subscriptions, are kept by their owner as {@link DedicatedSession} and go
+ * through the same bulkhead and router.
+ * Each {@link OperationType} has its own timeout, bounded by the
+ * deadline of the current request, and reads may be hedged: when a read lasts
+ * longer than the 95th percentile of the recent reads, a second identical read
+ * is sent and the first answer is used.
+ */
+public class ExchangeSessionPool implements Startable {
+
+  private static final Log                      LOG                       = ExoLogger.getLogger(ExchangeSessionPool.class);
+
+  public static final String                    MAX_SIZE_PARAM            = "maxSize";
+
+  public static final String                    MAX_SIZE_PER_USER_PARAM   = "maxSizePerUser";
+
+  public static final String                    IDLE_TIMEOUT_PARAM        = "idleTimeoutSeconds";
+
+  private static final int                      DEFAULT_MAX_SIZE          = 200;
+
+  private static final int                      DEFAULT_MAX_SIZE_PER_USER = 2;
+
+  private static final long                     DEFAULT_IDLE_TIMEOUT      = 300;
+
+  public static final String                    MIN_PERMITS_PARAM         = "bulkheadMinPermits";
+
+  public static final String                    MAX_PERMITS_PARAM         = "bulkheadMaxPermits";
+
+  public static final String                    INITIAL_PERMITS_PARAM     = "bulkheadInitialPermits";
+
+  public static final String                    MAX_QUEUE_SIZE_PARAM      = "bulkheadMaxQueueSize";
+
+  public static final String                    MAX_WAIT_PARAM            = "bulkheadMaxWaitMillis";
+
+  public static final String                    DEFAULT_BACK_OFF_PARAM    = "bulkheadDefaultBackOffMillis";
+
+  private static final int                      DEFAULT_MIN_PERMITS       = 2;
+
+  private static final int                      DEFAULT_MAX_PERMITS       = 50;
+
+  private static final int                      DEFAULT_INITIAL_PERMITS   = 10;
+
+  private static final int                      DEFAULT_MAX_QUEUE_SIZE    = 200;
+
+  private static final long                     DEFAULT_MAX_WAIT          = 10000;
+
+  private static final long                     DEFAULT_BACK_OFF          = 5000;
+
+  public static final String                    LIST_TIMEOUT_PARAM        = "listTimeoutMillis";
+
+  public static final String                    PUSH_TIMEOUT_PARAM        = "pushTimeoutMillis";
+
+  public static final String                    DELETE_TIMEOUT_PARAM      = "deleteTimeoutMillis";
+
+  public static final String                    REFRESH_TIMEOUT_PARAM     = "refreshTimeoutMillis";
+
+  public static final String                    CHECK_TIMEOUT_PARAM       = "credentialCheckTimeoutMillis";
+
+  public static final String                    HEDGE_THREADS_PARAM       = "hedgeThreads";
+
+  private static final long                     DEFAULT_LIST_TIMEOUT      = 30000;
+
+  private static final long                     DEFAULT_PUSH_TIMEOUT      = 60000;
+
+  private static final long                     DEFAULT_DELETE_TIMEOUT    = 60000;
+
+  private static final long                     DEFAULT_REFRESH_TIMEOUT   = 60000;
+
+  private static final long                     DEFAULT_CHECK_TIMEOUT     = 15000;
+
+  /**
+   * Reads are not hedged by default
+   */
+  private static final int                      DEFAULT_HEDGE_THREADS     = 0;
+
+  private static final double                   HEDGE_PERCENTILE          = 0.95;
+
+  private final Map<Long, Deque<PooledSession>> idleSessions              = new ConcurrentHashMap<>();
+
+  private final Map<Long, AtomicLong>           generations               = new ConcurrentHashMap<>();
+
+  private final AtomicInteger                   idleSessionsCount         = new AtomicInteger();
+
+  private final Map<String, ExchangeServerBulkhead> bulkheads             = new ConcurrentHashMap<>();
+
+  private final int                             maxSize;
+
+  private final int                             maxSizePerUser;
+
+  private final long                            idleTimeoutMillis;
+
+  private final int                             minPermits;
+
+  private final int                             maxPermits;
+
+  private final int                             initialPermits;
+
+  private final int                             maxQueueSize;
+
+  private final long                            maxWaitMillis;
+
+  private final long                            defaultBackOffMillis;
+
+  private final Map<OperationType, Long>        operationTimeouts         = new EnumMap<>(OperationType.class);
+
+  private final LatencyTracker                  listLatencyTracker        = new LatencyTracker(100);
+
+  private final ExecutorService                 hedgeExecutor;
+
+  private final ExchangeServerRouter            exchangeServerRouter;
+
+  private final ConnectorMetrics                connectorMetrics;
+
+  private final ExchangeCredentialValidator     exchangeCredentialValidator;
+
+  private ScheduledExecutorService              evictionExecutor;
+
+  public ExchangeSessionPool(ExchangeServerRouter exchangeServerRouter,
+                             ConnectorMetrics connectorMetrics,
+                             ExchangeCredentialValidator exchangeCredentialValidator,
+                             InitParams initParams) {
+    this.exchangeServerRouter = exchangeServerRouter;
+    this.connectorMetrics = connectorMetrics;
+    this.exchangeCredentialValidator = exchangeCredentialValidator;
+    this.maxSize = ExchangeConnectorUtils.getIntParameter(initParams, MAX_SIZE_PARAM, DEFAULT_MAX_SIZE);
+    this.maxSizePerUser = ExchangeConnectorUtils.getIntParameter(initParams,
+                                                                 MAX_SIZE_PER_USER_PARAM,
+                                                                 DEFAULT_MAX_SIZE_PER_USER);
+    this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(ExchangeConnectorUtils.getLongParameter(initParams,
+                                                                                               IDLE_TIMEOUT_PARAM,
+                                                                                               DEFAULT_IDLE_TIMEOUT));
+    this.minPermits = ExchangeConnectorUtils.getIntParameter(initParams, MIN_PERMITS_PARAM, DEFAULT_MIN_PERMITS);
+    this.maxPermits = ExchangeConnectorUtils.getIntParameter(initParams, MAX_PERMITS_PARAM, DEFAULT_MAX_PERMITS);
+    this.initialPermits = ExchangeConnectorUtils.getIntParameter(initParams, INITIAL_PERMITS_PARAM, DEFAULT_INITIAL_PERMITS);
+    this.maxQueueSize = ExchangeConnectorUtils.getIntParameter(initParams, MAX_QUEUE_SIZE_PARAM, DEFAULT_MAX_QUEUE_SIZE);
+    this.maxWaitMillis = ExchangeConnectorUtils.getLongParameter(initParams, MAX_WAIT_PARAM, DEFAULT_MAX_WAIT);
+    this.defaultBackOffMillis = ExchangeConnectorUtils.getLongParameter(initParams, DEFAULT_BACK_OFF_PARAM, DEFAULT_BACK_OFF);
+    this.operationTimeouts.put(OperationType.LIST,
+                               ExchangeConnectorUtils.getLongParameter(initParams, LIST_TIMEOUT_PARAM, DEFAULT_LIST_TIMEOUT));
+    this.operationTimeouts.put(OperationType.PUSH,
+                               ExchangeConnectorUtils.getLongParameter(initParams, PUSH_TIMEOUT_PARAM, DEFAULT_PUSH_TIMEOUT));
+    this.operationTimeouts.put(OperationType.DELETE,
+                               ExchangeConnectorUtils.getLongParameter(initParams, DELETE_TIMEOUT_PARAM, DEFAULT_DELETE_TIMEOUT));
+    this.operationTimeouts.put(OperationType.REFRESH,
+                               ExchangeConnectorUtils.getLongParameter(initParams, REFRESH_TIMEOUT_PARAM, DEFAULT_REFRESH_TIMEOUT));
+    this.operationTimeouts.put(OperationType.CREDENTIAL_CHECK,
+                               ExchangeConnectorUtils.getLongParameter(initParams, CHECK_TIMEOUT_PARAM, DEFAULT_CHECK_TIMEOUT));
+    int hedgeThreads = ExchangeConnectorUtils.getIntParameter(initParams, HEDGE_THREADS_PARAM, DEFAULT_HEDGE_THREADS);
+    this.hedgeExecutor = hedgeThreads <= 0 ? null
+                                           : new ThreadPoolExecutor(0,
+                                                                    hedgeThreads,
+                                                                    60L,
+                                                                    TimeUnit.SECONDS,
+                                                                    new SynchronousQueue<>(),
+                                                                    ExchangeConnectorUtils.newDaemonThreadFactory("ExchangeHedgedRead"));
+  }
+
+  @Override
+  public void start() {
+    evictionExecutor = Executors.newSingleThreadScheduledExecutor(ExchangeConnectorUtils.newDaemonThreadFactory("ExchangeSessionPool"));
+    long evictionPeriod = Math.max(idleTimeoutMillis / 2, 1000);
+    evictionExecutor.scheduleWithFixedDelay(this::evictIdleSessions, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void stop() {
+    if (evictionExecutor != null) {
+      evictionExecutor.shutdownNow();
+    }
+    if (hedgeExecutor != null) {
+      hedgeExecutor.shutdownNow();
+    }
+    idleSessions.keySet().forEach(this::invalidate);
+  }
+
+  /**
+   * Executes an operation using an authenticated {@link ExchangeService} of the
+   * user. An idle session of the user is reused when available, else a new one
+   * is opened. The session is given back to the pool when the operation
+   * succeeds and closed when it fails. The operation waits for a permit of the
+   * exchange server bulkhead before being executed, then its requests time out
+   * after the delay configured for its type or at the current request deadline.
+   *
+   * @param userIdentityId User identity identifier
+   * @param exchangeUserSetting {@link ExchangeUserSetting} used to open a new
+   *          session when none is available
+   * @param operationType {@link OperationType} of the operation
+   * @param operation {@link ExchangeOperation} to execute
+   * @return the operation result
+   * @throws Exception when the connection or the operation fails,
+   *           {@link TimeoutException} when the exchange server is too busy to
+   *           execute the operation before the request deadline, or
+   *           {@link ExchangeUnavailableException} when the operation timeout
+   *           or the request deadline is reached before one of its requests
+   */
+  public <T> T execute(long userIdentityId,
+                       ExchangeUserSetting exchangeUserSetting,
+                       OperationType operationType,
+                       ExchangeOperation<T> operation) throws Exception {
+    return executeOnServer(exchangeUserSetting,
+                           operationType,
+                           serverUrl -> executeWithSession(userIdentityId,
+                                                           exchangeUserSetting,
+                                                           serverUrl,
+                                                           operationType,
+                                                           operation));
+  }
+
+  /**
+   * Executes an operation using a session kept by the caller instead of a
+   * pooled one, typically because an EWS object such as a pull subscription is
+   * bound to the {@link ExchangeService} which created it. The session is
+   * opened, or opened again when the exchange server of the user changed,
+   * then the operation is executed through the exchange server bulkhead as
+   * with {@link #execute(long, ExchangeUserSetting, OperationType, ExchangeOperation)}.
+   * The session is closed by the caller.
+   *
+   * @param exchangeUserSetting {@link ExchangeUserSetting} used to open the
+   *          session
+   * @param session {@link DedicatedSession} kept by the caller
+   * @param operationType {@link OperationType} of the operation
+   * @param operation {@link ExchangeOperation} to execute
+   * @return the operation result
+   * @throws Exception when the connection or the operation fails,
+   *           {@link TimeoutException} when the exchange server is too busy to
+   *           execute the operation before the request deadline, or
+   *           {@link ExchangeUnavailableException} when the operation timeout
+   *           or the request deadline is reached before one of its requests
+   */
+  public <T> T execute(ExchangeUserSetting exchangeUserSetting,
+                       DedicatedSession session,
+                       OperationType operationType,
+                       ExchangeOperation<T> operation) throws Exception {
+    return executeOnServer(exchangeUserSetting, operationType, serverUrl -> {
+      synchronized (session) {
+        if (session.exchangeService == null || !Objects.equals(session.serverUrl, serverUrl)) {
+          session.close();
+          session.exchangeService = connect(exchangeUserSetting, serverUrl);
+          session.serverUrl = serverUrl;
+        }
+        return executeBeforeDeadline(session.exchangeService, operationType, operation);
+      }
+    });
+  }
+
+  /**
+   * Executes an idempotent read operation. When hedged reads are enabled and
+   * the operation lasts longer than the 95th percentile of the recent reads, a
+   * second identical operation is executed with another session and the first
+   * successful result is returned.
+   *
+   * @param userIdentityId User identity identifier
+   * @param exchangeUserSetting {@link ExchangeUserSetting} used to open a new
+   *          session when none is available
+   * @param operation idempotent {@link ExchangeOperation} to execute
+   * @return the operation result
+   * @throws Exception when both operations fail
+   */
+  public <T> T executeRead(long userIdentityId,
+                           ExchangeUserSetting exchangeUserSetting,
+                           ExchangeOperation<T> operation) throws Exception {
+    long hedgeDelay = listLatencyTracker.getPercentile(HEDGE_PERCENTILE);
+    if (hedgeExecutor == null || hedgeDelay < 0) {
+      return execute(userIdentityId, exchangeUserSetting, OperationType.LIST, operation);
+    }
+    long deadline = ExchangeDeadline.get();
+    CompletionService<T> completionService = new ExecutorCompletionService<>(hedgeExecutor);
+    Future<T> primaryRead;
+    try {
+      primaryRead = completionService.submit(() -> executeWithDeadline(deadline,
+                                                                       userIdentityId,
+                                                                       exchangeUserSetting,
+                                                                       operation));
+    } catch (RejectedExecutionException e) {
+      return execute(userIdentityId, exchangeUserSetting, OperationType.LIST, operation);
+    }
+    Future<T> hedgedRead = null;
+    try {
+      Future<T> completedRead = completionService.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+      if (completedRead == null) {
+        try {
+          hedgedRead = completionService.submit(() -> executeWithDeadline(deadline,
+                                                                          userIdentityId,
+                                                                          exchangeUserSetting,
+                                                                          operation));
+          LOG.debug("Exchange read of user {} lasts more than {} ms, send a hedged read", userIdentityId, hedgeDelay);
+        } catch (RejectedExecutionException e) {
+          LOG.debug("No thread available to send a hedged read for user {}", userIdentityId);
+        }
+        completedRead = completionService.take();
+      }
+      try {
+        return completedRead.get();
+      } catch (ExecutionException e) {
+        if (hedgedRead == null) {
+          throw unwrap(e);
+        }
+        // The first answer is an error, use the other one
+        try {
+          return completionService.take().get();
+        } catch (ExecutionException otherException) {
+          throw unwrap(e);
+        }
+      }
+    } finally {
+      primaryRead.cancel(true);
+      if (hedgedRead != null) {
+        hedgedRead.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * @param operationType {@link OperationType}
+   * @return the timeout in milliseconds of the operations of the given type
+   */
+  public long getOperationTimeout(OperationType operationType) {
+    return operationTimeouts.get(operationType);
+  }
+
+  /**
+   * Opens a new authenticated {@link ExchangeService} outside of the pool,
+   * on the exchange server of the user, checking the user credentials if not
+   * already done.
+   *
+   * @param exchangeUserSetting {@link ExchangeUserSetting} of the user
+   * @return {@link ExchangeService} to close by the caller
+   * @throws Exception when the connection fails, or {@link TimeoutException}
+   *           when the request deadline is reached
+   */
+  public ExchangeService connect(ExchangeUserSetting exchangeUserSetting) throws Exception {
+    return connect(exchangeUserSetting, getServerUrl(exchangeUserSetting));
+  }
+
+  /**
+   * @param exchangeUserSetting {@link ExchangeUserSetting} of the user
+   * @return the URL of the exchange server of the user
+   */
+  public String getServerUrl(ExchangeUserSetting exchangeUserSetting) {
+    return exchangeServerRouter.resolve(exchangeUserSetting.getUsername());
+  }
+
+  /**
+   * Forgets the successful validation of the user credentials, so that they
+   * are checked again at next connection
+   *
+   * @param exchangeUserSetting {@link ExchangeUserSetting} of the user
+   */
+  public void invalidateCredentialValidation(ExchangeUserSetting exchangeUserSetting) {
+    exchangeCredentialValidator.invalidate(getServerUrl(exchangeUserSetting), exchangeUserSetting);
+  }
+
+  /**
+   * @param serverUrl exchange server URL
+   * @return the {@link ExchangeServerBulkhead} of the exchange server
+   */
+  public ExchangeServerBulkhead getBulkhead(String serverUrl) {
+    return bulkheads.computeIfAbsent(String.valueOf(serverUrl),
+                                     url -> new ExchangeServerBulkhead(url,
+                                                                       minPermits,
+                                                                       maxPermits,
+                                                                       initialPermits,
+                                                                       maxQueueSize,
+                                                                       maxWaitMillis,
+                                                                       defaultBackOffMillis));
+  }
+
+  /**
+   * Tells the bulkhead of the exchange server about the responses of a batch
+   * request, whose items may have been refused with ErrorServerBusy while the
+   * request itself succeeded
+   *
+   * @param exchangeService {@link ExchangeService} which sent the request
+   * @param responses {@link ServiceResponseCollection} of the request
+   */
+  public void onResponses(ExchangeService exchangeService, ServiceResponseCollection<? extends ServiceResponse> responses) {
+    ExchangeServerBulkhead bulkhead = bulkheads.get(String.valueOf(ExchangeConnectorUtils.getExchangeServerUrl(exchangeService)));
+    if (bulkhead != null) {
+      bulkhead.onResponses(responses);
+    }
+  }
+
+  /**
+   * Closes all the sessions of a user, typically when the user exchange
+   * settings are modified or removed.
+   *
+   * @param userIdentityId User identity identifier
+   */
+  public void invalidate(long userIdentityId) {
+    generations.computeIfAbsent(userIdentityId, key -> new AtomicLong()).incrementAndGet();
+    Deque<PooledSession> userSessions = idleSessions.remove(userIdentityId);
+    if (userSessions != null) {
+      PooledSession session;
+      while ((session = userSessions.pollFirst()) != null) {
+        idleSessionsCount.decrementAndGet();
+        close(session);
+      }
+    }
+  }
+
+  /**
+   * @return the count of idle sessions kept in pool
+   */
+  public int getIdleSessionsCount() {
+    return idleSessionsCount.get();
+  }
+
+  private <T> T executeWithDeadline(long deadline,
+                                    long userIdentityId,
+                                    ExchangeUserSetting exchangeUserSetting,
+                                    ExchangeOperation<T> operation) throws Exception {
+    ExchangeDeadline.set(deadline);
+    try {
+      return execute(userIdentityId, exchangeUserSetting, OperationType.LIST, operation);
+    } finally {
+      ExchangeDeadline.clear();
+    }
+  }
+
+  private <T> T executeOnServer(ExchangeUserSetting exchangeUserSetting,
+                                OperationType operationType,
+                                ServerOperation<T> operation) throws Exception {
+    long timeoutMillis = ExchangeDeadline.getTimeout(getOperationTimeout(operationType));
+    if (timeoutMillis <= 0) {
+      throw new TimeoutException("Request deadline reached before executing exchange operation " + operationType);
+    }
+    String serverUrl = getServerUrl(exchangeUserSetting);
+    ExchangeServerBulkhead bulkhead = getBulkhead(serverUrl);
+    // Time spent waiting for the bulkhead is spent in eXo, not in exchange
+    connectorMetrics.time(ConnectorMetrics.EXCHANGE_CONNECTOR, "bulkheadWait", () -> {
+      bulkhead.acquire(timeoutMillis);
+      return null;
+    });
+    long startTime = System.currentTimeMillis();
+    Throwable error = null;
+    try {
+      return operation.execute(serverUrl);
+    } catch (Exception | Error e) {
+      error = e;
+      throw e;
+    } finally {
+      long latency = System.currentTimeMillis() - startTime;
+      if (operationType == OperationType.REFRESH) {
+        // Background refreshes retrieve larger periods than the requests of
+        // the users, their latency doesn't tell about the server load
+        bulkhead.release(error);
+      } else {
+        bulkhead.release(operationType, latency, error);
+      }
+      if (error == null) {
+        exchangeServerRouter.reportSuccess(serverUrl);
+      } else {
+        exchangeServerRouter.reportFailure(serverUrl, error);
+      }
+      if (error == null && operationType == OperationType.LIST) {
+        listLatencyTracker.record(latency);
+      }
+    }
+  }
+
+  private <T> T executeWithSession(long userIdentityId,
+                                   ExchangeUserSetting exchangeUserSetting,
+                                   String serverUrl,
+                                   OperationType operationType,
+                                   ExchangeOperation<T> operation) throws Exception {
+    PooledSession session = borrow(userIdentityId, exchangeUserSetting, serverUrl);
+    boolean succeeded = false;
+    try {
+      T result = executeBeforeDeadline(session.exchangeService, operationType, operation);
+      succeeded = true;
+      return result;
+    } finally {
+      if (succeeded) {
+        release(session);
+      } else {
+        close(session);
+      }
+    }
+  }
+
+  /**
+   * Executes an operation with the end of its timeout as deadline, so that
+   * each EWS request of the operation gets the remaining delay as timeout, see
+   * {@link ExchangeDeadline#applyTimeout(ExchangeService)}
+   */
+  private <T> T executeBeforeDeadline(ExchangeService exchangeService,
+                                      OperationType operationType,
+                                      ExchangeOperation<T> operation) throws Exception {
+    long previousDeadline = ExchangeDeadline.get();
+    long timeoutMillis = ExchangeDeadline.getTimeout(getOperationTimeout(operationType));
+    ExchangeDeadline.set(System.currentTimeMillis() + Math.max(timeoutMillis, 0));
+    try {
+      ExchangeDeadline.applyTimeout(exchangeService);
+      return operation.execute(exchangeService);
+    } finally {
+      ExchangeDeadline.set(previousDeadline);
+    }
+  }
+
+  private PooledSession borrow(long userIdentityId,
+                               ExchangeUserSetting exchangeUserSetting,
+                               String serverUrl) throws Exception {
+    Deque<PooledSession> userSessions = idleSessions.get(userIdentityId);
+    if (userSessions != null) {
+      PooledSession session;
+      while ((session = userSessions.pollFirst()) != null) {
+        idleSessionsCount.decrementAndGet();
+        if (isReusable(session, System.currentTimeMillis()) && Objects.equals(session.serverUrl, serverUrl)) {
+          return session;
+        }
+        close(session);
+      }
+    }
+    long generation = getGeneration(userIdentityId);
+    return new PooledSession(userIdentityId, generation, serverUrl, connect(exchangeUserSetting, serverUrl));
+  }
+
+  private ExchangeService connect(ExchangeUserSetting exchangeUserSetting, String serverUrl) throws Exception {
+    long timeoutMillis = ExchangeDeadline.getTimeout(getOperationTimeout(OperationType.CREDENTIAL_CHECK));
+    if (timeoutMillis <= 0) {
+      throw new TimeoutException("Request deadline reached before connecting to exchange server");
+    }
+    if (!exchangeUserSetting.isCredentialChecked() && exchangeCredentialValidator.isValidated(serverUrl, exchangeUserSetting)) {
+      exchangeUserSetting.setCredentialChecked(true);
+    }
+    boolean credentialChecked = exchangeUserSetting.isCredentialChecked();
+    ExchangeService exchangeService = connectorMetrics.time(ConnectorMetrics.EXCHANGE_CONNECTOR,
+                                                            "connect",
+                                                            () -> ExchangeConnectorUtils.connectExchangeServer(exchangeUserSetting,
+                                                                                                               serverUrl,
+                                                                                                               (int) timeoutMillis));
+    if (!credentialChecked) {
+      exchangeCredentialValidator.markValidated(serverUrl, exchangeUserSetting);
+    }
+    return exchangeService;
+  }
+
+  private void release(PooledSession session) {
+    session.lastUsedTime = System.currentTimeMillis();
+    if (session.generation != getGeneration(session.userIdentityId)) {
+      close(session);
+      return;
+    }
+    Deque<PooledSession> userSessions = idleSessions.computeIfAbsent(session.userIdentityId,
+                                                                     key -> new ConcurrentLinkedDeque<>());
+    if (userSessions.size() >= maxSizePerUser) {
+      close(session);
+      return;
+    }
+    if (idleSessionsCount.incrementAndGet() > maxSize) {
+      idleSessionsCount.decrementAndGet();
+      close(session);
+      return;
+    }
+    userSessions.offerFirst(session);
+  }
+
+  private void evictIdleSessions() {
+    long now = System.currentTimeMillis();
+    for (Map.Entry<Long, Deque<PooledSession>> entry : idleSessions.entrySet()) {
+      Iterator<PooledSession> iterator = entry.getValue().iterator();
+      while (iterator.hasNext()) {
+        PooledSession session = iterator.next();
+        if (!isReusable(session, now) && entry.getValue().remove(session)) {
+          idleSessionsCount.decrementAndGet();
+          close(session);
+        }
+      }
+    }
+  }
+
+  private boolean isReusable(PooledSession session, long now) {
+    return now - session.lastUsedTime < idleTimeoutMillis && session.generation == getGeneration(session.userIdentityId);
+  }
+
+  private long getGeneration(long userIdentityId) {
+    AtomicLong generation = generations.get(userIdentityId);
+    return generation == null ? 0 : generation.get();
+  }
+
+  private void close(PooledSession session) {
+    try {
+      session.exchangeService.close();
+    } catch (Exception e) {
+      LOG.debug("Error when closing exchange session of user {}", session.userIdentityId, e);
+    }
+  }
+
+  private Exception unwrap(ExecutionException e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return cause instanceof Exception ? (Exception) cause : e;
+  }
+
+  /**
+   * Types of operations having distinct timeouts. {@link #REFRESH} is used by
+   * background refreshes, which are neither hedged nor taken into account to
+   * adapt the bulkhead limit.
+   */
+  public enum OperationType {
+    LIST, PUSH, DELETE, CREDENTIAL_CHECK, REFRESH
+  }
+
+  /**
+   * An operation to execute with a pooled {@link ExchangeService}
+   */
+  @FunctionalInterface
+  public interface ExchangeOperation<T> {
+    T execute(ExchangeService exchangeService) throws Exception;
+  }
+
+  @FunctionalInterface
+  private interface ServerOperation<T> {
+    T execute(String serverUrl) throws Exception;
+  }
+
+  /**
+   * An {@link ExchangeService} kept by its owner instead of being pooled
+   */
+  public static final class DedicatedSession {
+    private ExchangeService exchangeService;
+
+    private String          serverUrl;
+
+    /**
+     * @return the opened {@link ExchangeService} or null if not opened
+     */
+    public synchronized ExchangeService getExchangeService() {
+      return exchangeService;
+    }
+
+    public synchronized void close() {
+      if (exchangeService != null) {
+        try {
+          exchangeService.close();
+        } catch (Exception e) {
+          LOG.debug("Error when closing dedicated exchange session", e);
+        }
+        exchangeService = null;
+        serverUrl = null;
+      }
+    }
+  }
+
+  /**
+   * Keeps the latencies of the last operations to compute their percentiles
+   */
+  private static final class LatencyTracker {
+    private static final int MIN_SAMPLES = 20;
+
+    private final long[]     samples;
+
+    private int              samplesCount;
+
+    private int              nextSampleIndex;
+
+    private LatencyTracker(int size) {
+      this.samples = new long[size];
+    }
+
+    private synchronized void record(long latency) {
+      samples[nextSampleIndex] = latency;
+      nextSampleIndex = (nextSampleIndex + 1) % samples.length;
+      samplesCount = Math.min(samplesCount + 1, samples.length);
+    }
+
+    /**
+     * @return the percentile of the recorded latencies or -1 when not enough
+     *         latencies are recorded
+     */
+    private synchronized long getPercentile(double percentile) {
+      if (samplesCount < MIN_SAMPLES) {
+        return -1;
+      }
+      long[] sortedSamples = Arrays.copyOf(samples, samplesCount);
+      Arrays.sort(sortedSamples);
+      return sortedSamples[(int) Math.ceil(percentile * samplesCount) - 1];
+    }
+  }
+
+  private static final class PooledSession {
+    private final long            userIdentityId;
+
+    private final long            generation;
+
+    private final String          serverUrl;
+
+    private final ExchangeService exchangeService;
+
+    private volatile long         lastUsedTime = System.currentTimeMillis();
+
+    private PooledSession(long userIdentityId, long generation, String serverUrl, ExchangeService exchangeService) {
+      this.userIdentityId = userIdentityId;
+      this.generation = generation;
+      this.serverUrl = serverUrl;
+      this.exchangeService = exchangeService;
+    }
+  }
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.service;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang3.StringUtils;
+import org.picocontainer.Startable;
+
+import org.exoplatform.agendaconnector.model.ExchangeUserSetting;
+import org.exoplatform.agendaconnector.service.ExchangeSessionPool.DedicatedSession;
+import org.exoplatform.agendaconnector.service.ExchangeSessionPool.OperationType;
+import org.exoplatform.agendaconnector.storage.ExchangeConnectorStorage;
+import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
+import org.exoplatform.agendaconnector.utils.ExchangeDeadline;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.services.listener.ListenerService;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.enumeration.misc.error.ServiceError;
+import microsoft.exchange.webservices.data.core.enumeration.notification.EventType;
+import microsoft.exchange.webservices.data.core.enumeration.property.WellKnownFolderName;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceResponseException;
+import microsoft.exchange.webservices.data.notification.GetEventsResults;
+import microsoft.exchange.webservices.data.notification.ItemEvent;
+import microsoft.exchange.webservices.data.notification.PullSubscription;
+import microsoft.exchange.webservices.data.property.complex.FolderId;
+
+/**
+ * Opens EWS pull subscriptions on the calendar folder of the users who recently
+ * retrieved their exchange events, polls them periodically and broadcasts a
+ * {@link #EXCHANGE_CALENDAR_CHANGED_EVENT} event with the user identity
+ * identifier as source each time the calendar of a user is modified on
+ * exchange side. Each subscription uses its own {@link DedicatedSession}
+ * since a {@link PullSubscription} is bound to the service which created it,
+ * its requests go through the {@link ExchangeSessionPool} bulkhead and router.
+ * Polling renews the subscription lease on exchange side, an expired or lost
+ * subscription is opened again from its last watermark. The count of active
+ * subscriptions is bounded, users beyond this limit rely on cache expiration.
+ */
+public class ExchangeSubscriptionManager implements Startable {
+
+  private static final Log                   LOG                                = ExoLogger.getLogger(ExchangeSubscriptionManager.class);
+
+  public static final String                 EXCHANGE_CALENDAR_CHANGED_EVENT    = "exo.agenda.exchange.calendar.changed";
+
+  public static final String                 POLL_INTERVAL_PARAM                = "pollIntervalSeconds";
+
+  public static final String                 POLL_THREADS_PARAM                 = "pollThreads";
+
+  public static final String                 SUBSCRIPTION_TIMEOUT_PARAM         = "subscriptionTimeoutMinutes";
+
+  public static final String                 MAX_SUBSCRIPTIONS_PARAM            = "maxSubscriptions";
+
+  public static final String                 USER_INACTIVITY_PARAM              = "userInactivityMinutes";
+
+  private static final long                  DEFAULT_POLL_INTERVAL              = 60;
+
+  private static final int                   DEFAULT_POLL_THREADS               = 10;
+
+  private static final int                   DEFAULT_SUBSCRIPTION_TIMEOUT       = 30;
+
+  /**
+   * Maximum timeout of an EWS pull subscription in minutes
+   */
+  private static final int                   MAX_SUBSCRIPTION_TIMEOUT           = 1440;
+
+  private static final int                   DEFAULT_MAX_SUBSCRIPTIONS          = 500;
+
+  private static final long                  DEFAULT_USER_INACTIVITY            = 60;
+
+  private static final EventType[]           CALENDAR_EVENT_TYPES               = new EventType[] { EventType.Created,
+      EventType.Deleted, EventType.Modified, EventType.Moved, EventType.Copied };
+
+  private final Map<Long, UserSubscription>  subscriptions                      = new ConcurrentHashMap<>();
+
+  private ExchangeConnectorStorage           exchangeConnectorStorage;
+
+  private ExchangeSessionPool                exchangeSessionPool;
+
+  private ConnectorMetrics                   connectorMetrics;
+
+  private ListenerService                    listenerService;
+
+  private long                               pollIntervalMillis;
+
+  private int                                pollThreads;
+
+  private int                                subscriptionTimeout;
+
+  private int                                maxSubscriptions;
+
+  private long                               userInactivityMillis;
+
+  private ScheduledExecutorService           pollScheduler;
+
+  private ExecutorService                    pollExecutor;
+
+  public ExchangeSubscriptionManager(ExchangeConnectorStorage exchangeConnectorStorage,
+                                     ExchangeSessionPool exchangeSessionPool,
+                                     ConnectorMetrics connectorMetrics,
+                                     ListenerService listenerService,
+                                     InitParams initParams) {
+    this.exchangeConnectorStorage = exchangeConnectorStorage;
+    this.exchangeSessionPool = exchangeSessionPool;
+    this.connectorMetrics = connectorMetrics;
+    this.listenerService = listenerService;
+    this.pollIntervalMillis = TimeUnit.SECONDS.toMillis(ExchangeConnectorUtils.getLongParameter(initParams,
+                                                                                                POLL_INTERVAL_PARAM,
+                                                                                                DEFAULT_POLL_INTERVAL));
+    this.pollThreads = ExchangeConnectorUtils.getIntParameter(initParams, POLL_THREADS_PARAM, DEFAULT_POLL_THREADS);
+    this.subscriptionTimeout = Math.min(ExchangeConnectorUtils.getIntParameter(initParams,
+                                                                               SUBSCRIPTION_TIMEOUT_PARAM,
+                                                                               DEFAULT_SUBSCRIPTION_TIMEOUT),
+                                        MAX_SUBSCRIPTION_TIMEOUT);
+    this.maxSubscriptions = ExchangeConnectorUtils.getIntParameter(initParams, MAX_SUBSCRIPTIONS_PARAM, DEFAULT_MAX_SUBSCRIPTIONS);
+    this.userInactivityMillis = TimeUnit.MINUTES.toMillis(ExchangeConnectorUtils.getLongParameter(initParams,
+                                                                                                  USER_INACTIVITY_PARAM,
+                                                                                                  DEFAULT_USER_INACTIVITY));
+  }
+
+  @Override
+  public void start() {
+    pollExecutor = new ThreadPoolExecutor(pollThreads,
+                                          pollThreads,
+                                          60L,
+                                          TimeUnit.SECONDS,
+                                          new LinkedBlockingQueue<>(),
+                                          ExchangeConnectorUtils.newDaemonThreadFactory("ExchangeSubscriptionPoll"));
+    pollScheduler = Executors.newSingleThreadScheduledExecutor(ExchangeConnectorUtils.newDaemonThreadFactory("ExchangeSubscriptionScheduler"));
+    pollScheduler.scheduleWithFixedDelay(this::pollSubscriptions, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void stop() {
+    if (pollScheduler != null) {
+      pollScheduler.shutdownNow();
+    }
+    if (pollExecutor != null) {
+      pollExecutor.shutdownNow();
+    }
+    // Subscriptions aren't removed from exchange, they expire by themselves
+    // once they aren't polled anymore
+    subscriptions.values().forEach(UserSubscription::close);
+    subscriptions.clear();
+  }
+
+  /**
+   * Marks the user as active and registers a subscription to the user
+   * exchange calendar changes if not already done. The subscription is opened
+   * asynchronously by the next polling.
+   *
+   * @param userIdentityId User identity identifier
+   * @return true if the user calendar changes are or will be notified, false
+   *         when the maximum count of subscriptions is reached
+   */
+  public boolean subscribe(long userIdentityId) {
+    UserSubscription userSubscription = subscriptions.get(userIdentityId);
+    if (userSubscription == null) {
+      if (subscriptions.size() >= maxSubscriptions) {
+        LOG.debug("Maximum count of exchange subscriptions {} reached, user {} changes won't be notified",
+                  maxSubscriptions,
+                  userIdentityId);
+        return false;
+      }
+      userSubscription = subscriptions.computeIfAbsent(userIdentityId, UserSubscription::new);
+    }
+    userSubscription.lastAccessTime = System.currentTimeMillis();
+    return true;
+  }
+
+  /**
+   * Stops notifying the user exchange calendar changes, typically when the
+   * user exchange settings are modified or removed.
+   *
+   * @param userIdentityId User identity identifier
+   */
+  public void unsubscribe(long userIdentityId) {
+    UserSubscription userSubscription = subscriptions.remove(userIdentityId);
+    if (userSubscription != null) {
+      userSubscription.close();
+    }
+  }
+
+  /**
+   * @param userIdentityId User identity identifier
+   * @return true if a subscription is registered for the user
+   */
+  public boolean isSubscribed(long userIdentityId) {
+    return subscriptions.containsKey(userIdentityId);
+  }
+
+  /**
+   * @return the count of registered subscriptions
+   */
+  public int getSubscriptionsCount() {
+    return subscriptions.size();
+  }
+
+  /**
+   * Polls all registered subscriptions, each one on a thread of the polling
+   * pool. A subscription which is still being polled since the previous run is
+   * skipped.
+   */
+  protected void pollSubscriptions() {
+    long now = System.currentTimeMillis();
+    for (UserSubscription userSubscription : subscriptions.values()) {
+      if (now - userSubscription.lastAccessTime > userInactivityMillis) {
+        LOG.debug("Remove exchange subscription of inactive user {}", userSubscription.userIdentityId);
+        unsubscribe(userSubscription.userIdentityId);
+      } else if (userSubscription.polling.compareAndSet(false, true)) {
+        try {
+          pollExecutor.execute(() -> {
+            try {
+              poll(userSubscription);
+            } finally {
+              userSubscription.polling.set(false);
+            }
+          });
+        } catch (RejectedExecutionException e) {
+          userSubscription.polling.set(false);
+        }
+      }
+    }
+  }
+
+  /**
+   * Retrieves the pending events of a user subscription and broadcasts a
+   * change event when the user calendar items were modified.
+   *
+   * @param userSubscription {@link UserSubscription} to poll
+   */
+  protected void poll(UserSubscription userSubscription) {
+    long userIdentityId = userSubscription.userIdentityId;
+    try {
+      int changesCount = userSubscription.poll();
+      if (changesCount > 0 && subscriptions.get(userIdentityId) == userSubscription) {
+        listenerService.broadcast(EXCHANGE_CALENDAR_CHANGED_EVENT, userIdentityId, changesCount);
+      }
+    } catch (Exception e) {
+      LOG.warn("Error when polling exchange calendar changes of user {}, subscription will be opened again", userIdentityId, e);
+      userSubscription.closeSession();
+    } finally {
+      if (userSubscription.closed) {
+        userSubscription.closeSession();
+      }
+    }
+  }
+
+  protected class UserSubscription {
+    private final long             userIdentityId;
+
+    private final AtomicBoolean    polling = new AtomicBoolean();
+
+    private final DedicatedSession session = new DedicatedSession();
+
+    private volatile long          lastAccessTime;
+
+    private ExchangeService        subscribedExchangeService;
+
+    private PullSubscription       pullSubscription;
+
+    private String                 watermark;
+
+    private long                   leaseExpirationTime;
+
+    private volatile boolean       closed;
+
+    protected UserSubscription(long userIdentityId) {
+      this.userIdentityId = userIdentityId;
+      this.lastAccessTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the count of item events retrieved since the last polling
+     * @throws Exception when exchange server can't be reached
+     */
+    private synchronized int poll() throws Exception {
+      if (closed) {
+        return 0;
+      }
+      ExchangeUserSetting exchangeUserSetting = exchangeConnectorStorage.getExchangeSetting(userIdentityId);
+      if (StringUtils.isBlank(exchangeUserSetting.getUsername())) {
+        throw new IllegalStateException("User " + userIdentityId + " has no exchange settings");
+      }
+      return exchangeSessionPool.execute(exchangeUserSetting, session, OperationType.LIST, this::poll);
+    }
+
+    private int poll(ExchangeService exchangeService) throws Exception {
+      if (exchangeService != subscribedExchangeService) {
+        // The session was opened again, the subscription is bound to the
+        // previous one
+        pullSubscription = null;
+      }
+      long now = System.currentTimeMillis();
+      int changesCount = 0;
+      if (pullSubscription == null || now >= leaseExpirationTime) {
+        changesCount = openSubscription(exchangeService);
+      }
+      try {
+        GetEventsResults eventsResults;
+        do {
+          ExchangeDeadline.applyTimeout(exchangeService);
+          eventsResults = connectorMetrics.time(ConnectorMetrics.EXCHANGE_CONNECTOR,
+                                                "getSubscriptionEvents",
+                                                pullSubscription::getEvents);
+          for (ItemEvent itemEvent : eventsResults.getItemEvents()) {
+            if (itemEvent != null) {
+              changesCount++;
+            }
+          }
+        } while (pullSubscription.isMoreEventsAvailable());
+      } catch (ServiceResponseException e) {
+        if (!isSubscriptionLost(e.getErrorCode())) {
+          throw e;
+        }
+        LOG.debug("Exchange subscription of user {} is lost, open it again", userIdentityId);
+        pullSubscription = null;
+        return changesCount + openSubscription(exchangeService);
+      } finally {
+        if (pullSubscription != null) {
+          watermark = pullSubscription.getWaterMark();
+        }
+      }
+      // Retrieving events renews the subscription lease on exchange side
+      leaseExpirationTime = now + TimeUnit.MINUTES.toMillis(subscriptionTimeout);
+      return changesCount;
+    }
+
+    /**
+     * Opens a new subscription from the last known watermark, so that the
+     * events which occurred since the last polling are retrieved
+     *
+     * @return 1 when the previous watermark isn't valid anymore and some
+     *         changes may have been missed, else 0
+     */
+    private int openSubscription(ExchangeService exchangeService) throws Exception {
+      Iterable<FolderId> calendarFolderIds = Collections.singletonList(new FolderId(WellKnownFolderName.Calendar));
+      int missedChanges = 0;
+      try {
+        pullSubscription = subscribe(exchangeService, calendarFolderIds, watermark);
+      } catch (ServiceResponseException e) {
+        if (watermark == null || e.getErrorCode() != ServiceError.ErrorInvalidWatermark) {
+          throw e;
+        }
+        pullSubscription = subscribe(exchangeService, calendarFolderIds, null);
+        missedChanges = 1;
+      }
+      subscribedExchangeService = exchangeService;
+      watermark = pullSubscription.getWaterMark();
+      leaseExpirationTime = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(subscriptionTimeout);
+      return missedChanges;
+    }
+
+    private PullSubscription subscribe(ExchangeService exchangeService,
+                                       Iterable<FolderId> calendarFolderIds,
+                                       String fromWatermark) throws Exception {
+      ExchangeDeadline.applyTimeout(exchangeService);
+      return connectorMetrics.time(ConnectorMetrics.EXCHANGE_CONNECTOR,
+                                   "subscribeToPullNotifications",
+                                   () -> exchangeService.subscribeToPullNotifications(calendarFolderIds,
+                                                                                      subscriptionTimeout,
+                                                                                      fromWatermark,
+                                                                                      CALENDAR_EVENT_TYPES));
+    }
+
+    private boolean isSubscriptionLost(ServiceError errorCode) {
+      return errorCode == ServiceError.ErrorSubscriptionNotFound || errorCode == ServiceError.ErrorExpiredSubscription
+          || errorCode == ServiceError.ErrorInvalidSubscription || errorCode == ServiceError.ErrorInvalidPullSubscriptionId
+          || errorCode == ServiceError.ErrorSubscriptionUnsubscribed;
+    }
+
+    private synchronized void closeSession() {
+      pullSubscription = null;
+      subscribedExchangeService = null;
+      session.close();
+    }
+
+    /**
+     * Closes the subscription session, or lets the polling thread close it when
+     * the subscription is being polled
+     */
+    private void close() {
+      closed = true;
+      if (polling.compareAndSet(false, true)) {
+        closeSession();
+      }
+    }
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.service;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.exoplatform.agendaconnector.model.ExchangeSyncedEvent;
+import org.exoplatform.agendaconnector.storage.ExchangeConnectorStorage;
+import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
+import org.exoplatform.agendaconnector.utils.ExchangeDeadline;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.PropertySet;
+import microsoft.exchange.webservices.data.core.enumeration.misc.error.ServiceError;
+import microsoft.exchange.webservices.data.core.enumeration.property.BasePropertySet;
+import microsoft.exchange.webservices.data.core.enumeration.property.WellKnownFolderName;
+import microsoft.exchange.webservices.data.core.enumeration.service.SyncFolderItemsScope;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceResponseException;
+import microsoft.exchange.webservices.data.core.service.item.Item;
+import microsoft.exchange.webservices.data.core.service.schema.AppointmentSchema;
+import microsoft.exchange.webservices.data.core.service.schema.ItemSchema;
+import microsoft.exchange.webservices.data.property.complex.FolderId;
+import microsoft.exchange.webservices.data.sync.ChangeCollection;
+import microsoft.exchange.webservices.data.sync.ItemChange;
+
+/**
+ * Synchronizes the exchange calendar folder of users incrementally using EWS
+ * SyncFolderItems. The opaque sync state returned by exchange and the
+ * synchronized events are persisted together in a single value using
+ * {@link ExchangeConnectorStorage}, so that only the changes made since the last
+ * synchronization are downloaded, including after a server restart. The
+ * persisted calendar is cached, so that it's only read from the storage when it
+ * isn't cached.
+ */
+public class ExchangeSyncService {
+
+  private static final Log         LOG                   = ExoLogger.getLogger(ExchangeSyncService.class);
+
+  public static final String       SYNC_BATCH_SIZE_PARAM = "syncBatchSize";
+
+  public static final String       MAX_STORED_EVENTS_PARAM = "maxStoredEvents";
+
+  public static final String       SYNCED_CALENDAR_CACHE_NAME = "agendaconnector.exchange.syncedCalendar";
+
+  private static final int         DEFAULT_MAX_STORED_EVENTS = 20000;
+
+  /**
+   * Maximum count of changes returned by exchange in a single SyncFolderItems
+   * call
+   */
+  private static final int         MAX_SYNC_BATCH_SIZE   = 512;
+
+  private static final PropertySet SYNC_PROPERTY_SET     = new PropertySet(BasePropertySet.IdOnly,
+                                                                           ItemSchema.Subject,
+                                                                           AppointmentSchema.Start,
+                                                                           AppointmentSchema.End);
+
+  private final Map<Long, Object>  userLocks             = new ConcurrentHashMap<>();
+
+  private ExchangeConnectorStorage exchangeConnectorStorage;
+
+  private ExoCache<Long, ExchangeSyncedCalendar> syncedCalendarCache;
+
+  private int                      syncBatchSize;
+
+  private int                      maxStoredEvents;
+
+  public ExchangeSyncService(ExchangeConnectorStorage exchangeConnectorStorage,
+                             CacheService cacheService,
+                             InitParams initParams) {
+    this.exchangeConnectorStorage = exchangeConnectorStorage;
+    this.syncedCalendarCache = cacheService.getCacheInstance(SYNCED_CALENDAR_CACHE_NAME);
+    this.syncBatchSize = Math.min(ExchangeConnectorUtils.getIntParameter(initParams, SYNC_BATCH_SIZE_PARAM, MAX_SYNC_BATCH_SIZE),
+                                  MAX_SYNC_BATCH_SIZE);
+    this.maxStoredEvents = ExchangeConnectorUtils.getIntParameter(initParams, MAX_STORED_EVENTS_PARAM, DEFAULT_MAX_STORED_EVENTS);
+  }
+
+  /**
+   * Applies to the synchronized events of a user the changes made in the user
+   * exchange calendar since the last synchronization. The first
+   * synchronization retrieves the whole calendar folder.
+   *
+   * @param userIdentityId User identity identifier
+   * @param exchangeService authenticated {@link ExchangeService} of the user
+   * @return {@link Map} of synchronized events by exchange item identifier
+   * @throws Exception when exchange server can't be reached
+   */
+  public Map<String, ExchangeSyncedEvent> synchronize(long userIdentityId, ExchangeService exchangeService) throws Exception {
+    synchronized (userLocks.computeIfAbsent(userIdentityId, key -> new Object())) {
+      ExchangeSyncedCalendar syncedCalendar = getSyncedCalendar(userIdentityId);
+      ExchangeSyncedCalendar newSyncedCalendar;
+      try {
+        newSyncedCalendar = synchronize(userIdentityId, exchangeService, syncedCalendar);
+      } catch (ServiceResponseException e) {
+        if (syncedCalendar.getSyncState() == null || e.getErrorCode() != ServiceError.ErrorInvalidSyncStateData) {
+          throw e;
+        }
+        LOG.warn("Exchange sync state of user {} is not valid anymore, synchronize the whole calendar again", userIdentityId);
+        exchangeConnectorStorage.deleteExchangeSyncData(userIdentityId);
+        syncedCalendarCache.remove(userIdentityId);
+        newSyncedCalendar = synchronize(userIdentityId, exchangeService, new ExchangeSyncedCalendar(null, new HashMap<>()));
+      }
+      return Collections.unmodifiableMap(newSyncedCalendar.getEvents());
+    }
+  }
+
+  /**
+   * Removes the sync state and the synchronized events of a user
+   *
+   * @param userIdentityId User identity identifier
+   */
+  public void resetSynchronization(long userIdentityId) {
+    synchronized (userLocks.computeIfAbsent(userIdentityId, key -> new Object())) {
+      exchangeConnectorStorage.deleteExchangeSyncData(userIdentityId);
+      syncedCalendarCache.remove(userIdentityId);
+    }
+  }
+
+  private ExchangeSyncedCalendar getSyncedCalendar(long userIdentityId) {
+    ExchangeSyncedCalendar syncedCalendar = syncedCalendarCache.get(userIdentityId);
+    if (syncedCalendar == null) {
+      syncedCalendar = exchangeConnectorStorage.getExchangeSyncedCalendar(userIdentityId);
+      if (syncedCalendar == null) {
+        syncedCalendar = new ExchangeSyncedCalendar(null, new HashMap<>());
+      }
+      // Loaded as stored, the entries of the other cluster nodes are up to date
+      syncedCalendarCache.putLocal(userIdentityId, syncedCalendar);
+    }
+    return syncedCalendar;
+  }
+
+  /**
+   * Applies the changes of all the SyncFolderItems batches in memory and
+   * stores the resulting calendar once. When a batch fails, the changes of the
+   * previous batches are stored with their sync state, so that the next
+   * synchronization resumes from them.
+   *
+   * @return the given synchronized calendar when exchange returned no change,
+   *         else a new one including the changes
+   */
+  private ExchangeSyncedCalendar synchronize(long userIdentityId,
+                                             ExchangeService exchangeService,
+                                             ExchangeSyncedCalendar syncedCalendar) throws Exception {
+    FolderId calendarFolderId = new FolderId(WellKnownFolderName.Calendar);
+    ExchangeSyncedCalendar newSyncedCalendar = syncedCalendar;
+    try {
+      ChangeCollection<ItemChange> itemChanges;
+      do {
+        String syncState = newSyncedCalendar.getSyncState();
+        ExchangeDeadline.applyTimeout(exchangeService);
+        itemChanges = exchangeService.syncFolderItems(calendarFolderId,
+                                                      SYNC_PROPERTY_SET,
+                                                      null,
+                                                      syncBatchSize,
+                                                      SyncFolderItemsScope.NormalItems,
+                                                      syncState);
+        if (itemChanges.getCount() > 0 || !StringUtils.equals(syncState, itemChanges.getSyncState())) {
+          HashMap<String, ExchangeSyncedEvent> syncedEvents = newSyncedCalendar.getEvents();
+          if (newSyncedCalendar == syncedCalendar) {
+            // The cached events are copied before applying the first change
+            syncedEvents = new HashMap<>(syncedEvents);
+          }
+          for (ItemChange itemChange : itemChanges) {
+            applyChange(itemChange, syncedEvents);
+          }
+          newSyncedCalendar = new ExchangeSyncedCalendar(itemChanges.getSyncState(), syncedEvents);
+        }
+      } while (itemChanges.getMoreChangesAvailable());
+    } finally {
+      // The cache is only updated when something changed, so that the entries
+      // of the other cluster nodes aren't invalidated needlessly
+      if (newSyncedCalendar != syncedCalendar) {
+        saveSyncedCalendar(userIdentityId, newSyncedCalendar);
+      }
+    }
+    return newSyncedCalendar;
+  }
+
+  private void saveSyncedCalendar(long userIdentityId, ExchangeSyncedCalendar syncedCalendar) {
+    if (syncedCalendar.getEvents().size() <= maxStoredEvents) {
+      exchangeConnectorStorage.saveExchangeSyncedCalendar(userIdentityId, syncedCalendar);
+    } else {
+      // Too big to be stored in a setting value, it's only cached and will be
+      // synchronized again from scratch once evicted
+      LOG.debug("Synchronized exchange calendar of user {} has {} events, it's not stored",
+                userIdentityId,
+                syncedCalendar.getEvents().size());
+      exchangeConnectorStorage.deleteExchangeSyncData(userIdentityId);
+    }
+    syncedCalendarCache.put(userIdentityId, syncedCalendar);
+  }
+
+  private void applyChange(ItemChange itemChange, Map<String, ExchangeSyncedEvent> syncedEvents) throws Exception {
+    String remoteId = String.valueOf(itemChange.getItemId());
+    switch (itemChange.getChangeType()) {
+    case Create:
+    case Update:
+      ExchangeSyncedEvent syncedEvent = toSyncedEvent(remoteId, itemChange.getItem());
+      if (syncedEvent != null) {
+        syncedEvents.put(remoteId, syncedEvent);
+      } else {
+        syncedEvents.remove(remoteId);
+      }
+      break;
+    case Delete:
+      syncedEvents.remove(remoteId);
+      break;
+    default:
+      break;
+    }
+  }
+
+  private ExchangeSyncedEvent toSyncedEvent(String remoteId, Item exchangeEventItem) throws Exception {
+    if (exchangeEventItem == null) {
+      return null;
+    }
+    Map<?, Object> exchangeEventItemProperties = exchangeEventItem.getPropertyBag().getProperties();
+    Date exchangeEventStartDate = (Date) exchangeEventItemProperties.get(AppointmentSchema.Start);
+    Date exchangeEventEndDate = (Date) exchangeEventItemProperties.get(AppointmentSchema.End);
+    if (exchangeEventStartDate == null || exchangeEventEndDate == null) {
+      return null;
+    }
+    return new ExchangeSyncedEvent(remoteId,
+                                   exchangeEventItem.getSubject(),
+                                   exchangeEventStartDate.getTime(),
+                                   exchangeEventEndDate.getTime());
+  }
+}
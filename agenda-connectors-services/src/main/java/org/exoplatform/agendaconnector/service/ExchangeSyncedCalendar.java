@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.service;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+import org.exoplatform.agendaconnector.model.ExchangeSyncedEvent;
+
+/**
+ * Exchange calendar of a user synchronized with SyncFolderItems, as persisted
+ * by the storage. Instances are never modified once cached.
+ */
+public class ExchangeSyncedCalendar implements Serializable {
+
+  private static final long                          serialVersionUID = 3154788305420151162L;
+
+  private final String                               syncState;
+
+  private final HashMap<String, ExchangeSyncedEvent> events;
+
+  public ExchangeSyncedCalendar(String syncState, HashMap<String, ExchangeSyncedEvent> events) {
+    this.syncState = syncState;
+    this.events = events;
+  }
+
+  public String getSyncState() {
+    return syncState;
+  }
+
+  public HashMap<String, ExchangeSyncedEvent> getEvents() {
+    return events;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.service;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.exoplatform.agenda.rest.model.EventEntity;
+
+/**
+ * Exchange events windows retrieved by a user, cached in a single entry per
+ * user so that they are all invalidated cluster wide by removing it. Instances
+ * are never modified once cached, a window is added to a copy.
+ */
+public class ExchangeUserEvents implements Serializable {
+
+  private static final long                                   serialVersionUID = -4413620370423530367L;
+
+  /**
+   * Maximum number of windows kept per user, the oldest ones are dropped
+   */
+  public static final int                                     MAX_WINDOWS      = 20;
+
+  private final LinkedHashMap<String, ArrayList<EventEntity>> windows;
+
+  public ExchangeUserEvents() {
+    this.windows = new LinkedHashMap<>();
+  }
+
+  private ExchangeUserEvents(LinkedHashMap<String, ArrayList<EventEntity>> windows) {
+    this.windows = windows;
+  }
+
+  /**
+   * @return the cached events of the window or null if it isn't cached
+   */
+  public ArrayList<EventEntity> getEvents(String start, String end, String timeZoneId) {
+    return windows.get(getWindowKey(start, end, timeZoneId));
+  }
+
+  /**
+   * @return a copy of the cached windows including the given one
+   */
+  public ExchangeUserEvents withEvents(String start, String end, String timeZoneId, ArrayList<EventEntity> events) {
+    LinkedHashMap<String, ArrayList<EventEntity>> newWindows = new LinkedHashMap<>(windows);
+    String windowKey = getWindowKey(start, end, timeZoneId);
+    newWindows.remove(windowKey);
+    newWindows.put(windowKey, events);
+    Iterator<String> windowKeys = newWindows.keySet().iterator();
+    while (newWindows.size() > MAX_WINDOWS) {
+      windowKeys.next();
+      windowKeys.remove();
+    }
+    return new ExchangeUserEvents(newWindows);
+  }
+
+  public int size() {
+    return windows.size();
+  }
+
+  private static String getWindowKey(String start, String end, String timeZoneId) {
+    return start + "|" + end + "|" + timeZoneId;
+  }
+}
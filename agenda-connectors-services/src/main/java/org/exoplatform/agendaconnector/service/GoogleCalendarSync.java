@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.service;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+import org.exoplatform.agendaconnector.model.GoogleCalendarEvent;
+
+/**
+ * Copy of the primary google calendar of a user, synchronized incrementally
+ * using the google sync token. It includes the events overlapping the
+ * synchronized period, which is bounded so that recurring series without end
+ * are expanded to a finite count of occurrences.
+ */
+public class GoogleCalendarSync implements Serializable {
+
+  private static final long                          serialVersionUID = -2785437313924162150L;
+
+  private final String                               syncToken;
+
+  private final long                                 startTime;
+
+  private final long                                 endTime;
+
+  private final long                                 syncTime;
+
+  private final HashMap<String, GoogleCalendarEvent> events;
+
+  public GoogleCalendarSync(String syncToken,
+                            long startTime,
+                            long endTime,
+                            long syncTime,
+                            HashMap<String, GoogleCalendarEvent> events) {
+    this.syncToken = syncToken;
+    this.startTime = startTime;
+    this.endTime = endTime;
+    this.syncTime = syncTime;
+    this.events = events;
+  }
+
+  public String getSyncToken() {
+    return syncToken;
+  }
+
+  public long getStartTime() {
+    return startTime;
+  }
+
+  public long getEndTime() {
+    return endTime;
+  }
+
+  public long getSyncTime() {
+    return syncTime;
+  }
+
+  public HashMap<String, GoogleCalendarEvent> getEvents() {
+    return events;
+  }
+
+  /**
+   * @param windowStartTime start of a window in epoch milliseconds
+   * @param windowEndTime end of a window in epoch milliseconds
+   * @return true if the events of the window are synchronized
+   */
+  public boolean covers(long windowStartTime, long windowEndTime) {
+    return windowStartTime >= startTime && windowEndTime <= endTime;
+  }
+}
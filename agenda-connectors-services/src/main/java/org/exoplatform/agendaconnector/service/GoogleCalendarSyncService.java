@@ -0,0 +1,497 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.picocontainer.Startable;
+
+import org.exoplatform.agendaconnector.model.GoogleCalendarEvent;
+import org.exoplatform.agendaconnector.storage.GoogleConnectorStorage;
+import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+
+/**
+ * Retrieves the events of the primary google calendar of users on server side.
+ * A copy of the calendar is synchronized incrementally using the google sync
+ * token, so that only the events changed since the last synchronization are
+ * downloaded, and the windows requested by agenda are served from it. The
+ * copy is stored in a single setting value, so that any cluster node can
+ * continue its synchronization, and kept in cache between two requests. The
+ * whole calendar is synchronized in background, requests are answered by
+ * google directly meanwhile.
+ */
+public class GoogleCalendarSyncService implements Startable {
+
+  private static final Log                           LOG                        =
+                                                                                    ExoLogger.getLogger(GoogleCalendarSyncService.class);
+
+  public static final String                         GOOGLE_CALENDAR_CACHE_NAME = "agendaconnector.google.calendar";
+
+  public static final String                         SYNC_INTERVAL_PARAM        = "syncIntervalSeconds";
+
+  public static final String                         SYNC_PAST_DAYS_PARAM       = "syncPastDays";
+
+  public static final String                         SYNC_FUTURE_DAYS_PARAM     = "syncFutureDays";
+
+  public static final String                         FULL_SYNC_THREADS_PARAM    = "fullSyncThreads";
+
+  public static final String                         MAX_STORED_EVENTS_PARAM    = "maxStoredEvents";
+
+  private static final long                          DEFAULT_SYNC_INTERVAL      = 30;
+
+  private static final long                          DEFAULT_SYNC_PAST_DAYS     = 365;
+
+  private static final long                          DEFAULT_SYNC_FUTURE_DAYS   = 365;
+
+  private static final int                           DEFAULT_FULL_SYNC_THREADS  = 2;
+
+  private static final int                           DEFAULT_MAX_STORED_EVENTS  = 20000;
+
+  private static final String                        EVENTS_URL                 =
+                                                                                    "https://www.googleapis.com/calendar/v3/calendars/primary/events";
+
+  /** Maximum count of events returned by google in a single page */
+  private static final int                           MAX_RESULTS                = 2500;
+
+  private static final int                           HTTP_GONE                  = 410;
+
+  private final GoogleConnectorService               googleConnectorService;
+
+  private final GoogleClientProvider                 googleClientProvider;
+
+  private final ConnectorMetrics                     connectorMetrics;
+
+  private final GoogleConnectorStorage               googleConnectorStorage;
+
+  private final ExoCache<String, GoogleCalendarSync> googleCalendarCache;
+
+  private final Map<String, Object>                  userLocks                  = new ConcurrentHashMap<>();
+
+  /**
+   * Users whose whole calendar is being synchronized in background
+   */
+  private final Set<String>                          fullSyncUsers              = ConcurrentHashMap.newKeySet();
+
+  private final long                                 syncIntervalMillis;
+
+  private final long                                 syncPastDays;
+
+  private final long                                 syncFutureDays;
+
+  private final int                                  fullSyncThreads;
+
+  private final int                                  maxStoredEvents;
+
+  private ExecutorService                            fullSyncExecutor;
+
+  public GoogleCalendarSyncService(GoogleConnectorService googleConnectorService,
+                                   GoogleClientProvider googleClientProvider,
+                                   ConnectorMetrics connectorMetrics,
+                                   GoogleConnectorStorage googleConnectorStorage,
+                                   CacheService cacheService,
+                                   InitParams initParams) {
+    this.googleConnectorService = googleConnectorService;
+    this.googleClientProvider = googleClientProvider;
+    this.connectorMetrics = connectorMetrics;
+    this.googleConnectorStorage = googleConnectorStorage;
+    this.googleCalendarCache = cacheService.getCacheInstance(GOOGLE_CALENDAR_CACHE_NAME);
+    this.syncIntervalMillis = TimeUnit.SECONDS.toMillis(ExchangeConnectorUtils.getLongParameter(initParams,
+                                                                                                SYNC_INTERVAL_PARAM,
+                                                                                                DEFAULT_SYNC_INTERVAL));
+    this.syncPastDays = ExchangeConnectorUtils.getLongParameter(initParams, SYNC_PAST_DAYS_PARAM, DEFAULT_SYNC_PAST_DAYS);
+    this.syncFutureDays = ExchangeConnectorUtils.getLongParameter(initParams, SYNC_FUTURE_DAYS_PARAM, DEFAULT_SYNC_FUTURE_DAYS);
+    this.fullSyncThreads = ExchangeConnectorUtils.getIntParameter(initParams, FULL_SYNC_THREADS_PARAM, DEFAULT_FULL_SYNC_THREADS);
+    this.maxStoredEvents = ExchangeConnectorUtils.getIntParameter(initParams, MAX_STORED_EVENTS_PARAM, DEFAULT_MAX_STORED_EVENTS);
+  }
+
+  @Override
+  public void start() {
+    fullSyncExecutor = Executors.newFixedThreadPool(fullSyncThreads,
+                                                    ExchangeConnectorUtils.newDaemonThreadFactory("GoogleCalendarFullSync"));
+  }
+
+  @Override
+  public void stop() {
+    if (fullSyncExecutor != null) {
+      fullSyncExecutor.shutdownNow();
+    }
+  }
+
+  /**
+   * Retrieves the google events of a user overlapping a period. The calendar
+   * copy of the user is synchronized first when the sync interval is elapsed.
+   * Periods outside the synchronized period, and all periods while the whole
+   * calendar is synchronized in background, are retrieved directly from
+   * google.
+   *
+   * @param userName User name
+   * @param start start of the period
+   * @param end end of the period
+   * @return {@link List} of {@link GoogleCalendarEvent} sorted by start date
+   * @throws IllegalAccessException when the user has no valid google token
+   * @throws IOException when google calendar can't be reached
+   */
+  public List<GoogleCalendarEvent> getEvents(String userName,
+                                             ZonedDateTime start,
+                                             ZonedDateTime end) throws IllegalAccessException, IOException {
+    if (userName == null) {
+      throw new IllegalArgumentException("username is mandatory");
+    }
+    long startTime = start.toInstant().toEpochMilli();
+    long endTime = end.toInstant().toEpochMilli();
+    ZoneId userTimeZone = start.getZone();
+    List<GoogleCalendarEvent> events = new ArrayList<>();
+    Iterable<GoogleCalendarEvent> candidateEvents;
+    GoogleCalendarSync googleCalendarSync = synchronize(userName);
+    if (googleCalendarSync == null) {
+      synchronizeInBackground(userName);
+    }
+    if (googleCalendarSync != null && googleCalendarSync.covers(startTime, endTime)) {
+      candidateEvents = googleCalendarSync.getEvents().values();
+    } else {
+      candidateEvents = listEvents(userName, startTime, endTime);
+    }
+    for (GoogleCalendarEvent event : candidateEvents) {
+      if (getStartTime(event, userTimeZone) < endTime && getEndTime(event, userTimeZone) > startTime) {
+        events.add(event);
+      }
+    }
+    events.sort(Comparator.comparingLong(event -> getStartTime(event, userTimeZone)));
+    return events;
+  }
+
+  /**
+   * Removes the synchronized calendar copy of a user
+   *
+   * @param userName User name
+   */
+  public void resetSynchronization(String userName) {
+    synchronized (userLocks.computeIfAbsent(userName, key -> new Object())) {
+      // A running full synchronization won't store its result
+      fullSyncUsers.remove(userName);
+      googleConnectorStorage.deleteGoogleCalendarSync(userName);
+      googleCalendarCache.remove(userName);
+    }
+  }
+
+  /**
+   * Applies the changes of the synchronized calendar copy since the last
+   * synchronization.
+   *
+   * @return the synchronized calendar copy or null when it has to be
+   *         synchronized again from scratch, because less than half of the
+   *         sync future days remain in its period or because google doesn't
+   *         accept its sync token anymore
+   */
+  private GoogleCalendarSync synchronize(String userName) throws IllegalAccessException, IOException {
+    synchronized (userLocks.computeIfAbsent(userName, key -> new Object())) {
+      GoogleCalendarSync googleCalendarSync = googleCalendarCache.get(userName);
+      if (googleCalendarSync == null) {
+        googleCalendarSync = googleConnectorStorage.getGoogleCalendarSync(userName);
+        if (googleCalendarSync != null) {
+          // Cached locally only, the stored copy didn't change
+          googleCalendarCache.putLocal(userName, googleCalendarSync);
+        }
+      }
+      if (googleCalendarSync == null) {
+        return null;
+      }
+      long now = System.currentTimeMillis();
+      if (googleCalendarSync.getEndTime() - now < TimeUnit.DAYS.toMillis(syncFutureDays) / 2) {
+        // The synchronized period is bounded, it's moved forward by
+        // synchronizing the whole calendar again once half of it is elapsed
+        LOG.debug("Synchronized period of google calendar of user '{}' is elapsed, synchronize it again", userName);
+        return null;
+      }
+      if (now - googleCalendarSync.getSyncTime() < syncIntervalMillis) {
+        return googleCalendarSync;
+      }
+      GoogleCalendarSync updatedCalendarSync = synchronize(getAccessToken(userName), googleCalendarSync);
+      if (updatedCalendarSync == null) {
+        LOG.info("Google sync token of user '{}' is not valid anymore, synchronize the whole calendar again", userName);
+        return null;
+      }
+      if (updatedCalendarSync.getEvents() != googleCalendarSync.getEvents()
+          || !Objects.equals(updatedCalendarSync.getSyncToken(), googleCalendarSync.getSyncToken())) {
+        saveGoogleCalendarSync(userName, updatedCalendarSync);
+      } else {
+        // Nothing changed, the copies cached on other nodes are still valid
+        googleCalendarCache.putLocal(userName, updatedCalendarSync);
+      }
+      return updatedCalendarSync;
+    }
+  }
+
+  /**
+   * Synchronizes the whole calendar of a user in background, so that requests
+   * don't wait for it nor hold the user lock meanwhile
+   */
+  private void synchronizeInBackground(String userName) {
+    if (fullSyncExecutor == null || !fullSyncUsers.add(userName)) {
+      return;
+    }
+    try {
+      fullSyncExecutor.execute(() -> {
+        try {
+          GoogleCalendarSync googleCalendarSync = synchronize(getAccessToken(userName), null);
+          if (googleCalendarSync == null) {
+            throw new IOException("Google calendar events request was refused");
+          }
+          synchronized (userLocks.computeIfAbsent(userName, key -> new Object())) {
+            // The user is removed when its synchronization is reset
+            if (fullSyncUsers.remove(userName)) {
+              saveGoogleCalendarSync(userName, googleCalendarSync);
+            }
+          }
+        } catch (Exception e) {
+          fullSyncUsers.remove(userName);
+          LOG.warn("Google calendar of user '{}' can't be synchronized: {}", userName, e.getMessage());
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      fullSyncUsers.remove(userName);
+    }
+  }
+
+  private void saveGoogleCalendarSync(String userName, GoogleCalendarSync googleCalendarSync) {
+    if (googleCalendarSync.getEvents().size() <= maxStoredEvents) {
+      googleConnectorStorage.saveGoogleCalendarSync(userName, googleCalendarSync);
+    } else {
+      // Too big to be stored in a setting value, it's only cached and will be
+      // synchronized again from scratch once evicted
+      LOG.debug("Synchronized google calendar of user '{}' has {} events, it's not stored",
+                userName,
+                googleCalendarSync.getEvents().size());
+      googleConnectorStorage.deleteGoogleCalendarSync(userName);
+    }
+    googleCalendarCache.put(userName, googleCalendarSync);
+  }
+
+  /**
+   * @param accessToken google access token of the user
+   * @param googleCalendarSync last synchronized calendar copy, null to
+   *          synchronize the whole calendar
+   * @return the synchronized calendar copy or null if the sync token expired
+   */
+  private GoogleCalendarSync synchronize(String accessToken,
+                                         GoogleCalendarSync googleCalendarSync) throws IllegalAccessException, IOException {
+    long syncTime = System.currentTimeMillis();
+    long startTime;
+    long endTime;
+    GenericUrl url = newEventsUrl();
+    if (googleCalendarSync == null) {
+      startTime = syncTime - TimeUnit.DAYS.toMillis(syncPastDays);
+      endTime = syncTime + TimeUnit.DAYS.toMillis(syncFutureDays);
+      url.set("timeMin", toRFC3339(startTime));
+      url.set("timeMax", toRFC3339(endTime));
+    } else {
+      // The sync token keeps the period of the full synchronization
+      startTime = googleCalendarSync.getStartTime();
+      endTime = googleCalendarSync.getEndTime();
+      url.set("syncToken", googleCalendarSync.getSyncToken());
+    }
+    HashMap<String, GoogleCalendarEvent> events = googleCalendarSync == null ? new HashMap<>() : null;
+    JSONObject eventsPage;
+    String pageToken = null;
+    do {
+      eventsPage = getEventsPage(accessToken, url, pageToken);
+      if (eventsPage == null) {
+        return null;
+      }
+      List<?> items = (List<?>) eventsPage.get("items");
+      if (items != null && !items.isEmpty()) {
+        if (events == null) {
+          // Copied on first change since cached copies may be read concurrently
+          events = new HashMap<>(googleCalendarSync.getEvents());
+        }
+        for (Object item : items) {
+          applyChange((JSONObject) item, events);
+        }
+      }
+      pageToken = (String) eventsPage.get("nextPageToken");
+    } while (pageToken != null);
+    return new GoogleCalendarSync((String) eventsPage.get("nextSyncToken"),
+                                  startTime,
+                                  endTime,
+                                  syncTime,
+                                  events == null ? googleCalendarSync.getEvents() : events);
+  }
+
+  private List<GoogleCalendarEvent> listEvents(String userName,
+                                               long startTime,
+                                               long endTime) throws IllegalAccessException, IOException {
+    String accessToken = getAccessToken(userName);
+    GenericUrl url = newEventsUrl();
+    url.set("timeMin", toRFC3339(startTime));
+    url.set("timeMax", toRFC3339(endTime));
+    HashMap<String, GoogleCalendarEvent> events = new HashMap<>();
+    String pageToken = null;
+    do {
+      JSONObject eventsPage = getEventsPage(accessToken, url, pageToken);
+      if (eventsPage == null) {
+        throw new IOException("Google calendar events of user '" + userName + "' can't be listed");
+      }
+      List<?> items = (List<?>) eventsPage.get("items");
+      if (items != null) {
+        for (Object item : items) {
+          applyChange((JSONObject) item, events);
+        }
+      }
+      pageToken = (String) eventsPage.get("nextPageToken");
+    } while (pageToken != null);
+    return new ArrayList<>(events.values());
+  }
+
+  /**
+   * @return the events page or null if google answered that the sync token
+   *         expired
+   */
+  private JSONObject getEventsPage(String accessToken,
+                                   GenericUrl url,
+                                   String pageToken) throws IllegalAccessException, IOException {
+    if (pageToken == null) {
+      url.remove("pageToken");
+    } else {
+      url.set("pageToken", pageToken);
+    }
+    HttpRequest request = googleClientProvider.getTransport().createRequestFactory().buildGetRequest(url);
+    request.getHeaders().setAuthorization("Bearer " + accessToken);
+    request.setThrowExceptionOnExecuteError(false);
+    HttpResponse response;
+    try {
+      response = connectorMetrics.time(ConnectorMetrics.GOOGLE_CONNECTOR, "eventsSync", request::execute);
+    } catch (IOException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException("Error while requesting google calendar events", e);
+    }
+    try {
+      int statusCode = response.getStatusCode();
+      if (statusCode == HTTP_GONE) {
+        return null;
+      } else if (statusCode == 401) {
+        throw new IllegalAccessException("Google access token was rejected");
+      } else if (statusCode != 200) {
+        throw new IOException("Google calendar events request failed with status " + statusCode);
+      }
+      return (JSONObject) new JSONParser().parse(response.parseAsString());
+    } catch (ParseException e) {
+      throw new IOException("Google calendar events response can't be parsed", e);
+    } finally {
+      response.disconnect();
+    }
+  }
+
+  private String getAccessToken(String userName) throws IllegalAccessException, IOException {
+    String tokenResponse = googleConnectorService.getValidTokenResponse(userName);
+    if (tokenResponse == null) {
+      throw new IllegalAccessException("User '" + userName + "' isn't connected to google calendar");
+    }
+    try {
+      JSONObject token = (JSONObject) new JSONParser().parse(tokenResponse);
+      return (String) token.get("access_token");
+    } catch (ParseException e) {
+      throw new IOException("Google token of user '" + userName + "' can't be parsed", e);
+    }
+  }
+
+  /**
+   * Applies a google event, as returned by the events list API, normalized the
+   * same way the google connector did on client side
+   */
+  private void applyChange(JSONObject item, Map<String, GoogleCalendarEvent> events) {
+    String id = (String) item.get("id");
+    JSONObject start = (JSONObject) item.get("start");
+    JSONObject end = (JSONObject) item.get("end");
+    if ("cancelled".equals(item.get("status")) || start == null || end == null) {
+      events.remove(id);
+      return;
+    }
+    boolean allDay = start.get("date") != null;
+    String eventStart;
+    String eventEnd;
+    if (allDay) {
+      eventStart = (String) start.get("date");
+      // Google end date of all day events is exclusive
+      eventEnd = LocalDate.parse((String) end.get("date")).minusDays(1).toString();
+    } else {
+      eventStart = (String) start.get("dateTime");
+      eventEnd = (String) end.get("dateTime");
+    }
+    events.put(id,
+               new GoogleCalendarEvent(id,
+                                       (String) item.get("recurringEventId"),
+                                       (String) item.get("summary"),
+                                       eventStart,
+                                       eventEnd,
+                                       allDay));
+  }
+
+  private GenericUrl newEventsUrl() {
+    GenericUrl url = new GenericUrl(EVENTS_URL);
+    url.set("singleEvents", true);
+    url.set("maxResults", MAX_RESULTS);
+    return url;
+  }
+
+  private long getStartTime(GoogleCalendarEvent event, ZoneId userTimeZone) {
+    if (event.isAllDay()) {
+      return LocalDate.parse(event.getStart()).atStartOfDay(userTimeZone).toInstant().toEpochMilli();
+    }
+    return OffsetDateTime.parse(event.getStart()).toInstant().toEpochMilli();
+  }
+
+  private long getEndTime(GoogleCalendarEvent event, ZoneId userTimeZone) {
+    if (event.isAllDay()) {
+      return LocalDate.parse(event.getEnd()).plusDays(1).atStartOfDay(userTimeZone).toInstant().toEpochMilli();
+    }
+    return OffsetDateTime.parse(event.getEnd()).toInstant().toEpochMilli();
+  }
+
+  private String toRFC3339(long time) {
+    return Instant.ofEpochMilli(time).toString();
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.service;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.picocontainer.Startable;
+
+import org.exoplatform.agenda.model.RemoteProvider;
+import org.exoplatform.agenda.service.AgendaRemoteEventService;
+import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
+import com.google.api.client.googleapis.auth.oauth2.GoogleRefreshTokenRequest;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+
+/**
+ * Holds the google clients shared by all the requests: a single thread-safe
+ * HTTP transport, whose connections are kept alive and reused between token
+ * requests, a single JSON factory and an authorization code flow per
+ * configuration of the google remote provider. The remote provider is
+ * retrieved periodically and the flows are rebuilt only when its keys change.
+ */
+public class GoogleClientProvider implements Startable {
+
+  private static final Log                               LOG                             =
+                                                             ExoLogger.getLogger(GoogleClientProvider.class);
+
+  public static final String                             GOOGLE_REMOTE_PROVIDER_NAME     = "agenda.googleCalendar";
+
+  public static final String                             PROVIDER_REFRESH_PERIOD_PARAM   = "providerRefreshPeriodSeconds";
+
+  private static final long                              DEFAULT_PROVIDER_REFRESH_PERIOD = 60;
+
+  private static final int                               MAX_FLOWS                       = 100;
+
+  private final AgendaRemoteEventService                 agendaRemoteEventService;
+
+  private final long                                     providerRefreshPeriodMillis;
+
+  private final HttpTransport                            transport                       = new NetHttpTransport();
+
+  private final JsonFactory                              jsonFactory                     = new GsonFactory();
+
+  private final Map<String, GoogleAuthorizationCodeFlow> authorizationCodeFlows          = new ConcurrentHashMap<>();
+
+  private volatile LoadedProvider                        loadedProvider;
+
+  public GoogleClientProvider(AgendaRemoteEventService agendaRemoteEventService, InitParams initParams) {
+    this.agendaRemoteEventService = agendaRemoteEventService;
+    this.providerRefreshPeriodMillis =
+                                     TimeUnit.SECONDS.toMillis(ExchangeConnectorUtils.getLongParameter(initParams,
+                                                                                                       PROVIDER_REFRESH_PERIOD_PARAM,
+                                                                                                       DEFAULT_PROVIDER_REFRESH_PERIOD));
+  }
+
+  @Override
+  public void start() {
+    // Nothing to start, the clients are built lazily
+  }
+
+  @Override
+  public void stop() {
+    try {
+      transport.shutdown();
+    } catch (IOException e) {
+      LOG.warn("Error when shutting down google HTTP transport", e);
+    }
+  }
+
+  public HttpTransport getTransport() {
+    return transport;
+  }
+
+  public JsonFactory getJsonFactory() {
+    return jsonFactory;
+  }
+
+  /**
+   * @return the google {@link RemoteProvider}, retrieved again from agenda
+   *         once the refresh period is elapsed
+   */
+  public Optional<RemoteProvider> getGoogleRemoteProvider() {
+    LoadedProvider currentProvider = loadedProvider;
+    long now = System.currentTimeMillis();
+    if (currentProvider == null || now - currentProvider.loadTime >= providerRefreshPeriodMillis) {
+      RemoteProvider remoteProvider = agendaRemoteEventService.getRemoteProviders()
+                                                              .stream()
+                                                              .filter(provider -> GOOGLE_REMOTE_PROVIDER_NAME.equals(provider.getName()))
+                                                              .findFirst()
+                                                              .orElse(null);
+      String keys = getKeys(remoteProvider);
+      if (currentProvider != null && !Objects.equals(currentProvider.keys, keys)) {
+        LOG.info("Google remote provider keys changed, rebuild google authorization flows");
+        authorizationCodeFlows.clear();
+      }
+      currentProvider = new LoadedProvider(remoteProvider, keys, now);
+      loadedProvider = currentProvider;
+    }
+    return Optional.ofNullable(currentProvider.remoteProvider);
+  }
+
+  /**
+   * @param remoteProvider google {@link RemoteProvider}
+   * @param scopes requested scopes
+   * @return the thread-safe offline {@link GoogleAuthorizationCodeFlow} of the
+   *         provider keys and scopes
+   */
+  public GoogleAuthorizationCodeFlow getAuthorizationCodeFlow(RemoteProvider remoteProvider, String scopes) {
+    String flowKey = getKeys(remoteProvider) + "\n" + scopes;
+    GoogleAuthorizationCodeFlow authorizationCodeFlow = authorizationCodeFlows.get(flowKey);
+    if (authorizationCodeFlow == null) {
+      if (authorizationCodeFlows.size() >= MAX_FLOWS) {
+        authorizationCodeFlows.clear();
+      }
+      authorizationCodeFlow = authorizationCodeFlows.computeIfAbsent(flowKey,
+                                                                     key -> new GoogleAuthorizationCodeFlow.Builder(transport,
+                                                                                                                    jsonFactory,
+                                                                                                                    remoteProvider.getApiKey(),
+                                                                                                                    remoteProvider.getSecretKey(),
+                                                                                                                    Collections.singleton(scopes)).setAccessType("offline")
+                                                                                                                                                  .build());
+    }
+    return authorizationCodeFlow;
+  }
+
+  /**
+   * @param remoteProvider google {@link RemoteProvider}
+   * @param refreshToken stored refresh token of the user
+   * @return a {@link GoogleRefreshTokenRequest} using the shared transport
+   */
+  public GoogleRefreshTokenRequest newRefreshTokenRequest(RemoteProvider remoteProvider, String refreshToken) {
+    return new GoogleRefreshTokenRequest(transport,
+                                         jsonFactory,
+                                         refreshToken,
+                                         remoteProvider.getApiKey(),
+                                         remoteProvider.getSecretKey());
+  }
+
+  private String getKeys(RemoteProvider remoteProvider) {
+    return remoteProvider == null ? null : remoteProvider.getApiKey() + "\n" + remoteProvider.getSecretKey();
+  }
+
+  private static class LoadedProvider {
+
+    private final RemoteProvider remoteProvider;
+
+    private final String         keys;
+
+    private final long           loadTime;
+
+    private LoadedProvider(RemoteProvider remoteProvider, String keys, long loadTime) {
+      this.remoteProvider = remoteProvider;
+      this.keys = keys;
+      this.loadTime = loadTime;
+    }
+  }
+}
@@ -16,21 +16,86 @@
  */
 package org.exoplatform.agendaconnector.service;
 
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import org.exoplatform.agenda.model.RemoteProvider;
+import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
 import org.exoplatform.commons.api.settings.SettingService;
 import org.exoplatform.commons.api.settings.SettingValue;
 import org.exoplatform.commons.api.settings.data.Context;
 import org.exoplatform.commons.api.settings.data.Scope;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleTokenResponse;
 
 public class GoogleConnectorServiceImpl implements GoogleConnectorService {
 
-  private static final Scope   APP_SCOPE                     = Scope.APPLICATION.id("gConnectorRefreshToken");
+  private static final Log                                    LOG                           =
+                                                                  ExoLogger.getLogger(GoogleConnectorServiceImpl.class);
+
+  private static final Scope                                  APP_SCOPE                     =
+                                                                        Scope.APPLICATION.id("gConnectorRefreshToken");
+
+  private static final String                                 G_CONNECTOR_REFRESH_TOKEN_KEY = "gConnectorRefreshTokenKey";
+
+  public static final String                                  GOOGLE_TOKENS_CACHE_NAME      = "agendaconnector.google.tokens";
+
+  public static final String                                  REFRESH_MARGIN_PARAM          = "tokenRefreshMarginSeconds";
+
+  private static final long                                   DEFAULT_REFRESH_MARGIN        = 300;
+
+  private static final String                                 ACCESS_TOKEN                  = "access_token";
 
-  private static final String  G_CONNECTOR_REFRESH_TOKEN_KEY = "gConnectorRefreshTokenKey";
+  private static final String                                 REFRESH_TOKEN                 = "refresh_token";
+
+  private static final String                                 EXPIRES_IN                    = "expires_in";
+
+  /** Expiry epoch milliseconds of the access token, added to stored tokens */
+  private static final String                                 EXPIRES_AT                    = "expires_at";
+
+  private final SettingService                                settingService;
+
+  private final GoogleClientProvider                          googleClientProvider;
+
+  private final ConnectorMetrics                              connectorMetrics;
+
+  private final long                                          refreshMarginMillis;
+
+  /**
+   * Parsed tokens of users, invalidated on all cluster nodes each time a token
+   * is stored or removed. Tokens read from the settings store are only cached
+   * locally so that reading them doesn't invalidate other nodes.
+   */
+  private final ExoCache<String, CachedToken>                 tokensCache;
 
-  private final SettingService settingService;
+  private final Map<String, CompletableFuture<CachedToken>> pendingRefreshes              = new ConcurrentHashMap<>();
 
-  public GoogleConnectorServiceImpl(SettingService settingService) {
+  public GoogleConnectorServiceImpl(SettingService settingService,
+                                    GoogleClientProvider googleClientProvider,
+                                    ConnectorMetrics connectorMetrics,
+                                    CacheService cacheService,
+                                    InitParams initParams) {
     this.settingService = settingService;
+    this.googleClientProvider = googleClientProvider;
+    this.connectorMetrics = connectorMetrics;
+    this.tokensCache = cacheService.getCacheInstance(GOOGLE_TOKENS_CACHE_NAME);
+    this.refreshMarginMillis = TimeUnit.SECONDS.toMillis(ExchangeConnectorUtils.getLongParameter(initParams,
+                                                                                                 REFRESH_MARGIN_PARAM,
+                                                                                                 DEFAULT_REFRESH_MARGIN));
   }
 
   /**
@@ -44,7 +109,7 @@ public class GoogleConnectorServiceImpl implements GoogleConnectorService {
     if (token == null) {
       throw new IllegalArgumentException("token object is mandatory");
     }
-    settingService.set(Context.USER.id(userName), APP_SCOPE, G_CONNECTOR_REFRESH_TOKEN_KEY, SettingValue.create(token));
+    storeToken(userName, token);
   }
 
   /**
@@ -62,6 +127,53 @@ public class GoogleConnectorServiceImpl implements GoogleConnectorService {
     return (String) tokenResponse.getValue();
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String getValidTokenResponse(String userName) throws IllegalAccessException {
+    if (userName == null) {
+      throw new IllegalArgumentException("username is mandatory");
+    }
+    CachedToken cachedToken = getCachedToken(userName);
+    if (cachedToken == null) {
+      return null;
+    }
+    if (cachedToken.isValid(refreshMarginMillis)) {
+      return cachedToken.toTokenResponse();
+    }
+    CompletableFuture<CachedToken> refresh = new CompletableFuture<>();
+    CompletableFuture<CachedToken> pendingRefresh = pendingRefreshes.putIfAbsent(userName, refresh);
+    if (pendingRefresh != null) {
+      CachedToken refreshedToken = waitForRefresh(userName, pendingRefresh);
+      return refreshedToken == null ? null : refreshedToken.toTokenResponse();
+    }
+    try {
+      // The token may have been refreshed by a request completed meanwhile
+      CachedToken refreshedToken = tokensCache.get(userName);
+      if (refreshedToken == null || !refreshedToken.isValid(refreshMarginMillis)) {
+        // The stored token is read again since it may have been refreshed or
+        // removed on another cluster node, a removed token must not be
+        // refreshed and stored again
+        refreshedToken = loadToken(userName);
+        if (refreshedToken == null) {
+          tokensCache.remove(userName);
+        } else if (refreshedToken.isValid(refreshMarginMillis)) {
+          tokensCache.putLocal(userName, refreshedToken);
+        } else {
+          refreshedToken = refreshToken(userName, refreshedToken);
+        }
+      }
+      refresh.complete(refreshedToken);
+      return refreshedToken == null ? null : refreshedToken.toTokenResponse();
+    } catch (IllegalAccessException | RuntimeException e) {
+      refresh.completeExceptionally(e);
+      throw e;
+    } finally {
+      pendingRefreshes.remove(userName, refresh);
+    }
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -71,5 +183,136 @@ public class GoogleConnectorServiceImpl implements GoogleConnectorService {
       throw new IllegalArgumentException("username is mandatory");
     }
     settingService.remove(Context.USER.id(userName), APP_SCOPE, G_CONNECTOR_REFRESH_TOKEN_KEY);
+    tokensCache.remove(userName);
+  }
+
+  private CachedToken storeToken(String userName, String token) {
+    CachedToken cachedToken = parseToken(token, true);
+    String storedToken = cachedToken == null ? token : cachedToken.token.toJSONString();
+    settingService.set(Context.USER.id(userName), APP_SCOPE, G_CONNECTOR_REFRESH_TOKEN_KEY, SettingValue.create(storedToken));
+    if (cachedToken == null) {
+      tokensCache.remove(userName);
+    } else {
+      tokensCache.put(userName, cachedToken);
+    }
+    return cachedToken;
+  }
+
+  private CachedToken getCachedToken(String userName) {
+    CachedToken cachedToken = tokensCache.get(userName);
+    if (cachedToken == null) {
+      cachedToken = loadToken(userName);
+      if (cachedToken != null) {
+        tokensCache.putLocal(userName, cachedToken);
+      }
+    }
+    return cachedToken;
+  }
+
+  private CachedToken loadToken(String userName) {
+    String storedToken = getTokenResponse(userName);
+    if (storedToken == null) {
+      return null;
+    }
+    CachedToken cachedToken = parseToken(storedToken, false);
+    if (cachedToken == null) {
+      LOG.warn("Stored google token of user '{}' can't be parsed", userName);
+    }
+    return cachedToken;
+  }
+
+  private CachedToken refreshToken(String userName, CachedToken cachedToken) throws IllegalAccessException {
+    Optional<RemoteProvider> provider = googleClientProvider.getGoogleRemoteProvider();
+    if (provider.isEmpty()) {
+      throw new IllegalAccessException("Google remote provider isn't configured");
+    }
+    String refreshToken = (String) cachedToken.token.get(REFRESH_TOKEN);
+    if (refreshToken == null) {
+      throw new IllegalAccessException("User " + userName + " has no google refresh token");
+    }
+    GoogleTokenResponse response;
+    try {
+      response = connectorMetrics.time(ConnectorMetrics.GOOGLE_CONNECTOR,
+                                       "tokenRefresh",
+                                       () -> googleClientProvider.newRefreshTokenRequest(provider.get(), refreshToken)
+                                                                 .execute());
+    } catch (Exception e) {
+      LOG.error("Error while refreshing the google access token of user '{}'", userName, e);
+      throw new IllegalAccessException("Error while refreshing the google access token: " + e.getMessage());
+    }
+    response.set(REFRESH_TOKEN, refreshToken);
+    CachedToken refreshedToken = storeToken(userName, response.toString());
+    if (refreshedToken == null) {
+      throw new IllegalAccessException("Refreshed google token of user " + userName + " can't be parsed");
+    }
+    return refreshedToken;
+  }
+
+  private CachedToken waitForRefresh(String userName, CompletableFuture<CachedToken> pendingRefresh) throws IllegalAccessException {
+    try {
+      return pendingRefresh.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalAccessException("Interrupted while waiting for the google access token refresh of user " + userName);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IllegalAccessException illegalAccessException) {
+        throw illegalAccessException;
+      }
+      throw new IllegalStateException("Error while refreshing the google access token of user " + userName, e.getCause());
+    }
+  }
+
+  /**
+   * @param token token response JSON string
+   * @param issuedNow whether the token was just issued so that its expiry
+   *          is computed from its remaining validity
+   * @return the parsed token or null if it isn't a JSON object
+   */
+  @SuppressWarnings("unchecked")
+  private CachedToken parseToken(String token, boolean issuedNow) {
+    Object parsedToken;
+    try {
+      parsedToken = new JSONParser().parse(token);
+    } catch (ParseException e) {
+      return null;
+    }
+    if (!(parsedToken instanceof JSONObject)) {
+      return null;
+    }
+    JSONObject tokenObject = (JSONObject) parsedToken;
+    long expiresAt = 0;
+    if (tokenObject.get(EXPIRES_AT) instanceof Number storedExpiresAt) {
+      expiresAt = storedExpiresAt.longValue();
+    } else if (issuedNow && tokenObject.get(EXPIRES_IN) instanceof Number expiresIn) {
+      expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expiresIn.longValue());
+      tokenObject.put(EXPIRES_AT, expiresAt);
+    }
+    // Tokens stored without expiry are refreshed on first use
+    return new CachedToken(tokenObject, tokenObject.get(ACCESS_TOKEN) == null ? 0 : expiresAt);
+  }
+
+  private static class CachedToken implements Serializable {
+
+    private static final long serialVersionUID = -4386296815218937462L;
+
+    private final JSONObject token;
+
+    private final long       expiresAt;
+
+    private CachedToken(JSONObject token, long expiresAt) {
+      this.token = token;
+      this.expiresAt = expiresAt;
+    }
+
+    private boolean isValid(long refreshMarginMillis) {
+      return expiresAt - refreshMarginMillis > System.currentTimeMillis();
+    }
+
+    @SuppressWarnings("unchecked")
+    private String toTokenResponse() {
+      JSONObject tokenResponse = new JSONObject(token);
+      tokenResponse.put(EXPIRES_IN, Math.max(0, TimeUnit.MILLISECONDS.toSeconds(expiresAt - System.currentTimeMillis())));
+      return tokenResponse.toJSONString();
+    }
   }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.service;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+import org.exoplatform.agendaconnector.model.OfficeSyncedEvent;
+
+/**
+ * Copy of the office calendar view of a user over a bounded period,
+ * synchronized incrementally using the Microsoft Graph delta link.
+ */
+public class OfficeCalendarSync implements Serializable {
+
+  private static final long                        serialVersionUID = 3460968911418826542L;
+
+  private final String                             deltaLink;
+
+  private final long                               startTime;
+
+  private final long                               endTime;
+
+  private final long                               syncTime;
+
+  private final HashMap<String, OfficeSyncedEvent> events;
+
+  public OfficeCalendarSync(String deltaLink,
+                            long startTime,
+                            long endTime,
+                            long syncTime,
+                            HashMap<String, OfficeSyncedEvent> events) {
+    this.deltaLink = deltaLink;
+    this.startTime = startTime;
+    this.endTime = endTime;
+    this.syncTime = syncTime;
+    this.events = events;
+  }
+
+  public String getDeltaLink() {
+    return deltaLink;
+  }
+
+  public long getStartTime() {
+    return startTime;
+  }
+
+  public long getEndTime() {
+    return endTime;
+  }
+
+  public long getSyncTime() {
+    return syncTime;
+  }
+
+  public HashMap<String, OfficeSyncedEvent> getEvents() {
+    return events;
+  }
+
+  /**
+   * @param windowStartTime start of a window in epoch milliseconds
+   * @param windowEndTime end of a window in epoch milliseconds
+   * @return true if the events of the window are synchronized
+   */
+  public boolean covers(long windowStartTime, long windowEndTime) {
+    return windowStartTime >= startTime && windowEndTime <= endTime;
+  }
+}
@@ -0,0 +1,466 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.picocontainer.Startable;
+
+import org.exoplatform.agendaconnector.model.OfficeSyncedEvent;
+import org.exoplatform.agendaconnector.storage.OfficeConnectorStorage;
+import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+
+/**
+ * Retrieves office 365 events on server side using Microsoft Graph. The
+ * calendar view of a period around the current date is synchronized
+ * incrementally using calendarView/delta: the delta link returned by Graph and
+ * the synchronized events are persisted in a single value using
+ * {@link OfficeConnectorStorage}, so that only the changes made since the last
+ * synchronization are downloaded, including after a server restart, and kept
+ * in cache between two requests. The whole calendar view is synchronized in
+ * background, requests are answered by Graph calendarView meanwhile.
+ */
+public class OfficeConnectorServiceImpl implements OfficeConnectorService, Startable {
+
+  private static final Log                         LOG                        = ExoLogger.getLogger(OfficeConnectorServiceImpl.class);
+
+  public static final String                       SYNC_INTERVAL_PARAM        = "syncIntervalSeconds";
+
+  public static final String                       SYNC_PAST_DAYS_PARAM       = "syncPastDays";
+
+  public static final String                       SYNC_FUTURE_DAYS_PARAM     = "syncFutureDays";
+
+  public static final String                       PAGE_SIZE_PARAM            = "pageSize";
+
+  public static final String                       FULL_SYNC_THREADS_PARAM    = "fullSyncThreads";
+
+  public static final String                       MAX_STORED_EVENTS_PARAM    = "maxStoredEvents";
+
+  public static final String                       OFFICE_CALENDAR_CACHE_NAME = "agendaconnector.office.calendar";
+
+  private static final long                        DEFAULT_SYNC_INTERVAL      = 30;
+
+  private static final long                        DEFAULT_SYNC_PAST_DAYS     = 90;
+
+  private static final long                        DEFAULT_SYNC_FUTURE_DAYS   = 365;
+
+  private static final int                         DEFAULT_PAGE_SIZE          = 100;
+
+  private static final int                         DEFAULT_FULL_SYNC_THREADS  = 2;
+
+  private static final int                         DEFAULT_MAX_STORED_EVENTS  = 20000;
+
+  private static final String                      GRAPH_URL                  = "https://graph.microsoft.com/v1.0/me";
+
+  private static final String                      NEXT_LINK                  = "@odata.nextLink";
+
+  private static final String                      DELTA_LINK                 = "@odata.deltaLink";
+
+  private static final int                         HTTP_GONE                  = 410;
+
+  private final OfficeConnectorStorage             officeConnectorStorage;
+
+  private final ConnectorMetrics                   connectorMetrics;
+
+  private final HttpTransport                      transport;
+
+  private final ExoCache<Long, OfficeCalendarSync> officeCalendarCache;
+
+  private final Map<Long, Object>                  userLocks                  = new ConcurrentHashMap<>();
+
+  /**
+   * Users whose whole calendar view is being synchronized in background
+   */
+  private final Set<Long>                          fullSyncUsers              = ConcurrentHashMap.newKeySet();
+
+  private final long                               syncIntervalMillis;
+
+  private final long                               syncPastMillis;
+
+  private final long                               syncFutureMillis;
+
+  private final int                                pageSize;
+
+  private final int                                fullSyncThreads;
+
+  private final int                                maxStoredEvents;
+
+  private ExecutorService                          fullSyncExecutor;
+
+  public OfficeConnectorServiceImpl(OfficeConnectorStorage officeConnectorStorage,
+                                    ConnectorMetrics connectorMetrics,
+                                    CacheService cacheService,
+                                    InitParams initParams) {
+    this(officeConnectorStorage, connectorMetrics, cacheService, initParams, new NetHttpTransport());
+  }
+
+  OfficeConnectorServiceImpl(OfficeConnectorStorage officeConnectorStorage,
+                             ConnectorMetrics connectorMetrics,
+                             CacheService cacheService,
+                             InitParams initParams,
+                             HttpTransport transport) {
+    this.officeConnectorStorage = officeConnectorStorage;
+    this.connectorMetrics = connectorMetrics;
+    this.transport = transport;
+    this.officeCalendarCache = cacheService.getCacheInstance(OFFICE_CALENDAR_CACHE_NAME);
+    this.syncIntervalMillis = TimeUnit.SECONDS.toMillis(ExchangeConnectorUtils.getLongParameter(initParams,
+                                                                                                SYNC_INTERVAL_PARAM,
+                                                                                                DEFAULT_SYNC_INTERVAL));
+    this.syncPastMillis = TimeUnit.DAYS.toMillis(ExchangeConnectorUtils.getLongParameter(initParams,
+                                                                                         SYNC_PAST_DAYS_PARAM,
+                                                                                         DEFAULT_SYNC_PAST_DAYS));
+    this.syncFutureMillis = TimeUnit.DAYS.toMillis(ExchangeConnectorUtils.getLongParameter(initParams,
+                                                                                           SYNC_FUTURE_DAYS_PARAM,
+                                                                                           DEFAULT_SYNC_FUTURE_DAYS));
+    this.pageSize = ExchangeConnectorUtils.getIntParameter(initParams, PAGE_SIZE_PARAM, DEFAULT_PAGE_SIZE);
+    this.fullSyncThreads = ExchangeConnectorUtils.getIntParameter(initParams, FULL_SYNC_THREADS_PARAM, DEFAULT_FULL_SYNC_THREADS);
+    this.maxStoredEvents = ExchangeConnectorUtils.getIntParameter(initParams, MAX_STORED_EVENTS_PARAM, DEFAULT_MAX_STORED_EVENTS);
+  }
+
+  @Override
+  public void start() {
+    fullSyncExecutor = Executors.newFixedThreadPool(fullSyncThreads,
+                                                    ExchangeConnectorUtils.newDaemonThreadFactory("OfficeCalendarFullSync"));
+  }
+
+  @Override
+  public void stop() {
+    if (fullSyncExecutor != null) {
+      fullSyncExecutor.shutdownNow();
+    }
+    try {
+      transport.shutdown();
+    } catch (IOException e) {
+      LOG.warn("Error when shutting down office HTTP transport", e);
+    }
+  }
+
+  @Override
+  public List<OfficeSyncedEvent> getOfficeEvents(long userIdentityId,
+                                                 String accessToken,
+                                                 ZonedDateTime start,
+                                                 ZonedDateTime end) throws IllegalAccessException, IOException {
+    if (accessToken == null) {
+      throw new IllegalAccessException("User '" + userIdentityId + "' has no office access token");
+    }
+    long startTime = start.toInstant().toEpochMilli();
+    long endTime = end.toInstant().toEpochMilli();
+    Collection<OfficeSyncedEvent> candidateEvents;
+    OfficeCalendarSync officeCalendarSync = synchronize(userIdentityId, accessToken);
+    if (officeCalendarSync == null) {
+      synchronizeInBackground(userIdentityId, accessToken);
+    }
+    if (officeCalendarSync != null && officeCalendarSync.covers(startTime, endTime)) {
+      candidateEvents = officeCalendarSync.getEvents().values();
+    } else {
+      candidateEvents = listEvents(accessToken, startTime, endTime);
+    }
+    List<OfficeSyncedEvent> events = new ArrayList<>();
+    for (OfficeSyncedEvent event : candidateEvents) {
+      if (toEpochMilli(event.getStart()) < endTime && toEpochMilli(event.getEnd()) > startTime) {
+        events.add(event);
+      }
+    }
+    events.sort(Comparator.comparingLong(event -> toEpochMilli(event.getStart())));
+    return events;
+  }
+
+  @Override
+  public void deleteOfficeSyncData(long userIdentityId) {
+    synchronized (userLocks.computeIfAbsent(userIdentityId, key -> new Object())) {
+      // A running full synchronization won't store its result
+      fullSyncUsers.remove(userIdentityId);
+      officeConnectorStorage.deleteOfficeSyncData(userIdentityId);
+      officeCalendarCache.remove(userIdentityId);
+    }
+  }
+
+  /**
+   * Applies the changes of the synchronized calendar view since the last
+   * synchronization.
+   *
+   * @return the synchronized calendar view or null when it has to be
+   *         synchronized again from scratch, because it doesn't cover the sync
+   *         future days anymore or because Graph doesn't accept the delta link
+   *         anymore
+   */
+  private OfficeCalendarSync synchronize(long userIdentityId, String accessToken) throws IllegalAccessException,
+                                                                                  IOException {
+    synchronized (userLocks.computeIfAbsent(userIdentityId, key -> new Object())) {
+      OfficeCalendarSync officeCalendarSync = officeCalendarCache.get(userIdentityId);
+      if (officeCalendarSync == null) {
+        officeCalendarSync = officeConnectorStorage.getOfficeCalendarSync(userIdentityId);
+        if (officeCalendarSync != null) {
+          // Cached locally only, the stored copy didn't change
+          officeCalendarCache.putLocal(userIdentityId, officeCalendarSync);
+        }
+      }
+      long now = System.currentTimeMillis();
+      if (officeCalendarSync == null || officeCalendarSync.getEndTime() < now + syncFutureMillis / 2) {
+        return null;
+      }
+      if (now - officeCalendarSync.getSyncTime() < syncIntervalMillis) {
+        return officeCalendarSync;
+      }
+      OfficeCalendarSync updatedCalendarSync = synchronize(accessToken,
+                                                           officeCalendarSync,
+                                                           new GenericUrl(officeCalendarSync.getDeltaLink()),
+                                                           officeCalendarSync.getStartTime(),
+                                                           officeCalendarSync.getEndTime());
+      if (updatedCalendarSync == null) {
+        LOG.info("Office delta link of user {} is not valid anymore, synchronize the whole calendar view again", userIdentityId);
+        return null;
+      }
+      if (updatedCalendarSync.getEvents() != officeCalendarSync.getEvents()
+          || !updatedCalendarSync.getDeltaLink().equals(officeCalendarSync.getDeltaLink())) {
+        saveOfficeCalendarSync(userIdentityId, updatedCalendarSync);
+      } else {
+        // Nothing changed, the copies cached on other nodes are still valid
+        officeCalendarCache.putLocal(userIdentityId, updatedCalendarSync);
+      }
+      return updatedCalendarSync;
+    }
+  }
+
+  /**
+   * Synchronizes the whole calendar view of a user in background, so that
+   * requests don't wait for it nor hold the user lock meanwhile
+   */
+  private void synchronizeInBackground(long userIdentityId, String accessToken) {
+    if (fullSyncExecutor == null || !fullSyncUsers.add(userIdentityId)) {
+      return;
+    }
+    try {
+      fullSyncExecutor.execute(() -> {
+        try {
+          long now = System.currentTimeMillis();
+          long startTime = now - syncPastMillis;
+          long endTime = now + syncFutureMillis;
+          GenericUrl url = new GenericUrl(GRAPH_URL + "/calendarView/delta");
+          url.set("startDateTime", Instant.ofEpochMilli(startTime).toString());
+          url.set("endDateTime", Instant.ofEpochMilli(endTime).toString());
+          OfficeCalendarSync officeCalendarSync = synchronize(accessToken, null, url, startTime, endTime);
+          if (officeCalendarSync == null) {
+            throw new IOException("Office calendar delta request was refused");
+          }
+          synchronized (userLocks.computeIfAbsent(userIdentityId, key -> new Object())) {
+            // The user is removed when its synchronization data is deleted
+            if (fullSyncUsers.remove(userIdentityId)) {
+              saveOfficeCalendarSync(userIdentityId, officeCalendarSync);
+            }
+          }
+        } catch (Exception e) {
+          fullSyncUsers.remove(userIdentityId);
+          LOG.warn("Office calendar of user {} can't be synchronized: {}", userIdentityId, e.getMessage());
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      fullSyncUsers.remove(userIdentityId);
+    }
+  }
+
+  private void saveOfficeCalendarSync(long userIdentityId, OfficeCalendarSync officeCalendarSync) {
+    if (officeCalendarSync.getEvents().size() <= maxStoredEvents) {
+      officeConnectorStorage.saveOfficeCalendarSync(userIdentityId, officeCalendarSync);
+    } else {
+      // Too big to be stored in a setting value, it's only cached and will be
+      // synchronized again from scratch once evicted
+      LOG.debug("Synchronized office calendar view of user {} has {} events, it's not stored",
+                userIdentityId,
+                officeCalendarSync.getEvents().size());
+      officeConnectorStorage.deleteOfficeSyncData(userIdentityId);
+    }
+    officeCalendarCache.put(userIdentityId, officeCalendarSync);
+  }
+
+  /**
+   * @param officeCalendarSync last synchronized calendar view, null to
+   *          synchronize the whole calendar view
+   * @return the synchronized calendar view or null if Graph answered that the
+   *         delta link expired
+   */
+  private OfficeCalendarSync synchronize(String accessToken,
+                                         OfficeCalendarSync officeCalendarSync,
+                                         GenericUrl url,
+                                         long startTime,
+                                         long endTime) throws IllegalAccessException, IOException {
+    long syncTime = System.currentTimeMillis();
+    HashMap<String, OfficeSyncedEvent> events = officeCalendarSync == null ? new HashMap<>() : null;
+    String deltaLink = null;
+    do {
+      JSONObject eventsPage = getEventsPage(accessToken, url);
+      if (eventsPage == null) {
+        return null;
+      }
+      List<?> items = (List<?>) eventsPage.get("value");
+      if (items != null && !items.isEmpty()) {
+        if (events == null) {
+          // Copied on first change since cached copies may be read concurrently
+          events = new HashMap<>(officeCalendarSync.getEvents());
+        }
+        for (Object item : items) {
+          applyChange((JSONObject) item, events);
+        }
+      }
+      String nextLink = (String) eventsPage.get(NEXT_LINK);
+      deltaLink = (String) eventsPage.get(DELTA_LINK);
+      url = nextLink == null ? null : new GenericUrl(nextLink);
+    } while (url != null);
+    if (deltaLink == null) {
+      throw new IOException("Office calendar delta response has no delta link");
+    }
+    return new OfficeCalendarSync(deltaLink,
+                                  startTime,
+                                  endTime,
+                                  syncTime,
+                                  events == null ? officeCalendarSync.getEvents() : events);
+  }
+
+  private List<OfficeSyncedEvent> listEvents(String accessToken, long startTime, long endTime) throws IllegalAccessException,
+                                                                                                 IOException {
+    GenericUrl url = new GenericUrl(GRAPH_URL + "/calendarView");
+    url.set("startDateTime", Instant.ofEpochMilli(startTime).toString());
+    url.set("endDateTime", Instant.ofEpochMilli(endTime).toString());
+    url.set("$select", "subject,start,end,isAllDay,location,seriesMasterId");
+    Map<String, OfficeSyncedEvent> events = new HashMap<>();
+    do {
+      JSONObject eventsPage = getEventsPage(accessToken, url);
+      if (eventsPage == null) {
+        throw new IOException("Office calendar view can't be retrieved");
+      }
+      List<?> items = (List<?>) eventsPage.get("value");
+      if (items != null) {
+        for (Object item : items) {
+          OfficeSyncedEvent event = toSyncedEvent((JSONObject) item);
+          if (event != null) {
+            events.put(event.getRemoteId(), event);
+          }
+        }
+      }
+      String nextLink = (String) eventsPage.get(NEXT_LINK);
+      url = nextLink == null ? null : new GenericUrl(nextLink);
+    } while (url != null);
+    return new ArrayList<>(events.values());
+  }
+
+  /**
+   * @return the events page or null if Graph answered that the delta link
+   *         expired
+   */
+  private JSONObject getEventsPage(String accessToken, GenericUrl url) throws IllegalAccessException, IOException {
+    HttpRequest request = transport.createRequestFactory().buildGetRequest(url);
+    request.getHeaders().setAuthorization("Bearer " + accessToken);
+    request.getHeaders().set("Prefer", List.of("outlook.timezone=\"UTC\"", "odata.maxpagesize=" + pageSize));
+    request.setThrowExceptionOnExecuteError(false);
+    HttpResponse response;
+    try {
+      response = connectorMetrics.time(ConnectorMetrics.OFFICE_CONNECTOR, "eventsSync", request::execute);
+    } catch (IOException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException("Error while requesting office calendar view", e);
+    }
+    try {
+      int statusCode = response.getStatusCode();
+      if (statusCode == HTTP_GONE) {
+        return null;
+      } else if (statusCode == 401) {
+        throw new IllegalAccessException("Office access token was rejected");
+      } else if (statusCode != 200) {
+        throw new IOException("Office calendar view request failed with status " + statusCode);
+      }
+      return (JSONObject) new JSONParser().parse(response.parseAsString());
+    } catch (ParseException e) {
+      throw new IOException("Office calendar view response can't be parsed", e);
+    } finally {
+      response.disconnect();
+    }
+  }
+
+  private void applyChange(JSONObject item, Map<String, OfficeSyncedEvent> syncedEvents) {
+    String remoteId = (String) item.get("id");
+    OfficeSyncedEvent syncedEvent = item.containsKey("@removed") ? null : toSyncedEvent(item);
+    if (syncedEvent != null) {
+      syncedEvents.put(remoteId, syncedEvent);
+    } else {
+      syncedEvents.remove(remoteId);
+    }
+  }
+
+  /**
+   * Normalizes a Graph event the same way the office connector did on client
+   * side
+   */
+  private OfficeSyncedEvent toSyncedEvent(JSONObject item) {
+    JSONObject start = (JSONObject) item.get("start");
+    JSONObject end = (JSONObject) item.get("end");
+    if (start == null || end == null || start.get("dateTime") == null || end.get("dateTime") == null) {
+      return null;
+    }
+    JSONObject location = (JSONObject) item.get("location");
+    return new OfficeSyncedEvent((String) item.get("id"),
+                                 (String) item.get("seriesMasterId"),
+                                 (String) item.get("subject"),
+                                 location == null ? null : (String) location.get("displayName"),
+                                 toUTCDateTime((String) start.get("dateTime")),
+                                 toUTCDateTime((String) end.get("dateTime")),
+                                 Boolean.TRUE.equals(item.get("isAllDay")));
+  }
+
+  /**
+   * @param dateTime Graph datetime, in UTC as requested with the
+   *          outlook.timezone preference
+   * @return RFC-3339 UTC datetime
+   */
+  private String toUTCDateTime(String dateTime) {
+    return LocalDateTime.parse(dateTime).toInstant(ZoneOffset.UTC).toString();
+  }
+
+  private long toEpochMilli(String dateTime) {
+    return Instant.parse(dateTime).toEpochMilli();
+  }
+}
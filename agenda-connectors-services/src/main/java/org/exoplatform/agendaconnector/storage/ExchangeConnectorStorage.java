@@ -16,22 +16,71 @@
  */
 package org.exoplatform.agendaconnector.storage;
 
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import org.exoplatform.agenda.rest.model.EventEntity;
 import org.exoplatform.agenda.storage.AgendaRemoteEventStorage;
+import org.exoplatform.agendaconnector.model.ExchangeOutboxEntry;
+import org.exoplatform.agendaconnector.model.ExchangeSyncedEvent;
 import org.exoplatform.agendaconnector.model.ExchangeUserSetting;
+import org.exoplatform.agendaconnector.service.ExchangeSyncedCalendar;
 import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
 import org.exoplatform.commons.api.settings.SettingService;
 import org.exoplatform.commons.api.settings.SettingValue;
 import org.exoplatform.commons.api.settings.data.Context;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
 
 public class ExchangeConnectorStorage {
 
-  private SettingService      settingService;
+  public static final String                  EXCHANGE_SETTINGS_CACHE_NAME = "agendaconnector.exchange.settings";
+
+  private static final Log                    LOG                          = ExoLogger.getLogger(ExchangeConnectorStorage.class);
+
+  private static final String                 OUTBOX_FIELD_SEPARATOR       = "&";
+
+  private static final String                 OUTBOX_VALUE_SEPARATOR       = "=";
+
+  private SettingService                      settingService;
+
+  private AgendaRemoteEventStorage            remoteEventStorage;
 
-  private AgendaRemoteEventStorage remoteEventStorage;
+  /**
+   * Exchange settings by user identity identifier. The password is kept
+   * encoded in the cache so that the clear credential is never replicated nor
+   * stored outside the memory of the request using it.
+   */
+  private ExoCache<Long, ExchangeUserSetting> exchangeSettingsCache;
 
-  public ExchangeConnectorStorage(SettingService settingService, AgendaRemoteEventStorage remoteEventStorage) {
+  /**
+   * Decoded passwords by user identity identifier, kept in the memory of this
+   * node only to not decode the cached password on each access. An entry is
+   * used only while its encoded password is the cached one, so that a password
+   * changed on another node is decoded again.
+   */
+  private Map<Long, DecodedPassword>          decodedPasswords             = new ConcurrentHashMap<>();
+
+  public ExchangeConnectorStorage(SettingService settingService,
+                                  AgendaRemoteEventStorage remoteEventStorage,
+                                  CacheService cacheService) {
     this.settingService = settingService;
     this.remoteEventStorage = remoteEventStorage;
+    this.exchangeSettingsCache = cacheService.getCacheInstance(EXCHANGE_SETTINGS_CACHE_NAME);
   }
 
   public void createExchangeSetting(ExchangeUserSetting exchangeUserSetting, long userIdentityId) {
@@ -49,34 +98,22 @@ public class ExchangeConnectorStorage {
     this.settingService.set(Context.USER.id(String.valueOf(userIdentityId)),
                             ExchangeConnectorUtils.EXCHANGE_CONNECTOR_SETTING_SCOPE,
                             ExchangeConnectorUtils.EXCHANGE_CREDENTIAL_CHECKED,SettingValue.create(exchangeUserSetting.isCredentialChecked()));
+    this.exchangeSettingsCache.remove(userIdentityId);
+    this.decodedPasswords.remove(userIdentityId);
   }
 
   public ExchangeUserSetting getExchangeSetting(long userIdentityId) {
-
-    SettingValue<?> username = this.settingService.get(Context.USER.id(String.valueOf(userIdentityId)),
-            ExchangeConnectorUtils.EXCHANGE_CONNECTOR_SETTING_SCOPE,
-            ExchangeConnectorUtils.EXCHANGE_USERNAME_KEY);
-    SettingValue<?> password = this.settingService.get(Context.USER.id(String.valueOf(userIdentityId)),
-            ExchangeConnectorUtils.EXCHANGE_CONNECTOR_SETTING_SCOPE,
-            ExchangeConnectorUtils.EXCHANGE_PASSWORD_KEY);
-    SettingValue<?> credentialChecked = this.settingService.get(Context.USER.id(String.valueOf(userIdentityId)),
-                                                       ExchangeConnectorUtils.EXCHANGE_CONNECTOR_SETTING_SCOPE,
-                                                       ExchangeConnectorUtils.EXCHANGE_CREDENTIAL_CHECKED);
-
-
-    ExchangeUserSetting exchangeUserSetting = new ExchangeUserSetting();
-    if (username != null) {
-      exchangeUserSetting.setUsername((String) username.getValue());
+    ExchangeUserSetting cachedExchangeUserSetting = this.exchangeSettingsCache.get(userIdentityId);
+    if (cachedExchangeUserSetting == null) {
+      cachedExchangeUserSetting = loadExchangeSetting(userIdentityId);
+      this.exchangeSettingsCache.put(userIdentityId, cachedExchangeUserSetting);
     }
-    if (username != null) {
-      String decodePassword = ExchangeConnectorUtils.decode((String) password.getValue());
-      exchangeUserSetting.setPassword(decodePassword);
-    }
-    if(credentialChecked!=null) {
-      exchangeUserSetting.setCredentialChecked((boolean) credentialChecked.getValue());
-    } else {
-      exchangeUserSetting.setCredentialChecked(false);
+    ExchangeUserSetting exchangeUserSetting = new ExchangeUserSetting();
+    exchangeUserSetting.setUsername(cachedExchangeUserSetting.getUsername());
+    if (cachedExchangeUserSetting.getPassword() != null) {
+      exchangeUserSetting.setPassword(getDecodedPassword(userIdentityId, cachedExchangeUserSetting.getPassword()));
     }
+    exchangeUserSetting.setCredentialChecked(cachedExchangeUserSetting.isCredentialChecked());
     return exchangeUserSetting;
   }
   
@@ -91,10 +128,328 @@ public class ExchangeConnectorStorage {
     this.settingService.remove(Context.USER.id(String.valueOf(userIdentityId)),
                                ExchangeConnectorUtils.EXCHANGE_CONNECTOR_SETTING_SCOPE,
                                ExchangeConnectorUtils.EXCHANGE_CREDENTIAL_CHECKED);
+    this.exchangeSettingsCache.remove(userIdentityId);
+    this.decodedPasswords.remove(userIdentityId);
+    deleteExchangeSyncData(userIdentityId);
+    this.settingService.remove(Context.USER.id(String.valueOf(userIdentityId)),
+                               ExchangeConnectorUtils.EXCHANGE_CHANGE_KEYS_SCOPE);
+    deleteExchangeOutboxEntries(userIdentityId);
+  }
+
+  /**
+   * @param userIdentityId User identity identifier
+   * @return the synchronized exchange calendar of the user, null if it isn't
+   *         synchronized
+   */
+  public ExchangeSyncedCalendar getExchangeSyncedCalendar(long userIdentityId) {
+    SettingValue<?> syncedCalendar = this.settingService.get(Context.USER.id(String.valueOf(userIdentityId)),
+                                                             ExchangeConnectorUtils.EXCHANGE_CONNECTOR_SETTING_SCOPE,
+                                                             ExchangeConnectorUtils.EXCHANGE_SYNCED_CALENDAR_KEY);
+    if (syncedCalendar == null) {
+      return null;
+    }
+    try {
+      return fromSyncedCalendarValue((String) syncedCalendar.getValue());
+    } catch (ParseException | RuntimeException e) {
+      LOG.warn("Synchronized exchange calendar of user {} can't be parsed", userIdentityId, e);
+      return null;
+    }
+  }
+
+  /**
+   * Stores the sync state and the synchronized events of a user in a single
+   * setting value, so that they are read and written in one operation
+   *
+   * @param userIdentityId User identity identifier
+   * @param syncedCalendar synchronized exchange calendar
+   */
+  public void saveExchangeSyncedCalendar(long userIdentityId, ExchangeSyncedCalendar syncedCalendar) {
+    this.settingService.set(Context.USER.id(String.valueOf(userIdentityId)),
+                            ExchangeConnectorUtils.EXCHANGE_CONNECTOR_SETTING_SCOPE,
+                            ExchangeConnectorUtils.EXCHANGE_SYNCED_CALENDAR_KEY,
+                            SettingValue.create(toSyncedCalendarValue(syncedCalendar)));
+  }
+
+  public void deleteExchangeSyncData(long userIdentityId) {
+    this.settingService.remove(Context.USER.id(String.valueOf(userIdentityId)),
+                               ExchangeConnectorUtils.EXCHANGE_CONNECTOR_SETTING_SCOPE,
+                               ExchangeConnectorUtils.EXCHANGE_SYNCED_CALENDAR_KEY);
   }
 
   public  void deleteRemoteEvent(long eventId, long userIdentityId){
     remoteEventStorage.deleteRemoteEvent(eventId,userIdentityId);
+    deleteExchangeChangeKey(userIdentityId, eventId);
+  }
+
+  /**
+   * Deletes the exchange mappings of events. The agenda remote events storage
+   * only deletes a mapping at a time, so a mapping and its change key are
+   * deleted per event.
+   *
+   * @param eventIds agenda event identifiers
+   * @param userIdentityId User identity identifier
+   */
+  public void deleteRemoteEvents(List<Long> eventIds, long userIdentityId) {
+    for (Long eventId : eventIds) {
+      remoteEventStorage.deleteRemoteEvent(eventId, userIdentityId);
+      deleteExchangeChangeKey(userIdentityId, eventId);
+    }
+  }
+
+  public String getExchangeChangeKey(long userIdentityId, long eventId) {
+    SettingValue<?> changeKey = this.settingService.get(Context.USER.id(String.valueOf(userIdentityId)),
+                                                        ExchangeConnectorUtils.EXCHANGE_CHANGE_KEYS_SCOPE,
+                                                        String.valueOf(eventId));
+    return changeKey == null ? null : (String) changeKey.getValue();
+  }
+
+  public void saveExchangeChangeKey(long userIdentityId, long eventId, String changeKey) {
+    this.settingService.set(Context.USER.id(String.valueOf(userIdentityId)),
+                            ExchangeConnectorUtils.EXCHANGE_CHANGE_KEYS_SCOPE,
+                            String.valueOf(eventId),
+                            SettingValue.create(changeKey));
+  }
+
+  public void deleteExchangeChangeKey(long userIdentityId, long eventId) {
+    this.settingService.remove(Context.USER.id(String.valueOf(userIdentityId)),
+                               ExchangeConnectorUtils.EXCHANGE_CHANGE_KEYS_SCOPE,
+                               String.valueOf(eventId));
+  }
+
+  public List<ExchangeOutboxEntry> getExchangeOutboxEntries(long userIdentityId) {
+    Map<String, SettingValue> outboxValues =
+                                           this.settingService.getSettingsByContextAndScope(Context.USER.getName(),
+                                                                                            String.valueOf(userIdentityId),
+                                                                                            ExchangeConnectorUtils.EXCHANGE_OUTBOX_SCOPE.getName(),
+                                                                                            ExchangeConnectorUtils.EXCHANGE_OUTBOX_SCOPE.getId());
+    List<ExchangeOutboxEntry> outboxEntries = new ArrayList<>();
+    if (outboxValues != null) {
+      for (SettingValue<?> outboxValue : outboxValues.values()) {
+        ExchangeOutboxEntry outboxEntry = fromOutboxValue((String) outboxValue.getValue());
+        if (outboxEntry != null) {
+          outboxEntries.add(outboxEntry);
+        }
+      }
+    }
+    return outboxEntries;
+  }
+
+  public ExchangeOutboxEntry getExchangeOutboxEntry(long userIdentityId, long eventId) {
+    SettingValue<?> outboxValue = this.settingService.get(Context.USER.id(String.valueOf(userIdentityId)),
+                                                          ExchangeConnectorUtils.EXCHANGE_OUTBOX_SCOPE,
+                                                          String.valueOf(eventId));
+    return outboxValue == null ? null : fromOutboxValue((String) outboxValue.getValue());
+  }
+
+  public void saveExchangeOutboxEntry(long userIdentityId, ExchangeOutboxEntry outboxEntry) {
+    this.settingService.set(Context.USER.id(String.valueOf(userIdentityId)),
+                            ExchangeConnectorUtils.EXCHANGE_OUTBOX_SCOPE,
+                            String.valueOf(outboxEntry.getEvent().getId()),
+                            SettingValue.create(toOutboxValue(outboxEntry)));
+    // Marks the user as having pending pushes so that the outbox can be
+    // recovered without scanning all users after a restart
+    this.settingService.set(Context.USER.id(String.valueOf(userIdentityId)),
+                            ExchangeConnectorUtils.EXCHANGE_CONNECTOR_SETTING_SCOPE,
+                            ExchangeConnectorUtils.EXCHANGE_OUTBOX_PENDING_KEY,
+                            SettingValue.create(true));
+  }
+
+  public void deleteExchangeOutboxEntry(long userIdentityId, long eventId) {
+    this.settingService.remove(Context.USER.id(String.valueOf(userIdentityId)),
+                               ExchangeConnectorUtils.EXCHANGE_OUTBOX_SCOPE,
+                               String.valueOf(eventId));
+    if (getExchangeOutboxEntries(userIdentityId).isEmpty()) {
+      this.settingService.remove(Context.USER.id(String.valueOf(userIdentityId)),
+                                 ExchangeConnectorUtils.EXCHANGE_CONNECTOR_SETTING_SCOPE,
+                                 ExchangeConnectorUtils.EXCHANGE_OUTBOX_PENDING_KEY);
+    }
+  }
+
+  public void deleteExchangeOutboxEntries(long userIdentityId) {
+    this.settingService.remove(Context.USER.id(String.valueOf(userIdentityId)),
+                               ExchangeConnectorUtils.EXCHANGE_OUTBOX_SCOPE);
+    this.settingService.remove(Context.USER.id(String.valueOf(userIdentityId)),
+                               ExchangeConnectorUtils.EXCHANGE_CONNECTOR_SETTING_SCOPE,
+                               ExchangeConnectorUtils.EXCHANGE_OUTBOX_PENDING_KEY);
+  }
+
+  public List<Long> getUsersWithPendingExchangeOutbox(int offset, int limit) {
+    return getUserIdentityIdsHavingSetting(ExchangeConnectorUtils.EXCHANGE_OUTBOX_PENDING_KEY, offset, limit);
+  }
+
+  /**
+   * Lists the identifiers of the users having configured their exchange
+   * settings, using a single settings query per page.
+   *
+   * @param offset index of the first user to retrieve
+   * @param limit maximum count of users to retrieve
+   * @return {@link List} of user identity identifiers
+   */
+  public List<Long> getExchangeConnectedUsers(int offset, int limit) {
+    return getUserIdentityIdsHavingSetting(ExchangeConnectorUtils.EXCHANGE_USERNAME_KEY, offset, limit);
+  }
+
+  private ExchangeUserSetting loadExchangeSetting(long userIdentityId) {
+    // All the user exchange settings are retrieved with a single read
+    Map<String, SettingValue> settingValues =
+                                            this.settingService.getSettingsByContextAndScope(Context.USER.getName(),
+                                                                                             String.valueOf(userIdentityId),
+                                                                                             ExchangeConnectorUtils.EXCHANGE_CONNECTOR_SETTING_SCOPE.getName(),
+                                                                                             ExchangeConnectorUtils.EXCHANGE_CONNECTOR_SETTING_SCOPE.getId());
+    ExchangeUserSetting exchangeUserSetting = new ExchangeUserSetting();
+    if (settingValues == null) {
+      return exchangeUserSetting;
+    }
+    SettingValue<?> username = settingValues.get(ExchangeConnectorUtils.EXCHANGE_USERNAME_KEY);
+    SettingValue<?> password = settingValues.get(ExchangeConnectorUtils.EXCHANGE_PASSWORD_KEY);
+    SettingValue<?> credentialChecked = settingValues.get(ExchangeConnectorUtils.EXCHANGE_CREDENTIAL_CHECKED);
+    if (username != null) {
+      exchangeUserSetting.setUsername((String) username.getValue());
+    }
+    if (username != null && password != null) {
+      exchangeUserSetting.setPassword((String) password.getValue());
+    }
+    if (credentialChecked != null) {
+      exchangeUserSetting.setCredentialChecked(Boolean.parseBoolean(String.valueOf(credentialChecked.getValue())));
+    }
+    return exchangeUserSetting;
+  }
+
+  private String getDecodedPassword(long userIdentityId, String encodedPassword) {
+    DecodedPassword decodedPassword = this.decodedPasswords.get(userIdentityId);
+    if (decodedPassword == null || !decodedPassword.encodedPassword.equals(encodedPassword)) {
+      decodedPassword = new DecodedPassword(encodedPassword, ExchangeConnectorUtils.decode(encodedPassword));
+      if (decodedPassword.password == null) {
+        // Not kept so that the decoding is retried on next access
+        return null;
+      }
+      this.decodedPasswords.put(userIdentityId, decodedPassword);
+    }
+    return decodedPassword.password;
+  }
+
+  private List<Long> getUserIdentityIdsHavingSetting(String settingName, int offset, int limit) {
+    List<Context> contexts =
+                           this.settingService.getContextsByTypeAndScopeAndSettingName(Context.USER.getName(),
+                                                                                       ExchangeConnectorUtils.EXCHANGE_CONNECTOR_SETTING_SCOPE.getName(),
+                                                                                       ExchangeConnectorUtils.EXCHANGE_CONNECTOR_SETTING_SCOPE.getId(),
+                                                                                       settingName,
+                                                                                       offset,
+                                                                                       limit);
+    List<Long> userIdentityIds = new ArrayList<>();
+    if (contexts != null) {
+      for (Context context : contexts) {
+        if (StringUtils.isNumeric(context.getId())) {
+          userIdentityIds.add(Long.parseLong(context.getId()));
+        }
+      }
+    }
+    return userIdentityIds;
+  }
+
+  private String toOutboxValue(ExchangeOutboxEntry outboxEntry) {
+    EventEntity event = outboxEntry.getEvent();
+    Map<String, String> fields = new HashMap<>();
+    fields.put("id", String.valueOf(event.getId()));
+    fields.put("summary", event.getSummary());
+    fields.put("start", event.getStart());
+    fields.put("end", event.getEnd());
+    fields.put("remoteProviderId", String.valueOf(event.getRemoteProviderId()));
+    fields.put("remoteProviderName", event.getRemoteProviderName());
+    fields.put("timeZoneId", outboxEntry.getTimeZoneId());
+    fields.put("sequence", String.valueOf(outboxEntry.getSequence()));
+    fields.put("attempts", String.valueOf(outboxEntry.getAttempts()));
+    fields.put("nextAttemptTime", String.valueOf(outboxEntry.getNextAttemptTime()));
+    fields.put("deletion", String.valueOf(outboxEntry.isDeletion()));
+    fields.put("owner", outboxEntry.getOwner());
+    fields.put("leaseTime", String.valueOf(outboxEntry.getLeaseTime()));
+    StringBuilder value = new StringBuilder();
+    for (Map.Entry<String, String> field : fields.entrySet()) {
+      if (field.getValue() != null) {
+        if (value.length() > 0) {
+          value.append(OUTBOX_FIELD_SEPARATOR);
+        }
+        value.append(field.getKey())
+             .append(OUTBOX_VALUE_SEPARATOR)
+             .append(URLEncoder.encode(field.getValue(), StandardCharsets.UTF_8));
+      }
+    }
+    return value.toString();
+  }
+
+  private ExchangeOutboxEntry fromOutboxValue(String value) {
+    if (StringUtils.isBlank(value)) {
+      return null;
+    }
+    Map<String, String> fields = new HashMap<>();
+    for (String field : value.split(OUTBOX_FIELD_SEPARATOR)) {
+      String[] keyValue = field.split(OUTBOX_VALUE_SEPARATOR, 2);
+      if (keyValue.length == 2) {
+        fields.put(keyValue[0], URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8));
+      }
+    }
+    if (!StringUtils.isNumeric(fields.get("id"))) {
+      return null;
+    }
+    EventEntity event = new EventEntity();
+    event.setId(Long.parseLong(fields.get("id")));
+    event.setSummary(fields.get("summary"));
+    event.setStart(fields.get("start"));
+    event.setEnd(fields.get("end"));
+    event.setRemoteProviderId(Long.parseLong(fields.getOrDefault("remoteProviderId", "0")));
+    event.setRemoteProviderName(fields.get("remoteProviderName"));
+    return new ExchangeOutboxEntry(event,
+                                   fields.get("timeZoneId"),
+                                   Long.parseLong(fields.getOrDefault("sequence", "0")),
+                                   Integer.parseInt(fields.getOrDefault("attempts", "0")),
+                                   Long.parseLong(fields.getOrDefault("nextAttemptTime", "0")),
+                                   Boolean.parseBoolean(fields.get("deletion")),
+                                   fields.get("owner"),
+                                   Long.parseLong(fields.getOrDefault("leaseTime", "0")));
+  }
+
+  @SuppressWarnings("unchecked")
+  private String toSyncedCalendarValue(ExchangeSyncedCalendar syncedCalendar) {
+    JSONArray events = new JSONArray();
+    for (ExchangeSyncedEvent syncedEvent : syncedCalendar.getEvents().values()) {
+      JSONObject eventObject = new JSONObject();
+      eventObject.put("remoteId", syncedEvent.getRemoteId());
+      eventObject.put("summary", syncedEvent.getSummary());
+      eventObject.put("startTime", syncedEvent.getStartTime());
+      eventObject.put("endTime", syncedEvent.getEndTime());
+      events.add(eventObject);
+    }
+    JSONObject calendarObject = new JSONObject();
+    calendarObject.put("syncState", syncedCalendar.getSyncState());
+    calendarObject.put("events", events);
+    return calendarObject.toJSONString();
+  }
+
+  private ExchangeSyncedCalendar fromSyncedCalendarValue(String value) throws ParseException {
+    JSONObject calendarObject = (JSONObject) new JSONParser().parse(value);
+    HashMap<String, ExchangeSyncedEvent> syncedEvents = new HashMap<>();
+    for (Object event : (JSONArray) calendarObject.get("events")) {
+      JSONObject eventObject = (JSONObject) event;
+      String remoteId = (String) eventObject.get("remoteId");
+      syncedEvents.put(remoteId,
+                       new ExchangeSyncedEvent(remoteId,
+                                               (String) eventObject.get("summary"),
+                                               ((Number) eventObject.get("startTime")).longValue(),
+                                               ((Number) eventObject.get("endTime")).longValue()));
+    }
+    return new ExchangeSyncedCalendar((String) calendarObject.get("syncState"), syncedEvents);
+  }
+
+  private static class DecodedPassword {
+
+    private final String encodedPassword;
+
+    private final String password;
+
+    private DecodedPassword(String encodedPassword, String password) {
+      this.encodedPassword = encodedPassword;
+      this.password = password;
+    }
   }
 
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.storage;
+
+import java.util.HashMap;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import org.exoplatform.agendaconnector.model.GoogleCalendarEvent;
+import org.exoplatform.agendaconnector.service.GoogleCalendarSync;
+import org.exoplatform.commons.api.settings.SettingService;
+import org.exoplatform.commons.api.settings.SettingValue;
+import org.exoplatform.commons.api.settings.data.Context;
+import org.exoplatform.commons.api.settings.data.Scope;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+public class GoogleConnectorStorage {
+
+  private static final Log   LOG                            = ExoLogger.getLogger(GoogleConnectorStorage.class);
+
+  public static final Scope  GOOGLE_CONNECTOR_SETTING_SCOPE = Scope.APPLICATION.id("GoogleAgendaConnector");
+
+  public static final String GOOGLE_CALENDAR_SYNC_KEY       = "GoogleCalendarSync";
+
+  private SettingService     settingService;
+
+  public GoogleConnectorStorage(SettingService settingService) {
+    this.settingService = settingService;
+  }
+
+  /**
+   * @param userName User name
+   * @return the synchronized google calendar copy of the user, null if it isn't
+   *         synchronized
+   */
+  public GoogleCalendarSync getGoogleCalendarSync(String userName) {
+    SettingValue<?> calendarSync = this.settingService.get(Context.USER.id(userName),
+                                                           GOOGLE_CONNECTOR_SETTING_SCOPE,
+                                                           GOOGLE_CALENDAR_SYNC_KEY);
+    if (calendarSync == null) {
+      return null;
+    }
+    try {
+      return fromSettingValue((String) calendarSync.getValue());
+    } catch (ParseException | RuntimeException e) {
+      LOG.warn("Synchronized google calendar of user '{}' can't be parsed", userName, e);
+      return null;
+    }
+  }
+
+  /**
+   * Stores the whole synchronized calendar copy of a user in a single setting
+   * value, so that it is read and written in one operation
+   *
+   * @param userName User name
+   * @param googleCalendarSync synchronized google calendar copy
+   */
+  public void saveGoogleCalendarSync(String userName, GoogleCalendarSync googleCalendarSync) {
+    this.settingService.set(Context.USER.id(userName),
+                            GOOGLE_CONNECTOR_SETTING_SCOPE,
+                            GOOGLE_CALENDAR_SYNC_KEY,
+                            SettingValue.create(toSettingValue(googleCalendarSync)));
+  }
+
+  public void deleteGoogleCalendarSync(String userName) {
+    this.settingService.remove(Context.USER.id(userName), GOOGLE_CONNECTOR_SETTING_SCOPE, GOOGLE_CALENDAR_SYNC_KEY);
+  }
+
+  @SuppressWarnings("unchecked")
+  private String toSettingValue(GoogleCalendarSync googleCalendarSync) {
+    JSONArray events = new JSONArray();
+    for (GoogleCalendarEvent event : googleCalendarSync.getEvents().values()) {
+      JSONObject eventObject = new JSONObject();
+      eventObject.put("id", event.getId());
+      eventObject.put("recurringEventId", event.getRecurringEventId());
+      eventObject.put("summary", event.getSummary());
+      eventObject.put("start", event.getStart());
+      eventObject.put("end", event.getEnd());
+      eventObject.put("allDay", event.isAllDay());
+      events.add(eventObject);
+    }
+    JSONObject calendarSync = new JSONObject();
+    calendarSync.put("syncToken", googleCalendarSync.getSyncToken());
+    calendarSync.put("startTime", googleCalendarSync.getStartTime());
+    calendarSync.put("endTime", googleCalendarSync.getEndTime());
+    calendarSync.put("syncTime", googleCalendarSync.getSyncTime());
+    calendarSync.put("events", events);
+    return calendarSync.toJSONString();
+  }
+
+  private GoogleCalendarSync fromSettingValue(String value) throws ParseException {
+    JSONObject calendarSync = (JSONObject) new JSONParser().parse(value);
+    HashMap<String, GoogleCalendarEvent> events = new HashMap<>();
+    for (Object event : (JSONArray) calendarSync.get("events")) {
+      JSONObject eventObject = (JSONObject) event;
+      String id = (String) eventObject.get("id");
+      events.put(id,
+                 new GoogleCalendarEvent(id,
+                                         (String) eventObject.get("recurringEventId"),
+                                         (String) eventObject.get("summary"),
+                                         (String) eventObject.get("start"),
+                                         (String) eventObject.get("end"),
+                                         Boolean.TRUE.equals(eventObject.get("allDay"))));
+    }
+    return new GoogleCalendarSync((String) calendarSync.get("syncToken"),
+                                  ((Number) calendarSync.get("startTime")).longValue(),
+                                  ((Number) calendarSync.get("endTime")).longValue(),
+                                  ((Number) calendarSync.get("syncTime")).longValue(),
+                                  events);
+  }
+}
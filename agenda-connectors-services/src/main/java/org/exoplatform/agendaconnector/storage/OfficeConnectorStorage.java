@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.storage;
+
+import java.util.HashMap;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import org.exoplatform.agendaconnector.model.OfficeSyncedEvent;
+import org.exoplatform.agendaconnector.service.OfficeCalendarSync;
+import org.exoplatform.commons.api.settings.SettingService;
+import org.exoplatform.commons.api.settings.SettingValue;
+import org.exoplatform.commons.api.settings.data.Context;
+import org.exoplatform.commons.api.settings.data.Scope;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+public class OfficeConnectorStorage {
+
+  private static final Log   LOG                            = ExoLogger.getLogger(OfficeConnectorStorage.class);
+
+  public static final Scope  OFFICE_CONNECTOR_SETTING_SCOPE = Scope.APPLICATION.id("OfficeAgendaConnector");
+
+  public static final String OFFICE_CALENDAR_SYNC_KEY       = "OfficeCalendarSync";
+
+  private SettingService     settingService;
+
+  public OfficeConnectorStorage(SettingService settingService) {
+    this.settingService = settingService;
+  }
+
+  /**
+   * @param userIdentityId User identity identifier
+   * @return the synchronized office calendar view of the user, null if it
+   *         isn't synchronized
+   */
+  public OfficeCalendarSync getOfficeCalendarSync(long userIdentityId) {
+    SettingValue<?> calendarSync = this.settingService.get(Context.USER.id(String.valueOf(userIdentityId)),
+                                                           OFFICE_CONNECTOR_SETTING_SCOPE,
+                                                           OFFICE_CALENDAR_SYNC_KEY);
+    if (calendarSync == null) {
+      return null;
+    }
+    try {
+      return fromSettingValue((String) calendarSync.getValue());
+    } catch (ParseException | RuntimeException e) {
+      LOG.warn("Synchronized office calendar of user {} can't be parsed", userIdentityId, e);
+      return null;
+    }
+  }
+
+  /**
+   * Stores the whole synchronized calendar view of a user in a single setting
+   * value, so that it is read and written in one operation
+   *
+   * @param userIdentityId User identity identifier
+   * @param officeCalendarSync synchronized office calendar view
+   */
+  public void saveOfficeCalendarSync(long userIdentityId, OfficeCalendarSync officeCalendarSync) {
+    this.settingService.set(Context.USER.id(String.valueOf(userIdentityId)),
+                            OFFICE_CONNECTOR_SETTING_SCOPE,
+                            OFFICE_CALENDAR_SYNC_KEY,
+                            SettingValue.create(toSettingValue(officeCalendarSync)));
+  }
+
+  public void deleteOfficeSyncData(long userIdentityId) {
+    this.settingService.remove(Context.USER.id(String.valueOf(userIdentityId)), OFFICE_CONNECTOR_SETTING_SCOPE);
+  }
+
+  @SuppressWarnings("unchecked")
+  private String toSettingValue(OfficeCalendarSync officeCalendarSync) {
+    JSONArray events = new JSONArray();
+    for (OfficeSyncedEvent event : officeCalendarSync.getEvents().values()) {
+      JSONObject eventObject = new JSONObject();
+      eventObject.put("remoteId", event.getRemoteId());
+      eventObject.put("seriesMasterId", event.getSeriesMasterId());
+      eventObject.put("summary", event.getSummary());
+      eventObject.put("location", event.getLocation());
+      eventObject.put("start", event.getStart());
+      eventObject.put("end", event.getEnd());
+      eventObject.put("allDay", event.isAllDay());
+      events.add(eventObject);
+    }
+    JSONObject calendarSync = new JSONObject();
+    calendarSync.put("deltaLink", officeCalendarSync.getDeltaLink());
+    calendarSync.put("startTime", officeCalendarSync.getStartTime());
+    calendarSync.put("endTime", officeCalendarSync.getEndTime());
+    calendarSync.put("syncTime", officeCalendarSync.getSyncTime());
+    calendarSync.put("events", events);
+    return calendarSync.toJSONString();
+  }
+
+  private OfficeCalendarSync fromSettingValue(String value) throws ParseException {
+    JSONObject calendarSync = (JSONObject) new JSONParser().parse(value);
+    HashMap<String, OfficeSyncedEvent> events = new HashMap<>();
+    for (Object event : (JSONArray) calendarSync.get("events")) {
+      JSONObject eventObject = (JSONObject) event;
+      String remoteId = (String) eventObject.get("remoteId");
+      events.put(remoteId,
+                 new OfficeSyncedEvent(remoteId,
+                                       (String) eventObject.get("seriesMasterId"),
+                                       (String) eventObject.get("summary"),
+                                       (String) eventObject.get("location"),
+                                       (String) eventObject.get("start"),
+                                       (String) eventObject.get("end"),
+                                       Boolean.TRUE.equals(eventObject.get("allDay"))));
+    }
+    return new OfficeCalendarSync((String) calendarSync.get("deltaLink"),
+                                  ((Number) calendarSync.get("startTime")).longValue(),
+                                  ((Number) calendarSync.get("endTime")).longValue(),
+                                  ((Number) calendarSync.get("syncTime")).longValue(),
+                                  events);
+  }
+}
@@ -17,23 +17,24 @@
 package org.exoplatform.agendaconnector.utils;
 
 import java.net.URI;
-import java.time.ZonedDateTime;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import microsoft.exchange.webservices.data.core.PropertySet;
 import microsoft.exchange.webservices.data.core.enumeration.property.WellKnownFolderName;
-import microsoft.exchange.webservices.data.core.enumeration.search.LogicalOperator;
-import microsoft.exchange.webservices.data.core.service.schema.AppointmentSchema;
-import microsoft.exchange.webservices.data.search.ItemView;
-import microsoft.exchange.webservices.data.search.filter.SearchFilter;
-import org.exoplatform.agenda.util.AgendaDateUtils;
+import microsoft.exchange.webservices.data.property.complex.FolderId;
+import org.apache.commons.lang3.StringUtils;
 import org.exoplatform.agendaconnector.model.ExchangeUserSetting;
 import org.exoplatform.commons.api.settings.data.Scope;
 import org.exoplatform.commons.utils.CommonsUtils;
+import org.exoplatform.container.xml.InitParams;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.exoplatform.services.security.ConversationState;
 import org.exoplatform.social.core.identity.model.Identity;
 import org.exoplatform.social.core.identity.provider.OrganizationIdentityProvider;
 import org.exoplatform.social.core.manager.IdentityManager;
+import org.exoplatform.web.security.codec.AbstractCodec;
 import org.exoplatform.web.security.codec.CodecInitializer;
 import org.exoplatform.web.security.security.TokenServiceInitializationException;
 
@@ -48,14 +49,24 @@ public class ExchangeConnectorUtils {
 
   private static final Log LOG = ExoLogger.getLogger(ExchangeConnectorUtils.class);
 
+  private static volatile AbstractCodec codec;
+
   public static final Scope  EXCHANGE_CONNECTOR_SETTING_SCOPE = Scope.APPLICATION.id("ExchangeAgendaConnector");
 
   public static final String EXCHANGE_USERNAME_KEY            = "ExchangeUsername";
 
   public static final String EXCHANGE_PASSWORD_KEY            = "ExchangePassword";
+
+  public static final String EXCHANGE_SYNCED_CALENDAR_KEY     = "ExchangeSyncedCalendar";
+
+  public static final Scope  EXCHANGE_CHANGE_KEYS_SCOPE       = Scope.APPLICATION.id("ExchangeAgendaConnectorChangeKeys");
+
+  public static final Scope  EXCHANGE_OUTBOX_SCOPE            = Scope.APPLICATION.id("ExchangeAgendaConnectorOutbox");
+
+  public static final String EXCHANGE_OUTBOX_PENDING_KEY      = "ExchangeOutboxPending";
   
   public static final String EXCHANGE_SERVER_URL_PROPERTY = "exo.exchange.server.url";
-  
+
   public static final String EWS_URL = "/EWS/Exchange.asmx";
   
   public static final String EXCHANGE_APPOINTMENT_SCHEMA_START = "calendar:Start";
@@ -77,8 +88,7 @@ public class ExchangeConnectorUtils {
 
   public static String encode(String password) {
     try {
-      CodecInitializer codecInitializer = CommonsUtils.getService(CodecInitializer.class);
-      return codecInitializer.getCodec().encode(password);
+      return getCodec().encode(password);
     } catch (TokenServiceInitializationException e) {
       LOG.warn("Error when encoding password", e);
       return null;
@@ -87,20 +97,68 @@ public class ExchangeConnectorUtils {
 
   public static String decode(String password) {
     try {
-      CodecInitializer codecInitializer = CommonsUtils.getService(CodecInitializer.class);
-      return codecInitializer.getCodec().decode(password);
+      return getCodec().decode(password);
     } catch (TokenServiceInitializationException e) {
       LOG.warn("Error when decoding password", e);
       return null;
     }
   }
   
-  public static ExchangeService connectExchangeServer(ExchangeUserSetting exchangeUserSetting) throws Exception {
+  private static AbstractCodec getCodec() throws TokenServiceInitializationException {
+    // The codec doesn't change once initialized, it is resolved only once
+    // instead of looking up the container on each encoding
+    AbstractCodec currentCodec = codec;
+    if (currentCodec == null) {
+      currentCodec = CommonsUtils.getService(CodecInitializer.class).getCodec();
+      codec = currentCodec;
+    }
+    return currentCodec;
+  }
+
+  public static int getIntParameter(InitParams initParams, String name, int defaultValue) {
+    String value = getParameter(initParams, name);
+    return StringUtils.isBlank(value) ? defaultValue : Integer.parseInt(value.trim());
+  }
+
+  public static long getLongParameter(InitParams initParams, String name, long defaultValue) {
+    String value = getParameter(initParams, name);
+    return StringUtils.isBlank(value) ? defaultValue : Long.parseLong(value.trim());
+  }
+
+  public static String getParameter(InitParams initParams, String name) {
+    if (initParams == null || !initParams.containsKey(name)) {
+      return null;
+    }
+    return initParams.getValueParam(name).getValue();
+  }
+
+  public static ThreadFactory newDaemonThreadFactory(String namePrefix) {
+    AtomicInteger threadIndex = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, namePrefix + "-" + threadIndex.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * Opens an authenticated {@link ExchangeService}, checking the user
+   * credentials if not already done.
+   *
+   * @param exchangeUserSetting user exchange settings
+   * @param exchangeServerURL URL of the exchange server
+   * @param timeoutMillis timeout of the requests sent to exchange server
+   * @return {@link ExchangeService}
+   * @throws Exception when exchange server can't be reached or when the
+   *           credentials are not valid
+   */
+  public static ExchangeService connectExchangeServer(ExchangeUserSetting exchangeUserSetting,
+                                                      String exchangeServerURL,
+                                                      int timeoutMillis) throws Exception {
     ExchangeService exchangeService = new ExchangeService(ExchangeVersion.Exchange2010_SP2);
-    exchangeService.setTimeout(300000);
+    exchangeService.setTimeout(timeoutMillis);
     String exchangeUsername = exchangeUserSetting.getUsername();
     String exchangePassword = exchangeUserSetting.getPassword();
-    String exchangeServerURL = System.getProperty(ExchangeConnectorUtils.EXCHANGE_SERVER_URL_PROPERTY);
     ExchangeCredentials credentials = new WebCredentials(exchangeUsername, exchangePassword);
     exchangeService.setCredentials(credentials);
     exchangeService.setUrl(new URI(exchangeServerURL + ExchangeConnectorUtils.EWS_URL));
@@ -111,28 +169,30 @@ public class ExchangeConnectorUtils {
     return exchangeService;
   }
 
-  private static void checkConnection(ExchangeService exchangeService) throws Exception {
-    //this function will verify if settings entered by user are functionnal
-
-    ItemView view = new ItemView(100);
-
-    ZonedDateTime startZonedDateTime = ZonedDateTime.now();
-    SearchFilter exchangeStartSearchFilter =
-        new SearchFilter.IsGreaterThanOrEqualTo(AppointmentSchema.Start,
-                                                AgendaDateUtils.toDate(startZonedDateTime));
-    ZonedDateTime endZonedDatetime = ZonedDateTime.now().plusDays(1);
-    SearchFilter exchangeEndSearchFilter = new SearchFilter.IsLessThanOrEqualTo(AppointmentSchema.End,
-                                                                                AgendaDateUtils.toDate(endZonedDatetime));
-
-    SearchFilter exchangeEventsSearchFilter = new SearchFilter.SearchFilterCollection(LogicalOperator.And,
-                                                                                      exchangeStartSearchFilter,
-                                                                                      exchangeEndSearchFilter);
-
-    exchangeService.findItems(WellKnownFolderName.Calendar,
-                              exchangeEventsSearchFilter,
-                              view);
-
-
+  /**
+   * @param exchangeService {@link ExchangeService} opened with
+   *          {@link #connectExchangeServer(ExchangeUserSetting, String, int)}
+   * @return the URL of the exchange server the service is connected to, null
+   *         if its URL isn't set
+   */
+  public static String getExchangeServerUrl(ExchangeService exchangeService) {
+    if (exchangeService == null || exchangeService.getUrl() == null) {
+      return null;
+    }
+    return StringUtils.removeEnd(exchangeService.getUrl().toString(), EWS_URL);
+  }
 
+  /**
+   * Checks that the credentials of an {@link ExchangeService} are accepted by
+   * exchange server
+   *
+   * @param exchangeService {@link ExchangeService} to check
+   * @throws Exception when exchange server can't be reached or when the
+   *           credentials are not valid
+   */
+  public static void checkConnection(ExchangeService exchangeService) throws Exception {
+    // A GetFolder request returning only the calendar folder identifier is
+    // enough to check that the credentials are accepted by exchange server
+    exchangeService.bindToFolder(new FolderId(WellKnownFolderName.Calendar), PropertySet.IdOnly);
   }
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.utils;
+
+import java.util.concurrent.TimeoutException;
+
+import org.exoplatform.agendaconnector.service.ExchangeUnavailableException;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+
+/**
+ * Deadline of the request being processed by the current thread. It's set by
+ * the REST layer so that the EWS operations executed for the request don't
+ * outlive it: each operation timeout is bounded by the remaining delay. While
+ * an operation is executed, the deadline is the end of the operation timeout
+ * and the timeout of each EWS request of the operation is the delay remaining
+ * before it.
+ */
+public final class ExchangeDeadline {
+
+  private static final ThreadLocal<Long> CURRENT_DEADLINE = new ThreadLocal<>();
+
+  private ExchangeDeadline() {
+  }
+
+  /**
+   * Sets the deadline of the current thread
+   *
+   * @param deadline deadline in epoch milliseconds, 0 for none
+   */
+  public static void set(long deadline) {
+    if (deadline > 0) {
+      CURRENT_DEADLINE.set(deadline);
+    } else {
+      CURRENT_DEADLINE.remove();
+    }
+  }
+
+  /**
+   * @return the deadline of the current thread in epoch milliseconds, 0 if none
+   */
+  public static long get() {
+    Long deadline = CURRENT_DEADLINE.get();
+    return deadline == null ? 0 : deadline;
+  }
+
+  public static void clear() {
+    CURRENT_DEADLINE.remove();
+  }
+
+  /**
+   * @param timeoutMillis timeout of an operation
+   * @return the timeout of the operation bounded by the delay remaining before
+   *         the deadline of the current thread, possibly negative if the
+   *         deadline is already reached
+   */
+  public static long getTimeout(long timeoutMillis) {
+    long deadline = get();
+    return deadline == 0 ? timeoutMillis : Math.min(timeoutMillis, deadline - System.currentTimeMillis());
+  }
+
+  /**
+   * Sets the timeout of the next EWS request to the delay remaining before the
+   * deadline of the current thread
+   *
+   * @param exchangeService {@link ExchangeService} sending the request
+   * @throws ExchangeUnavailableException when the deadline is reached
+   */
+  public static void applyTimeout(ExchangeService exchangeService) {
+    applyTimeout(exchangeService, get());
+  }
+
+  /**
+   * Sets the timeout of the next EWS request to the delay remaining before a
+   * deadline, typically the one of the thread which submitted the request to
+   * another thread
+   *
+   * @param exchangeService {@link ExchangeService} sending the request
+   * @param deadline deadline in epoch milliseconds, 0 for none
+   * @throws ExchangeUnavailableException when the deadline is reached
+   */
+  public static void applyTimeout(ExchangeService exchangeService, long deadline) {
+    if (deadline <= 0) {
+      return;
+    }
+    long remainingMillis = deadline - System.currentTimeMillis();
+    if (remainingMillis <= 0) {
+      throw new ExchangeUnavailableException("Deadline reached before sending exchange request",
+                                             new TimeoutException("Deadline reached " + (-remainingMillis) + " ms ago"));
+    }
+    exchangeService.setTimeout((int) Math.min(remainingMillis, Integer.MAX_VALUE));
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2022 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.agendaconnector.utils;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.exoplatform.agenda.rest.model.EventEntity;
+import org.exoplatform.agenda.util.AgendaDateUtils;
+import org.exoplatform.agendaconnector.model.ExchangeSyncedEvent;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import microsoft.exchange.webservices.data.core.exception.service.local.ServiceLocalException;
+import microsoft.exchange.webservices.data.core.service.item.Item;
+import microsoft.exchange.webservices.data.core.service.schema.AppointmentSchema;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
+import microsoft.exchange.webservices.data.property.definition.PropertyDefinition;
+
+/**
+ * Converts exchange calendar {@link Item}s to {@link EventEntity} in a given
+ * user time zone. Start and End properties are read directly from the item
+ * property bag and the last formatted dates are reused, since consecutive
+ * calendar items often share the same start or end date. An instance is not
+ * thread safe, it's meant to be used for the conversion of one or more batches
+ * of items of a single request.
+ */
+public class ExchangeEventMapper {
+
+  private static final Log LOG = ExoLogger.getLogger(ExchangeEventMapper.class);
+
+  private final ZoneId     userTimeZone;
+
+  private long             lastStartTime = Long.MIN_VALUE;
+
+  private String           lastStart;
+
+  private long             lastEndTime   = Long.MIN_VALUE;
+
+  private String           lastEnd;
+
+  public ExchangeEventMapper(ZoneId userTimeZone) {
+    this.userTimeZone = userTimeZone;
+  }
+
+  /**
+   * Converts a batch of exchange items to {@link EventEntity}. Items having no
+   * start or end date are ignored.
+   *
+   * @param exchangeEventItems exchange calendar items
+   * @return {@link List} of {@link EventEntity}
+   * @throws ServiceLocalException when an item property can't be read
+   */
+  public List<EventEntity> toEventEntities(Collection<? extends Item> exchangeEventItems) throws ServiceLocalException {
+    List<EventEntity> exchangeEvents = new ArrayList<>(exchangeEventItems.size());
+    addEventEntities(exchangeEventItems, exchangeEvents);
+    return exchangeEvents;
+  }
+
+  /**
+   * Converts a batch of exchange items and adds them to an existing list of
+   * {@link EventEntity}. Items having no start or end date are ignored.
+   *
+   * @param exchangeEventItems exchange calendar items
+   * @param exchangeEvents {@link List} of {@link EventEntity} to fill
+   * @throws ServiceLocalException when an item property can't be read
+   */
+  public void addEventEntities(Iterable<? extends Item> exchangeEventItems,
+                               List<EventEntity> exchangeEvents) throws ServiceLocalException {
+    for (Item exchangeEventItem : exchangeEventItems) {
+      EventEntity exchangeEvent = toEventEntity(exchangeEventItem);
+      if (exchangeEvent != null) {
+        exchangeEvents.add(exchangeEvent);
+      }
+    }
+  }
+
+  /**
+   * Converts an exchange item to {@link EventEntity}
+   *
+   * @param exchangeEventItem exchange calendar item
+   * @return {@link EventEntity} or null when the item has no start or end date
+   * @throws ServiceLocalException when an item property can't be read
+   */
+  public EventEntity toEventEntity(Item exchangeEventItem) throws ServiceLocalException {
+    Map<PropertyDefinition, Object> exchangeEventItemProperties = exchangeEventItem.getPropertyBag().getProperties();
+    Date exchangeEventStartDate = (Date) exchangeEventItemProperties.get(AppointmentSchema.Start);
+    Date exchangeEventEndDate = (Date) exchangeEventItemProperties.get(AppointmentSchema.End);
+    ItemId exchangeEventId = exchangeEventItem.getId();
+    if (exchangeEventStartDate == null || exchangeEventEndDate == null) {
+      LOG.debug("Ignore exchange item {} having no start or end date", exchangeEventId);
+      return null;
+    }
+    EventEntity exchangeEvent = new EventEntity();
+    exchangeEvent.setRemoteId(String.valueOf(exchangeEventId));
+    exchangeEvent.setSummary(exchangeEventItem.getSubject());
+    exchangeEvent.setStart(toStart(exchangeEventStartDate.getTime()));
+    exchangeEvent.setEnd(toEnd(exchangeEventEndDate.getTime()));
+    return exchangeEvent;
+  }
+
+  /**
+   * Converts a locally synchronized exchange event to {@link EventEntity}
+   *
+   * @param syncedEvent {@link ExchangeSyncedEvent}
+   * @return {@link EventEntity}
+   */
+  public EventEntity toEventEntity(ExchangeSyncedEvent syncedEvent) {
+    EventEntity exchangeEvent = new EventEntity();
+    exchangeEvent.setRemoteId(syncedEvent.getRemoteId());
+    exchangeEvent.setSummary(syncedEvent.getSummary());
+    exchangeEvent.setStart(toStart(syncedEvent.getStartTime()));
+    exchangeEvent.setEnd(toEnd(syncedEvent.getEndTime()));
+    return exchangeEvent;
+  }
+
+  /**
+   * @param time epoch milliseconds
+   * @return the RFC-3339 representation of the date in user time zone
+   */
+  public String toRFC3339Date(long time) {
+    return AgendaDateUtils.toRFC3339Date(ZonedDateTime.ofInstant(Instant.ofEpochMilli(time), userTimeZone));
+  }
+
+  private String toStart(long time) {
+    if (time != lastStartTime) {
+      lastStart = toRFC3339Date(time);
+      lastStartTime = time;
+    }
+    return lastStart;
+  }
+
+  private String toEnd(long time) {
+    if (time != lastEndTime) {
+      lastEnd = toRFC3339Date(time);
+      lastEndTime = time;
+    }
+    return lastEnd;
+  }
+}
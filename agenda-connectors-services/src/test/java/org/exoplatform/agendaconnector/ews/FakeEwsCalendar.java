@@ -0,0 +1,243 @@
+package org.exoplatform.agendaconnector.ews;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In memory exchange calendar served by {@link FakeEwsServer}. Each change is
+ * recorded with a sequence number used as synchronization state.
+ */
+public class FakeEwsCalendar {
+
+  private static final long                    HOUR         = 3600000L;
+
+  private final Map<String, Appointment>       appointments = new LinkedHashMap<>();
+
+  /** Last change of each item by change sequence number */
+  private final TreeMap<Long, Change>          changes      = new TreeMap<>();
+
+  private final Map<String, Long>              itemChanges  = new LinkedHashMap<>();
+
+  private final AtomicLong                     idGenerator  = new AtomicLong();
+
+  private long                                 sequence;
+
+  /**
+   * Generates a calendar having a one hour appointment every few hours around
+   * the given date
+   *
+   * @param appointmentsCount count of appointments to generate
+   * @param centerTime epoch milliseconds of the middle of the generated period
+   * @return {@link FakeEwsCalendar}
+   */
+  public static FakeEwsCalendar generate(int appointmentsCount, long centerTime) {
+    FakeEwsCalendar calendar = new FakeEwsCalendar();
+    long startTime = centerTime - (appointmentsCount / 2) * 3 * HOUR;
+    for (int i = 0; i < appointmentsCount; i++) {
+      long appointmentStartTime = startTime + i * 3 * HOUR;
+      calendar.create("Generated meeting " + i, appointmentStartTime, appointmentStartTime + HOUR);
+    }
+    return calendar;
+  }
+
+  public synchronized Appointment create(String subject, long startTime, long endTime) {
+    Appointment appointment = new Appointment("AAMkAGFha2VFd3M" + idGenerator.incrementAndGet(), 1, subject, startTime, endTime);
+    appointments.put(appointment.getId(), appointment);
+    recordChange(Change.CREATE, appointment);
+    return appointment;
+  }
+
+  public synchronized Appointment get(String id) {
+    return appointments.get(id);
+  }
+
+  /**
+   * @return the updated appointment or null when it doesn't exist
+   */
+  public synchronized Appointment update(String id, String subject, Long startTime, Long endTime) {
+    Appointment appointment = appointments.get(id);
+    if (appointment == null) {
+      return null;
+    }
+    Appointment updatedAppointment = new Appointment(id,
+                                                     appointment.getVersion() + 1,
+                                                     subject == null ? appointment.getSubject() : subject,
+                                                     startTime == null ? appointment.getStartTime() : startTime,
+                                                     endTime == null ? appointment.getEndTime() : endTime);
+    appointments.put(id, updatedAppointment);
+    recordChange(Change.UPDATE, updatedAppointment);
+    return updatedAppointment;
+  }
+
+  public synchronized boolean delete(String id) {
+    Appointment appointment = appointments.remove(id);
+    if (appointment == null) {
+      return false;
+    }
+    recordChange(Change.DELETE, appointment);
+    return true;
+  }
+
+  /**
+   * @return appointments starting and ending in the given period, sorted by
+   *         start date
+   */
+  public synchronized List<Appointment> find(long startTime, long endTime) {
+    List<Appointment> result = new ArrayList<>();
+    for (Appointment appointment : appointments.values()) {
+      if (appointment.getStartTime() >= startTime && appointment.getEndTime() <= endTime) {
+        result.add(appointment);
+      }
+    }
+    result.sort(Comparator.comparingLong(Appointment::getStartTime));
+    return result;
+  }
+
+  /**
+   * @return appointments overlapping the given period, sorted by start date
+   */
+  public synchronized List<Appointment> view(long startTime, long endTime) {
+    List<Appointment> result = new ArrayList<>();
+    for (Appointment appointment : appointments.values()) {
+      if (appointment.getStartTime() < endTime && appointment.getEndTime() > startTime) {
+        result.add(appointment);
+      }
+    }
+    result.sort(Comparator.comparingLong(Appointment::getStartTime));
+    return result;
+  }
+
+  /**
+   * @param syncState sequence number of the last retrieved change, 0 to
+   *          retrieve all the items
+   * @param maxChanges maximum count of changes to retrieve
+   * @return the last change of each item changed since the given state
+   */
+  public synchronized List<Change> getChanges(long syncState, int maxChanges) {
+    List<Change> result = new ArrayList<>();
+    for (Change change : changes.tailMap(syncState, false).values()) {
+      if (result.size() >= maxChanges) {
+        break;
+      }
+      // An item created then deleted since the given state is unknown to the
+      // client, an item created then updated is a creation for the client
+      if (!(change.getType() == Change.DELETE && change.getCreationSequence() > syncState)) {
+        result.add(change.getType() == Change.UPDATE && change.getCreationSequence() > syncState ? change.asCreation()
+                                                                                                 : change);
+      }
+    }
+    return result;
+  }
+
+  public synchronized long getSequence() {
+    return sequence;
+  }
+
+  public synchronized int size() {
+    return appointments.size();
+  }
+
+  private void recordChange(String type, Appointment appointment) {
+    sequence++;
+    Long previousSequence = itemChanges.put(appointment.getId(), sequence);
+    long creationSequence = sequence;
+    if (previousSequence != null) {
+      creationSequence = changes.remove(previousSequence).getCreationSequence();
+    }
+    changes.put(sequence, new Change(type, appointment, sequence, creationSequence));
+  }
+
+  public static class Appointment {
+
+    private final String id;
+
+    private final int    version;
+
+    private final String subject;
+
+    private final long   startTime;
+
+    private final long   endTime;
+
+    public Appointment(String id, int version, String subject, long startTime, long endTime) {
+      this.id = id;
+      this.version = version;
+      this.subject = subject;
+      this.startTime = startTime;
+      this.endTime = endTime;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public int getVersion() {
+      return version;
+    }
+
+    public String getChangeKey() {
+      return "CQAAABYAAAB" + version;
+    }
+
+    public String getSubject() {
+      return subject;
+    }
+
+    public long getStartTime() {
+      return startTime;
+    }
+
+    public long getEndTime() {
+      return endTime;
+    }
+  }
+
+  public static class Change {
+
+    public static final String CREATE = "Create";
+
+    public static final String UPDATE = "Update";
+
+    public static final String DELETE = "Delete";
+
+    private final String       type;
+
+    private final Appointment  appointment;
+
+    private final long         sequence;
+
+    private final long         creationSequence;
+
+    public Change(String type, Appointment appointment, long sequence, long creationSequence) {
+      this.type = type;
+      this.appointment = appointment;
+      this.sequence = sequence;
+      this.creationSequence = creationSequence;
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public Appointment getAppointment() {
+      return appointment;
+    }
+
+    public long getSequence() {
+      return sequence;
+    }
+
+    public long getCreationSequence() {
+      return creationSequence;
+    }
+
+    private Change asCreation() {
+      return new Change(CREATE, appointment, sequence, creationSequence);
+    }
+  }
+}
@@ -0,0 +1,536 @@
+package org.exoplatform.agendaconnector.ews;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.lang3.StringUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.exoplatform.agendaconnector.ews.FakeEwsCalendar.Appointment;
+import org.exoplatform.agendaconnector.ews.FakeEwsCalendar.Change;
+import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
+
+/**
+ * Embedded EWS endpoint serving a {@link FakeEwsCalendar}, so that the
+ * exchange connector can be exercised with real SOAP requests without an
+ * exchange server. It supports the operations used by the connector:
+ * GetFolder, FindItem with an indexed view or a CalendarView, GetItem,
+ * CreateItem, UpdateItem, DeleteItem and SyncFolderItems. The credentials
+ * aren't checked.
+ * <p>
+ * Each request can be delayed, throttled with an ErrorServerBusy fault, as
+ * exchange does when a user exceeds its budget, or failed with an HTTP 503
+ * error, as a failing server or proxy does.
+ */
+public class FakeEwsServer {
+
+  public static final String    SOAP_NS                  = "http://schemas.xmlsoap.org/soap/envelope/";
+
+  public static final String    MESSAGES_NS              = "http://schemas.microsoft.com/exchange/services/2006/messages";
+
+  public static final String    TYPES_NS                 = "http://schemas.microsoft.com/exchange/services/2006/types";
+
+  public static final String    ERRORS_NS                = "http://schemas.microsoft.com/exchange/services/2006/errors";
+
+  private static final String   CALENDAR_FOLDER_ID       = "AQMkAGFha2VDYWxlbmRhcgAuAAAD";
+
+  private final FakeEwsCalendar calendar;
+
+  private final Map<String, AtomicLong> operationsCount  = new ConcurrentHashMap<>();
+
+  private final AtomicInteger   concurrentRequests       = new AtomicInteger();
+
+  private final AtomicLong      throttledRequestsCount   = new AtomicLong();
+
+  private final AtomicLong      failedRequestsCount      = new AtomicLong();
+
+  private volatile long         latencyMillis;
+
+  private volatile long         latencyJitterMillis;
+
+  private volatile int          maxConcurrentRequests;
+
+  private volatile double       throttlingRate;
+
+  private volatile long         throttlingBackOffMillis  = 100;
+
+  private volatile double       errorRate;
+
+  private HttpServer            httpServer;
+
+  private ExecutorService       executor;
+
+  public FakeEwsServer(FakeEwsCalendar calendar) {
+    this.calendar = calendar;
+  }
+
+  public void start() throws IOException {
+    httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    httpServer.createContext(ExchangeConnectorUtils.EWS_URL, this::handle);
+    executor = Executors.newCachedThreadPool(ExchangeConnectorUtils.newDaemonThreadFactory("FakeEwsServer"));
+    httpServer.setExecutor(executor);
+    httpServer.start();
+  }
+
+  public void stop() {
+    if (httpServer != null) {
+      httpServer.stop(0);
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * @return the server URL, to be used as exo.exchange.server.url
+   */
+  public String getUrl() {
+    return "http://" + httpServer.getAddress().getHostString() + ":" + httpServer.getAddress().getPort();
+  }
+
+  public FakeEwsCalendar getCalendar() {
+    return calendar;
+  }
+
+  /**
+   * @param latencyMillis delay added before answering each request
+   * @param latencyJitterMillis maximum random delay added to the latency
+   */
+  public void setLatency(long latencyMillis, long latencyJitterMillis) {
+    this.latencyMillis = latencyMillis;
+    this.latencyJitterMillis = latencyJitterMillis;
+  }
+
+  /**
+   * @param maxConcurrentRequests count of requests served concurrently above
+   *          which requests are throttled, 0 for no limit
+   */
+  public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+    this.maxConcurrentRequests = maxConcurrentRequests;
+  }
+
+  /**
+   * @param throttlingRate ratio of requests randomly throttled
+   * @param throttlingBackOffMillis back off delay returned with throttling
+   *          faults
+   */
+  public void setThrottling(double throttlingRate, long throttlingBackOffMillis) {
+    this.throttlingRate = throttlingRate;
+    this.throttlingBackOffMillis = throttlingBackOffMillis;
+  }
+
+  /**
+   * @param errorRate ratio of requests randomly failed with an HTTP 503 error
+   */
+  public void setErrorRate(double errorRate) {
+    this.errorRate = errorRate;
+  }
+
+  /**
+   * @param operation EWS operation name, ex: FindItem
+   * @return count of received requests of the operation
+   */
+  public long getOperationCount(String operation) {
+    AtomicLong operationCount = operationsCount.get(operation);
+    return operationCount == null ? 0 : operationCount.get();
+  }
+
+  public long getThrottledRequestsCount() {
+    return throttledRequestsCount.get();
+  }
+
+  public long getFailedRequestsCount() {
+    return failedRequestsCount.get();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    int concurrentRequestsCount = concurrentRequests.incrementAndGet();
+    try {
+      Element operation = getFirstChildElement(getChildElement(parse(exchange).getDocumentElement(), "Body"));
+      String operationName = operation == null ? null : operation.getLocalName();
+      operationsCount.computeIfAbsent(String.valueOf(operationName), key -> new AtomicLong()).incrementAndGet();
+      delay();
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      if (errorRate > 0 && random.nextDouble() < errorRate) {
+        failedRequestsCount.incrementAndGet();
+        send(exchange, 503, "text/plain", "Injected server error");
+      } else if ((maxConcurrentRequests > 0 && concurrentRequestsCount > maxConcurrentRequests)
+          || (throttlingRate > 0 && random.nextDouble() < throttlingRate)) {
+        throttledRequestsCount.incrementAndGet();
+        send(exchange, 500, "text/xml; charset=utf-8", serverBusyFault());
+      } else if (operation == null) {
+        send(exchange, 400, "text/plain", "Missing EWS operation");
+      } else {
+        send(exchange, 200, "text/xml; charset=utf-8", envelope(execute(operation)));
+      }
+    } catch (Exception e) {
+      send(exchange, 500, "text/plain", String.valueOf(e));
+    } finally {
+      concurrentRequests.decrementAndGet();
+      exchange.close();
+    }
+  }
+
+  private String execute(Element operation) {
+    switch (operation.getLocalName()) {
+    case "GetFolder":
+      return getFolder(operation);
+    case "FindItem":
+      return findItem(operation);
+    case "GetItem":
+      return getItem(operation);
+    case "CreateItem":
+      return createItem(operation);
+    case "UpdateItem":
+      return updateItem(operation);
+    case "DeleteItem":
+      return deleteItem(operation);
+    case "SyncFolderItems":
+      return syncFolderItems(operation);
+    default:
+      return response(operation.getLocalName(),
+                      List.of(errorMessage(operation.getLocalName(),
+                                           "ErrorInvalidOperation",
+                                           "Operation isn't supported by the fake EWS server")));
+    }
+  }
+
+  private String getFolder(Element operation) {
+    List<String> messages = new ArrayList<>();
+    // The calendar is the only folder of the mailbox
+    int foldersCount = getChildElements(getChildElement(operation, "FolderIds")).size();
+    for (int i = 0; i < foldersCount; i++) {
+      messages.add(successMessage("GetFolder",
+                                  "<m:Folders><t:CalendarFolder><t:FolderId Id=\"" + CALENDAR_FOLDER_ID
+                                      + "\" ChangeKey=\"AgAAAA==\"/></t:CalendarFolder></m:Folders>"));
+    }
+    return response("GetFolder", messages);
+  }
+
+  private String findItem(Element operation) {
+    Element calendarView = getChildElement(operation, "CalendarView");
+    List<Appointment> appointments;
+    int offset = 0;
+    int maxEntries;
+    if (calendarView != null) {
+      maxEntries = getIntAttribute(calendarView, "MaxEntriesReturned", Integer.MAX_VALUE);
+      appointments = calendar.view(parseDate(calendarView.getAttribute("StartDate")),
+                                   parseDate(calendarView.getAttribute("EndDate")));
+    } else {
+      Element indexedView = getChildElement(operation, "IndexedPageItemView");
+      maxEntries = indexedView == null ? Integer.MAX_VALUE : getIntAttribute(indexedView, "MaxEntriesReturned", Integer.MAX_VALUE);
+      offset = indexedView == null ? 0 : getIntAttribute(indexedView, "Offset", 0);
+      long startTime = Long.MIN_VALUE;
+      long endTime = Long.MAX_VALUE;
+      Element restriction = getChildElement(operation, "Restriction");
+      if (restriction != null) {
+        // Only the start and end filters sent by the connector are supported
+        for (Element filter : getDescendantElements(restriction, "IsGreaterThanOrEqualTo")) {
+          if ("calendar:Start".equals(getFieldURI(filter))) {
+            startTime = Math.max(startTime, getConstant(filter));
+          }
+        }
+        for (Element filter : getDescendantElements(restriction, "IsLessThanOrEqualTo")) {
+          if ("calendar:End".equals(getFieldURI(filter))) {
+            endTime = Math.min(endTime, getConstant(filter));
+          }
+        }
+      }
+      appointments = calendar.find(startTime, endTime);
+    }
+    int totalCount = appointments.size();
+    int fromIndex = Math.min(offset, totalCount);
+    int toIndex = (int) Math.min((long) fromIndex + maxEntries, totalCount);
+    StringBuilder items = new StringBuilder("<t:Items>");
+    for (Appointment appointment : appointments.subList(fromIndex, toIndex)) {
+      items.append(calendarItem(appointment));
+    }
+    items.append("</t:Items>");
+    StringBuilder rootFolder = new StringBuilder("<m:RootFolder");
+    if (calendarView == null) {
+      rootFolder.append(" IndexedPagingOffset=\"").append(toIndex).append('"');
+    }
+    rootFolder.append(" TotalItemsInView=\"")
+              .append(totalCount)
+              .append("\" IncludesLastItemInRange=\"")
+              .append(toIndex >= totalCount)
+              .append("\">")
+              .append(items)
+              .append("</m:RootFolder>");
+    return response("FindItem", List.of(successMessage("FindItem", rootFolder.toString())));
+  }
+
+  private String getItem(Element operation) {
+    List<String> messages = new ArrayList<>();
+    for (Element itemId : getChildElements(getChildElement(operation, "ItemIds"))) {
+      Appointment appointment = calendar.get(itemId.getAttribute("Id"));
+      messages.add(appointment == null ? itemNotFoundMessage("GetItem")
+                                       : successMessage("GetItem", "<m:Items>" + calendarItem(appointment) + "</m:Items>"));
+    }
+    return response("GetItem", messages);
+  }
+
+  private String createItem(Element operation) {
+    List<String> messages = new ArrayList<>();
+    for (Element item : getChildElements(getChildElement(operation, "Items"))) {
+      String subject = getChildText(item, "Subject");
+      String start = getChildText(item, "Start");
+      String end = getChildText(item, "End");
+      if (start == null || end == null) {
+        messages.add(errorMessage("CreateItem", "ErrorInvalidRequest", "Start and end dates are mandatory"));
+        continue;
+      }
+      Appointment appointment = calendar.create(subject, parseDate(start), parseDate(end));
+      messages.add(successMessage("CreateItem", "<m:Items><t:CalendarItem>" + itemId(appointment) + "</t:CalendarItem></m:Items>"));
+    }
+    return response("CreateItem", messages);
+  }
+
+  private String updateItem(Element operation) {
+    boolean alwaysOverwrite = "AlwaysOverwrite".equals(operation.getAttribute("ConflictResolution"));
+    List<String> messages = new ArrayList<>();
+    for (Element itemChange : getChildElements(getChildElement(operation, "ItemChanges"))) {
+      Element itemId = getChildElement(itemChange, "ItemId");
+      Appointment appointment = itemId == null ? null : calendar.get(itemId.getAttribute("Id"));
+      if (appointment == null) {
+        messages.add(itemNotFoundMessage("UpdateItem"));
+        continue;
+      }
+      String changeKey = itemId.getAttribute("ChangeKey");
+      if (!alwaysOverwrite && StringUtils.isNotBlank(changeKey) && !changeKey.equals(appointment.getChangeKey())) {
+        messages.add(errorMessage("UpdateItem",
+                                  "ErrorIrresolvableConflict",
+                                  "The send or update operation could not be performed because the change key passed in the request does not match the current change key for the item."));
+        continue;
+      }
+      String subject = null;
+      Long startTime = null;
+      Long endTime = null;
+      for (Element setItemField : getDescendantElements(itemChange, "SetItemField")) {
+        Element item = getChildElement(setItemField, "CalendarItem");
+        switch (StringUtils.defaultString(getFieldURI(setItemField))) {
+        case "item:Subject":
+          subject = getChildText(item, "Subject");
+          break;
+        case "calendar:Start":
+          startTime = parseDate(getChildText(item, "Start"));
+          break;
+        case "calendar:End":
+          endTime = parseDate(getChildText(item, "End"));
+          break;
+        default:
+          break;
+        }
+      }
+      Appointment updatedAppointment = calendar.update(appointment.getId(), subject, startTime, endTime);
+      messages.add(successMessage("UpdateItem",
+                                  "<m:Items><t:CalendarItem>" + itemId(updatedAppointment)
+                                      + "</t:CalendarItem></m:Items><m:ConflictResults><t:Count>0</t:Count></m:ConflictResults>"));
+    }
+    return response("UpdateItem", messages);
+  }
+
+  private String deleteItem(Element operation) {
+    List<String> messages = new ArrayList<>();
+    for (Element itemId : getChildElements(getChildElement(operation, "ItemIds"))) {
+      messages.add(calendar.delete(itemId.getAttribute("Id")) ? successMessage("DeleteItem", "")
+                                                              : itemNotFoundMessage("DeleteItem"));
+    }
+    return response("DeleteItem", messages);
+  }
+
+  private String syncFolderItems(Element operation) {
+    String syncState = getChildText(operation, "SyncState");
+    int maxChanges = Integer.parseInt(StringUtils.defaultIfBlank(getChildText(operation, "MaxChangesReturned"), "512"));
+    long fromSequence = StringUtils.isNumeric(syncState) ? Long.parseLong(syncState) : 0;
+    long currentSequence = calendar.getSequence();
+    List<Change> changes = calendar.getChanges(fromSequence, maxChanges);
+    boolean includesLastChange = changes.size() < maxChanges;
+    long newSequence = includesLastChange ? currentSequence : changes.get(changes.size() - 1).getSequence();
+    StringBuilder content = new StringBuilder();
+    content.append("<m:SyncState>")
+           .append(newSequence)
+           .append("</m:SyncState><m:IncludesLastItemInRange>")
+           .append(includesLastChange)
+           .append("</m:IncludesLastItemInRange><m:Changes>");
+    for (Change change : changes) {
+      content.append("<t:").append(change.getType()).append('>');
+      if (Change.DELETE.equals(change.getType())) {
+        content.append(itemId(change.getAppointment()));
+      } else {
+        content.append(calendarItem(change.getAppointment()));
+      }
+      content.append("</t:").append(change.getType()).append('>');
+    }
+    content.append("</m:Changes>");
+    return response("SyncFolderItems", List.of(successMessage("SyncFolderItems", content.toString())));
+  }
+
+  private void delay() throws InterruptedException {
+    long delay = latencyMillis;
+    if (latencyJitterMillis > 0) {
+      delay += ThreadLocalRandom.current().nextLong(latencyJitterMillis + 1);
+    }
+    if (delay > 0) {
+      Thread.sleep(delay);
+    }
+  }
+
+  private String calendarItem(Appointment appointment) {
+    return "<t:CalendarItem>" + itemId(appointment) + "<t:Subject>" + escape(appointment.getSubject()) + "</t:Subject><t:Start>"
+        + formatDate(appointment.getStartTime()) + "</t:Start><t:End>" + formatDate(appointment.getEndTime())
+        + "</t:End></t:CalendarItem>";
+  }
+
+  private String itemId(Appointment appointment) {
+    return "<t:ItemId Id=\"" + appointment.getId() + "\" ChangeKey=\"" + appointment.getChangeKey() + "\"/>";
+  }
+
+  private String response(String operationName, List<String> messages) {
+    return "<m:" + operationName + "Response xmlns:m=\"" + MESSAGES_NS + "\" xmlns:t=\"" + TYPES_NS + "\"><m:ResponseMessages>"
+        + String.join("", messages) + "</m:ResponseMessages></m:" + operationName + "Response>";
+  }
+
+  private String successMessage(String operationName, String content) {
+    return "<m:" + operationName + "ResponseMessage ResponseClass=\"Success\"><m:ResponseCode>NoError</m:ResponseCode>" + content
+        + "</m:" + operationName + "ResponseMessage>";
+  }
+
+  private String itemNotFoundMessage(String operationName) {
+    return errorMessage(operationName, "ErrorItemNotFound", "The specified object was not found in the store.");
+  }
+
+  private String errorMessage(String operationName, String responseCode, String message) {
+    return "<m:" + operationName + "ResponseMessage ResponseClass=\"Error\"><m:MessageText>" + escape(message)
+        + "</m:MessageText><m:ResponseCode>" + responseCode + "</m:ResponseCode><m:DescriptiveLinkKey>0</m:DescriptiveLinkKey></m:"
+        + operationName + "ResponseMessage>";
+  }
+
+  private String envelope(String body) {
+    return "<?xml version=\"1.0\" encoding=\"utf-8\"?><s:Envelope xmlns:s=\"" + SOAP_NS + "\"><s:Header>"
+        + "<h:ServerVersionInfo MajorVersion=\"14\" MinorVersion=\"3\" MajorBuildNumber=\"513\" MinorBuildNumber=\"0\""
+        + " Version=\"Exchange2010_SP2\" xmlns:h=\"" + TYPES_NS + "\"/></s:Header><s:Body>" + body + "</s:Body></s:Envelope>";
+  }
+
+  private String serverBusyFault() {
+    String message = "The server cannot service this request right now. Try again later.";
+    return "<?xml version=\"1.0\" encoding=\"utf-8\"?><s:Envelope xmlns:s=\"" + SOAP_NS + "\"><s:Body><s:Fault>"
+        + "<faultcode xmlns:a=\"" + TYPES_NS + "\">a:ErrorServerBusy</faultcode><faultstring xml:lang=\"en-US\">" + message
+        + "</faultstring><detail><e:ResponseCode xmlns:e=\"" + ERRORS_NS + "\">ErrorServerBusy</e:ResponseCode>"
+        + "<e:Message xmlns:e=\"" + ERRORS_NS + "\">" + message + "</e:Message><t:MessageXml xmlns:t=\"" + TYPES_NS + "\">"
+        + "<t:Value Name=\"BackOffMilliseconds\">" + throttlingBackOffMillis + "</t:Value></t:MessageXml></detail>"
+        + "</s:Fault></s:Body></s:Envelope>";
+  }
+
+  private void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+    byte[] content = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(status, content.length);
+    try (OutputStream outputStream = exchange.getResponseBody()) {
+      outputStream.write(content);
+    }
+  }
+
+  private Document parse(HttpExchange exchange) throws Exception {
+    DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+    documentBuilderFactory.setNamespaceAware(true);
+    byte[] content = exchange.getRequestBody().readAllBytes();
+    return documentBuilderFactory.newDocumentBuilder().parse(new ByteArrayInputStream(content));
+  }
+
+  private static String getFieldURI(Element element) {
+    Element fieldURI = getChildElement(element, "FieldURI");
+    return fieldURI == null ? null : fieldURI.getAttribute("FieldURI");
+  }
+
+  private static long getConstant(Element filter) {
+    List<Element> constants = getDescendantElements(filter, "Constant");
+    return constants.isEmpty() ? 0 : parseDate(constants.get(0).getAttribute("Value"));
+  }
+
+  private static int getIntAttribute(Element element, String name, int defaultValue) {
+    String value = element.getAttribute(name);
+    return StringUtils.isNumeric(value) ? Integer.parseInt(value) : defaultValue;
+  }
+
+  private static String getChildText(Element element, String localName) {
+    Element child = getChildElement(element, localName);
+    return child == null ? null : child.getTextContent();
+  }
+
+  private static Element getChildElement(Element element, String localName) {
+    for (Element child : getChildElements(element)) {
+      if (localName.equals(child.getLocalName())) {
+        return child;
+      }
+    }
+    return null;
+  }
+
+  private static Element getFirstChildElement(Element element) {
+    List<Element> children = getChildElements(element);
+    return children.isEmpty() ? null : children.get(0);
+  }
+
+  private static List<Element> getChildElements(Element element) {
+    List<Element> children = new ArrayList<>();
+    if (element != null) {
+      for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+        if (child.getNodeType() == Node.ELEMENT_NODE) {
+          children.add((Element) child);
+        }
+      }
+    }
+    return children;
+  }
+
+  private static List<Element> getDescendantElements(Element element, String localName) {
+    List<Element> descendants = new ArrayList<>();
+    for (Element child : getChildElements(element)) {
+      if (localName.equals(child.getLocalName())) {
+        descendants.add(child);
+      }
+      descendants.addAll(getDescendantElements(child, localName));
+    }
+    return descendants;
+  }
+
+  private static long parseDate(String date) {
+    try {
+      return Instant.parse(date).toEpochMilli();
+    } catch (DateTimeParseException e) {
+      return LocalDateTime.parse(date).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+  }
+
+  private static String formatDate(long time) {
+    return Instant.ofEpochMilli(time).truncatedTo(ChronoUnit.SECONDS).toString();
+  }
+
+  private static String escape(String value) {
+    return value == null ? "" : value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+  }
+}
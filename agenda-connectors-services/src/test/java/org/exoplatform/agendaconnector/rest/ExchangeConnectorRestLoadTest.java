@@ -0,0 +1,454 @@
+package org.exoplatform.agendaconnector.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.ws.rs.core.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.exoplatform.agenda.model.RemoteEvent;
+import org.exoplatform.agenda.rest.model.EventEntity;
+import org.exoplatform.agenda.service.AgendaRemoteEventService;
+import org.exoplatform.agenda.util.AgendaDateUtils;
+import org.exoplatform.agendaconnector.ews.FakeEwsCalendar;
+import org.exoplatform.agendaconnector.ews.FakeEwsServer;
+import org.exoplatform.agendaconnector.model.ExchangeOutboxEntry;
+import org.exoplatform.agendaconnector.model.ExchangeUserSetting;
+import org.exoplatform.agendaconnector.service.ConnectorMetrics;
+import org.exoplatform.agendaconnector.service.ExchangeConnectorServiceImpl;
+import org.exoplatform.agendaconnector.service.ExchangeCredentialValidator;
+import org.exoplatform.agendaconnector.service.ExchangePushOutbox;
+import org.exoplatform.agendaconnector.service.ExchangeServerRouter;
+import org.exoplatform.agendaconnector.service.ExchangeSessionPool;
+import org.exoplatform.agendaconnector.service.ExchangeSubscriptionManager;
+import org.exoplatform.agendaconnector.service.ExchangeSyncService;
+import org.exoplatform.agendaconnector.storage.ExchangeConnectorStorage;
+import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.exoplatform.services.security.ConversationState;
+import org.exoplatform.social.core.identity.model.Identity;
+import org.exoplatform.social.core.identity.provider.OrganizationIdentityProvider;
+import org.exoplatform.social.core.manager.IdentityManager;
+
+/**
+ * End to end load scenario of {@link ExchangeConnectorRest}: concurrent users
+ * retrieve, push and delete events through the real connector services, push
+ * outbox and in-memory caches, which send SOAP requests to a
+ * {@link FakeEwsServer}. The throughput and the latency percentiles of each
+ * operation are logged at the end of the run.
+ * <p>
+ * The default scenario is small enough to run with the unit tests. It can be
+ * scaled and tuned with system properties, ex: mvn test
+ * -Dtest=ExchangeConnectorRestLoadTest -Dexchange.load.users=200
+ * -Dexchange.load.requestsPerUser=50 -Dexchange.load.throttlingRate=0.05
+ */
+public class ExchangeConnectorRestLoadTest {
+
+  private static final Log                   LOG                   = ExoLogger.getLogger(ExchangeConnectorRestLoadTest.class);
+
+  private static final int                   USERS                 = Integer.getInteger("exchange.load.users", 10);
+
+  private static final int                   REQUESTS_PER_USER     = Integer.getInteger("exchange.load.requestsPerUser", 10);
+
+  private static final int                   CALENDAR_SIZE         = Integer.getInteger("exchange.load.calendarSize", 1000);
+
+  private static final long                  LATENCY               = Long.getLong("exchange.load.latencyMillis", 5);
+
+  private static final long                  LATENCY_JITTER        = Long.getLong("exchange.load.latencyJitterMillis", 10);
+
+  private static final int                   MAX_CONCURRENT        = Integer.getInteger("exchange.load.maxConcurrentRequests", 0);
+
+  private static final double                THROTTLING_RATE       = Double.parseDouble(System.getProperty("exchange.load.throttlingRate",
+                                                                                                           "0"));
+
+  private static final double                ERROR_RATE            = Double.parseDouble(System.getProperty("exchange.load.errorRate",
+                                                                                                           "0"));
+
+  private static final String                RETRIEVAL_MODE        =
+                                                            System.getProperty("exchange.load.retrievalMode",
+                                                                               ExchangeConnectorServiceImpl.FIND_ITEMS_RETRIEVAL_MODE);
+
+  private static final String                TIME_ZONE             = "Europe/Paris";
+
+  private static final String                GET_EVENTS            = "getEvents";
+
+  private static final String                PUSH_EVENT            = "pushEvent";
+
+  private static final String                PUSH_EVENTS           = "pushEvents";
+
+  private static final String                DELETE_EVENT          = "deleteEvent";
+
+  private static final String                DELETE_EVENTS         = "deleteEvents";
+
+  private final Map<String, RemoteEvent>     remoteEvents          = new ConcurrentHashMap<>();
+
+  private final Map<String, String>          changeKeys            = new ConcurrentHashMap<>();
+
+  private final Map<String, ExchangeOutboxEntry> outboxEntries     = new ConcurrentHashMap<>();
+
+  private final Map<String, Long>            deletedEvents         = new ConcurrentHashMap<>();
+
+  private final Map<String, List<long[]>>    samples               = new ConcurrentHashMap<>();
+
+  private FakeEwsServer                      fakeEwsServer;
+
+  private ExchangeSessionPool                exchangeSessionPool;
+
+  private ConnectorMetrics                   connectorMetrics;
+
+  private ExchangePushOutbox                 exchangePushOutbox;
+
+  private ExchangeConnectorRest              exchangeConnectorRest;
+
+  @Before
+  public void setUp() throws Exception {
+    fakeEwsServer = new FakeEwsServer(FakeEwsCalendar.generate(CALENDAR_SIZE, System.currentTimeMillis()));
+    fakeEwsServer.setLatency(LATENCY, LATENCY_JITTER);
+    fakeEwsServer.setMaxConcurrentRequests(MAX_CONCURRENT);
+    fakeEwsServer.setThrottling(THROTTLING_RATE, 100);
+    fakeEwsServer.setErrorRate(ERROR_RATE);
+    fakeEwsServer.start();
+    System.setProperty(ExchangeConnectorUtils.EXCHANGE_SERVER_URL_PROPERTY, fakeEwsServer.getUrl());
+
+    ExchangeConnectorStorage exchangeConnectorStorage = mockExchangeConnectorStorage();
+    AgendaRemoteEventService agendaRemoteEventService = mockAgendaRemoteEventService();
+    Map<String, ExoCache<?, ?>> caches = new ConcurrentHashMap<>();
+    CacheService cacheService = mock(CacheService.class);
+    when(cacheService.getCacheInstance(anyString())).thenAnswer(invocation -> caches.computeIfAbsent(invocation.getArgument(0),
+                                                                                                     name -> new ConcurrentFIFOExoCache<>(name,
+                                                                                                                                          10000)));
+    IdentityManager identityManager = mock(IdentityManager.class);
+    when(identityManager.getOrCreateIdentity(eq(OrganizationIdentityProvider.NAME), anyString())).thenAnswer(invocation -> {
+      String userName = invocation.getArgument(1);
+      Identity identity = new Identity(OrganizationIdentityProvider.NAME, userName);
+      identity.setId(userName.substring("user".length()));
+      return identity;
+    });
+
+    connectorMetrics = new ConnectorMetrics();
+    exchangeSessionPool = new ExchangeSessionPool(new ExchangeServerRouter(null),
+                                                  connectorMetrics,
+                                                  new ExchangeCredentialValidator(null),
+                                                  null);
+    exchangeSessionPool.start();
+    InitParams initParams = new InitParams();
+    ValueParam retrievalModeParam = new ValueParam();
+    retrievalModeParam.setName(ExchangeConnectorServiceImpl.EXCHANGE_EVENTS_RETRIEVAL_MODE_PARAM);
+    retrievalModeParam.setValue(RETRIEVAL_MODE);
+    initParams.addParameter(retrievalModeParam);
+    ExchangeConnectorServiceImpl exchangeConnectorService =
+                                                          new ExchangeConnectorServiceImpl(exchangeConnectorStorage,
+                                                                                           agendaRemoteEventService,
+                                                                                           exchangeSessionPool,
+                                                                                           new ExchangeSyncService(exchangeConnectorStorage,
+                                                                                                                   cacheService,
+                                                                                                                   null),
+                                                                                           mock(ExchangeSubscriptionManager.class),
+                                                                                           connectorMetrics,
+                                                                                           cacheService,
+                                                                                           initParams);
+    exchangePushOutbox = new ExchangePushOutbox(exchangeConnectorService, exchangeConnectorStorage, null);
+    exchangePushOutbox.start();
+    exchangeConnectorRest = new ExchangeConnectorRest(exchangeConnectorService,
+                                                      exchangePushOutbox,
+                                                      identityManager,
+                                                      null);
+  }
+
+  @After
+  public void tearDown() {
+    ConversationState.setCurrent(null);
+    exchangePushOutbox.stop();
+    exchangeSessionPool.stop();
+    fakeEwsServer.stop();
+    System.clearProperty(ExchangeConnectorUtils.EXCHANGE_SERVER_URL_PROPERTY);
+  }
+
+  @Test
+  public void testConcurrentUsers() throws Exception {
+    // Given
+    ExecutorService users = Executors.newFixedThreadPool(USERS);
+    CountDownLatch startLatch = new CountDownLatch(1);
+    List<Future<?>> userRuns = new ArrayList<>();
+    for (int i = 1; i <= USERS; i++) {
+      String userName = "user" + i;
+      userRuns.add(users.submit(() -> {
+        startLatch.await();
+        runUserScenario(userName);
+        return null;
+      }));
+    }
+
+    // When
+    long startTime = System.nanoTime();
+    startLatch.countDown();
+    for (Future<?> userRun : userRuns) {
+      userRun.get(10, TimeUnit.MINUTES);
+    }
+    long durationNanos = System.nanoTime() - startTime;
+    users.shutdown();
+    // Pushes accepted by the outbox are delivered asynchronously
+    long outboxDeadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+    while (!outboxEntries.isEmpty() && System.currentTimeMillis() < outboxDeadline) {
+      Thread.sleep(50);
+    }
+
+    // Then
+    logReport(durationNanos);
+    long requestsCount = samples.values().stream().mapToLong(List::size).sum();
+    assertEquals((long) USERS * REQUESTS_PER_USER, requestsCount);
+    assertTrue(fakeEwsServer.getOperationCount("GetFolder") > 0);
+    if (ERROR_RATE == 0 && THROTTLING_RATE == 0 && MAX_CONCURRENT == 0) {
+      // Without injected failures, all the requests are expected to succeed
+      for (Map.Entry<String, List<long[]>> operationSamples : samples.entrySet()) {
+        int expectedStatus = PUSH_EVENT.equals(operationSamples.getKey()) ? 202 : 200;
+        for (long[] sample : operationSamples.getValue()) {
+          assertEquals("Unexpected status of " + operationSamples.getKey(), expectedStatus, sample[1]);
+        }
+      }
+      // All the pushes are delivered, and the deleted events aren't created
+      // again by a push delivered after their deletion
+      assertTrue(outboxEntries.isEmpty());
+      for (Map.Entry<String, Long> deletedEvent : deletedEvents.entrySet()) {
+        assertFalse("Deleted event " + deletedEvent.getKey() + " is still in exchange",
+                    remoteEvents.containsKey(deletedEvent.getKey()));
+      }
+    }
+  }
+
+  private void runUserScenario(String userName) {
+    ConversationState.setCurrent(new ConversationState(new org.exoplatform.services.security.Identity(userName)));
+    List<Long> pushedEventIds = new ArrayList<>();
+    long eventIdPrefix = getUserIdentityId(userName) * 1000000L;
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < REQUESTS_PER_USER; i++) {
+      int operationIndex = random.nextInt(20);
+      if (operationIndex >= 19 && !pushedEventIds.isEmpty()) {
+        List<Long> eventIds = new ArrayList<>(pushedEventIds);
+        pushedEventIds.clear();
+        eventIds.forEach(eventId -> deletedEvents.put(getKey(getUserIdentityId(userName), eventId), eventId));
+        measure(DELETE_EVENTS, () -> exchangeConnectorRest.deleteExchangeEvents(eventIds));
+      } else if (operationIndex >= 17 && !pushedEventIds.isEmpty()) {
+        // The last pushed event, whose push may still be pending in the outbox
+        long eventId = pushedEventIds.remove(pushedEventIds.size() - 1);
+        deletedEvents.put(getKey(getUserIdentityId(userName), eventId), eventId);
+        measure(DELETE_EVENT, () -> exchangeConnectorRest.deleteExchangeEvent(eventId));
+      } else if (operationIndex >= 15) {
+        long eventId = eventIdPrefix + i * 10L;
+        EventEntity event = newEvent(eventId, random.nextInt(-30, 30));
+        pushedEventIds.add(eventId);
+        measure(PUSH_EVENT, () -> exchangeConnectorRest.pushEventToExchange(event, TIME_ZONE));
+      } else if (operationIndex >= 12) {
+        List<EventEntity> events = new ArrayList<>();
+        for (int j = 0; j < 2; j++) {
+          long eventId = eventIdPrefix + i * 10L + j;
+          events.add(newEvent(eventId, random.nextInt(-30, 30)));
+          pushedEventIds.add(eventId);
+        }
+        measure(PUSH_EVENTS, () -> exchangeConnectorRest.pushEventsToExchange(events, TIME_ZONE));
+      } else {
+        ZonedDateTime start = ZonedDateTime.now(ZoneId.of(TIME_ZONE)).plusDays(random.nextInt(-30, 30));
+        measure(GET_EVENTS,
+                () -> exchangeConnectorRest.getExchangeEvents(AgendaDateUtils.toRFC3339Date(start),
+                                                              AgendaDateUtils.toRFC3339Date(start.plusDays(7)),
+                                                              TIME_ZONE));
+      }
+    }
+  }
+
+  private void measure(String operation, Supplier<Response> request) {
+    long startTime = System.nanoTime();
+    int status;
+    try {
+      status = request.get().getStatus();
+    } catch (RuntimeException e) {
+      status = -1;
+    }
+    long durationNanos = System.nanoTime() - startTime;
+    samples.computeIfAbsent(operation, key -> Collections.synchronizedList(new ArrayList<>()))
+           .add(new long[] { durationNanos, status });
+  }
+
+  private void logReport(long durationNanos) {
+    StringBuilder report = new StringBuilder();
+    long requestsCount = samples.values().stream().mapToLong(List::size).sum();
+    double durationSeconds = durationNanos / 1e9;
+    report.append(String.format("%nExchange load scenario: %d users, %d requests in %.2f s, %.1f requests/s, retrieval mode %s%n",
+                                USERS,
+                                requestsCount,
+                                durationSeconds,
+                                requestsCount / durationSeconds,
+                                RETRIEVAL_MODE));
+    List<Long> allLatencies = new ArrayList<>();
+    for (Map.Entry<String, List<long[]>> operationSamples : new TreeMap<>(samples).entrySet()) {
+      List<Long> latencies = new ArrayList<>();
+      Map<Long, Integer> statuses = new TreeMap<>();
+      for (long[] sample : operationSamples.getValue()) {
+        latencies.add(sample[0]);
+        statuses.merge(sample[1], 1, Integer::sum);
+      }
+      allLatencies.addAll(latencies);
+      report.append(String.format("  %-12s count=%d p50=%.1f ms p99=%.1f ms max=%.1f ms statuses=%s%n",
+                                  operationSamples.getKey(),
+                                  latencies.size(),
+                                  percentile(latencies, 50),
+                                  percentile(latencies, 99),
+                                  percentile(latencies, 100),
+                                  statuses));
+    }
+    report.append(String.format("  %-12s count=%d p50=%.1f ms p99=%.1f ms%n",
+                                "all",
+                                allLatencies.size(),
+                                percentile(allLatencies, 50),
+                                percentile(allLatencies, 99)));
+    report.append(String.format("  EWS server: FindItem=%d GetItem=%d CreateItem=%d UpdateItem=%d DeleteItem=%d SyncFolderItems=%d GetFolder=%d throttled=%d failed=%d%n",
+                                fakeEwsServer.getOperationCount("FindItem"),
+                                fakeEwsServer.getOperationCount("GetItem"),
+                                fakeEwsServer.getOperationCount("CreateItem"),
+                                fakeEwsServer.getOperationCount("UpdateItem"),
+                                fakeEwsServer.getOperationCount("DeleteItem"),
+                                fakeEwsServer.getOperationCount("SyncFolderItems"),
+                                fakeEwsServer.getOperationCount("GetFolder"),
+                                fakeEwsServer.getThrottledRequestsCount(),
+                                fakeEwsServer.getFailedRequestsCount()));
+    for (String operationMetric : connectorMetrics.getOperationsMetrics()) {
+      report.append("  ").append(operationMetric).append(String.format("%n"));
+    }
+    LOG.info(report.toString());
+  }
+
+  private double percentile(List<Long> latencies, int percentile) {
+    if (latencies.isEmpty()) {
+      return 0;
+    }
+    List<Long> sortedLatencies = new ArrayList<>(latencies);
+    Collections.sort(sortedLatencies);
+    int index = (int) Math.ceil(percentile / 100d * sortedLatencies.size()) - 1;
+    return sortedLatencies.get(Math.max(index, 0)) / 1e6;
+  }
+
+  private EventEntity newEvent(long eventId, int daysOffset) {
+    ZonedDateTime start = ZonedDateTime.now(ZoneId.of(TIME_ZONE)).plusDays(daysOffset).withNano(0);
+    EventEntity event = new EventEntity();
+    event.setId(eventId);
+    event.setSummary("Load event " + eventId);
+    event.setStart(AgendaDateUtils.toRFC3339Date(start));
+    event.setEnd(AgendaDateUtils.toRFC3339Date(start.plusHours(1)));
+    event.setRemoteProviderId(1);
+    event.setRemoteProviderName("agenda.exchangeCalendar");
+    return event;
+  }
+
+  private ExchangeConnectorStorage mockExchangeConnectorStorage() {
+    ExchangeConnectorStorage exchangeConnectorStorage = mock(ExchangeConnectorStorage.class);
+    when(exchangeConnectorStorage.getExchangeSetting(anyLong())).thenAnswer(invocation -> {
+      ExchangeUserSetting exchangeUserSetting = new ExchangeUserSetting();
+      exchangeUserSetting.setUsername("user" + invocation.getArgument(0));
+      exchangeUserSetting.setPassword("password");
+      return exchangeUserSetting;
+    });
+    when(exchangeConnectorStorage.getExchangeChangeKey(anyLong(),
+                                                       anyLong())).thenAnswer(invocation -> changeKeys.get(getKey(invocation.getArgument(0),
+                                                                                                                 invocation.getArgument(1))));
+    doAnswer(invocation -> changeKeys.put(getKey(invocation.getArgument(0), invocation.getArgument(1)),
+                                          invocation.getArgument(2))).when(exchangeConnectorStorage)
+                                                                     .saveExchangeChangeKey(anyLong(), anyLong(), anyString());
+    doAnswer(invocation -> {
+      List<Long> eventIds = invocation.getArgument(0);
+      eventIds.forEach(eventId -> remoteEvents.remove(getKey(invocation.getArgument(1), eventId)));
+      return null;
+    }).when(exchangeConnectorStorage).deleteRemoteEvents(any(), anyLong());
+    doAnswer(invocation -> remoteEvents.remove(getKey(invocation.getArgument(1),
+                                                      invocation.getArgument(0)))).when(exchangeConnectorStorage)
+                                                                                  .deleteRemoteEvent(anyLong(), anyLong());
+    when(exchangeConnectorStorage.getExchangeOutboxEntry(anyLong(),
+                                                         anyLong())).thenAnswer(invocation -> copy(outboxEntries.get(getKey(invocation.getArgument(0),
+                                                                                                                            invocation.getArgument(1)))));
+    when(exchangeConnectorStorage.getExchangeOutboxEntries(anyLong())).thenAnswer(invocation -> {
+      String keyPrefix = invocation.getArgument(0) + ":";
+      return outboxEntries.entrySet()
+                          .stream()
+                          .filter(outboxEntry -> outboxEntry.getKey().startsWith(keyPrefix))
+                          .map(outboxEntry -> copy(outboxEntry.getValue()))
+                          .collect(Collectors.toList());
+    });
+    doAnswer(invocation -> {
+      ExchangeOutboxEntry outboxEntry = invocation.getArgument(1);
+      return outboxEntries.put(getKey(invocation.getArgument(0), outboxEntry.getEvent().getId()), copy(outboxEntry));
+    }).when(exchangeConnectorStorage).saveExchangeOutboxEntry(anyLong(), any());
+    doAnswer(invocation -> outboxEntries.remove(getKey(invocation.getArgument(0),
+                                                       invocation.getArgument(1)))).when(exchangeConnectorStorage)
+                                                                                   .deleteExchangeOutboxEntry(anyLong(), anyLong());
+    return exchangeConnectorStorage;
+  }
+
+  private AgendaRemoteEventService mockAgendaRemoteEventService() {
+    AgendaRemoteEventService agendaRemoteEventService = mock(AgendaRemoteEventService.class);
+    when(agendaRemoteEventService.findRemoteEvent(anyLong(),
+                                                  anyLong())).thenAnswer(invocation -> remoteEvents.get(getKey(invocation.getArgument(1),
+                                                                                                               invocation.getArgument(0))));
+    doAnswer(invocation -> {
+      RemoteEvent remoteEvent = invocation.getArgument(0);
+      return remoteEvents.put(getKey(remoteEvent.getIdentityId(), remoteEvent.getEventId()), remoteEvent);
+    }).when(agendaRemoteEventService).saveRemoteEvent(any());
+    return agendaRemoteEventService;
+  }
+
+  private String getKey(long userIdentityId, long eventId) {
+    return userIdentityId + ":" + eventId;
+  }
+
+  private long getUserIdentityId(String userName) {
+    return Long.parseLong(userName.substring("user".length()));
+  }
+
+  /**
+   * Entries are copied as they would be serialized by the storage, so that
+   * the outbox doesn't modify the stored ones
+   */
+  private ExchangeOutboxEntry copy(ExchangeOutboxEntry outboxEntry) {
+    return outboxEntry == null ? null
+                               : new ExchangeOutboxEntry(outboxEntry.getEvent(),
+                                                         outboxEntry.getTimeZoneId(),
+                                                         outboxEntry.getSequence(),
+                                                         outboxEntry.getAttempts(),
+                                                         outboxEntry.getNextAttemptTime(),
+                                                         outboxEntry.isDeletion(),
+                                                         outboxEntry.getOwner(),
+                                                         outboxEntry.getLeaseTime());
+  }
+}
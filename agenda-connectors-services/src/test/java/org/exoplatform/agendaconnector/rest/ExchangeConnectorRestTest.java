@@ -0,0 +1,100 @@
+package org.exoplatform.agendaconnector.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.ZonedDateTime;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import javax.ws.rs.core.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.exoplatform.agenda.util.AgendaDateUtils;
+import org.exoplatform.agendaconnector.service.ExchangeConnectorService;
+import org.exoplatform.agendaconnector.service.ExchangePushOutbox;
+import org.exoplatform.agendaconnector.service.ExchangeUnavailableException;
+import org.exoplatform.services.security.ConversationState;
+import org.exoplatform.social.core.identity.model.Identity;
+import org.exoplatform.social.core.identity.provider.OrganizationIdentityProvider;
+import org.exoplatform.social.core.manager.IdentityManager;
+
+public class ExchangeConnectorRestTest {
+
+  private static final String      TIME_ZONE = "UTC";
+
+  private ExchangeConnectorService exchangeConnectorService;
+
+  private ExchangeConnectorRest    exchangeConnectorRest;
+
+  private String                   start;
+
+  private String                   end;
+
+  @Before
+  public void setUp() {
+    exchangeConnectorService = mock(ExchangeConnectorService.class);
+    IdentityManager identityManager = mock(IdentityManager.class);
+    Identity identity = new Identity(OrganizationIdentityProvider.NAME, "user");
+    identity.setId("1");
+    when(identityManager.getOrCreateIdentity(eq(OrganizationIdentityProvider.NAME), anyString())).thenReturn(identity);
+    ConversationState.setCurrent(new ConversationState(new org.exoplatform.services.security.Identity("user")));
+    exchangeConnectorRest = new ExchangeConnectorRest(exchangeConnectorService,
+                                                      mock(ExchangePushOutbox.class),
+                                                      identityManager,
+                                                      null);
+    ZonedDateTime startDate = ZonedDateTime.now();
+    start = AgendaDateUtils.toRFC3339Date(startDate);
+    end = AgendaDateUtils.toRFC3339Date(startDate.plusDays(1));
+  }
+
+  @After
+  public void tearDown() {
+    ConversationState.setCurrent(null);
+  }
+
+  @Test
+  public void testGetExchangeEventsWhenBulkheadTimesOut() throws Exception {
+    // Given
+    when(exchangeConnectorService.getExchangeEvents(eq(1L), anyString(), anyString(), any())).thenThrow(new ExchangeUnavailableException("Exchange server is unavailable",
+                                                                                                                                         new TimeoutException("No permit available")));
+
+    // When
+    Response response = exchangeConnectorRest.getExchangeEvents(start, end, TIME_ZONE);
+
+    // Then
+    assertEquals(504, response.getStatus());
+  }
+
+  @Test
+  public void testGetExchangeEventsWhenExchangeServerIsSaturated() throws Exception {
+    // Given
+    when(exchangeConnectorService.getExchangeEvents(eq(1L), anyString(), anyString(), any())).thenThrow(new ExchangeUnavailableException("Exchange server is unavailable",
+                                                                                                                                         new RejectedExecutionException()));
+
+    // When
+    Response response = exchangeConnectorRest.getExchangeEvents(start, end, TIME_ZONE);
+
+    // Then
+    assertEquals(503, response.getStatus());
+  }
+
+  @Test
+  public void testGetExchangeEventsWhenNotAllowed() throws Exception {
+    // Given
+    when(exchangeConnectorService.getExchangeEvents(eq(1L), anyString(), anyString(), any())).thenThrow(new IllegalAccessException());
+
+    // When
+    Response response = exchangeConnectorRest.getExchangeEvents(start, end, TIME_ZONE);
+
+    // Then
+    assertEquals(401, response.getStatus());
+  }
+}
@@ -0,0 +1,51 @@
+package org.exoplatform.agendaconnector.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import org.exoplatform.agendaconnector.model.ConnectorOperationMetric;
+
+public class ConnectorMetricsTest {
+
+  @Test
+  public void testRecordOperations() throws Exception {
+    // Given
+    ConnectorMetrics connectorMetrics = new ConnectorMetrics();
+    for (int i = 1; i <= 100; i++) {
+      connectorMetrics.record(ConnectorMetrics.EXCHANGE_CONNECTOR, "findItems", ConnectorMetrics.SUCCESS_OUTCOME, i);
+    }
+
+    // When
+    assertEquals("result",
+                 connectorMetrics.time(ConnectorMetrics.GOOGLE_CONNECTOR, "tokenRefresh", () -> "result"));
+    try {
+      connectorMetrics.time(ConnectorMetrics.EXCHANGE_CONNECTOR, "findItems", () -> {
+        throw new TimeoutException();
+      });
+      fail("Timeout should be thrown");
+    } catch (TimeoutException e) {
+      // Expected
+    }
+
+    // Then
+    List<ConnectorOperationMetric> metrics = connectorMetrics.getMetrics();
+    assertEquals(3, metrics.size());
+    ConnectorOperationMetric findItemsMetric = metrics.get(0);
+    assertEquals("findItems", findItemsMetric.getOperation());
+    assertEquals(ConnectorMetrics.SUCCESS_OUTCOME, findItemsMetric.getOutcome());
+    assertEquals(100, findItemsMetric.getCount());
+    assertEquals(5050, findItemsMetric.getTotalTimeMillis());
+    assertEquals(100, findItemsMetric.getMaxTimeMillis());
+    assertEquals(50, findItemsMetric.getP50TimeMillis());
+    assertEquals(100, findItemsMetric.getP95TimeMillis());
+    assertEquals(ConnectorMetrics.TIMEOUT_OUTCOME, metrics.get(1).getOutcome());
+    assertEquals(ConnectorMetrics.GOOGLE_CONNECTOR, metrics.get(2).getConnector());
+    assertEquals(102, connectorMetrics.getOperationsCount());
+    assertEquals(1, connectorMetrics.getFailedOperationsCount());
+  }
+}
@@ -1,7 +1,12 @@
 package org.exoplatform.agendaconnector.service;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -11,8 +16,13 @@ import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeoutException;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -24,21 +34,37 @@ import org.exoplatform.agenda.model.RemoteEvent;
 import org.exoplatform.agenda.rest.model.EventEntity;
 import org.exoplatform.agenda.service.AgendaRemoteEventService;
 import org.exoplatform.agenda.util.AgendaDateUtils;
+import org.exoplatform.agendaconnector.model.ExchangeEventPushResult;
+import org.exoplatform.agendaconnector.model.ExchangeSyncedEvent;
 import org.exoplatform.agendaconnector.model.ExchangeUserSetting;
 import org.exoplatform.agendaconnector.storage.ExchangeConnectorStorage;
 import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
 
 import microsoft.exchange.webservices.data.core.ExchangeService;
 import microsoft.exchange.webservices.data.core.enumeration.misc.ExchangeVersion;
+import microsoft.exchange.webservices.data.core.enumeration.misc.error.ServiceError;
 import microsoft.exchange.webservices.data.core.enumeration.property.WellKnownFolderName;
+import microsoft.exchange.webservices.data.core.enumeration.service.ConflictResolutionMode;
+import microsoft.exchange.webservices.data.core.enumeration.service.SendInvitationsOrCancellationsMode;
+import microsoft.exchange.webservices.data.core.enumeration.service.ServiceResult;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceResponseException;
+import microsoft.exchange.webservices.data.core.response.GetItemResponse;
+import microsoft.exchange.webservices.data.core.response.ServiceResponse;
+import microsoft.exchange.webservices.data.core.response.ServiceResponseCollection;
+import microsoft.exchange.webservices.data.core.response.UpdateItemResponse;
 import microsoft.exchange.webservices.data.core.service.item.Appointment;
 import microsoft.exchange.webservices.data.core.service.item.Item;
+import microsoft.exchange.webservices.data.search.CalendarView;
 import microsoft.exchange.webservices.data.search.FindItemsResults;
 import microsoft.exchange.webservices.data.search.ItemView;
 import microsoft.exchange.webservices.data.search.filter.SearchFilter;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({ ExchangeConnectorUtils.class, ExchangeService.class })
+@PrepareForTest({ ExchangeConnectorUtils.class, ExchangeService.class, GetItemResponse.class, UpdateItemResponse.class })
 public class ExchangeConnectorServiceImplTest {
 
   private ExchangeConnectorServiceImpl exchangeConnectorService;
@@ -49,13 +75,46 @@ public class ExchangeConnectorServiceImplTest {
   
   private ExchangeConnectorStorage exchangeConnectorStorage;
 
+  private ExoCache<Long, ExchangeUserEvents> exchangeEventsCache;
+
+  private ExoCache<Long, ExchangeEventsWindow> exchangeEventsWindowCache;
+
+  private CacheService             cacheService;
+
+  private ExchangeSubscriptionManager exchangeSubscriptionManager;
+
+  private ConnectorMetrics         connectorMetrics;
+
   @Before
   public void setUp() throws Exception {
     agendaRemoteEventService = mock(AgendaRemoteEventService.class);
     exchangeConnectorStorage = mock(ExchangeConnectorStorage.class);
     exchangeService = PowerMockito.mock(ExchangeService.class);
+    exchangeEventsCache = mock(ExoCache.class);
+    exchangeEventsWindowCache = mock(ExoCache.class);
+    cacheService = mock(CacheService.class);
+    exchangeSubscriptionManager = mock(ExchangeSubscriptionManager.class);
+    connectorMetrics = new ConnectorMetrics();
+    when(cacheService.getCacheInstance(ExchangeConnectorServiceImpl.EXCHANGE_EVENTS_CACHE_NAME)).thenAnswer(invocation -> exchangeEventsCache);
+    when(cacheService.getCacheInstance(ExchangeConnectorServiceImpl.EXCHANGE_EVENTS_WINDOW_CACHE_NAME)).thenAnswer(invocation -> exchangeEventsWindowCache);
+    when(cacheService.getCacheInstance(ExchangeSyncService.SYNCED_CALENDAR_CACHE_NAME)).thenAnswer(invocation -> mock(ExoCache.class));
     PowerMockito.whenNew(ExchangeService.class).withArguments(any()).thenReturn(exchangeService);
-    exchangeConnectorService = new ExchangeConnectorServiceImpl(exchangeConnectorStorage, agendaRemoteEventService);
+    exchangeConnectorService = new ExchangeConnectorServiceImpl(exchangeConnectorStorage,
+                                                                agendaRemoteEventService,
+                                                                new ExchangeSessionPool(new ExchangeServerRouter(null),
+                                                                                        new ConnectorMetrics(),
+                                                                                        new ExchangeCredentialValidator(null),
+                                                                                        null),
+                                                                new ExchangeSyncService(exchangeConnectorStorage, cacheService, null),
+                                                                exchangeSubscriptionManager,
+                                                                connectorMetrics,
+                                                                cacheService,
+                                                                null);
+  }
+
+  @After
+  public void tearDown() {
+    System.clearProperty(ExchangeConnectorUtils.EXCHANGE_SERVER_URL_PROPERTY);
   }
   
   @Test
@@ -80,6 +139,207 @@ public class ExchangeConnectorServiceImplTest {
     assertEquals(exchangeEventsItems.getItems().size(), retrievedExchangeEvents.size());
   }
 
+  @Test
+  public void testGetExchangeEventsFromCache() throws Exception {
+    // Given
+    ZoneId dstTimeZone = ZoneId.of("Europe/Paris");
+    ZonedDateTime startDate =
+            ZonedDateTime.of(LocalDate.now(), LocalTime.of(10, 0), dstTimeZone).withZoneSameInstant(dstTimeZone);
+    ZonedDateTime endDate = startDate.plusHours(1);
+    String start = AgendaDateUtils.toRFC3339Date(startDate);
+    String end = AgendaDateUtils.toRFC3339Date(endDate);
+    ArrayList<EventEntity> cachedExchangeEvents = new ArrayList<>();
+    cachedExchangeEvents.add(new EventEntity());
+    when(exchangeEventsCache.get(1L)).thenReturn(new ExchangeUserEvents().withEvents(start,
+                                                                                     end,
+                                                                                     dstTimeZone.getId(),
+                                                                                     cachedExchangeEvents));
+
+    // When
+    List<EventEntity> retrievedExchangeEvents = exchangeConnectorService.getExchangeEvents(1, start, end, dstTimeZone);
+
+    // Then
+    assertEquals(1, retrievedExchangeEvents.size());
+    verify(exchangeConnectorStorage, times(0)).getExchangeSetting(1);
+    verify(exchangeService, times(0)).findItems(any(WellKnownFolderName.class), any(SearchFilter.class), any(ItemView.class));
+    assertEquals(1,
+                 connectorMetrics.getCacheHitsCount(ConnectorMetrics.EXCHANGE_CONNECTOR,
+                                                    ExchangeConnectorServiceImpl.EXCHANGE_EVENTS_CACHE_METRIC));
+    assertEquals(0,
+                 connectorMetrics.getCacheMissesCount(ConnectorMetrics.EXCHANGE_CONNECTOR,
+                                                      ExchangeConnectorServiceImpl.EXCHANGE_EVENTS_CACHE_METRIC));
+  }
+
+  @Test
+  public void testDontCacheExchangeEventsClearedWhileRetrieved() throws Exception {
+    // Given
+    ExchangeUserSetting exchangeUserSetting = new ExchangeUserSetting();
+    exchangeUserSetting.setUsername("username");
+    exchangeUserSetting.setPassword("password");
+    when(exchangeConnectorStorage.getExchangeSetting(1)).thenReturn(exchangeUserSetting);
+    System.setProperty("exo.exchange.server.url", "server.url");
+    ZoneId dstTimeZone = ZoneId.of("Europe/Paris");
+    ZonedDateTime startDate =
+            ZonedDateTime.of(LocalDate.now(), LocalTime.of(10, 0), dstTimeZone).withZoneSameInstant(dstTimeZone);
+    String start = AgendaDateUtils.toRFC3339Date(startDate);
+    String end = AgendaDateUtils.toRFC3339Date(startDate.plusHours(1));
+    when(exchangeEventsCache.get(1L)).thenReturn(new ExchangeUserEvents().withEvents(start,
+                                                                                     end,
+                                                                                     "UTC",
+                                                                                     new ArrayList<>()));
+    // An event is pushed while the events are retrieved from exchange
+    when(exchangeService.findItems(any(WellKnownFolderName.class),
+                                   any(SearchFilter.class),
+                                   any(ItemView.class))).thenAnswer(invocation -> {
+                                     exchangeConnectorService.clearExchangeEventsCache(1L);
+                                     return new FindItemsResults<Item>();
+                                   });
+
+    // When
+    exchangeConnectorService.getExchangeEvents(1, start, end, dstTimeZone);
+
+    // Then
+    verify(exchangeEventsCache, times(0)).put(eq(1L), any());
+    assertEquals(1,
+                 connectorMetrics.getCacheMissesCount(ConnectorMetrics.EXCHANGE_CONNECTOR,
+                                                      ExchangeConnectorServiceImpl.EXCHANGE_EVENTS_CACHE_METRIC));
+    assertEquals(1,
+                 connectorMetrics.getCacheMissesCount(ConnectorMetrics.EXCHANGE_CONNECTOR,
+                                                      ExchangeConnectorServiceImpl.EXCHANGE_EVENTS_WINDOW_CACHE_METRIC));
+  }
+
+  @Test
+  public void testGetExchangeEventsPages() throws Exception {
+    // Given
+    ExchangeUserSetting exchangeUserSetting = new ExchangeUserSetting();
+    exchangeUserSetting.setUsername("username");
+    exchangeUserSetting.setPassword("password");
+    when(exchangeConnectorStorage.getExchangeSetting(1)).thenReturn(exchangeUserSetting);
+    System.setProperty("exo.exchange.server.url", "server.url");
+    FindItemsResults<Item> firstExchangeEventsPage = new FindItemsResults<Item>();
+    firstExchangeEventsPage.setMoreAvailable(true);
+    firstExchangeEventsPage.setNextPageOffset(100);
+    FindItemsResults<Item> lastExchangeEventsPage = new FindItemsResults<Item>();
+    when(exchangeService.findItems(any(WellKnownFolderName.class),
+                                   any(SearchFilter.class),
+                                   any(ItemView.class))).thenReturn(firstExchangeEventsPage, lastExchangeEventsPage);
+    ZoneId dstTimeZone = ZoneId.of("Europe/Paris");
+    ZonedDateTime startDate =
+            ZonedDateTime.of(LocalDate.now(), LocalTime.of(10, 0), dstTimeZone).withZoneSameInstant(dstTimeZone);
+    ZonedDateTime endDate = startDate.plusMonths(1);
+
+    // When
+    exchangeConnectorService.getExchangeEvents(1, AgendaDateUtils.toRFC3339Date(startDate), AgendaDateUtils.toRFC3339Date(endDate), dstTimeZone);
+
+    // Then
+    verify(exchangeService, times(2)).findItems(any(WellKnownFolderName.class), any(SearchFilter.class), any(ItemView.class));
+  }
+
+  @Test
+  public void testGetExchangeEventsFromPreSyncedWindow() throws Exception {
+    // Given
+    ZoneId dstTimeZone = ZoneId.of("Europe/Paris");
+    ZonedDateTime startDate =
+            ZonedDateTime.of(LocalDate.now(), LocalTime.of(10, 0), dstTimeZone).withZoneSameInstant(dstTimeZone);
+    ZonedDateTime endDate = startDate.plusHours(1);
+    ArrayList<ExchangeSyncedEvent> windowEvents = new ArrayList<>();
+    windowEvents.add(new ExchangeSyncedEvent("remoteId",
+                                             "summary",
+                                             startDate.toInstant().toEpochMilli(),
+                                             endDate.toInstant().toEpochMilli()));
+    windowEvents.add(new ExchangeSyncedEvent("outOfWindowId",
+                                             "summary",
+                                             startDate.plusDays(5).toInstant().toEpochMilli(),
+                                             endDate.plusDays(5).toInstant().toEpochMilli()));
+    when(exchangeEventsWindowCache.get(1L)).thenReturn(new ExchangeEventsWindow(startDate.minusDays(14).toInstant().toEpochMilli(),
+                                                                               startDate.plusDays(14).toInstant().toEpochMilli(),
+                                                                               windowEvents));
+
+    // When
+    List<EventEntity> retrievedExchangeEvents = exchangeConnectorService.getExchangeEvents(1,
+                                                                                          AgendaDateUtils.toRFC3339Date(startDate),
+                                                                                          AgendaDateUtils.toRFC3339Date(endDate),
+                                                                                          dstTimeZone);
+
+    // Then
+    assertEquals(1, retrievedExchangeEvents.size());
+    assertEquals("remoteId", retrievedExchangeEvents.get(0).getRemoteId());
+    assertEquals(AgendaDateUtils.toRFC3339Date(startDate), retrievedExchangeEvents.get(0).getStart());
+    verify(exchangeConnectorStorage, times(0)).getExchangeSetting(1);
+    verify(exchangeService, times(0)).findItems(any(WellKnownFolderName.class), any(SearchFilter.class), any(ItemView.class));
+  }
+
+  @Test
+  public void testGetExchangeEventsUsingCalendarView() throws Exception {
+    // Given
+    InitParams initParams = new InitParams();
+    ValueParam retrievalModeParam = new ValueParam();
+    retrievalModeParam.setName(ExchangeConnectorServiceImpl.EXCHANGE_EVENTS_RETRIEVAL_MODE_PARAM);
+    retrievalModeParam.setValue(ExchangeConnectorServiceImpl.CALENDAR_VIEW_RETRIEVAL_MODE);
+    initParams.addParameter(retrievalModeParam);
+    exchangeConnectorService = new ExchangeConnectorServiceImpl(exchangeConnectorStorage,
+                                                                agendaRemoteEventService,
+                                                                new ExchangeSessionPool(new ExchangeServerRouter(null),
+                                                                                        new ConnectorMetrics(),
+                                                                                        new ExchangeCredentialValidator(null),
+                                                                                        null),
+                                                                new ExchangeSyncService(exchangeConnectorStorage, cacheService, null),
+                                                                exchangeSubscriptionManager,
+                                                                new ConnectorMetrics(),
+                                                                cacheService,
+                                                                initParams);
+    ExchangeUserSetting exchangeUserSetting = new ExchangeUserSetting();
+    exchangeUserSetting.setUsername("username");
+    exchangeUserSetting.setPassword("password");
+    when(exchangeConnectorStorage.getExchangeSetting(1)).thenReturn(exchangeUserSetting);
+    System.setProperty("exo.exchange.server.url", "server.url");
+    FindItemsResults<Appointment> appointments = new FindItemsResults<Appointment>();
+    when(exchangeService.findAppointments(any(WellKnownFolderName.class), any(CalendarView.class))).thenReturn(appointments);
+    ZoneId dstTimeZone = ZoneId.of("Europe/Paris");
+    ZonedDateTime startDate =
+            ZonedDateTime.of(LocalDate.now(), LocalTime.of(10, 0), dstTimeZone).withZoneSameInstant(dstTimeZone);
+    ZonedDateTime endDate = startDate.plusHours(1);
+
+    // When
+    List<EventEntity> retrievedExchangeEvents = exchangeConnectorService.getExchangeEvents(1, AgendaDateUtils.toRFC3339Date(startDate), AgendaDateUtils.toRFC3339Date(endDate), dstTimeZone);
+
+    // Then
+    assertEquals(0, retrievedExchangeEvents.size());
+    verify(exchangeService, times(1)).findAppointments(any(WellKnownFolderName.class), any(CalendarView.class));
+    verify(exchangeService, times(0)).findItems(any(WellKnownFolderName.class), any(SearchFilter.class), any(ItemView.class));
+  }
+
+  @Test
+  public void testReuseExchangeSession() throws Exception {
+    // Given
+    ExchangeUserSetting exchangeUserSetting = new ExchangeUserSetting();
+    exchangeUserSetting.setUsername("username");
+    exchangeUserSetting.setPassword("password");
+    exchangeUserSetting.setCredentialChecked(true);
+    when(exchangeConnectorStorage.getExchangeSetting(1)).thenReturn(exchangeUserSetting);
+    System.setProperty("exo.exchange.server.url", "server.url");
+    FindItemsResults<Item> exchangeEventsItems = new FindItemsResults<Item>();
+    when(exchangeService.findItems(any(WellKnownFolderName.class), any(SearchFilter.class), any(ItemView.class))).thenReturn(exchangeEventsItems);
+    ZoneId dstTimeZone = ZoneId.of("Europe/Paris");
+    ZonedDateTime startDate =
+            ZonedDateTime.of(LocalDate.now(), LocalTime.of(10, 0), dstTimeZone).withZoneSameInstant(dstTimeZone);
+    ZonedDateTime endDate = startDate.plusHours(1);
+
+    // When
+    exchangeConnectorService.getExchangeEvents(1, AgendaDateUtils.toRFC3339Date(startDate), AgendaDateUtils.toRFC3339Date(endDate), dstTimeZone);
+    exchangeConnectorService.getExchangeEvents(1, AgendaDateUtils.toRFC3339Date(startDate), AgendaDateUtils.toRFC3339Date(endDate), dstTimeZone);
+
+    // Then
+    PowerMockito.verifyNew(ExchangeService.class, times(1)).withArguments(any());
+    verify(exchangeService, times(0)).close();
+
+    // When
+    exchangeConnectorService.deleteExchangeSetting(1);
+
+    // Then
+    verify(exchangeService, times(1)).close();
+  }
+
   @Test
   public void testCreateExchangeEvent() throws Exception {
     // Given
@@ -108,6 +368,7 @@ public class ExchangeConnectorServiceImplTest {
 
     // Then
     verify(agendaRemoteEventService, times(1)).saveRemoteEvent(any());
+    verify(exchangeEventsCache, times(1)).remove(1L);
   }
 
   @Test
@@ -146,6 +407,158 @@ public class ExchangeConnectorServiceImplTest {
     verify(appointment, times(1)).update(any(), any());
   }
 
+  @Test
+  public void testUpdateExchangeEventWithChangeKey() throws Exception {
+    // Given
+    ExchangeUserSetting exchangeUserSetting = new ExchangeUserSetting();
+    exchangeUserSetting.setUsername("username");
+    exchangeUserSetting.setPassword("password");
+    when(exchangeConnectorStorage.getExchangeSetting(1)).thenReturn(exchangeUserSetting);
+    System.setProperty("exo.exchange.server.url", "server.url");
+    when(exchangeService.getRequestedServerVersion()).thenReturn(ExchangeVersion.Exchange2010_SP2);
+    RemoteEvent remoteEvent = new RemoteEvent();
+    remoteEvent.setEventId(1);
+    remoteEvent.setRemoteId("remoteId");
+    when(agendaRemoteEventService.findRemoteEvent(1, 1)).thenReturn(remoteEvent);
+    when(exchangeConnectorStorage.getExchangeChangeKey(1, 1)).thenReturn("changeKey");
+
+    // When
+    exchangeConnectorService.pushEventToExchange(1, newEventEntity(1), ZoneId.of("Europe/Paris"));
+
+    // Then
+    verify(exchangeService, times(1)).updateItem(any(), any(), eq(ConflictResolutionMode.AutoResolve), any(), any());
+    verify(exchangeService, times(0)).bindToItem(any(), any(), any());
+    verify(exchangeConnectorStorage, times(1)).saveExchangeChangeKey(1, 1, "changeKey");
+  }
+
+  @Test
+  public void testUpdateExchangeEventWithStaleChangeKey() throws Exception {
+    // Given
+    ExchangeUserSetting exchangeUserSetting = new ExchangeUserSetting();
+    exchangeUserSetting.setUsername("username");
+    exchangeUserSetting.setPassword("password");
+    when(exchangeConnectorStorage.getExchangeSetting(1)).thenReturn(exchangeUserSetting);
+    System.setProperty("exo.exchange.server.url", "server.url");
+    when(exchangeService.getRequestedServerVersion()).thenReturn(ExchangeVersion.Exchange2010_SP2);
+    RemoteEvent remoteEvent = new RemoteEvent();
+    remoteEvent.setEventId(1);
+    remoteEvent.setRemoteId("remoteId");
+    when(agendaRemoteEventService.findRemoteEvent(1, 1)).thenReturn(remoteEvent);
+    when(exchangeConnectorStorage.getExchangeChangeKey(1, 1)).thenReturn("staleChangeKey");
+    ServiceResponseException staleChangeKeyException = mock(ServiceResponseException.class);
+    when(staleChangeKeyException.getErrorCode()).thenReturn(ServiceError.ErrorIrresolvableConflict);
+    when(exchangeService.updateItem(any(), any(), eq(ConflictResolutionMode.AutoResolve), any(), any())).thenThrow(staleChangeKeyException);
+    Appointment appointment = mock(Appointment.class);
+    when(exchangeService.bindToItem(any(), any(), any())).thenReturn(appointment);
+
+    // When
+    exchangeConnectorService.pushEventToExchange(1, newEventEntity(1), ZoneId.of("Europe/Paris"));
+
+    // Then
+    verify(exchangeService, times(1)).bindToItem(any(), any(), any());
+    verify(appointment, times(1)).update(ConflictResolutionMode.AlwaysOverwrite,
+                                         SendInvitationsOrCancellationsMode.SendToAllAndSaveCopy);
+  }
+
+  @Test
+  public void testPushEventsToExchange() throws Exception {
+    // Given
+    ExchangeUserSetting exchangeUserSetting = new ExchangeUserSetting();
+    exchangeUserSetting.setUsername("username");
+    exchangeUserSetting.setPassword("password");
+    when(exchangeConnectorStorage.getExchangeSetting(1)).thenReturn(exchangeUserSetting);
+    System.setProperty("exo.exchange.server.url", "server.url");
+    when(exchangeService.getRequestedServerVersion()).thenReturn(ExchangeVersion.Exchange2010_SP2);
+
+    RemoteEvent remoteEvent = new RemoteEvent();
+    remoteEvent.setEventId(2);
+    remoteEvent.setRemoteId("remoteId");
+    when(agendaRemoteEventService.findRemoteEvent(1, 1)).thenReturn(null);
+    when(agendaRemoteEventService.findRemoteEvent(2, 1)).thenReturn(remoteEvent);
+    ServiceResponse createResponse = mock(ServiceResponse.class);
+    when(createResponse.getResult()).thenReturn(ServiceResult.Success);
+    ServiceResponseCollection<ServiceResponse> createResponses = new ServiceResponseCollection<>();
+    createResponses.add(createResponse);
+    when(exchangeService.createItems(any(), any(), any(), any())).thenReturn(createResponses);
+    Appointment appointment = mock(Appointment.class);
+    GetItemResponse bindResponse = PowerMockito.mock(GetItemResponse.class);
+    when(bindResponse.getResult()).thenReturn(ServiceResult.Success);
+    when(bindResponse.getItem()).thenReturn(appointment);
+    ServiceResponseCollection<GetItemResponse> bindResponses = new ServiceResponseCollection<>();
+    bindResponses.add(bindResponse);
+    when(exchangeService.bindToItems(any(), any())).thenReturn(bindResponses);
+    UpdateItemResponse updateResponse = PowerMockito.mock(UpdateItemResponse.class);
+    when(updateResponse.getResult()).thenReturn(ServiceResult.Success);
+    ServiceResponseCollection<UpdateItemResponse> updateResponses = new ServiceResponseCollection<>();
+    updateResponses.add(updateResponse);
+    when(exchangeService.updateItems(any(), any(), any(), any(), any())).thenReturn(updateResponses);
+
+    ZoneId dstTimeZone = ZoneId.of("Europe/Paris");
+    ZonedDateTime startDate =
+                            ZonedDateTime.of(LocalDate.now(), LocalTime.of(10, 0), dstTimeZone).withZoneSameInstant(dstTimeZone);
+    List<EventEntity> events = new ArrayList<>();
+    for (int i = 1; i <= 3; i++) {
+      EventEntity eventEntity = new EventEntity();
+      eventEntity.setId(i);
+      eventEntity.setSummary("pushed event " + i);
+      eventEntity.setStart(AgendaDateUtils.toRFC3339Date(startDate));
+      if (i < 3) {
+        eventEntity.setEnd(AgendaDateUtils.toRFC3339Date(startDate.plusHours(1)));
+      }
+      events.add(eventEntity);
+    }
+
+    // When
+    List<ExchangeEventPushResult> pushResults = exchangeConnectorService.pushEventsToExchange(1, events, dstTimeZone);
+
+    // Then
+    assertEquals(3, pushResults.size());
+    assertTrue(pushResults.get(0).isPushed());
+    assertTrue(pushResults.get(1).isPushed());
+    assertEquals("remoteId", pushResults.get(1).getRemoteId());
+    assertFalse(pushResults.get(2).isPushed());
+    assertNotNull(pushResults.get(2).getError());
+    verify(exchangeService, times(1)).createItems(any(), any(), any(), any());
+    verify(exchangeService, times(1)).bindToItems(any(), any());
+    verify(exchangeService, times(1)).updateItems(any(), any(), any(), any(), any());
+    verify(agendaRemoteEventService, times(1)).saveRemoteEvent(any());
+    verify(appointment, times(1)).setSubject("pushed event 2");
+  }
+
+  @Test
+  public void testPushEventsToExchangeSavesCreatedEventsWhenUpdateFails() throws Exception {
+    // Given
+    ExchangeUserSetting exchangeUserSetting = new ExchangeUserSetting();
+    exchangeUserSetting.setUsername("username");
+    exchangeUserSetting.setPassword("password");
+    when(exchangeConnectorStorage.getExchangeSetting(1)).thenReturn(exchangeUserSetting);
+    System.setProperty("exo.exchange.server.url", "server.url");
+    when(exchangeService.getRequestedServerVersion()).thenReturn(ExchangeVersion.Exchange2010_SP2);
+
+    RemoteEvent remoteEvent = new RemoteEvent();
+    remoteEvent.setEventId(2);
+    remoteEvent.setRemoteId("remoteId");
+    when(agendaRemoteEventService.findRemoteEvent(1, 1)).thenReturn(null);
+    when(agendaRemoteEventService.findRemoteEvent(2, 1)).thenReturn(remoteEvent);
+    ServiceResponse createResponse = mock(ServiceResponse.class);
+    when(createResponse.getResult()).thenReturn(ServiceResult.Success);
+    ServiceResponseCollection<ServiceResponse> createResponses = new ServiceResponseCollection<>();
+    createResponses.add(createResponse);
+    when(exchangeService.createItems(any(), any(), any(), any())).thenReturn(createResponses);
+    when(exchangeService.bindToItems(any(), any())).thenThrow(new IllegalStateException("connection lost"));
+
+    // When
+    try {
+      exchangeConnectorService.pushEventsToExchange(1, Arrays.asList(newEventEntity(1), newEventEntity(2)), ZoneId.of("Europe/Paris"));
+    } catch (IllegalAccessException e) {
+      // Expected
+    }
+
+    // Then
+    verify(exchangeService, times(1)).createItems(any(), any(), any(), any());
+    verify(agendaRemoteEventService, times(1)).saveRemoteEvent(any());
+  }
+
   @Test
   public void testDeleteExchangeEvent() throws Exception {
     // Given
@@ -181,4 +594,108 @@ public class ExchangeConnectorServiceImplTest {
     // Then
     verify(appointment, times(1)).delete(any());
   }
+
+  @Test
+  public void testDeleteExchangeEvents() throws Exception {
+    // Given
+    ExchangeUserSetting exchangeUserSetting = new ExchangeUserSetting();
+    exchangeUserSetting.setUsername("username");
+    exchangeUserSetting.setPassword("password");
+    when(exchangeConnectorStorage.getExchangeSetting(1)).thenReturn(exchangeUserSetting);
+    System.setProperty("exo.exchange.server.url", "server.url");
+    ServiceResponseCollection<ServiceResponse> deleteResponses = new ServiceResponseCollection<>();
+    for (long eventId = 1; eventId <= 3; eventId++) {
+      RemoteEvent remoteEvent = new RemoteEvent();
+      remoteEvent.setEventId(eventId);
+      remoteEvent.setRemoteId("remoteId" + eventId);
+      when(agendaRemoteEventService.findRemoteEvent(eventId, 1)).thenReturn(remoteEvent);
+      ServiceResponse deleteResponse = mock(ServiceResponse.class);
+      if (eventId == 1) {
+        when(deleteResponse.getResult()).thenReturn(ServiceResult.Success);
+      } else {
+        when(deleteResponse.getResult()).thenReturn(ServiceResult.Error);
+        when(deleteResponse.getErrorCode()).thenReturn(eventId == 2 ? ServiceError.ErrorItemNotFound
+                                                                    : ServiceError.ErrorAccessDenied);
+      }
+      deleteResponses.add(deleteResponse);
+    }
+    when(agendaRemoteEventService.findRemoteEvent(4, 1)).thenReturn(null);
+    when(exchangeService.deleteItems(any(), any(), any(), any())).thenReturn(deleteResponses);
+
+    // When
+    List<Long> notDeletedEventIds = exchangeConnectorService.deleteExchangeEvents(1, Arrays.asList(1L, 2L, 3L, 4L, 1L));
+
+    // Then
+    assertEquals(Collections.singletonList(3L), notDeletedEventIds);
+    verify(agendaRemoteEventService, times(1)).findRemoteEvent(1L, 1L);
+    verify(exchangeService, times(1)).deleteItems(any(), any(), any(), any());
+    verify(exchangeConnectorStorage, times(1)).deleteRemoteEvents(Arrays.asList(1L, 2L), 1);
+  }
+
+  @Test
+  public void testDeleteNotPushedExchangeEvent() throws Exception {
+    // Given
+    when(agendaRemoteEventService.findRemoteEvent(1, 1)).thenReturn(null);
+
+    // When
+    exchangeConnectorService.deleteExchangeEvent(1, 1);
+
+    // Then
+    verify(exchangeConnectorStorage, times(0)).deleteRemoteEvent(1, 1);
+    verify(exchangeService, times(0)).bindToItem(any(), any(), any());
+  }
+
+  @Test
+  public void testCachedExchangeEventsWindowsAreBounded() {
+    ExchangeUserEvents userEvents = new ExchangeUserEvents();
+    for (int i = 0; i <= ExchangeUserEvents.MAX_WINDOWS; i++) {
+      userEvents = userEvents.withEvents("start" + i, "end" + i, "UTC", new ArrayList<>());
+    }
+
+    assertEquals(ExchangeUserEvents.MAX_WINDOWS, userEvents.size());
+    assertEquals(null, userEvents.getEvents("start0", "end0", "UTC"));
+    assertNotNull(userEvents.getEvents("start1", "end1", "UTC"));
+  }
+
+  @Test
+  public void testGetExchangeEventsWhenExchangeServerIsBusy() throws Exception {
+    // Given
+    ExchangeUserSetting exchangeUserSetting = new ExchangeUserSetting();
+    exchangeUserSetting.setUsername("username");
+    exchangeUserSetting.setPassword("password");
+    when(exchangeConnectorStorage.getExchangeSetting(1)).thenReturn(exchangeUserSetting);
+    ExchangeSessionPool exchangeSessionPool = mock(ExchangeSessionPool.class);
+    when(exchangeSessionPool.executeRead(eq(1L), any(), any())).thenThrow(new TimeoutException("No permit available"));
+    exchangeConnectorService = new ExchangeConnectorServiceImpl(exchangeConnectorStorage,
+                                                                agendaRemoteEventService,
+                                                                exchangeSessionPool,
+                                                                new ExchangeSyncService(exchangeConnectorStorage, cacheService, null),
+                                                                exchangeSubscriptionManager,
+                                                                new ConnectorMetrics(),
+                                                                cacheService,
+                                                                null);
+    ZonedDateTime startDate = ZonedDateTime.now(ZoneId.of("UTC"));
+
+    // When
+    ExchangeUnavailableException exception =
+                                           assertThrows(ExchangeUnavailableException.class,
+                                                        () -> exchangeConnectorService.getExchangeEvents(1,
+                                                                                                         AgendaDateUtils.toRFC3339Date(startDate),
+                                                                                                         AgendaDateUtils.toRFC3339Date(startDate.plusHours(1)),
+                                                                                                         ZoneId.of("UTC")));
+
+    // Then
+    assertTrue(exception.isTimeout());
+  }
+
+  private EventEntity newEventEntity(long eventId) {
+    EventEntity eventEntity = new EventEntity();
+    eventEntity.setId(eventId);
+    eventEntity.setSummary("pushed event " + eventId);
+    ZoneId dstTimeZone = ZoneId.of("Europe/Paris");
+    ZonedDateTime startDate = ZonedDateTime.of(LocalDate.now(), LocalTime.of(10, 0), dstTimeZone);
+    eventEntity.setStart(AgendaDateUtils.toRFC3339Date(startDate));
+    eventEntity.setEnd(AgendaDateUtils.toRFC3339Date(startDate.plusHours(1)));
+    return eventEntity;
+  }
 }
@@ -0,0 +1,85 @@
+package org.exoplatform.agendaconnector.service;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.exoplatform.agendaconnector.model.ExchangeUserSetting;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+
+public class ExchangeCredentialValidatorTest {
+
+  private static final String SERVER_URL = "server.url";
+
+  @Test
+  public void testReuseCredentialValidation() {
+    // Given
+    ExchangeCredentialValidator exchangeCredentialValidator = new ExchangeCredentialValidator(null);
+    ExchangeUserSetting exchangeUserSetting = newExchangeUserSetting("password");
+
+    // When
+    exchangeCredentialValidator.markValidated(SERVER_URL, exchangeUserSetting);
+
+    // Then
+    assertTrue(exchangeCredentialValidator.isValidated(SERVER_URL, newExchangeUserSetting("password")));
+    assertFalse(exchangeCredentialValidator.isValidated(SERVER_URL, newExchangeUserSetting("otherPassword")));
+    assertFalse(exchangeCredentialValidator.isValidated("other.server.url", exchangeUserSetting));
+
+    // When
+    exchangeCredentialValidator.invalidate(SERVER_URL, exchangeUserSetting);
+
+    // Then
+    assertFalse(exchangeCredentialValidator.isValidated(SERVER_URL, exchangeUserSetting));
+  }
+
+  @Test
+  public void testCredentialValidationDisabled() {
+    // Given
+    ExchangeCredentialValidator exchangeCredentialValidator =
+                                                            new ExchangeCredentialValidator(newInitParams(ExchangeCredentialValidator.TTL_PARAM,
+                                                                                                          "0"));
+
+    // When
+    exchangeCredentialValidator.markValidated(SERVER_URL, newExchangeUserSetting("password"));
+
+    // Then
+    assertFalse(exchangeCredentialValidator.isValidated(SERVER_URL, newExchangeUserSetting("password")));
+  }
+
+  @Test
+  public void testEvictLeastRecentlyUsedValidation() {
+    // Given
+    ExchangeCredentialValidator exchangeCredentialValidator =
+                                                            new ExchangeCredentialValidator(newInitParams(ExchangeCredentialValidator.MAX_SIZE_PARAM,
+                                                                                                          "2"));
+    exchangeCredentialValidator.markValidated(SERVER_URL, newExchangeUserSetting("password1"));
+    exchangeCredentialValidator.markValidated(SERVER_URL, newExchangeUserSetting("password2"));
+    exchangeCredentialValidator.isValidated(SERVER_URL, newExchangeUserSetting("password1"));
+
+    // When
+    exchangeCredentialValidator.markValidated(SERVER_URL, newExchangeUserSetting("password3"));
+
+    // Then
+    assertTrue(exchangeCredentialValidator.isValidated(SERVER_URL, newExchangeUserSetting("password1")));
+    assertFalse(exchangeCredentialValidator.isValidated(SERVER_URL, newExchangeUserSetting("password2")));
+    assertTrue(exchangeCredentialValidator.isValidated(SERVER_URL, newExchangeUserSetting("password3")));
+  }
+
+  private ExchangeUserSetting newExchangeUserSetting(String password) {
+    ExchangeUserSetting exchangeUserSetting = new ExchangeUserSetting();
+    exchangeUserSetting.setUsername("validationUser");
+    exchangeUserSetting.setPassword(password);
+    return exchangeUserSetting;
+  }
+
+  private InitParams newInitParams(String name, String value) {
+    InitParams initParams = new InitParams();
+    ValueParam valueParam = new ValueParam();
+    valueParam.setName(name);
+    valueParam.setValue(value);
+    initParams.addParameter(valueParam);
+    return initParams;
+  }
+}
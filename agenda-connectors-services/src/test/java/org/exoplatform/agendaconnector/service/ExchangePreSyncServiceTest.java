@@ -0,0 +1,104 @@
+package org.exoplatform.agendaconnector.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.exoplatform.agendaconnector.model.ConnectorOperationMetric;
+import org.exoplatform.agendaconnector.storage.ExchangeConnectorStorage;
+
+public class ExchangePreSyncServiceTest {
+
+  private ExchangePreSyncService   exchangePreSyncService;
+
+  private ExchangeConnectorService exchangeConnectorService;
+
+  private ExchangeConnectorStorage exchangeConnectorStorage;
+
+  private ConnectorMetrics         connectorMetrics;
+
+  @Before
+  public void setUp() {
+    exchangeConnectorService = mock(ExchangeConnectorService.class);
+    exchangeConnectorStorage = mock(ExchangeConnectorStorage.class);
+    connectorMetrics = new ConnectorMetrics();
+    exchangePreSyncService = new ExchangePreSyncService(exchangeConnectorService,
+                                                        exchangeConnectorStorage,
+                                                        connectorMetrics,
+                                                        null);
+    exchangePreSyncService.start();
+  }
+
+  @After
+  public void tearDown() {
+    exchangePreSyncService.stop();
+  }
+
+  @Test
+  public void testPreSynchronize() throws Exception {
+    // Given
+    when(exchangeConnectorStorage.getExchangeConnectedUsers(0, 100)).thenReturn(Arrays.asList(1L, 2L));
+    doThrow(new IllegalAccessException("Exchange server unavailable")).when(exchangeConnectorService)
+                                                                      .refreshExchangeEvents(eq(2L), any(), any());
+
+    // When
+    exchangePreSyncService.preSynchronize();
+
+    // Then
+    verify(exchangeConnectorService, times(1)).refreshExchangeEvents(eq(1L), any(ZonedDateTime.class), any(ZonedDateTime.class));
+    verify(exchangeConnectorService, times(1)).refreshExchangeEvents(eq(2L), any(ZonedDateTime.class), any(ZonedDateTime.class));
+    assertEquals(1, getCount(ExchangePreSyncService.PRE_SYNCHRONIZE_OP, ConnectorMetrics.ERROR_OUTCOME));
+    assertEquals(1, getCount(ExchangePreSyncService.PRE_SYNCHRONIZE_USER_OP, ConnectorMetrics.SUCCESS_OUTCOME));
+    assertEquals(1, getCount(ExchangePreSyncService.PRE_SYNCHRONIZE_USER_OP, ConnectorMetrics.ERROR_OUTCOME));
+    assertEquals(Collections.singleton(2L), exchangePreSyncService.getFailedUsers().keySet());
+    assertTrue(exchangePreSyncService.getFailedUsers().get(2L).contains("Exchange server unavailable"));
+  }
+
+  @Test
+  public void testPreSynchronizeReportsTimedOutUsers() throws Exception {
+    // Given
+    when(exchangeConnectorStorage.getExchangeConnectedUsers(0, 100)).thenReturn(Arrays.asList(1L, 2L));
+    doThrow(new ExchangeUnavailableException("Exchange server busy", new TimeoutException())).when(exchangeConnectorService)
+                                                                                             .refreshExchangeEvents(eq(1L),
+                                                                                                                    any(),
+                                                                                                                    any());
+
+    // When
+    exchangePreSyncService.preSynchronize();
+
+    // Then
+    assertEquals(1, getCount(ExchangePreSyncService.PRE_SYNCHRONIZE_USER_OP, ConnectorMetrics.TIMEOUT_OUTCOME));
+    assertEquals(Collections.singleton(1L), exchangePreSyncService.getFailedUsers().keySet());
+
+    // When
+    doNothing().when(exchangeConnectorService).refreshExchangeEvents(eq(1L), any(), any());
+    exchangePreSyncService.preSynchronize();
+
+    // Then
+    assertTrue(exchangePreSyncService.getFailedUsers().isEmpty());
+  }
+
+  private long getCount(String operation, String outcome) {
+    return connectorMetrics.getMetrics()
+                           .stream()
+                           .filter(metric -> operation.equals(metric.getOperation()) && outcome.equals(metric.getOutcome()))
+                           .mapToLong(ConnectorOperationMetric::getCount)
+                           .sum();
+  }
+}
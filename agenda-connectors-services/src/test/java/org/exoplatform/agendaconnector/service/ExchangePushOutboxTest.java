@@ -0,0 +1,232 @@
+package org.exoplatform.agendaconnector.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.exoplatform.agenda.rest.model.EventEntity;
+import org.exoplatform.agendaconnector.model.ExchangeOutboxEntry;
+import org.exoplatform.agendaconnector.storage.ExchangeConnectorStorage;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+
+public class ExchangePushOutboxTest {
+
+  private ExchangePushOutbox             exchangePushOutbox;
+
+  private ExchangeConnectorService       exchangeConnectorService;
+
+  private ExchangeConnectorStorage       exchangeConnectorStorage;
+
+  private Map<Long, ExchangeOutboxEntry> outboxEntries;
+
+  @Before
+  public void setUp() {
+    exchangeConnectorService = mock(ExchangeConnectorService.class);
+    exchangeConnectorStorage = mock(ExchangeConnectorStorage.class);
+    outboxEntries = new ConcurrentHashMap<>();
+    doAnswer(invocation -> {
+      ExchangeOutboxEntry outboxEntry = invocation.getArgument(1);
+      outboxEntries.put(outboxEntry.getEvent().getId(), outboxEntry);
+      return null;
+    }).when(exchangeConnectorStorage).saveExchangeOutboxEntry(anyLong(), any());
+    doAnswer(invocation -> outboxEntries.remove((Long) invocation.getArgument(1))).when(exchangeConnectorStorage)
+                                                                                  .deleteExchangeOutboxEntry(anyLong(),
+                                                                                                             anyLong());
+    when(exchangeConnectorStorage.getExchangeOutboxEntry(anyLong(),
+                                                         anyLong())).thenAnswer(invocation -> outboxEntries.get((Long) invocation.getArgument(1)));
+    when(exchangeConnectorStorage.getExchangeOutboxEntries(anyLong())).thenAnswer(invocation -> new ArrayList<>(outboxEntries.values()));
+    when(exchangeConnectorStorage.getUsersWithPendingExchangeOutbox(0, 100)).thenReturn(Collections.emptyList());
+    exchangePushOutbox = new ExchangePushOutbox(exchangeConnectorService, exchangeConnectorStorage, newInitParams());
+    exchangePushOutbox.start();
+  }
+
+  @After
+  public void tearDown() {
+    exchangePushOutbox.stop();
+  }
+
+  @Test
+  public void testEnqueue() throws Exception {
+    // Given
+    EventEntity event = newEventEntity(1);
+
+    // When
+    exchangePushOutbox.enqueue(1, event, ZoneId.of("UTC"));
+
+    // Then
+    verify(exchangeConnectorService, timeout(5000)).pushEventToExchange(1, event, ZoneId.of("UTC"));
+    verify(exchangeConnectorStorage, timeout(5000)).deleteExchangeOutboxEntry(1, 1);
+    assertEquals(0, exchangePushOutbox.getPendingCount(1));
+  }
+
+  @Test
+  public void testRetryFailedPush() throws Exception {
+    // Given
+    EventEntity event = newEventEntity(1);
+    doThrow(new IllegalAccessException("Exchange server unavailable")).doNothing()
+                                                                      .when(exchangeConnectorService)
+                                                                      .pushEventToExchange(eq(1L), any(), any());
+
+    // When
+    exchangePushOutbox.enqueue(1, event, ZoneId.of("UTC"));
+
+    // Then
+    verify(exchangeConnectorService, timeout(5000).times(2)).pushEventToExchange(eq(1L), any(), any());
+    verify(exchangeConnectorStorage, timeout(5000)).deleteExchangeOutboxEntry(1, 1);
+    assertEquals(0, exchangePushOutbox.getPendingCount(1));
+  }
+
+  @Test
+  public void testAbandonPushAfterMaxAttempts() throws Exception {
+    // Given
+    doThrow(new IllegalAccessException("Exchange server unavailable")).when(exchangeConnectorService)
+                                                                      .pushEventToExchange(eq(1L), any(), any());
+
+    // When
+    exchangePushOutbox.enqueue(1, newEventEntity(1), ZoneId.of("UTC"));
+
+    // Then
+    verify(exchangeConnectorStorage, timeout(5000)).deleteExchangeOutboxEntry(1, 1);
+    verify(exchangeConnectorService, times(3)).pushEventToExchange(eq(1L), any(), any());
+  }
+
+  @Test
+  public void testRecoverPendingPushes() throws Exception {
+    // Given
+    EventEntity event = newEventEntity(2);
+    outboxEntries.put(2L, new ExchangeOutboxEntry(event, "UTC", 1, 0, 0, false, "stoppedNode", System.currentTimeMillis() - 1));
+    when(exchangeConnectorStorage.getUsersWithPendingExchangeOutbox(0, 100)).thenReturn(Collections.singletonList(1L));
+
+    // When
+    exchangePushOutbox.recoverPendingPushes();
+
+    // Then
+    verify(exchangeConnectorService, timeout(5000)).pushEventToExchange(1, event, ZoneId.of("UTC"));
+    verify(exchangeConnectorStorage, timeout(5000)).deleteExchangeOutboxEntry(1, 2);
+  }
+
+  @Test
+  public void testDontRecoverPushesLeasedByLiveNode() throws Exception {
+    // Given
+    EventEntity event = newEventEntity(3);
+    // Retried later by its node, which renewed its lease until then
+    long nextAttemptTime = System.currentTimeMillis() + 60000;
+    outboxEntries.put(3L, new ExchangeOutboxEntry(event, "UTC", 1, 2, nextAttemptTime, false, "liveNode", nextAttemptTime + 300000));
+    when(exchangeConnectorStorage.getUsersWithPendingExchangeOutbox(0, 100)).thenReturn(Collections.singletonList(1L));
+
+    // When
+    exchangePushOutbox.recoverPendingPushes();
+
+    // Then
+    verify(exchangeConnectorService, after(500).never()).pushEventToExchange(anyLong(), any(), any());
+    assertEquals(1, exchangePushOutbox.getPendingCount(1));
+  }
+
+  @Test
+  public void testDeleteEventAfterRunningPush() throws Exception {
+    // Given
+    EventEntity event = newEventEntity(4);
+    CountDownLatch pushStarted = new CountDownLatch(1);
+    CountDownLatch pushReleased = new CountDownLatch(1);
+    List<String> exchangeWrites = new CopyOnWriteArrayList<>();
+    doAnswer(invocation -> {
+      pushStarted.countDown();
+      pushReleased.await(5, TimeUnit.SECONDS);
+      exchangeWrites.add("push");
+      return null;
+    }).when(exchangeConnectorService).pushEventToExchange(eq(1L), any(), any());
+    doAnswer(invocation -> exchangeWrites.add("delete")).when(exchangeConnectorService).deleteExchangeEvent(1, 4);
+    exchangePushOutbox.enqueue(1, event, ZoneId.of("UTC"));
+    assertTrue(pushStarted.await(5, TimeUnit.SECONDS));
+
+    // When
+    exchangePushOutbox.deleteEvent(1, 4);
+    pushReleased.countDown();
+
+    // Then
+    verify(exchangeConnectorStorage, timeout(5000)).deleteExchangeOutboxEntry(1, 4);
+    assertEquals(Arrays.asList("push", "delete"), exchangeWrites);
+    assertEquals(0, exchangePushOutbox.getPendingCount(1));
+  }
+
+  @Test
+  public void testDeleteEventLeasedByOtherNode() throws Exception {
+    // Given
+    EventEntity event = newEventEntity(5);
+    outboxEntries.put(5L, new ExchangeOutboxEntry(event, "UTC", 1, 0, 0, false, "otherNode", System.currentTimeMillis() + 60000));
+
+    // When
+    exchangePushOutbox.deleteEvent(1, 5);
+
+    // Then
+    verify(exchangeConnectorService, after(500).never()).deleteExchangeEvent(anyLong(), anyLong());
+    ExchangeOutboxEntry outboxEntry = outboxEntries.get(5L);
+    assertTrue(outboxEntry.isDeletion());
+    assertEquals("otherNode", outboxEntry.getOwner());
+  }
+
+  @Test
+  public void testDeleteEventsWithoutPendingPush() throws Exception {
+    // Given
+    outboxEntries.put(7L, new ExchangeOutboxEntry(newEventEntity(7), "UTC", 1, 0, 0, false, "otherNode", System.currentTimeMillis() + 60000));
+    when(exchangeConnectorService.deleteExchangeEvents(1, Collections.singletonList(6L))).thenReturn(Collections.singletonList(6L));
+
+    // When
+    List<Long> notDeletedEventIds = exchangePushOutbox.deleteEvents(1, Arrays.asList(6L, 7L));
+
+    // Then
+    assertEquals(Collections.singletonList(6L), notDeletedEventIds);
+    verify(exchangeConnectorService).deleteExchangeEvents(1, Collections.singletonList(6L));
+    assertTrue(outboxEntries.get(7L).isDeletion());
+  }
+
+  private EventEntity newEventEntity(long eventId) {
+    EventEntity event = new EventEntity();
+    event.setId(eventId);
+    event.setSummary("summary");
+    event.setStart("2022-06-01T10:00:00Z");
+    event.setEnd("2022-06-01T11:00:00Z");
+    return event;
+  }
+
+  private InitParams newInitParams() {
+    InitParams initParams = new InitParams();
+    initParams.addParameter(newValueParam(ExchangePushOutbox.MAX_ATTEMPTS_PARAM, "3"));
+    initParams.addParameter(newValueParam(ExchangePushOutbox.INITIAL_BACKOFF_PARAM, "0"));
+    return initParams;
+  }
+
+  private ValueParam newValueParam(String name, String value) {
+    ValueParam valueParam = new ValueParam();
+    valueParam.setName(name);
+    valueParam.setValue(value);
+    return valueParam;
+  }
+}
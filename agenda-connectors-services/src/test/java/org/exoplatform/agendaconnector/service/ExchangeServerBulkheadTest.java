@@ -0,0 +1,135 @@
+package org.exoplatform.agendaconnector.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import org.exoplatform.agendaconnector.service.ExchangeSessionPool.OperationType;
+
+import microsoft.exchange.webservices.data.core.enumeration.misc.error.ServiceError;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceResponseException;
+import microsoft.exchange.webservices.data.core.response.ServiceResponse;
+import microsoft.exchange.webservices.data.core.response.ServiceResponseCollection;
+
+public class ExchangeServerBulkheadTest {
+
+  @Test
+  public void testRejectWhenNoPermitAvailable() throws Exception {
+    // Given
+    ExchangeServerBulkhead bulkhead = new ExchangeServerBulkhead("server.url", 1, 1, 1, 10, 50, 1000);
+    bulkhead.acquire();
+
+    // When
+    try {
+      bulkhead.acquire();
+      fail("Operation shouldn't get a permit");
+    } catch (TimeoutException e) {
+      // Expected
+    }
+
+    // Then
+    assertEquals(1, bulkhead.getInFlight());
+    assertEquals(1, bulkhead.getRejectedCount());
+    bulkhead.release(OperationType.LIST, 10, null);
+    bulkhead.acquire();
+    assertEquals(1, bulkhead.getInFlight());
+  }
+
+  @Test
+  public void testBackOffWhenServerIsBusy() throws Exception {
+    // Given
+    ExchangeServerBulkhead bulkhead = new ExchangeServerBulkhead("server.url", 1, 10, 8, 10, 5000, 1000);
+    ServiceResponse serviceResponse = mock(ServiceResponse.class);
+    when(serviceResponse.getErrorDetails()).thenReturn(Collections.singletonMap("BackOffMilliseconds", "200"));
+    ServiceResponseException serverBusy = mock(ServiceResponseException.class);
+    when(serverBusy.getErrorCode()).thenReturn(ServiceError.ErrorServerBusy);
+    when(serverBusy.getResponse()).thenReturn(serviceResponse);
+    bulkhead.acquire();
+
+    // When
+    bulkhead.release(OperationType.LIST, 10, serverBusy);
+    long startTime = System.currentTimeMillis();
+    bulkhead.acquire();
+
+    // Then
+    assertTrue(System.currentTimeMillis() - startTime >= 150);
+    assertEquals(4, bulkhead.getPermits());
+    assertEquals(1, bulkhead.getThrottledCount());
+  }
+
+  @Test
+  public void testAdaptPermitsToLatency() throws Exception {
+    // Given
+    ExchangeServerBulkhead bulkhead = new ExchangeServerBulkhead("server.url", 1, 10, 2, 10, 1000, 1000);
+
+    // When
+    for (int i = 0; i < 10; i++) {
+      bulkhead.acquire();
+      bulkhead.acquire();
+      bulkhead.release(OperationType.LIST, 10, null);
+      bulkhead.release(OperationType.LIST, 10, null);
+    }
+    int increasedPermits = bulkhead.getPermits();
+    bulkhead.acquire();
+    bulkhead.release(OperationType.LIST, 1000, null);
+
+    // Then
+    assertTrue(increasedPermits > 2);
+    assertTrue(bulkhead.getPermits() < increasedPermits || increasedPermits == 10);
+  }
+
+  @Test
+  public void testKeepLatencyBaselinePerOperationType() throws Exception {
+    // Given
+    ExchangeServerBulkhead bulkhead = new ExchangeServerBulkhead("server.url", 1, 10, 4, 10, 1000, 1000);
+    bulkhead.acquire();
+    bulkhead.release(OperationType.LIST, 10, null);
+
+    // When
+    bulkhead.acquire();
+    bulkhead.release(OperationType.PUSH, 1000, null);
+
+    // Then
+    assertEquals(4, bulkhead.getPermits());
+
+    // When
+    bulkhead.acquire();
+    bulkhead.release(OperationType.LIST, 1000, null);
+
+    // Then
+    assertEquals(3, bulkhead.getPermits());
+  }
+
+  @Test
+  public void testBackOffWhenBatchItemIsRefused() throws Exception {
+    // Given
+    ExchangeServerBulkhead bulkhead = new ExchangeServerBulkhead("server.url", 1, 10, 8, 10, 5000, 1000);
+    ServiceResponse successResponse = mock(ServiceResponse.class);
+    when(successResponse.getErrorCode()).thenReturn(ServiceError.NoError);
+    ServiceResponse serverBusyResponse = mock(ServiceResponse.class);
+    when(serverBusyResponse.getErrorCode()).thenReturn(ServiceError.ErrorServerBusy);
+    when(serverBusyResponse.getErrorDetails()).thenReturn(Collections.singletonMap("BackOffMilliseconds", "200"));
+    ServiceResponseCollection<ServiceResponse> responses = new ServiceResponseCollection<>();
+    responses.add(successResponse);
+    responses.add(serverBusyResponse);
+    bulkhead.acquire();
+
+    // When
+    bulkhead.onResponses(responses);
+    bulkhead.release(OperationType.PUSH, 10, null);
+    long startTime = System.currentTimeMillis();
+    bulkhead.acquire();
+
+    // Then
+    assertTrue(System.currentTimeMillis() - startTime >= 150);
+    assertEquals(4, bulkhead.getPermits());
+    assertEquals(1, bulkhead.getThrottledCount());
+  }
+}
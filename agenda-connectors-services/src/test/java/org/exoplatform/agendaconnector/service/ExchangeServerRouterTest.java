@@ -0,0 +1,110 @@
+package org.exoplatform.agendaconnector.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ConnectException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+
+import microsoft.exchange.webservices.data.core.exception.http.HttpErrorException;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceRequestException;
+
+public class ExchangeServerRouterTest {
+
+  private ExchangeServerRouter exchangeServerRouter;
+
+  @After
+  public void tearDown() {
+    System.clearProperty("exo.exchange.server.url");
+  }
+
+  @Before
+  public void setUp() {
+    System.setProperty("exo.exchange.server.url", "https://default.server");
+    InitParams initParams = new InitParams();
+    initParams.addParameter(newValueParam(ExchangeServerRouter.ROUTES_PARAM,
+                                          "site1.com=https://cas1.site1.com,https://cas2.site1.com/;site2.com=https://cas.site2.com"));
+    initParams.addParameter(newValueParam(ExchangeServerRouter.FAILURE_THRESHOLD_PARAM, "2"));
+    exchangeServerRouter = new ExchangeServerRouter(initParams);
+  }
+
+  @Test
+  public void testResolveByDomain() {
+    assertEquals("https://cas.site2.com", exchangeServerRouter.resolve("user@site2.com"));
+    assertEquals("https://cas.site2.com", exchangeServerRouter.resolve("user@emea.SITE2.com"));
+    assertEquals("https://default.server", exchangeServerRouter.resolve("user@other.com"));
+    assertEquals("https://default.server", exchangeServerRouter.resolve("DOMAIN\\user"));
+    assertEquals("https://default.server", exchangeServerRouter.resolve("user"));
+    assertTrue(exchangeServerRouter.resolve("user@site1.com").startsWith("https://cas"));
+  }
+
+  @Test
+  public void testResolveChangedDefaultEndpoints() {
+    assertEquals("https://default.server", exchangeServerRouter.resolve("user@other.com"));
+
+    System.setProperty("exo.exchange.server.url", "https://new.server/");
+
+    assertEquals("https://new.server", exchangeServerRouter.resolve("user@other.com"));
+    assertTrue(exchangeServerRouter.getEndpointsHealth().containsKey("https://new.server"));
+    assertFalse(exchangeServerRouter.getEndpointsHealth().containsKey("https://default.server"));
+  }
+
+  @Test
+  public void testStickyEndpointFailover() {
+    String endpoint = exchangeServerRouter.resolve("user@site1.com");
+    assertEquals(endpoint, exchangeServerRouter.resolve("user@site1.com"));
+
+    // Authentication errors don't affect the endpoint health
+    ServiceRequestException unauthorized = new ServiceRequestException("Unauthorized",
+                                                                       new HttpErrorException("Unauthorized", 401));
+    exchangeServerRouter.reportFailure(endpoint, unauthorized);
+    exchangeServerRouter.reportFailure(endpoint, unauthorized);
+    assertTrue(exchangeServerRouter.isHealthy(endpoint));
+
+    exchangeServerRouter.reportFailure(endpoint, new ConnectException());
+    exchangeServerRouter.reportFailure(endpoint, new ConnectException());
+    assertFalse(exchangeServerRouter.isHealthy(endpoint));
+    String failoverEndpoint = exchangeServerRouter.resolve("user@site1.com");
+    assertNotEquals(endpoint, failoverEndpoint);
+    assertEquals(failoverEndpoint, exchangeServerRouter.resolve("user@site1.com"));
+
+    exchangeServerRouter.reportSuccess(endpoint);
+    assertTrue(exchangeServerRouter.isHealthy(endpoint));
+    // The mailbox sticks to its new endpoint while it's healthy
+    assertEquals(failoverEndpoint, exchangeServerRouter.resolve("user@site1.com"));
+  }
+
+  @Test
+  public void testEvictLeastRecentlyResolvedMailbox() {
+    InitParams initParams = new InitParams();
+    initParams.addParameter(newValueParam(ExchangeServerRouter.ROUTES_PARAM,
+                                          "site1.com=https://cas1.site1.com,https://cas2.site1.com"));
+    initParams.addParameter(newValueParam(ExchangeServerRouter.FAILURE_THRESHOLD_PARAM, "1"));
+    initParams.addParameter(newValueParam(ExchangeServerRouter.MAX_STICKY_MAILBOXES_PARAM, "1"));
+    exchangeServerRouter = new ExchangeServerRouter(initParams);
+    String endpoint = exchangeServerRouter.resolve("user@site1.com");
+    exchangeServerRouter.reportFailure(endpoint, new ConnectException());
+    String failoverEndpoint = exchangeServerRouter.resolve("user@site1.com");
+    exchangeServerRouter.reportSuccess(endpoint);
+    assertEquals(failoverEndpoint, exchangeServerRouter.resolve("user@site1.com"));
+
+    // Resolving another mailbox evicts the sticky endpoint of the first one
+    exchangeServerRouter.resolve("other@site1.com");
+    assertEquals(endpoint, exchangeServerRouter.resolve("user@site1.com"));
+  }
+
+  private ValueParam newValueParam(String name, String value) {
+    ValueParam valueParam = new ValueParam();
+    valueParam.setName(name);
+    valueParam.setValue(value);
+    return valueParam;
+  }
+}
@@ -0,0 +1,82 @@
+package org.exoplatform.agendaconnector.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.exoplatform.agendaconnector.model.ExchangeUserSetting;
+import org.exoplatform.agendaconnector.service.ExchangeSessionPool.OperationType;
+import org.exoplatform.agendaconnector.utils.ExchangeDeadline;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+
+public class ExchangeSessionPoolTest {
+
+  private ExchangeSessionPool exchangeSessionPool;
+
+  @Before
+  public void setUp() {
+    System.setProperty("exo.exchange.server.url", "server.url");
+    exchangeSessionPool = new ExchangeSessionPool(new ExchangeServerRouter(null),
+                                                  new ConnectorMetrics(),
+                                                  new ExchangeCredentialValidator(null),
+                                                  null);
+  }
+
+  @After
+  public void tearDown() {
+    ExchangeDeadline.clear();
+    exchangeSessionPool.stop();
+  }
+
+  @Test
+  public void testOperationTimeoutBoundedByDeadline() {
+    assertEquals(30000, exchangeSessionPool.getOperationTimeout(OperationType.LIST));
+    ExchangeDeadline.set(System.currentTimeMillis() + 1000);
+    long timeout = ExchangeDeadline.getTimeout(exchangeSessionPool.getOperationTimeout(OperationType.LIST));
+    assertTrue(timeout > 0 && timeout <= 1000);
+  }
+
+  @Test
+  public void testExecuteAfterDeadline() throws Exception {
+    ExchangeDeadline.set(System.currentTimeMillis() - 1);
+    try {
+      exchangeSessionPool.execute(1, new ExchangeUserSetting(), OperationType.PUSH, exchangeService -> {
+        fail("Operation shouldn't be executed once the request deadline is reached");
+        return null;
+      });
+      fail("Operation should time out");
+    } catch (TimeoutException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testApplyRemainingTimeoutBeforeEachRequest() throws Exception {
+    ExchangeService exchangeService = mock(ExchangeService.class);
+    long deadline = System.currentTimeMillis() + 1000;
+    ExchangeDeadline.applyTimeout(exchangeService, deadline);
+    ArgumentCaptor<Integer> timeout = ArgumentCaptor.forClass(Integer.class);
+    verify(exchangeService).setTimeout(timeout.capture());
+    assertTrue(timeout.getValue() > 0 && timeout.getValue() <= 1000);
+
+    try {
+      ExchangeDeadline.applyTimeout(exchangeService, System.currentTimeMillis() - 1);
+      fail("Request shouldn't be sent once the deadline is reached");
+    } catch (ExchangeUnavailableException e) {
+      assertTrue(e.isTimeout());
+    }
+    verify(exchangeService, times(1)).setTimeout(anyInt());
+  }
+}
@@ -0,0 +1,188 @@
+package org.exoplatform.agendaconnector.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import org.exoplatform.agendaconnector.model.ConnectorOperationMetric;
+import org.exoplatform.agendaconnector.model.ExchangeUserSetting;
+import org.exoplatform.agendaconnector.service.ExchangeSessionPool.DedicatedSession;
+import org.exoplatform.agendaconnector.service.ExchangeSessionPool.ExchangeOperation;
+import org.exoplatform.agendaconnector.service.ExchangeSessionPool.OperationType;
+import org.exoplatform.agendaconnector.storage.ExchangeConnectorStorage;
+import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.listener.ListenerService;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.enumeration.misc.error.ServiceError;
+import microsoft.exchange.webservices.data.core.enumeration.notification.EventType;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceResponseException;
+import microsoft.exchange.webservices.data.notification.GetEventsResults;
+import microsoft.exchange.webservices.data.notification.ItemEvent;
+import microsoft.exchange.webservices.data.notification.PullSubscription;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ ExchangeConnectorUtils.class, ExchangeService.class, PullSubscription.class, GetEventsResults.class,
+    ItemEvent.class })
+public class ExchangeSubscriptionManagerTest {
+
+  private ExchangeSubscriptionManager exchangeSubscriptionManager;
+
+  private ExchangeConnectorStorage    exchangeConnectorStorage;
+
+  private ListenerService             listenerService;
+
+  private ExchangeService             exchangeService;
+
+  private PullSubscription            pullSubscription;
+
+  private ExchangeSessionPool         exchangeSessionPool;
+
+  private ConnectorMetrics            connectorMetrics;
+
+  @Before
+  public void setUp() throws Exception {
+    exchangeConnectorStorage = mock(ExchangeConnectorStorage.class);
+    listenerService = mock(ListenerService.class);
+    exchangeService = PowerMockito.mock(ExchangeService.class);
+    pullSubscription = PowerMockito.mock(PullSubscription.class);
+    ExchangeUserSetting exchangeUserSetting = new ExchangeUserSetting();
+    exchangeUserSetting.setUsername("username");
+    exchangeUserSetting.setPassword("password");
+    exchangeUserSetting.setCredentialChecked(true);
+    when(exchangeConnectorStorage.getExchangeSetting(1)).thenReturn(exchangeUserSetting);
+    System.setProperty("exo.exchange.server.url", "server.url");
+    PowerMockito.whenNew(ExchangeService.class).withArguments(any()).thenReturn(exchangeService);
+    when(exchangeService.subscribeToPullNotifications(any(), anyInt(), any(), any(EventType[].class))).thenReturn(pullSubscription);
+    when(pullSubscription.getWaterMark()).thenReturn("watermark");
+    exchangeSessionPool = spy(new ExchangeSessionPool(new ExchangeServerRouter(null),
+                                                      new ConnectorMetrics(),
+                                                      new ExchangeCredentialValidator(null),
+                                                      null));
+    connectorMetrics = new ConnectorMetrics();
+    exchangeSubscriptionManager = new ExchangeSubscriptionManager(exchangeConnectorStorage,
+                                                                  exchangeSessionPool,
+                                                                  connectorMetrics,
+                                                                  listenerService,
+                                                                  newInitParams("1"));
+    exchangeSubscriptionManager.start();
+  }
+
+  @After
+  public void tearDown() {
+    exchangeSubscriptionManager.stop();
+  }
+
+  @Test
+  public void testSubscribeLimit() {
+    assertTrue(exchangeSubscriptionManager.subscribe(1));
+    assertFalse(exchangeSubscriptionManager.subscribe(2));
+    assertEquals(1, exchangeSubscriptionManager.getSubscriptionsCount());
+
+    exchangeSubscriptionManager.unsubscribe(1);
+    assertFalse(exchangeSubscriptionManager.isSubscribed(1));
+    assertTrue(exchangeSubscriptionManager.subscribe(2));
+  }
+
+  @Test
+  public void testPollCalendarChanges() throws Exception {
+    // Given
+    GetEventsResults eventsResults = PowerMockito.mock(GetEventsResults.class);
+    ItemEvent itemEvent = PowerMockito.mock(ItemEvent.class);
+    when(eventsResults.getItemEvents()).thenReturn(Collections.singletonList(itemEvent));
+    when(pullSubscription.getEvents()).thenReturn(eventsResults);
+    exchangeSubscriptionManager.subscribe(1);
+
+    // When
+    exchangeSubscriptionManager.pollSubscriptions();
+
+    // Then
+    verify(listenerService, timeout(5000)).broadcast(ExchangeSubscriptionManager.EXCHANGE_CALENDAR_CHANGED_EVENT, 1L, 1);
+    verify(exchangeService, times(1)).subscribeToPullNotifications(any(), eq(30), any(), any(EventType[].class));
+    verify(exchangeSessionPool, times(1)).execute(any(ExchangeUserSetting.class),
+                                                  any(DedicatedSession.class),
+                                                  eq(OperationType.LIST),
+                                                  any(ExchangeOperation.class));
+    Set<String> operations = connectorMetrics.getMetrics()
+                                             .stream()
+                                             .map(ConnectorOperationMetric::getOperation)
+                                             .collect(Collectors.toSet());
+    assertTrue(operations.contains("subscribeToPullNotifications"));
+    assertTrue(operations.contains("getSubscriptionEvents"));
+  }
+
+  @Test
+  public void testPollWithoutExchangeSetting() throws Exception {
+    // Given
+    when(exchangeConnectorStorage.getExchangeSetting(1)).thenReturn(new ExchangeUserSetting());
+    exchangeSubscriptionManager.subscribe(1);
+
+    // When
+    exchangeSubscriptionManager.pollSubscriptions();
+
+    // Then
+    verify(exchangeConnectorStorage, timeout(5000)).getExchangeSetting(1);
+    Thread.sleep(100);
+    verify(exchangeService, never()).subscribeToPullNotifications(any(), anyInt(), any(), any(EventType[].class));
+  }
+
+  @Test
+  public void testResubscribeWhenSubscriptionIsLost() throws Exception {
+    // Given
+    ServiceResponseException subscriptionNotFound = mock(ServiceResponseException.class);
+    when(subscriptionNotFound.getErrorCode()).thenReturn(ServiceError.ErrorSubscriptionNotFound);
+    GetEventsResults eventsResults = PowerMockito.mock(GetEventsResults.class);
+    when(eventsResults.getItemEvents()).thenReturn(Collections.emptyList());
+    when(pullSubscription.getEvents()).thenReturn(eventsResults).thenThrow(subscriptionNotFound).thenReturn(eventsResults);
+    exchangeSubscriptionManager.subscribe(1);
+
+    // When
+    exchangeSubscriptionManager.pollSubscriptions();
+    verify(pullSubscription, timeout(5000).times(1)).getEvents();
+    Thread.sleep(100);
+    exchangeSubscriptionManager.pollSubscriptions();
+
+    // Then
+    verify(exchangeService, timeout(5000).times(2)).subscribeToPullNotifications(any(),
+                                                                                anyInt(),
+                                                                                any(),
+                                                                                any(EventType[].class));
+    verify(exchangeService, timeout(5000)).subscribeToPullNotifications(any(),
+                                                                       anyInt(),
+                                                                       eq("watermark"),
+                                                                       any(EventType[].class));
+  }
+
+  private InitParams newInitParams(String maxSubscriptions) {
+    InitParams initParams = new InitParams();
+    ValueParam maxSubscriptionsParam = new ValueParam();
+    maxSubscriptionsParam.setName(ExchangeSubscriptionManager.MAX_SUBSCRIPTIONS_PARAM);
+    maxSubscriptionsParam.setValue(maxSubscriptions);
+    initParams.addParameter(maxSubscriptionsParam);
+    return initParams;
+  }
+}
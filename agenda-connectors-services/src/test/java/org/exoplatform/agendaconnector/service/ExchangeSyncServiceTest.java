@@ -0,0 +1,260 @@
+package org.exoplatform.agendaconnector.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import org.exoplatform.agendaconnector.model.ExchangeSyncedEvent;
+import org.exoplatform.agendaconnector.storage.ExchangeConnectorStorage;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.PropertyBag;
+import microsoft.exchange.webservices.data.core.PropertySet;
+import microsoft.exchange.webservices.data.core.enumeration.service.SyncFolderItemsScope;
+import microsoft.exchange.webservices.data.core.enumeration.sync.ChangeType;
+import microsoft.exchange.webservices.data.core.service.item.Item;
+import microsoft.exchange.webservices.data.core.service.schema.AppointmentSchema;
+import microsoft.exchange.webservices.data.property.complex.FolderId;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
+import microsoft.exchange.webservices.data.property.definition.PropertyDefinition;
+import microsoft.exchange.webservices.data.sync.ChangeCollection;
+import microsoft.exchange.webservices.data.sync.ItemChange;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ ExchangeService.class })
+public class ExchangeSyncServiceTest {
+
+  private ExchangeSyncService      exchangeSyncService;
+
+  private ExchangeConnectorStorage exchangeConnectorStorage;
+
+  private ExchangeService          exchangeService;
+
+  private Map<Long, ExchangeSyncedCalendar> cachedCalendars;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Exception {
+    exchangeConnectorStorage = mock(ExchangeConnectorStorage.class);
+    exchangeService = PowerMockito.mock(ExchangeService.class);
+    cachedCalendars = new HashMap<>();
+    ExoCache<Long, ExchangeSyncedCalendar> syncedCalendarCache = mock(ExoCache.class);
+    when(syncedCalendarCache.get(anyLong())).thenAnswer(invocation -> cachedCalendars.get(invocation.getArgument(0)));
+    doAnswer(invocation -> cachedCalendars.put(invocation.getArgument(0),
+                                               invocation.getArgument(1))).when(syncedCalendarCache).put(anyLong(), any());
+    doAnswer(invocation -> cachedCalendars.put(invocation.getArgument(0),
+                                               invocation.getArgument(1))).when(syncedCalendarCache).putLocal(anyLong(), any());
+    when(syncedCalendarCache.remove(anyLong())).thenAnswer(invocation -> cachedCalendars.remove(invocation.getArgument(0)));
+    CacheService cacheService = mock(CacheService.class);
+    when(cacheService.getCacheInstance(ExchangeSyncService.SYNCED_CALENDAR_CACHE_NAME)).thenAnswer(invocation -> syncedCalendarCache);
+    exchangeSyncService = new ExchangeSyncService(exchangeConnectorStorage, cacheService, null);
+  }
+
+  @Test
+  public void testSynchronize() throws Exception {
+    // Given
+    HashMap<String, ExchangeSyncedEvent> syncedEvents = new HashMap<>();
+    syncedEvents.put("deletedId", new ExchangeSyncedEvent("deletedId", "deleted", 0, 1));
+    syncedEvents.put("updatedId", new ExchangeSyncedEvent("updatedId", "summary", 0, 1));
+    when(exchangeConnectorStorage.getExchangeSyncedCalendar(1)).thenReturn(new ExchangeSyncedCalendar("syncState1", syncedEvents));
+
+    ChangeCollection<ItemChange> firstChanges = new ChangeCollection<>();
+    firstChanges.add(newItemChange(ChangeType.Create, mockExchangeEventItem("createdId", "created", 10, 20)));
+    firstChanges.add(newItemChange(ChangeType.Update, mockExchangeEventItem("updatedId", "updated", 30, 40)));
+    firstChanges.setSyncState("syncState2");
+    firstChanges.setMoreChangesAvailable(true);
+    ChangeCollection<ItemChange> secondChanges = new ChangeCollection<>();
+    ItemChange deleteChange = new ItemChange();
+    deleteChange.setChangeType(ChangeType.Delete);
+    deleteChange.setId(new ItemId("deletedId"));
+    secondChanges.add(deleteChange);
+    secondChanges.setSyncState("syncState3");
+    when(exchangeService.syncFolderItems(any(FolderId.class),
+                                         any(PropertySet.class),
+                                         isNull(),
+                                         anyInt(),
+                                         eq(SyncFolderItemsScope.NormalItems),
+                                         eq("syncState1"))).thenReturn(firstChanges);
+    when(exchangeService.syncFolderItems(any(FolderId.class),
+                                         any(PropertySet.class),
+                                         isNull(),
+                                         anyInt(),
+                                         eq(SyncFolderItemsScope.NormalItems),
+                                         eq("syncState2"))).thenReturn(secondChanges);
+
+    // When
+    Map<String, ExchangeSyncedEvent> result = exchangeSyncService.synchronize(1, exchangeService);
+
+    // Then
+    assertEquals(2, result.size());
+    assertFalse(result.containsKey("deletedId"));
+    assertTrue(result.containsKey("createdId"));
+    assertEquals("updated", result.get("updatedId").getSummary());
+    assertEquals(30, result.get("updatedId").getStartTime());
+    // Both batches are stored at once
+    ArgumentCaptor<ExchangeSyncedCalendar> savedCalendar = ArgumentCaptor.forClass(ExchangeSyncedCalendar.class);
+    verify(exchangeConnectorStorage, times(1)).saveExchangeSyncedCalendar(eq(1L), savedCalendar.capture());
+    assertEquals("syncState3", savedCalendar.getValue().getSyncState());
+    assertEquals(result, savedCalendar.getValue().getEvents());
+  }
+
+  @Test
+  public void testSynchronizeStoresAppliedBatchesWhenInterrupted() throws Exception {
+    // Given
+    when(exchangeConnectorStorage.getExchangeSyncedCalendar(1)).thenReturn(new ExchangeSyncedCalendar("syncState1",
+                                                                                                       new HashMap<>()));
+    ChangeCollection<ItemChange> firstChanges = new ChangeCollection<>();
+    firstChanges.add(newItemChange(ChangeType.Create, mockExchangeEventItem("createdId", "created", 10, 20)));
+    firstChanges.setSyncState("syncState2");
+    firstChanges.setMoreChangesAvailable(true);
+    when(exchangeService.syncFolderItems(any(FolderId.class),
+                                         any(PropertySet.class),
+                                         isNull(),
+                                         anyInt(),
+                                         eq(SyncFolderItemsScope.NormalItems),
+                                         eq("syncState1"))).thenReturn(firstChanges);
+    when(exchangeService.syncFolderItems(any(FolderId.class),
+                                         any(PropertySet.class),
+                                         isNull(),
+                                         anyInt(),
+                                         eq(SyncFolderItemsScope.NormalItems),
+                                         eq("syncState2"))).thenThrow(new IllegalStateException("Connection reset"));
+
+    // When
+    assertThrows(IllegalStateException.class, () -> exchangeSyncService.synchronize(1, exchangeService));
+
+    // Then
+    ArgumentCaptor<ExchangeSyncedCalendar> savedCalendar = ArgumentCaptor.forClass(ExchangeSyncedCalendar.class);
+    verify(exchangeConnectorStorage).saveExchangeSyncedCalendar(eq(1L), savedCalendar.capture());
+    assertEquals("syncState2", savedCalendar.getValue().getSyncState());
+    assertTrue(savedCalendar.getValue().getEvents().containsKey("createdId"));
+    assertEquals("syncState2", cachedCalendars.get(1L).getSyncState());
+  }
+
+  @Test
+  public void testDontStoreTooBigSynchronizedCalendar() throws Exception {
+    // Given
+    InitParams initParams = new InitParams();
+    ValueParam maxStoredEventsParam = new ValueParam();
+    maxStoredEventsParam.setName(ExchangeSyncService.MAX_STORED_EVENTS_PARAM);
+    maxStoredEventsParam.setValue("1");
+    initParams.addParameter(maxStoredEventsParam);
+    CacheService cacheService = mock(CacheService.class);
+    when(cacheService.getCacheInstance(ExchangeSyncService.SYNCED_CALENDAR_CACHE_NAME)).thenAnswer(invocation -> mock(ExoCache.class));
+    exchangeSyncService = new ExchangeSyncService(exchangeConnectorStorage, cacheService, initParams);
+    ChangeCollection<ItemChange> changes = new ChangeCollection<>();
+    changes.add(newItemChange(ChangeType.Create, mockExchangeEventItem("firstId", "first", 10, 20)));
+    changes.add(newItemChange(ChangeType.Create, mockExchangeEventItem("secondId", "second", 30, 40)));
+    changes.setSyncState("syncState1");
+    when(exchangeService.syncFolderItems(any(FolderId.class),
+                                         any(PropertySet.class),
+                                         isNull(),
+                                         anyInt(),
+                                         eq(SyncFolderItemsScope.NormalItems),
+                                         isNull())).thenReturn(changes);
+
+    // When
+    Map<String, ExchangeSyncedEvent> result = exchangeSyncService.synchronize(1, exchangeService);
+
+    // Then
+    assertEquals(2, result.size());
+    verify(exchangeConnectorStorage, never()).saveExchangeSyncedCalendar(anyLong(), any());
+    verify(exchangeConnectorStorage).deleteExchangeSyncData(1);
+  }
+
+  @Test
+  public void testSynchronizeWithoutChanges() throws Exception {
+    // Given
+    HashMap<String, ExchangeSyncedEvent> syncedEvents = new HashMap<>();
+    syncedEvents.put("eventId", new ExchangeSyncedEvent("eventId", "summary", 0, 1));
+    when(exchangeConnectorStorage.getExchangeSyncedCalendar(1)).thenReturn(new ExchangeSyncedCalendar("syncState1", syncedEvents));
+    ChangeCollection<ItemChange> noChanges = new ChangeCollection<>();
+    noChanges.setSyncState("syncState1");
+    when(exchangeService.syncFolderItems(any(FolderId.class),
+                                         any(PropertySet.class),
+                                         isNull(),
+                                         anyInt(),
+                                         eq(SyncFolderItemsScope.NormalItems),
+                                         eq("syncState1"))).thenReturn(noChanges);
+
+    // When
+    exchangeSyncService.synchronize(1, exchangeService);
+    Map<String, ExchangeSyncedEvent> result = exchangeSyncService.synchronize(1, exchangeService);
+
+    // Then
+    assertEquals(1, result.size());
+    assertTrue(result.containsKey("eventId"));
+    verify(exchangeConnectorStorage, times(1)).getExchangeSyncedCalendar(1);
+    verify(exchangeConnectorStorage, never()).saveExchangeSyncedCalendar(anyLong(), any());
+  }
+
+  @Test
+  public void testResetSynchronization() throws Exception {
+    // Given
+    ChangeCollection<ItemChange> changes = new ChangeCollection<>();
+    changes.setSyncState("syncState1");
+    when(exchangeService.syncFolderItems(any(FolderId.class),
+                                         any(PropertySet.class),
+                                         isNull(),
+                                         anyInt(),
+                                         eq(SyncFolderItemsScope.NormalItems),
+                                         isNull())).thenReturn(changes);
+    exchangeSyncService.synchronize(1, exchangeService);
+    assertEquals("syncState1", cachedCalendars.get(1L).getSyncState());
+
+    // When
+    exchangeSyncService.resetSynchronization(1);
+
+    // Then
+    assertFalse(cachedCalendars.containsKey(1L));
+    verify(exchangeConnectorStorage).deleteExchangeSyncData(1);
+  }
+
+  private ItemChange newItemChange(ChangeType changeType, Item item) {
+    ItemChange itemChange = new ItemChange();
+    itemChange.setChangeType(changeType);
+    itemChange.setServiceObject(item);
+    return itemChange;
+  }
+
+  private Item mockExchangeEventItem(String remoteId, String summary, long startTime, long endTime) throws Exception {
+    Map<PropertyDefinition, Object> properties = new HashMap<>();
+    properties.put(AppointmentSchema.Start, new Date(startTime));
+    properties.put(AppointmentSchema.End, new Date(endTime));
+    PropertyBag propertyBag = mock(PropertyBag.class);
+    when(propertyBag.getProperties()).thenReturn(properties);
+    Item exchangeEventItem = mock(Item.class);
+    when(exchangeEventItem.getPropertyBag()).thenReturn(propertyBag);
+    when(exchangeEventItem.getId()).thenReturn(new ItemId(remoteId));
+    when(exchangeEventItem.getSubject()).thenReturn(summary);
+    return exchangeEventItem;
+  }
+}
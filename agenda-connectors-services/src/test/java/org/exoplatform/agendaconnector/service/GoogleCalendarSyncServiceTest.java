@@ -0,0 +1,387 @@
+package org.exoplatform.agendaconnector.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.exoplatform.agendaconnector.model.GoogleCalendarEvent;
+import org.exoplatform.agendaconnector.storage.GoogleConnectorStorage;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+
+public class GoogleCalendarSyncServiceTest {
+
+  private static final ZonedDateTime      TODAY = ZonedDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS);
+
+  private GoogleConnectorService          googleConnectorService;
+
+  private GoogleClientProvider            googleClientProvider;
+
+  private FakeGoogleCalendarTransport     transport;
+
+  private Map<String, GoogleCalendarSync> cachedCalendars;
+
+  private Map<String, GoogleCalendarSync> storedCalendars;
+
+  private CacheService                    cacheService;
+
+  private GoogleConnectorStorage          googleConnectorStorage;
+
+  private GoogleCalendarSyncService       googleCalendarSyncService;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Exception {
+    googleConnectorService = mock(GoogleConnectorService.class);
+    when(googleConnectorService.getValidTokenResponse("user")).thenReturn("{\"access_token\":\"accessToken\"}");
+    transport = new FakeGoogleCalendarTransport();
+    googleClientProvider = mock(GoogleClientProvider.class);
+    when(googleClientProvider.getTransport()).thenReturn(transport);
+
+    cachedCalendars = Collections.synchronizedMap(new HashMap<>());
+    ExoCache<String, GoogleCalendarSync> googleCalendarCache = mock(ExoCache.class);
+    when(googleCalendarCache.get(anyString())).thenAnswer(invocation -> cachedCalendars.get(invocation.getArgument(0)));
+    doAnswer(invocation -> cachedCalendars.put(invocation.getArgument(0),
+                                               invocation.getArgument(1))).when(googleCalendarCache).put(anyString(), any());
+    doAnswer(invocation -> cachedCalendars.put(invocation.getArgument(0),
+                                               invocation.getArgument(1))).when(googleCalendarCache).putLocal(anyString(), any());
+    when(googleCalendarCache.remove(anyString())).thenAnswer(invocation -> cachedCalendars.remove(invocation.getArgument(0)));
+    cacheService = mock(CacheService.class);
+    when(cacheService.getCacheInstance(GoogleCalendarSyncService.GOOGLE_CALENDAR_CACHE_NAME)).thenAnswer(invocation -> googleCalendarCache);
+
+    storedCalendars = Collections.synchronizedMap(new HashMap<>());
+    googleConnectorStorage = mock(GoogleConnectorStorage.class);
+    when(googleConnectorStorage.getGoogleCalendarSync(anyString())).thenAnswer(invocation -> storedCalendars.get(invocation.getArgument(0)));
+    doAnswer(invocation -> storedCalendars.put(invocation.getArgument(0),
+                                               invocation.getArgument(1))).when(googleConnectorStorage)
+                                                                          .saveGoogleCalendarSync(anyString(), any());
+    doAnswer(invocation -> storedCalendars.remove(invocation.getArgument(0))).when(googleConnectorStorage)
+                                                                             .deleteGoogleCalendarSync(anyString());
+
+    googleCalendarSyncService = newGoogleCalendarSyncService(new InitParams());
+  }
+
+  @After
+  public void tearDown() {
+    googleCalendarSyncService.stop();
+  }
+
+  @Test
+  public void testIncrementalSynchronization() throws Exception {
+    transport.addListResponse(200,
+                              eventsPage(null,
+                                         timedEvent("event1", "Meeting", TODAY.plusHours(10), TODAY.plusHours(11)),
+                                         allDayEvent("event2", "Holiday", TODAY.toLocalDate(), TODAY.toLocalDate().plusDays(2))));
+    transport.addSyncResponse(200,
+                              eventsPage("\"nextSyncToken\":\"syncToken1\"",
+                                         timedEvent("event1", "Meeting", TODAY.plusHours(10), TODAY.plusHours(11)),
+                                         allDayEvent("event2", "Holiday", TODAY.toLocalDate(), TODAY.toLocalDate().plusDays(2))));
+
+    // The first request is answered by google directly while the whole
+    // calendar is synchronized in background
+    List<GoogleCalendarEvent> events = googleCalendarSyncService.getEvents("user", TODAY, TODAY.plusDays(7));
+    assertEquals(2, events.size());
+    assertEquals("event2", events.get(0).getId());
+    assertTrue(events.get(0).isAllDay());
+    assertEquals(TODAY.toLocalDate().toString(), events.get(0).getStart());
+    assertEquals(TODAY.toLocalDate().plusDays(1).toString(), events.get(0).getEnd());
+    assertEquals("event1", events.get(1).getId());
+    assertFalse(events.get(1).isAllDay());
+    assertEquals(2, waitForSynchronization("syncToken1").getEvents().size());
+    String fullSyncUrl = transport.getSyncUrls().get(0);
+    assertTrue(fullSyncUrl.contains("singleEvents=true"));
+    assertTrue(fullSyncUrl.contains("timeMin="));
+    assertTrue(fullSyncUrl.contains("timeMax="));
+    assertFalse(fullSyncUrl.contains("syncToken="));
+
+    transport.addSyncResponse(200,
+                              eventsPage("\"nextSyncToken\":\"syncToken2\"",
+                                         "{\"id\":\"event1\",\"status\":\"cancelled\"}",
+                                         timedEvent("event3", "Review", TODAY.plusDays(1).plusHours(9), TODAY.plusDays(1).plusHours(10))));
+
+    events = googleCalendarSyncService.getEvents("user", TODAY, TODAY.plusDays(7));
+    assertEquals(2, events.size());
+    assertEquals("event2", events.get(0).getId());
+    assertEquals("event3", events.get(1).getId());
+    String incrementalSyncUrl = transport.getSyncUrls().get(1);
+    assertTrue(incrementalSyncUrl.contains("syncToken=syncToken1"));
+    assertFalse(incrementalSyncUrl.contains("timeMin="));
+    assertEquals("syncToken2", cachedCalendars.get("user").getSyncToken());
+    assertEquals("syncToken2", storedCalendars.get("user").getSyncToken());
+    assertEquals(1, transport.getListUrls().size());
+
+    // Only events overlapping the window are served
+    transport.addSyncResponse(200, eventsPage("\"nextSyncToken\":\"syncToken2\""));
+    events = googleCalendarSyncService.getEvents("user", TODAY.plusDays(1).plusHours(9), TODAY.plusDays(1).plusHours(10));
+    assertEquals(2, events.size());
+    transport.addSyncResponse(200, eventsPage("\"nextSyncToken\":\"syncToken2\""));
+    events = googleCalendarSyncService.getEvents("user", TODAY.plusDays(2), TODAY.plusDays(3));
+    assertTrue(events.isEmpty());
+  }
+
+  @Test
+  public void testExpiredSyncToken() throws Exception {
+    synchronizeCalendar("syncToken1", timedEvent("event1", "Meeting", TODAY.plusHours(10), TODAY.plusHours(11)));
+
+    transport.addSyncResponse(410, "{\"error\":{\"code\":410,\"message\":\"Sync token is no longer valid\"}}");
+    transport.addListResponse(200, eventsPage(null, timedEvent("event2", "Other meeting", TODAY.plusHours(12), TODAY.plusHours(13))));
+    transport.addSyncResponse(200,
+                              eventsPage("\"nextSyncToken\":\"syncToken2\"",
+                                         timedEvent("event2", "Other meeting", TODAY.plusHours(12), TODAY.plusHours(13))));
+    List<GoogleCalendarEvent> events = googleCalendarSyncService.getEvents("user", TODAY, TODAY.plusDays(1));
+    assertEquals(1, events.size());
+    assertEquals("event2", events.get(0).getId());
+    assertEquals(1, waitForSynchronization("syncToken2").getEvents().size());
+    assertFalse(transport.getSyncUrls().get(2).contains("syncToken="));
+  }
+
+  @Test
+  public void testPagedSynchronization() throws Exception {
+    transport.addListResponse(200, eventsPage(null));
+    transport.addSyncResponse(200,
+                              eventsPage("\"nextPageToken\":\"page2\"",
+                                         timedEvent("event1", "Meeting", TODAY.plusHours(10), TODAY.plusHours(11))));
+    transport.addSyncResponse(200,
+                              eventsPage("\"nextSyncToken\":\"syncToken1\"",
+                                         timedEvent("event2", "Other meeting", TODAY.plusHours(12), TODAY.plusHours(13))));
+
+    googleCalendarSyncService.getEvents("user", TODAY, TODAY.plusDays(1));
+    assertEquals(2, waitForSynchronization("syncToken1").getEvents().size());
+    assertTrue(transport.getSyncUrls().get(1).contains("pageToken=page2"));
+  }
+
+  @Test
+  public void testSynchronizeElapsedPeriodInBackground() throws Exception {
+    HashMap<String, GoogleCalendarEvent> storedEvents = new HashMap<>();
+    storedEvents.put("oldEvent", new GoogleCalendarEvent("oldEvent", null, "Old meeting", "2020-01-01", "2020-01-01", true));
+    long now = System.currentTimeMillis();
+    storedCalendars.put("user",
+                        new GoogleCalendarSync("syncToken1",
+                                               now - TimeUnit.DAYS.toMillis(365),
+                                               now + TimeUnit.DAYS.toMillis(10),
+                                               now,
+                                               storedEvents));
+    transport.addListResponse(200, eventsPage(null, timedEvent("event1", "Meeting", TODAY.plusHours(10), TODAY.plusHours(11))));
+    transport.addSyncResponse(200,
+                              eventsPage("\"nextSyncToken\":\"syncToken2\"",
+                                         timedEvent("event1", "Meeting", TODAY.plusHours(10), TODAY.plusHours(11))));
+
+    List<GoogleCalendarEvent> events = googleCalendarSyncService.getEvents("user", TODAY, TODAY.plusDays(1));
+    assertEquals(1, events.size());
+    assertEquals("event1", events.get(0).getId());
+    GoogleCalendarSync googleCalendarSync = waitForSynchronization("syncToken2");
+    assertFalse(googleCalendarSync.getEvents().containsKey("oldEvent"));
+    assertTrue(googleCalendarSync.getEndTime() > now + TimeUnit.DAYS.toMillis(300));
+    assertFalse(transport.getSyncUrls().get(0).contains("syncToken="));
+  }
+
+  @Test
+  public void testWindowBeforeSynchronizedPeriod() throws Exception {
+    synchronizeCalendar("syncToken1");
+
+    ZonedDateTime oldWindowStart = TODAY.minusYears(3);
+    transport.addSyncResponse(200, eventsPage("\"nextSyncToken\":\"syncToken1\""));
+    transport.addListResponse(200,
+                              eventsPage(null, timedEvent("oldEvent", "Old meeting", oldWindowStart.plusHours(10), oldWindowStart.plusHours(11))));
+    List<GoogleCalendarEvent> events = googleCalendarSyncService.getEvents("user", oldWindowStart, oldWindowStart.plusDays(7));
+    assertEquals(1, events.size());
+    assertEquals("oldEvent", events.get(0).getId());
+    String listUrl = transport.getListUrls().get(1);
+    assertTrue(listUrl.contains("timeMin="));
+    assertTrue(listUrl.contains("timeMax="));
+  }
+
+  @Test
+  public void testSynchronizationFromStoredCalendar() throws Exception {
+    synchronizeCalendar("syncToken1", timedEvent("event1", "Meeting", TODAY.plusHours(10), TODAY.plusHours(11)));
+
+    // Cached copy invalidated by another cluster node
+    cachedCalendars.clear();
+    transport.addSyncResponse(200, eventsPage("\"nextSyncToken\":\"syncToken1\""));
+    List<GoogleCalendarEvent> events = googleCalendarSyncService.getEvents("user", TODAY, TODAY.plusDays(1));
+    assertEquals(1, events.size());
+    assertEquals("event1", events.get(0).getId());
+    assertTrue(transport.getSyncUrls().get(1).contains("syncToken=syncToken1"));
+    assertTrue(cachedCalendars.containsKey("user"));
+  }
+
+  @Test
+  public void testWindowAfterSynchronizedPeriod() throws Exception {
+    synchronizeCalendar("syncToken1");
+
+    ZonedDateTime farWindowStart = TODAY.plusYears(2);
+    transport.addSyncResponse(200, eventsPage("\"nextSyncToken\":\"syncToken1\""));
+    transport.addListResponse(200,
+                              eventsPage(null, timedEvent("farEvent", "Far meeting", farWindowStart.plusHours(10), farWindowStart.plusHours(11))));
+    List<GoogleCalendarEvent> events = googleCalendarSyncService.getEvents("user", farWindowStart, farWindowStart.plusDays(7));
+    assertEquals(1, events.size());
+    assertEquals("farEvent", events.get(0).getId());
+    assertFalse(transport.getListUrls().get(1).contains("syncToken="));
+  }
+
+  @Test
+  public void testDontStoreTooBigSynchronizedCalendar() throws Exception {
+    googleCalendarSyncService.stop();
+    InitParams initParams = new InitParams();
+    ValueParam maxStoredEventsParam = new ValueParam();
+    maxStoredEventsParam.setName(GoogleCalendarSyncService.MAX_STORED_EVENTS_PARAM);
+    maxStoredEventsParam.setValue("1");
+    initParams.addParameter(maxStoredEventsParam);
+    googleCalendarSyncService = newGoogleCalendarSyncService(initParams);
+
+    synchronizeCalendar("syncToken1",
+                        timedEvent("event1", "Meeting", TODAY.plusHours(10), TODAY.plusHours(11)),
+                        timedEvent("event2", "Other meeting", TODAY.plusHours(12), TODAY.plusHours(13)));
+    assertEquals(2, cachedCalendars.get("user").getEvents().size());
+    assertNull(storedCalendars.get("user"));
+  }
+
+  @Test
+  public void testUnauthorized() throws Exception {
+    transport.addListResponse(401, "{\"error\":{\"code\":401}}");
+    transport.addSyncResponse(401, "{\"error\":{\"code\":401}}");
+    assertThrows(IllegalAccessException.class, () -> googleCalendarSyncService.getEvents("user", TODAY, TODAY.plusDays(1)));
+
+    when(googleConnectorService.getValidTokenResponse("user")).thenReturn(null);
+    assertThrows(IllegalAccessException.class, () -> googleCalendarSyncService.getEvents("user", TODAY, TODAY.plusDays(1)));
+  }
+
+  @Test
+  public void testResetSynchronization() throws Exception {
+    synchronizeCalendar("syncToken1");
+    assertTrue(cachedCalendars.containsKey("user"));
+
+    googleCalendarSyncService.resetSynchronization("user");
+    assertFalse(cachedCalendars.containsKey("user"));
+    assertFalse(storedCalendars.containsKey("user"));
+  }
+
+  private GoogleCalendarSyncService newGoogleCalendarSyncService(InitParams initParams) {
+    ValueParam syncIntervalParam = new ValueParam();
+    syncIntervalParam.setName(GoogleCalendarSyncService.SYNC_INTERVAL_PARAM);
+    syncIntervalParam.setValue("0");
+    initParams.addParameter(syncIntervalParam);
+    GoogleCalendarSyncService calendarSyncService = new GoogleCalendarSyncService(googleConnectorService,
+                                                                                  googleClientProvider,
+                                                                                  new ConnectorMetrics(),
+                                                                                  googleConnectorStorage,
+                                                                                  cacheService,
+                                                                                  initParams);
+    calendarSyncService.start();
+    return calendarSyncService;
+  }
+
+  /**
+   * Requests the events of the user once, so that the whole calendar is
+   * synchronized in background with the given events
+   */
+  private void synchronizeCalendar(String syncToken, String... items) throws Exception {
+    transport.addListResponse(200, eventsPage(null, items));
+    transport.addSyncResponse(200, eventsPage("\"nextSyncToken\":\"" + syncToken + "\"", items));
+    googleCalendarSyncService.getEvents("user", TODAY, TODAY.plusDays(1));
+    waitForSynchronization(syncToken);
+  }
+
+  private GoogleCalendarSync waitForSynchronization(String syncToken) throws InterruptedException {
+    for (int i = 0; i < 100; i++) {
+      // Cached once stored
+      GoogleCalendarSync googleCalendarSync = cachedCalendars.get("user");
+      if (googleCalendarSync != null && syncToken.equals(googleCalendarSync.getSyncToken())) {
+        return googleCalendarSync;
+      }
+      Thread.sleep(50);
+    }
+    throw new AssertionError("Google calendar wasn't synchronized with sync token " + syncToken);
+  }
+
+  private String eventsPage(String token, String... items) {
+    return "{" + (token == null ? "" : token + ",") + "\"items\":[" + String.join(",", items) + "]}";
+  }
+
+  private String timedEvent(String id, String summary, ZonedDateTime start, ZonedDateTime end) {
+    return "{\"id\":\"" + id + "\",\"status\":\"confirmed\",\"summary\":\"" + summary + "\",\"start\":{\"dateTime\":\""
+        + start.toOffsetDateTime() + "\"},\"end\":{\"dateTime\":\"" + end.toOffsetDateTime() + "\"}}";
+  }
+
+  private String allDayEvent(String id, String summary, LocalDate start, LocalDate end) {
+    return "{\"id\":\"" + id + "\",\"status\":\"confirmed\",\"summary\":\"" + summary + "\",\"start\":{\"date\":\"" + start
+        + "\"},\"end\":{\"date\":\"" + end + "\"}}";
+  }
+
+  private static class FakeGoogleCalendarTransport extends MockHttpTransport {
+
+    private final Queue<MockLowLevelHttpResponse> syncResponses = new LinkedList<>();
+
+    private final Queue<MockLowLevelHttpResponse> listResponses = new LinkedList<>();
+
+    private final List<String>                    syncUrls      = new ArrayList<>();
+
+    private final List<String>                    listUrls      = new ArrayList<>();
+
+    private synchronized void addSyncResponse(int statusCode, String content) {
+      syncResponses.add(newResponse(statusCode, content));
+    }
+
+    private synchronized void addListResponse(int statusCode, String content) {
+      listResponses.add(newResponse(statusCode, content));
+    }
+
+    private synchronized List<String> getSyncUrls() {
+      return new ArrayList<>(syncUrls);
+    }
+
+    private synchronized List<String> getListUrls() {
+      return new ArrayList<>(listUrls);
+    }
+
+    @Override
+    public synchronized LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+      // Full synchronizations run in background, concurrently to the listing
+      // of the requested window
+      boolean sync = url.contains("syncToken=") || Thread.currentThread().getName().startsWith("GoogleCalendarFullSync");
+      (sync ? syncUrls : listUrls).add(url);
+      MockLowLevelHttpResponse response = sync ? syncResponses.poll() : listResponses.poll();
+      if (response == null) {
+        throw new IOException("Unexpected request " + url);
+      }
+      return new MockLowLevelHttpRequest(url).setResponse(response);
+    }
+
+    private MockLowLevelHttpResponse newResponse(int statusCode, String content) {
+      return new MockLowLevelHttpResponse().setStatusCode(statusCode).setContentType(Json.MEDIA_TYPE).setContent(content);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package org.exoplatform.agendaconnector.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.exoplatform.agenda.model.RemoteProvider;
+import org.exoplatform.agenda.service.AgendaRemoteEventService;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+
+import com.google.api.client.auth.oauth2.ClientParametersAuthentication;
+import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
+
+public class GoogleClientProviderTest {
+
+  private static final String      SCOPES = "https://www.googleapis.com/auth/calendar";
+
+  private AgendaRemoteEventService agendaRemoteEventService;
+
+  @Before
+  public void setUp() {
+    agendaRemoteEventService = mock(AgendaRemoteEventService.class);
+  }
+
+  @Test
+  public void testGetGoogleRemoteProviderIsCached() {
+    RemoteProvider remoteProvider = newRemoteProvider("apiKey", "secretKey");
+    when(agendaRemoteEventService.getRemoteProviders()).thenReturn(Collections.singletonList(remoteProvider));
+    GoogleClientProvider googleClientProvider = new GoogleClientProvider(agendaRemoteEventService, newInitParams("60"));
+
+    assertEquals(Optional.of(remoteProvider), googleClientProvider.getGoogleRemoteProvider());
+    assertEquals(Optional.of(remoteProvider), googleClientProvider.getGoogleRemoteProvider());
+    verify(agendaRemoteEventService, times(1)).getRemoteProviders();
+  }
+
+  @Test
+  public void testGetGoogleRemoteProviderNotFound() {
+    RemoteProvider exchangeProvider = mock(RemoteProvider.class);
+    when(exchangeProvider.getName()).thenReturn("agenda.exchangeCalendar");
+    when(agendaRemoteEventService.getRemoteProviders()).thenReturn(Collections.singletonList(exchangeProvider));
+    GoogleClientProvider googleClientProvider = new GoogleClientProvider(agendaRemoteEventService, null);
+
+    assertFalse(googleClientProvider.getGoogleRemoteProvider().isPresent());
+  }
+
+  @Test
+  public void testAuthorizationCodeFlowIsShared() {
+    RemoteProvider remoteProvider = newRemoteProvider("apiKey", "secretKey");
+    GoogleClientProvider googleClientProvider = new GoogleClientProvider(agendaRemoteEventService, null);
+
+    GoogleAuthorizationCodeFlow authorizationCodeFlow = googleClientProvider.getAuthorizationCodeFlow(remoteProvider, SCOPES);
+    assertSame(authorizationCodeFlow, googleClientProvider.getAuthorizationCodeFlow(remoteProvider, SCOPES));
+    assertEquals("offline", authorizationCodeFlow.newAuthorizationUrl().get("access_type"));
+    assertSame(googleClientProvider.getTransport(), authorizationCodeFlow.getTransport());
+    assertSame(googleClientProvider.getJsonFactory(), authorizationCodeFlow.getJsonFactory());
+    assertNotSame(authorizationCodeFlow, googleClientProvider.getAuthorizationCodeFlow(remoteProvider, "openid"));
+  }
+
+  @Test
+  public void testAuthorizationCodeFlowRebuiltWhenKeysChange() {
+    RemoteProvider remoteProvider = newRemoteProvider("apiKey", "secretKey");
+    RemoteProvider updatedRemoteProvider = newRemoteProvider("apiKey", "newSecretKey");
+    when(agendaRemoteEventService.getRemoteProviders()).thenReturn(Collections.singletonList(remoteProvider),
+                                                                   Collections.singletonList(updatedRemoteProvider));
+    GoogleClientProvider googleClientProvider = new GoogleClientProvider(agendaRemoteEventService, newInitParams("0"));
+
+    RemoteProvider loadedProvider = googleClientProvider.getGoogleRemoteProvider().orElseThrow();
+    GoogleAuthorizationCodeFlow authorizationCodeFlow = googleClientProvider.getAuthorizationCodeFlow(loadedProvider, SCOPES);
+
+    RemoteProvider reloadedProvider = googleClientProvider.getGoogleRemoteProvider().orElseThrow();
+    assertSame(updatedRemoteProvider, reloadedProvider);
+    GoogleAuthorizationCodeFlow rebuiltAuthorizationCodeFlow = googleClientProvider.getAuthorizationCodeFlow(reloadedProvider,
+                                                                                                             SCOPES);
+    assertNotSame(authorizationCodeFlow, rebuiltAuthorizationCodeFlow);
+    assertEquals("newSecretKey",
+                 ((ClientParametersAuthentication) rebuiltAuthorizationCodeFlow.getClientAuthentication()).getClientSecret());
+    assertSame(googleClientProvider.getTransport(), rebuiltAuthorizationCodeFlow.getTransport());
+  }
+
+  private RemoteProvider newRemoteProvider(String apiKey, String secretKey) {
+    RemoteProvider remoteProvider = mock(RemoteProvider.class);
+    when(remoteProvider.getName()).thenReturn(GoogleClientProvider.GOOGLE_REMOTE_PROVIDER_NAME);
+    when(remoteProvider.getApiKey()).thenReturn(apiKey);
+    when(remoteProvider.getSecretKey()).thenReturn(secretKey);
+    return remoteProvider;
+  }
+
+  private InitParams newInitParams(String providerRefreshPeriod) {
+    InitParams initParams = new InitParams();
+    ValueParam valueParam = new ValueParam();
+    valueParam.setName(GoogleClientProvider.PROVIDER_REFRESH_PERIOD_PARAM);
+    valueParam.setValue(providerRefreshPeriod);
+    initParams.addParameter(valueParam);
+    return initParams;
+  }
+}
@@ -16,13 +16,34 @@
  */
 package org.exoplatform.agendaconnector.service;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.exoplatform.agenda.model.RemoteProvider;
 import org.exoplatform.commons.api.settings.SettingService;
 import org.exoplatform.commons.api.settings.SettingValue;
 import org.exoplatform.commons.api.settings.data.Context;
 import org.exoplatform.commons.api.settings.data.Scope;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.api.client.googleapis.auth.oauth2.GoogleRefreshTokenRequest;
+import com.google.api.client.googleapis.auth.oauth2.GoogleTokenResponse;
+import com.google.api.client.json.gson.GsonFactory;
+
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
@@ -30,8 +51,12 @@ public class GoogleConnectorServiceImplTest {
 
   private SettingService         settingService;
 
+  private GoogleClientProvider   googleClientProvider;
+
   private GoogleConnectorService googleConnectorService;
 
+  private Map<String, Object>    cachedTokens;
+
   private static final Scope     APP_SCOPE                     = Scope.APPLICATION.id("gConnectorRefreshToken");
 
   private static final String    G_CONNECTOR_REFRESH_TOKEN_KEY = "gConnectorRefreshTokenKey";
@@ -39,7 +64,22 @@ public class GoogleConnectorServiceImplTest {
   @Before
   public void setUp() throws Exception {
     settingService = mock(SettingService.class);
-    googleConnectorService = new GoogleConnectorServiceImpl(settingService);
+    googleClientProvider = mock(GoogleClientProvider.class);
+    cachedTokens = new HashMap<>();
+    ExoCache<String, Object> tokensCache = mock(ExoCache.class);
+    when(tokensCache.get(anyString())).thenAnswer(invocation -> cachedTokens.get(invocation.getArgument(0)));
+    doAnswer(invocation -> cachedTokens.put(invocation.getArgument(0), invocation.getArgument(1))).when(tokensCache)
+                                                                                                  .put(anyString(), any());
+    doAnswer(invocation -> cachedTokens.put(invocation.getArgument(0), invocation.getArgument(1))).when(tokensCache)
+                                                                                                  .putLocal(anyString(), any());
+    when(tokensCache.remove(anyString())).thenAnswer(invocation -> cachedTokens.remove(invocation.getArgument(0)));
+    CacheService cacheService = mock(CacheService.class);
+    when(cacheService.getCacheInstance(GoogleConnectorServiceImpl.GOOGLE_TOKENS_CACHE_NAME)).thenAnswer(invocation -> tokensCache);
+    googleConnectorService = new GoogleConnectorServiceImpl(settingService,
+                                                            googleClientProvider,
+                                                            new ConnectorMetrics(),
+                                                            cacheService,
+                                                            null);
   }
 
   @Test
@@ -71,4 +111,95 @@ public class GoogleConnectorServiceImplTest {
     googleConnectorService.removeTokenResponse("user");
     verify(settingService, times(1)).remove(any(Context.class), any(Scope.class), anyString());
   }
+
+  @Test
+  public void getValidTokenResponseFromCache() throws Exception {
+    googleConnectorService.saveTokenResponse("user", "{\"access_token\":\"accessToken\",\"expires_in\":3599,\"refresh_token\":\"refreshToken\"}");
+
+    JSONObject tokenResponse = (JSONObject) new JSONParser().parse(googleConnectorService.getValidTokenResponse("user"));
+    assertEquals("accessToken", tokenResponse.get("access_token"));
+    assertEquals("refreshToken", tokenResponse.get("refresh_token"));
+    assertTrue((Long) tokenResponse.get("expires_in") > 3500);
+    verify(googleClientProvider, never()).newRefreshTokenRequest(any(), anyString());
+    verify(settingService, never()).get(any(Context.class), any(Scope.class), anyString());
+  }
+
+  @Test
+  public void getValidTokenResponseWithoutStoredToken() throws Exception {
+    assertNull(googleConnectorService.getValidTokenResponse("user"));
+    verify(googleClientProvider, never()).newRefreshTokenRequest(any(), anyString());
+  }
+
+  @Test
+  public void getValidTokenResponseRefreshedOnce() throws Exception {
+    // Stored token without expiry, as saved before tokens were cached
+    doReturn(SettingValue.create("{\"access_token\":\"expiredToken\",\"refresh_token\":\"refreshToken\"}")).when(settingService)
+                                                                                                   .get(any(Context.class),
+                                                                                                        any(Scope.class),
+                                                                                                        eq(G_CONNECTOR_REFRESH_TOKEN_KEY));
+    RemoteProvider remoteProvider = mock(RemoteProvider.class);
+    when(googleClientProvider.getGoogleRemoteProvider()).thenReturn(Optional.of(remoteProvider));
+    GoogleRefreshTokenRequest refreshTokenRequest = mock(GoogleRefreshTokenRequest.class);
+    when(googleClientProvider.newRefreshTokenRequest(remoteProvider, "refreshToken")).thenReturn(refreshTokenRequest);
+    CountDownLatch refreshStarted = new CountDownLatch(1);
+    CountDownLatch refreshReleased = new CountDownLatch(1);
+    when(refreshTokenRequest.execute()).thenAnswer(invocation -> {
+      refreshStarted.countDown();
+      refreshReleased.await(10, TimeUnit.SECONDS);
+      GoogleTokenResponse tokenResponse = new GoogleTokenResponse().setAccessToken("accessToken").setExpiresInSeconds(3599L);
+      tokenResponse.setFactory(new GsonFactory());
+      return tokenResponse;
+    });
+
+    ExecutorService executorService = Executors.newFixedThreadPool(5);
+    try {
+      List<Future<String>> tokenResponses = new ArrayList<>();
+      for (int i = 0; i < 5; i++) {
+        tokenResponses.add(executorService.submit(() -> googleConnectorService.getValidTokenResponse("user")));
+      }
+      assertTrue(refreshStarted.await(10, TimeUnit.SECONDS));
+      Thread.sleep(200);
+      refreshReleased.countDown();
+      for (Future<String> tokenResponse : tokenResponses) {
+        JSONObject token = (JSONObject) new JSONParser().parse(tokenResponse.get(10, TimeUnit.SECONDS));
+        assertEquals("accessToken", token.get("access_token"));
+        assertEquals("refreshToken", token.get("refresh_token"));
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+    verify(refreshTokenRequest, times(1)).execute();
+    verify(settingService, times(1)).set(any(Context.class), any(Scope.class), anyString(), any());
+
+    googleConnectorService.getValidTokenResponse("user");
+    verify(refreshTokenRequest, times(1)).execute();
+  }
+
+  @Test
+  public void getValidTokenResponseRefreshError() throws Exception {
+    googleConnectorService.saveTokenResponse("user", "{\"access_token\":\"accessToken\",\"expires_in\":60,\"refresh_token\":\"refreshToken\"}");
+    doReturn(SettingValue.create("{\"access_token\":\"accessToken\",\"refresh_token\":\"refreshToken\"}")).when(settingService)
+                                                                                                  .get(any(Context.class),
+                                                                                                       any(Scope.class),
+                                                                                                       eq(G_CONNECTOR_REFRESH_TOKEN_KEY));
+    RemoteProvider remoteProvider = mock(RemoteProvider.class);
+    when(googleClientProvider.getGoogleRemoteProvider()).thenReturn(Optional.of(remoteProvider));
+    GoogleRefreshTokenRequest refreshTokenRequest = mock(GoogleRefreshTokenRequest.class);
+    when(googleClientProvider.newRefreshTokenRequest(remoteProvider, "refreshToken")).thenReturn(refreshTokenRequest);
+    when(refreshTokenRequest.execute()).thenThrow(new IOException("invalid_grant"));
+
+    assertThrows(IllegalAccessException.class, () -> googleConnectorService.getValidTokenResponse("user"));
+  }
+
+  @Test
+  public void getValidTokenResponseRemovedOnAnotherNode() throws Exception {
+    googleConnectorService.saveTokenResponse("user", "{\"access_token\":\"accessToken\",\"expires_in\":60,\"refresh_token\":\"refreshToken\"}");
+
+    // The stored token was removed on another node while the cached token is
+    // about to expire
+    assertNull(googleConnectorService.getValidTokenResponse("user"));
+    assertFalse(cachedTokens.containsKey("user"));
+    verify(googleClientProvider, never()).newRefreshTokenRequest(any(), anyString());
+    verify(settingService, times(1)).set(any(Context.class), any(Scope.class), anyString(), any());
+  }
 }
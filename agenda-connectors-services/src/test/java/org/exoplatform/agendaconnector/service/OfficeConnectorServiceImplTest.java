@@ -0,0 +1,330 @@
+package org.exoplatform.agendaconnector.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.exoplatform.agendaconnector.model.OfficeSyncedEvent;
+import org.exoplatform.agendaconnector.storage.OfficeConnectorStorage;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+
+public class OfficeConnectorServiceImplTest {
+
+  private static final ZonedDateTime     TODAY          = ZonedDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS);
+
+  private static final String            DELTA_URL      = "https://graph.microsoft.com/v1.0/me/calendarView/delta";
+
+  private static final String            LIST_URL       = "https://graph.microsoft.com/v1.0/me/calendarView?";
+
+  private static final DateTimeFormatter GRAPH_DATETIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSSSSS");
+
+  private FakeGraphTransport             transport;
+
+  private Map<Long, OfficeCalendarSync>  storedCalendars;
+
+  private Map<Long, OfficeCalendarSync>  cachedCalendars;
+
+  private OfficeConnectorServiceImpl     officeConnectorService;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    transport = new FakeGraphTransport();
+    storedCalendars = Collections.synchronizedMap(new HashMap<>());
+    OfficeConnectorStorage officeConnectorStorage = mock(OfficeConnectorStorage.class);
+    when(officeConnectorStorage.getOfficeCalendarSync(anyLong())).thenAnswer(invocation -> storedCalendars.get(invocation.getArgument(0)));
+    doAnswer(invocation -> storedCalendars.put(invocation.getArgument(0),
+                                               invocation.getArgument(1))).when(officeConnectorStorage)
+                                                                          .saveOfficeCalendarSync(anyLong(), any());
+    doAnswer(invocation -> storedCalendars.remove(invocation.getArgument(0))).when(officeConnectorStorage)
+                                                                             .deleteOfficeSyncData(anyLong());
+
+    cachedCalendars = Collections.synchronizedMap(new HashMap<>());
+    ExoCache<Long, OfficeCalendarSync> officeCalendarCache = mock(ExoCache.class);
+    when(officeCalendarCache.get(anyLong())).thenAnswer(invocation -> cachedCalendars.get(invocation.getArgument(0)));
+    doAnswer(invocation -> cachedCalendars.put(invocation.getArgument(0),
+                                               invocation.getArgument(1))).when(officeCalendarCache).put(anyLong(), any());
+    doAnswer(invocation -> cachedCalendars.put(invocation.getArgument(0),
+                                               invocation.getArgument(1))).when(officeCalendarCache).putLocal(anyLong(), any());
+    when(officeCalendarCache.remove(anyLong())).thenAnswer(invocation -> cachedCalendars.remove(invocation.getArgument(0)));
+    CacheService cacheService = mock(CacheService.class);
+    when(cacheService.getCacheInstance(OfficeConnectorServiceImpl.OFFICE_CALENDAR_CACHE_NAME)).thenAnswer(invocation -> officeCalendarCache);
+
+    InitParams initParams = new InitParams();
+    ValueParam syncIntervalParam = new ValueParam();
+    syncIntervalParam.setName(OfficeConnectorServiceImpl.SYNC_INTERVAL_PARAM);
+    syncIntervalParam.setValue("0");
+    initParams.addParameter(syncIntervalParam);
+    officeConnectorService = new OfficeConnectorServiceImpl(officeConnectorStorage,
+                                                            new ConnectorMetrics(),
+                                                            cacheService,
+                                                            initParams,
+                                                            transport);
+    officeConnectorService.start();
+  }
+
+  @After
+  public void tearDown() {
+    officeConnectorService.stop();
+  }
+
+  @Test
+  public void testDeltaSynchronization() throws Exception {
+    transport.addListResponse(200, eventsPage(null, event("event1", "Meeting", TODAY.plusHours(10), TODAY.plusHours(11), false)));
+    transport.addDeltaResponse(200,
+                               eventsPage("\"@odata.nextLink\":\"" + DELTA_URL + "?$skiptoken=page2\"",
+                                          event("event1", "Meeting", TODAY.plusHours(10), TODAY.plusHours(11), false)));
+    transport.addDeltaResponse(200,
+                               eventsPage("\"@odata.deltaLink\":\"" + DELTA_URL + "?$deltatoken=delta1\"",
+                                          event("event2", "Holiday", TODAY, TODAY.plusDays(1), true)));
+
+    // The first request is answered by the calendar view while the whole
+    // calendar view is synchronized in background
+    List<OfficeSyncedEvent> events = officeConnectorService.getOfficeEvents(1, "accessToken", TODAY, TODAY.plusDays(7));
+    assertEquals(1, events.size());
+    assertEquals("event1", events.get(0).getRemoteId());
+    OfficeCalendarSync officeCalendarSync = waitForSynchronization(DELTA_URL + "?$deltatoken=delta1");
+    assertEquals(2, officeCalendarSync.getEvents().size());
+    List<String> deltaUrls = transport.getRequestedUrls(DELTA_URL);
+    assertTrue(deltaUrls.get(0).contains("startDateTime="));
+    assertTrue(deltaUrls.get(1).contains("skiptoken=page2"));
+
+    transport.addDeltaResponse(200,
+                               eventsPage("\"@odata.deltaLink\":\"" + DELTA_URL + "?$deltatoken=delta2\"",
+                                          "{\"id\":\"event1\",\"@removed\":{\"reason\":\"deleted\"}}",
+                                          event("event3", "Review", TODAY.plusDays(1).plusHours(9), TODAY.plusDays(1).plusHours(10), false)));
+
+    events = officeConnectorService.getOfficeEvents(1, "accessToken", TODAY, TODAY.plusDays(7));
+    assertEquals(2, events.size());
+    assertEquals("event2", events.get(0).getRemoteId());
+    assertTrue(events.get(0).isAllDay());
+    assertEquals(TODAY.toInstant().toString(), events.get(0).getStart());
+    assertEquals("event3", events.get(1).getRemoteId());
+    assertEquals("Review", events.get(1).getSummary());
+    assertEquals("Room", events.get(1).getLocation());
+    assertTrue(transport.getRequestedUrls(DELTA_URL).get(2).contains("deltatoken=delta1"));
+    assertEquals(DELTA_URL + "?$deltatoken=delta2", storedCalendars.get(1L).getDeltaLink());
+    assertFalse(storedCalendars.get(1L).getEvents().containsKey("event1"));
+    assertEquals(1, transport.getRequestedUrls(LIST_URL).size());
+  }
+
+  @Test
+  public void testSynchronizationFromStoredCalendar() throws Exception {
+    transport.addListResponse(200, eventsPage(null));
+    transport.addDeltaResponse(200,
+                               eventsPage("\"@odata.deltaLink\":\"" + DELTA_URL + "?$deltatoken=delta1\"",
+                                          event("event1", "Meeting", TODAY.plusHours(10), TODAY.plusHours(11), false)));
+    officeConnectorService.getOfficeEvents(1, "accessToken", TODAY, TODAY.plusDays(1));
+    waitForSynchronization(DELTA_URL + "?$deltatoken=delta1");
+
+    // Cached copy invalidated by another cluster node
+    cachedCalendars.clear();
+    transport.addDeltaResponse(200, eventsPage("\"@odata.deltaLink\":\"" + DELTA_URL + "?$deltatoken=delta1\""));
+    List<OfficeSyncedEvent> events = officeConnectorService.getOfficeEvents(1, "accessToken", TODAY, TODAY.plusDays(1));
+    assertEquals(1, events.size());
+    assertEquals("event1", events.get(0).getRemoteId());
+    assertTrue(transport.getRequestedUrls(DELTA_URL).get(1).contains("deltatoken=delta1"));
+    assertTrue(cachedCalendars.containsKey(1L));
+  }
+
+  @Test
+  public void testExpiredDeltaLink() throws Exception {
+    transport.addListResponse(200, eventsPage(null));
+    transport.addDeltaResponse(200,
+                               eventsPage("\"@odata.deltaLink\":\"" + DELTA_URL + "?$deltatoken=delta1\"",
+                                          event("event1", "Meeting", TODAY.plusHours(10), TODAY.plusHours(11), false)));
+    officeConnectorService.getOfficeEvents(1, "accessToken", TODAY, TODAY.plusDays(1));
+    waitForSynchronization(DELTA_URL + "?$deltatoken=delta1");
+
+    transport.addDeltaResponse(410, "{\"error\":{\"code\":\"SyncStateNotFound\"}}");
+    transport.addListResponse(200, eventsPage(null, event("event2", "Other meeting", TODAY.plusHours(12), TODAY.plusHours(13), false)));
+    transport.addDeltaResponse(200,
+                               eventsPage("\"@odata.deltaLink\":\"" + DELTA_URL + "?$deltatoken=delta2\"",
+                                          event("event2", "Other meeting", TODAY.plusHours(12), TODAY.plusHours(13), false)));
+    List<OfficeSyncedEvent> events = officeConnectorService.getOfficeEvents(1, "accessToken", TODAY, TODAY.plusDays(1));
+    assertEquals(1, events.size());
+    assertEquals("event2", events.get(0).getRemoteId());
+    OfficeCalendarSync officeCalendarSync = waitForSynchronization(DELTA_URL + "?$deltatoken=delta2");
+    assertEquals(1, officeCalendarSync.getEvents().size());
+    assertTrue(transport.getRequestedUrls(DELTA_URL).get(2).contains("startDateTime="));
+  }
+
+  @Test
+  public void testWindowOutsideSynchronizedPeriod() throws Exception {
+    transport.addListResponse(200, eventsPage(null));
+    transport.addDeltaResponse(200, eventsPage("\"@odata.deltaLink\":\"" + DELTA_URL + "?$deltatoken=delta1\""));
+    officeConnectorService.getOfficeEvents(1, "accessToken", TODAY, TODAY.plusDays(1));
+    waitForSynchronization(DELTA_URL + "?$deltatoken=delta1");
+
+    ZonedDateTime oldWindowStart = TODAY.minusYears(2);
+    transport.addDeltaResponse(200, eventsPage("\"@odata.deltaLink\":\"" + DELTA_URL + "?$deltatoken=delta1\""));
+    transport.addListResponse(200,
+                              eventsPage(null,
+                                         event("oldEvent", "Old meeting", oldWindowStart.plusHours(10), oldWindowStart.plusHours(11), false)));
+    List<OfficeSyncedEvent> events = officeConnectorService.getOfficeEvents(1,
+                                                                            "accessToken",
+                                                                            oldWindowStart,
+                                                                            oldWindowStart.plusDays(7));
+    assertEquals(1, events.size());
+    assertEquals("oldEvent", events.get(0).getRemoteId());
+    assertEquals(2, transport.getRequestedUrls(LIST_URL).size());
+    assertFalse(storedCalendars.get(1L).getEvents().containsKey("oldEvent"));
+  }
+
+  @Test
+  public void testUnauthorized() {
+    transport.addListResponse(401, "{\"error\":{\"code\":\"InvalidAuthenticationToken\"}}");
+    transport.addDeltaResponse(401, "{\"error\":{\"code\":\"InvalidAuthenticationToken\"}}");
+    assertThrows(IllegalAccessException.class,
+                 () -> officeConnectorService.getOfficeEvents(1, "accessToken", TODAY, TODAY.plusDays(1)));
+    assertThrows(IllegalAccessException.class, () -> officeConnectorService.getOfficeEvents(1, null, TODAY, TODAY.plusDays(1)));
+  }
+
+  @Test
+  public void testDeleteOfficeSyncData() throws Exception {
+    transport.addListResponse(200, eventsPage(null));
+    transport.addDeltaResponse(200,
+                               eventsPage("\"@odata.deltaLink\":\"" + DELTA_URL + "?$deltatoken=delta1\"",
+                                          event("event1", "Meeting", TODAY.plusHours(10), TODAY.plusHours(11), false)));
+    officeConnectorService.getOfficeEvents(1, "accessToken", TODAY, TODAY.plusDays(1));
+    waitForSynchronization(DELTA_URL + "?$deltatoken=delta1");
+
+    officeConnectorService.deleteOfficeSyncData(1);
+    assertNull(storedCalendars.get(1L));
+    assertNull(cachedCalendars.get(1L));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testDontStoreTooBigSynchronizedCalendarView() throws Exception {
+    officeConnectorService.stop();
+    OfficeConnectorStorage officeConnectorStorage = mock(OfficeConnectorStorage.class);
+    ExoCache<Long, OfficeCalendarSync> officeCalendarCache = mock(ExoCache.class);
+    doAnswer(invocation -> cachedCalendars.put(invocation.getArgument(0),
+                                               invocation.getArgument(1))).when(officeCalendarCache).put(anyLong(), any());
+    CacheService cacheService = mock(CacheService.class);
+    when(cacheService.getCacheInstance(OfficeConnectorServiceImpl.OFFICE_CALENDAR_CACHE_NAME)).thenAnswer(invocation -> officeCalendarCache);
+    InitParams initParams = new InitParams();
+    ValueParam maxStoredEventsParam = new ValueParam();
+    maxStoredEventsParam.setName(OfficeConnectorServiceImpl.MAX_STORED_EVENTS_PARAM);
+    maxStoredEventsParam.setValue("1");
+    initParams.addParameter(maxStoredEventsParam);
+    officeConnectorService = new OfficeConnectorServiceImpl(officeConnectorStorage,
+                                                            new ConnectorMetrics(),
+                                                            cacheService,
+                                                            initParams,
+                                                            transport);
+    officeConnectorService.start();
+    transport.addListResponse(200, eventsPage(null));
+    transport.addDeltaResponse(200,
+                               eventsPage("\"@odata.deltaLink\":\"" + DELTA_URL + "?$deltatoken=delta1\"",
+                                          event("event1", "Meeting", TODAY.plusHours(10), TODAY.plusHours(11), false),
+                                          event("event2", "Holiday", TODAY, TODAY.plusDays(1), true)));
+
+    officeConnectorService.getOfficeEvents(1, "accessToken", TODAY, TODAY.plusDays(1));
+    for (int i = 0; i < 100 && !cachedCalendars.containsKey(1L); i++) {
+      Thread.sleep(50);
+    }
+    assertEquals(2, cachedCalendars.get(1L).getEvents().size());
+    verify(officeConnectorStorage, never()).saveOfficeCalendarSync(anyLong(), any());
+    verify(officeConnectorStorage).deleteOfficeSyncData(1L);
+  }
+
+  private OfficeCalendarSync waitForSynchronization(String deltaLink) throws InterruptedException {
+    for (int i = 0; i < 100; i++) {
+      OfficeCalendarSync officeCalendarSync = storedCalendars.get(1L);
+      if (officeCalendarSync != null && deltaLink.equals(officeCalendarSync.getDeltaLink())) {
+        return officeCalendarSync;
+      }
+      Thread.sleep(50);
+    }
+    throw new AssertionError("Office calendar wasn't synchronized with delta link " + deltaLink);
+  }
+
+  private String eventsPage(String link, String... items) {
+    return "{" + (link == null ? "" : link + ",") + "\"value\":[" + String.join(",", items) + "]}";
+  }
+
+  private String event(String id, String subject, ZonedDateTime start, ZonedDateTime end, boolean allDay) {
+    return "{\"id\":\"" + id + "\",\"subject\":\"" + subject + "\",\"isAllDay\":" + allDay
+        + ",\"location\":{\"displayName\":\"Room\"},\"start\":{\"dateTime\":\"" + GRAPH_DATETIME.format(start)
+        + "\",\"timeZone\":\"UTC\"},\"end\":{\"dateTime\":\"" + GRAPH_DATETIME.format(end) + "\",\"timeZone\":\"UTC\"}}";
+  }
+
+  private static class FakeGraphTransport extends MockHttpTransport {
+
+    private final Queue<MockLowLevelHttpResponse> deltaResponses = new LinkedList<>();
+
+    private final Queue<MockLowLevelHttpResponse> listResponses  = new LinkedList<>();
+
+    private final List<String>                    requestedUrls  = new ArrayList<>();
+
+    private synchronized void addDeltaResponse(int statusCode, String content) {
+      deltaResponses.add(newResponse(statusCode, content));
+    }
+
+    private synchronized void addListResponse(int statusCode, String content) {
+      listResponses.add(newResponse(statusCode, content));
+    }
+
+    private synchronized List<String> getRequestedUrls(String urlPrefix) {
+      List<String> urls = new ArrayList<>();
+      for (String url : requestedUrls) {
+        if (url.startsWith(urlPrefix)) {
+          urls.add(url);
+        }
+      }
+      return urls;
+    }
+
+    @Override
+    public synchronized LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+      requestedUrls.add(url);
+      // Delta and calendar view requests may be sent concurrently
+      MockLowLevelHttpResponse response = url.startsWith(DELTA_URL) ? deltaResponses.poll() : listResponses.poll();
+      if (response == null) {
+        throw new IOException("Unexpected request " + url);
+      }
+      return new MockLowLevelHttpRequest(url).setResponse(response);
+    }
+
+    private MockLowLevelHttpResponse newResponse(int statusCode, String content) {
+      return new MockLowLevelHttpResponse().setStatusCode(statusCode).setContentType(Json.MEDIA_TYPE).setContent(content);
+    }
+  }
+}
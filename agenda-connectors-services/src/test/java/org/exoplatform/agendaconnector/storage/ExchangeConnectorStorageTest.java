@@ -1,14 +1,20 @@
 package org.exoplatform.agendaconnector.storage;
 
+import java.util.HashMap;
+
 import org.hibernate.ObjectNotFoundException;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import org.exoplatform.agendaconnector.model.ExchangeSyncedEvent;
 import org.exoplatform.agendaconnector.model.ExchangeUserSetting;
+import org.exoplatform.agendaconnector.service.ExchangeSyncedCalendar;
+import org.exoplatform.agendaconnector.utils.ExchangeConnectorUtils;
 import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.container.PortalContainer;
 import org.exoplatform.container.component.RequestLifeCycle;
+import org.exoplatform.services.cache.CacheService;
 
 import junit.framework.TestCase;
 
@@ -41,6 +47,45 @@ public class ExchangeConnectorStorageTest extends TestCase {
     assertEquals("Root123", retrievedExchangeUserSetting.getPassword());
   }
   
+  @Test
+  public void testUpdateCachedExchangeSetting() {
+    //Given
+    long userIdentityId = 3;
+    exchangeConnectorStorage.createExchangeSetting(createExchangeSetting(), userIdentityId);
+    ExchangeUserSetting retrievedExchangeUserSetting = exchangeConnectorStorage.getExchangeSetting(userIdentityId);
+    assertEquals("Root123", retrievedExchangeUserSetting.getPassword());
+    retrievedExchangeUserSetting.setPassword("Modified");
+
+    //When
+    ExchangeUserSetting updatedExchangeUserSetting = createExchangeSetting();
+    updatedExchangeUserSetting.setPassword("Root456");
+    updatedExchangeUserSetting.setCredentialChecked(true);
+    exchangeConnectorStorage.createExchangeSetting(updatedExchangeUserSetting, userIdentityId);
+
+    //Then
+    retrievedExchangeUserSetting = exchangeConnectorStorage.getExchangeSetting(userIdentityId);
+    assertEquals("Root456", retrievedExchangeUserSetting.getPassword());
+    assertTrue(retrievedExchangeUserSetting.isCredentialChecked());
+  }
+
+  @Test
+  public void testDecodeExchangePasswordChangedOnOtherNode() {
+    //Given
+    long userIdentityId = 5;
+    exchangeConnectorStorage.createExchangeSetting(createExchangeSetting(), userIdentityId);
+    assertEquals("Root123", exchangeConnectorStorage.getExchangeSetting(userIdentityId).getPassword());
+
+    //When
+    ExchangeUserSetting replicatedExchangeUserSetting = createExchangeSetting();
+    replicatedExchangeUserSetting.setPassword(ExchangeConnectorUtils.encode("Root456"));
+    container.getComponentInstanceOfType(CacheService.class)
+             .getCacheInstance(ExchangeConnectorStorage.EXCHANGE_SETTINGS_CACHE_NAME)
+             .put(userIdentityId, replicatedExchangeUserSetting);
+
+    //Then
+    assertEquals("Root456", exchangeConnectorStorage.getExchangeSetting(userIdentityId).getPassword());
+  }
+
   @Test
   public void testDeleteExchangeSetting() {
     //Given
@@ -62,6 +107,29 @@ public class ExchangeConnectorStorageTest extends TestCase {
     assertNull(retrievedExchangeUserSetting.getPassword());
   }
   
+  @Test
+  public void testSaveExchangeSyncedCalendar() {
+    //Given
+    long userIdentityId = 4;
+    HashMap<String, ExchangeSyncedEvent> syncedEvents = new HashMap<>();
+    syncedEvents.put("remoteId", new ExchangeSyncedEvent("remoteId", "Meeting; \"weekly\"", 10, 20));
+
+    //When
+    exchangeConnectorStorage.saveExchangeSyncedCalendar(userIdentityId, new ExchangeSyncedCalendar("syncState", syncedEvents));
+
+    //Then
+    ExchangeSyncedCalendar syncedCalendar = exchangeConnectorStorage.getExchangeSyncedCalendar(userIdentityId);
+    assertNotNull(syncedCalendar);
+    assertEquals("syncState", syncedCalendar.getSyncState());
+    assertEquals(syncedEvents, syncedCalendar.getEvents());
+
+    //When
+    exchangeConnectorStorage.deleteExchangeSyncData(userIdentityId);
+
+    //Then
+    assertNull(exchangeConnectorStorage.getExchangeSyncedCalendar(userIdentityId));
+  }
+
   private ExchangeUserSetting createExchangeSetting() {
     ExchangeUserSetting createdExchangeUserSetting = new ExchangeUserSetting();
     createdExchangeUserSetting.setUsername("Root");
@@ -0,0 +1,108 @@
+package org.exoplatform.agendaconnector.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import org.exoplatform.agenda.rest.model.EventEntity;
+import org.exoplatform.agenda.util.AgendaDateUtils;
+
+import microsoft.exchange.webservices.data.core.PropertyBag;
+import microsoft.exchange.webservices.data.core.service.item.Item;
+import microsoft.exchange.webservices.data.core.service.schema.AppointmentSchema;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
+import microsoft.exchange.webservices.data.property.definition.PropertyDefinition;
+
+public class ExchangeEventMapperTest {
+
+  private static final ZoneId USER_TIME_ZONE = ZoneId.of("Europe/Paris");
+
+  @Test
+  public void testToEventEntity() throws Exception {
+    // Given
+    ZonedDateTime startDate = ZonedDateTime.of(LocalDate.now(), LocalTime.of(10, 0), ZoneId.of("UTC"));
+    ZonedDateTime endDate = startDate.plusHours(1);
+    Item exchangeEventItem = mockExchangeEventItem("remoteId", "summary", startDate, endDate);
+    ExchangeEventMapper exchangeEventMapper = new ExchangeEventMapper(USER_TIME_ZONE);
+
+    // When
+    EventEntity exchangeEvent = exchangeEventMapper.toEventEntity(exchangeEventItem);
+
+    // Then
+    assertEquals("remoteId", exchangeEvent.getRemoteId());
+    assertEquals("summary", exchangeEvent.getSummary());
+    assertEquals(AgendaDateUtils.toRFC3339Date(startDate.withZoneSameInstant(USER_TIME_ZONE)), exchangeEvent.getStart());
+    assertEquals(AgendaDateUtils.toRFC3339Date(endDate.withZoneSameInstant(USER_TIME_ZONE)), exchangeEvent.getEnd());
+  }
+
+  @Test
+  public void testToEventEntityWithoutDates() throws Exception {
+    // Given
+    Item exchangeEventItem = mockExchangeEventItem("remoteId", "summary", null, null);
+    ExchangeEventMapper exchangeEventMapper = new ExchangeEventMapper(USER_TIME_ZONE);
+
+    // When
+    EventEntity exchangeEvent = exchangeEventMapper.toEventEntity(exchangeEventItem);
+
+    // Then
+    assertNull(exchangeEvent);
+  }
+
+  @Test
+  public void testToEventEntities() throws Exception {
+    // Given
+    ZonedDateTime startDate = ZonedDateTime.of(LocalDate.now(), LocalTime.of(8, 0), ZoneId.of("UTC"));
+    List<Item> exchangeEventItems = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+      ZonedDateTime itemStartDate = startDate.plusMinutes(30L * (i / 4));
+      exchangeEventItems.add(mockExchangeEventItem("remoteId" + i, "summary" + i, itemStartDate, itemStartDate.plusHours(1)));
+    }
+    ExchangeEventMapper exchangeEventMapper = new ExchangeEventMapper(USER_TIME_ZONE);
+
+    // When
+    List<EventEntity> exchangeEvents = exchangeEventMapper.toEventEntities(exchangeEventItems);
+
+    // Then
+    assertEquals(10000, exchangeEvents.size());
+    for (int i = 0; i < exchangeEvents.size(); i++) {
+      ZonedDateTime itemStartDate = startDate.plusMinutes(30L * (i / 4)).withZoneSameInstant(USER_TIME_ZONE);
+      assertEquals("remoteId" + i, exchangeEvents.get(i).getRemoteId());
+      assertEquals(AgendaDateUtils.toRFC3339Date(itemStartDate), exchangeEvents.get(i).getStart());
+      assertEquals(AgendaDateUtils.toRFC3339Date(itemStartDate.plusHours(1)), exchangeEvents.get(i).getEnd());
+    }
+  }
+
+  private Item mockExchangeEventItem(String remoteId,
+                                     String summary,
+                                     ZonedDateTime startDate,
+                                     ZonedDateTime endDate) throws Exception {
+    Map<PropertyDefinition, Object> properties = new HashMap<>();
+    if (startDate != null) {
+      properties.put(AppointmentSchema.Start, Date.from(startDate.toInstant()));
+    }
+    if (endDate != null) {
+      properties.put(AppointmentSchema.End, Date.from(endDate.toInstant()));
+    }
+    PropertyBag propertyBag = mock(PropertyBag.class);
+    when(propertyBag.getProperties()).thenReturn(properties);
+    ItemId itemId = new ItemId(remoteId);
+    Item exchangeEventItem = mock(Item.class);
+    when(exchangeEventItem.getPropertyBag()).thenReturn(propertyBag);
+    when(exchangeEventItem.getId()).thenReturn(itemId);
+    when(exchangeEventItem.getSubject()).thenReturn(summary);
+    return exchangeEventItem;
+  }
+}
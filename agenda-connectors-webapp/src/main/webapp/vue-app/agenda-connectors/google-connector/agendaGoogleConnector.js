@@ -15,6 +15,7 @@
  * along with this program. If not, see <http://www.gnu.org/licenses/>.
  */
 import jwt_decode from 'jwt-decode';
+import { USER_TIMEZONE_ID } from '../js/agendaExchangeService.js';
 
 export default {
   name: 'agenda.googleCalendar',
@@ -243,20 +244,18 @@ export default {
  * @returns {Promise} a promise with list of Google events
  */
 function retrieveEvents(connector, periodStartDate, periodEndDate) {
-  return connector.gapi.client.calendar.events.list({
-    'calendarId': 'primary',
-    'timeMin': periodStartDate,
-    'timeMax': periodEndDate,
-    'singleEvents': true,
-    'orderBy': 'startTime'
-  }).then(events => events.result.items).then(events => {
+  return fetch(`${eXo.env.portal.context}/${eXo.env.portal.rest}/v1/gconnector/events?start=${encodeURIComponent(periodStartDate)}&end=${encodeURIComponent(periodEndDate)}&timeZoneId=${USER_TIMEZONE_ID}`, {
+    credentials: 'include',
+    method: 'GET',
+  }).then((resp) => {
+    if (!resp?.ok) {
+      throw resp;
+    } else {
+      return resp.json();
+    }
+  }).then(events => {
+    // Events are normalized on server side
     events.forEach(event => {
-      event.allDay = !!event.start.date;
-      event.start = event.start.dateTime || event.start.date;
-      // Google api returns all day event with one day added for end date.
-      const endDate = new Date(event.end.date);
-      endDate.setDate(endDate.getDate()-1);
-      event.end = event.allDay ? endDate : event.end.dateTime;
       event.name = event.summary;
       event.type = 'remoteEvent';
       event.color = '#FFFFFF';
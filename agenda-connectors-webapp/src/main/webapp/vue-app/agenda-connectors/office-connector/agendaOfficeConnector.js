@@ -14,6 +14,8 @@
  * You should have received a copy of the GNU Affero General Public License
  * along with this program. If not, see <http://www.gnu.org/licenses/>.
  */
+import { USER_TIMEZONE_ID } from '../js/agendaExchangeService.js';
+
 export default {
   name: 'agenda.officeCalendar',
   avatar: '/agenda-connectors/skin/images/office365.png',
@@ -32,7 +34,6 @@ export default {
   },
   graphConfig: {
     graphMeEndpoint: 'https://graph.microsoft.com/v1.0/me',
-    graphCalendarEventsEndpoint: 'https://graph.microsoft.com/v1.0/me/calendar/calendarView?',
     eventsEndpoint: 'https://graph.microsoft.com/v1.0/me/events'
   },
   CALENDAR_READ_SCOPE: ['Calendars.Read'],
@@ -101,10 +102,13 @@ export default {
       .finally(() => this.loadingCallback(this, false));
   },
   disconnect() {
-    return new Promise((resolve) => {
-      this.officeApi.browserStorage.removeAllAccounts();
-      resolve('disconnect from office 365 done');
-    });
+    this.officeApi.browserStorage.removeAllAccounts();
+    // Remove the office calendar synchronized on server side
+    return fetch(`${eXo.env.portal.context}/${eXo.env.portal.rest}/v1/office/sync`, {
+      credentials: 'include',
+      method: 'DELETE',
+    }).catch(error => console.error('Error while removing synchronized office calendar', error))
+      .then(() => 'disconnect from office 365 done');
   },
   getEvents(periodStartDate, periodEndDate) {
     if (this.officeApi) {
@@ -240,26 +244,25 @@ function initOfficeConnector(connector) {
  * @returns {Promise} a promise with list of MS Office events
  */
 function retrieveEvents(connector, periodStartDate, periodEndDate) {
-  const formData = new FormData();
-  formData.append('startDateTime', periodStartDate);
-  formData.append('endDateTime', periodEndDate);
-  const params = new URLSearchParams(formData).toString();
-
   return getTokenPopup(connector, connector.calendarRequest)
-    .then(tokenObject => officeApiGet(`${connector.graphConfig.graphCalendarEventsEndpoint}${params}`, tokenObject.accessToken))
-    .then(data => {
-      const events = data.value;
-      if (!events) {
-        throw new Error('Empty events list sent from server');
+    .then(tokenObject => fetch(`${eXo.env.portal.context}/${eXo.env.portal.rest}/v1/office/events?start=${encodeURIComponent(periodStartDate)}&end=${encodeURIComponent(periodEndDate)}&timeZoneId=${USER_TIMEZONE_ID}`, {
+      credentials: 'include',
+      method: 'GET',
+      headers: {
+        'X-Office-Access-Token': tokenObject.accessToken,
+      },
+    }))
+    .then(resp => {
+      if (!resp || !resp.ok) {
+        throw new Error('Server indicates an error while sending request');
+      } else {
+        return resp.json();
       }
+    })
+    .then(events => {
+      // Events are synchronized and normalized on server side
       events.forEach(event => {
-        event.allDay = !!event.isAllDay;
-        const StartDate = event.start.dateTime && new Date(`${event.start.dateTime}Z`);
-        const EndDate = event.end.dateTime && new Date(`${event.end.dateTime}Z`);
-        event.start = StartDate || event.start.date;
-        event.end = EndDate  || event.start.date;
-        event.summary = event.subject;
-        event.location = event.location.displayName;
+        event.id = event.remoteId;
         event.type = 'remoteEvent';
         event.color = '#FFFFFF';
       });